@@ -9,4 +9,6 @@ include $(addprefix $(LOCAL_PATH)/, $(addsuffix /Android.mk, \
 	libvorbis-stream \
 ))
 
+$(call import-module,android/cpufeatures)
+
 
@@ -1 +1 @@
-APP_ABI := armeabi armeabi-v7a x86 mips arm64-v8a
\ No newline at end of file
+APP_ABI := armeabi armeabi-v7a x86 mips arm64-v8a x86_64
\ No newline at end of file
@@ -0,0 +1,192 @@
+/*
+ * Checks the pcm conversion kernels of every instruction set the host has
+ * against the scalar ones and times them, see stream/pcm.h.
+ *
+ *	make -C jni/bench run
+ *
+ * Prints a line per kernel, instruction set and channel count:
+ *
+ *	kernel isa channels ns_per_sample speedup_over_scalar
+ *
+ * and exits with 1 if any kernel gives other results than the scalar one.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <stream/pcm.h>
+
+/* Samples per channel per call, as libvorbis hands them out */
+#define SAMPLES		1024
+#define MAX_CHANNELS	8
+/* Samples per channel converted by each timed run */
+#define TOTAL		(1 << 24)
+
+static float		planar[MAX_CHANNELS][SAMPLES];
+static float *		channels[MAX_CHANNELS];
+static ogg_int32_t	planarFixed[MAX_CHANNELS][SAMPLES];
+static ogg_int32_t *	channelsFixed[MAX_CHANNELS];
+static float		outPlanar[2][MAX_CHANNELS][SAMPLES];
+static float *		outChannels[2][MAX_CHANNELS];
+static ogg_int16_t	shorts[SAMPLES * MAX_CHANNELS];
+static float		floats[SAMPLES * MAX_CHANNELS];
+static ogg_int16_t	outShorts[2][SAMPLES * MAX_CHANNELS];
+static float		outFloats[2][SAMPLES * MAX_CHANNELS];
+
+static const char * names[] = {
+	"quantize", "interleave", "dequantize", "deinterleave", "quantizeFixed", "interleaveFixed"
+};
+#define KERNELS	((int) (sizeof(names) / sizeof(names[0])))
+
+static double
+now(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+/*
+ * Fills the input with noise that clips now and then, and with values that
+ * land exactly on and right next to the rounding boundaries.
+ */
+static void
+fill(void)
+{
+	int i, j;
+
+	srand(1);
+	for (i = 0; i < MAX_CHANNELS; i++) {
+		channels[i] = planar[i];
+		outChannels[0][i] = outPlanar[0][i];
+		outChannels[1][i] = outPlanar[1][i];
+		for (j = 0; j < SAMPLES; j++) {
+			switch (rand() % 8) {
+			case 0:
+				planar[i][j] = ((rand() % 65536) - 32768 + .5f) / 32767.f;
+				break;
+			case 1:
+				planar[i][j] = (rand() % 2 ? 1.f : -1.f) * (1.f + rand() / (float) RAND_MAX);
+				break;
+			default:
+				planar[i][j] = (rand() / (float) RAND_MAX) * 2.f - 1.f;
+			}
+		}
+	}
+	/* the same in 8.24, and the fixed point rounding boundaries */
+	for (i = 0; i < MAX_CHANNELS; i++) {
+		channelsFixed[i] = planarFixed[i];
+		for (j = 0; j < SAMPLES; j++) {
+			if (rand() % 8 == 0) {
+				planarFixed[i][j] = (rand() % 65536 - 32768) * 512 + 256 + rand() % 3 - 1;
+			} else {
+				planarFixed[i][j] = (ogg_int32_t) (planar[i][j] * 16777216.f);
+			}
+		}
+	}
+	for (j = 0; j < SAMPLES * MAX_CHANNELS; j++) {
+		shorts[j] = rand() % 65536 - 32768;
+		floats[j] = planar[j % MAX_CHANNELS][j / MAX_CHANNELS];
+	}
+}
+
+/*
+ * Runs one kernel once, or over and over to time it, writing to the first or
+ * second output buffers. Returns whether it clipped, for the quantize ones.
+ */
+static int
+run(const struct pcm_kernels * k, int kernel, int count, int samples, int out, long repeat)
+{
+	int clip = 0;
+	long r;
+
+	for (r = 0; r < repeat; r++) {
+		switch (kernel) {
+		case 0:
+			clip |= k->quantize(channels, count, samples, outShorts[out]);
+			break;
+		case 1:
+			k->interleave(channels, count, samples, outFloats[out]);
+			break;
+		case 2:
+			k->dequantize(shorts, count, samples, outChannels[out]);
+			break;
+		case 3:
+			k->deinterleave(floats, count, samples, outChannels[out]);
+			break;
+		case 4:
+			clip |= k->quantizeFixed(channelsFixed, count, samples, outShorts[out]);
+			break;
+		case 5:
+			k->interleaveFixed(channelsFixed, count, samples, outFloats[out]);
+			break;
+		}
+	}
+	return clip;
+}
+
+/*
+ * Compares a kernel with the scalar one over every length up to a few
+ * vectors, so each tail is covered.
+ */
+static int
+check(const struct pcm_kernels * k, int kernel, int count)
+{
+	const struct pcm_kernels * scalar = pcm_kernels_for(PCM_SCALAR);
+	int samples;
+
+	for (samples = 0; samples <= SAMPLES; samples += samples < 80 ? 1 : 317) {
+		memset(outShorts, 0, sizeof(outShorts));
+		memset(outFloats, 0, sizeof(outFloats));
+		memset(outPlanar, 0, sizeof(outPlanar));
+		if (run(k, kernel, count, samples, 0, 1) != run(scalar, kernel, count, samples, 1, 1)
+				|| memcmp(outShorts[0], outShorts[1], sizeof(outShorts[0]))
+				|| memcmp(outFloats[0], outFloats[1], sizeof(outFloats[0]))
+				|| memcmp(outPlanar[0], outPlanar[1], sizeof(outPlanar[0]))) {
+			fprintf(stderr, "%s %s: %d channels of %d samples differ\n", names[kernel], k->name, count, samples);
+			return 0;
+		}
+	}
+	return 1;
+}
+
+int
+main(int argc, char ** argv)
+{
+	static const int counts[] = { 1, 2, 6 };
+	int failed = 0;
+	int kernel, c, isa;
+
+	fill();
+	for (kernel = 0; kernel < KERNELS; kernel++) {
+		for (c = 0; c < (int) (sizeof(counts) / sizeof(counts[0])); c++) {
+			int count = counts[c];
+			long repeat = TOTAL / SAMPLES / count;
+			double scalar = 0;
+
+			for (isa = 0; isa < PCM_ISA_COUNT; isa++) {
+				const struct pcm_kernels * k = pcm_kernels_for(isa);
+				double start, ns;
+				int n;
+				if (k == NULL) {
+					continue;
+				}
+				for (n = 1; n <= MAX_CHANNELS; n++) {
+					if (!check(k, kernel, n)) {
+						failed = 1;
+					}
+				}
+				run(k, kernel, count, SAMPLES, 0, repeat / 16);
+				start = now();
+				run(k, kernel, count, SAMPLES, 0, repeat);
+				ns = (now() - start) * 1e9 / ((double) repeat * SAMPLES * count);
+				if (isa == PCM_SCALAR) {
+					scalar = ns;
+				}
+				printf("%s %s %d %.3f %.2f\n", names[kernel], k->name, count, ns, scalar / ns);
+			}
+		}
+	}
+	return failed;
+}
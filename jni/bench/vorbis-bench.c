@@ -0,0 +1,530 @@
+/*
+ * Times libvorbis decoding and encoding a corpus of files, and how long each
+ * stage of the codec takes, on the build host.
+ *
+ *	make -C jni/bench vorbis CORPUS='a.ogg b.ogg'
+ *	vorbis-bench [-n repeats] [-q quality] [file.ogg ...]
+ *
+ * Each file is decoded, and its pcm encoded again at the given quality, the
+ * fastest of the repeats is kept. Without files 30 seconds of synthetic
+ * stereo are encoded and decoded instead. Prints a JSON object per file and
+ * direction:
+ *
+ *	{"file":"a.ogg","direction":"decode","seconds":30.000,"channels":2,
+ *	 "rate":44100,"total_ms":41.2,"mdct_ms":9.1,"fft_ms":0.0,"psy_ms":0.0,
+ *	 "floor_ms":6.5,"residue_ms":12.0,"other_ms":13.6}
+ *
+ * The stages are timed from mapping0.c, which the Makefile builds with the
+ * calls below renamed to the timed_ wrappers here. The rest of libvorbis is
+ * built as is, with the CFLAGS being compared.
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <time.h>
+#include <unistd.h>
+#include <vorbis/vorbisenc.h>
+#include <vorbis/vorbisfile.h>
+
+#include "codec_internal.h"
+#include "registry.h"
+#include "backends.h"
+#include "mdct.h"
+#include "smallft.h"
+#include "psy.h"
+
+/* How much pcm is handed to the encoder at a time */
+#define CHUNK		1024
+#define SYNTHETIC	30
+
+enum {
+	STAGE_MDCT,
+	STAGE_FFT,
+	STAGE_PSY,
+	STAGE_FLOOR,
+	STAGE_RESIDUE,
+	STAGES
+};
+
+static const char * stageNames[STAGES] = { "mdct", "fft", "psy", "floor", "residue" };
+
+static double stageTime[STAGES];
+
+static double
+now(void)
+{
+	struct timespec ts;
+	clock_gettime(CLOCK_MONOTONIC, &ts);
+	return ts.tv_sec + ts.tv_nsec / 1e9;
+}
+
+#define TIMED(stage, call) do { \
+		double start = now(); \
+		call; \
+		stageTime[stage] += now() - start; \
+	} while (0)
+
+/* The calls mapping0.c makes, see the Makefile */
+
+void
+timed_mdct_forward(mdct_lookup * init, DATA_TYPE * in, DATA_TYPE * out)
+{
+	TIMED(STAGE_MDCT, mdct_forward(init, in, out));
+}
+
+void
+timed_mdct_backward(mdct_lookup * init, DATA_TYPE * in, DATA_TYPE * out)
+{
+	TIMED(STAGE_MDCT, mdct_backward(init, in, out));
+}
+
+void
+timed_drft_forward(drft_lookup * l, float * data)
+{
+	TIMED(STAGE_FFT, drft_forward(l, data));
+}
+
+void
+timed__vp_noisemask(vorbis_look_psy * p, float * logmdct, float * logmask)
+{
+	TIMED(STAGE_PSY, _vp_noisemask(p, logmdct, logmask));
+}
+
+void
+timed__vp_tonemask(vorbis_look_psy * p, float * logfft, float * logmask, float global_specmax, float local_specmax)
+{
+	TIMED(STAGE_PSY, _vp_tonemask(p, logfft, logmask, global_specmax, local_specmax));
+}
+
+void
+timed__vp_offset_and_mix(vorbis_look_psy * p, float * noise, float * tone, int offset_select, float * logmask,
+		float * mdct, float * logmdct)
+{
+	TIMED(STAGE_PSY, _vp_offset_and_mix(p, noise, tone, offset_select, logmask, mdct, logmdct));
+}
+
+void
+timed__vp_couple_quantize_normalize(int blobno, vorbis_info_psy_global * g, vorbis_look_psy * p,
+		vorbis_info_mapping0 * vi, float ** mdct, int ** iwork, int * nonzero, int sliding_lowpass, int ch)
+{
+	TIMED(STAGE_PSY, _vp_couple_quantize_normalize(blobno, g, p, vi, mdct, iwork, nonzero, sliding_lowpass, ch));
+}
+
+int *
+timed_floor1_fit(vorbis_block * vb, vorbis_look_floor1 * look, const float * logmdct, const float * logmask)
+{
+	int * ret;
+	TIMED(STAGE_FLOOR, ret = floor1_fit(vb, look, logmdct, logmask));
+	return ret;
+}
+
+int *
+timed_floor1_interpolate_fit(vorbis_block * vb, vorbis_look_floor1 * look, int * A, int * B, int del)
+{
+	int * ret;
+	TIMED(STAGE_FLOOR, ret = floor1_interpolate_fit(vb, look, A, B, del));
+	return ret;
+}
+
+int
+timed_floor1_encode(oggpack_buffer * opb, vorbis_block * vb, vorbis_look_floor1 * look, int * post, int * ilogmask)
+{
+	int ret;
+	TIMED(STAGE_FLOOR, ret = floor1_encode(opb, vb, look, post, ilogmask));
+	return ret;
+}
+
+/*
+ * The floor and residue backends mapping0.c calls through, copies of the
+ * real ones with the decode and encode entry points timed.
+ */
+static vorbis_func_floor timedFloors[2];
+static vorbis_func_residue timedResidues[3];
+
+const vorbis_func_floor * const timed__floor_P[] = { &timedFloors[0], &timedFloors[1] };
+const vorbis_func_residue * timed__residue_P[] = { &timedResidues[0], &timedResidues[1], &timedResidues[2] };
+
+#define TIMED_FLOOR(n) \
+	static void * \
+	timedFloor##n##Inverse1(vorbis_block * vb, vorbis_look_floor * look) \
+	{ \
+		void * ret; \
+		TIMED(STAGE_FLOOR, ret = _floor_P[n]->inverse1(vb, look)); \
+		return ret; \
+	} \
+	static int \
+	timedFloor##n##Inverse2(vorbis_block * vb, vorbis_look_floor * look, void * buffer, float * out) \
+	{ \
+		int ret; \
+		TIMED(STAGE_FLOOR, ret = _floor_P[n]->inverse2(vb, look, buffer, out)); \
+		return ret; \
+	}
+
+#define TIMED_RESIDUE(n) \
+	static long ** \
+	timedResidue##n##Class(vorbis_block * vb, vorbis_look_residue * look, int ** in, int * nonzero, int ch) \
+	{ \
+		long ** ret; \
+		TIMED(STAGE_RESIDUE, ret = _residue_P[n]->class(vb, look, in, nonzero, ch)); \
+		return ret; \
+	} \
+	static int \
+	timedResidue##n##Forward(oggpack_buffer * opb, vorbis_block * vb, vorbis_look_residue * look, int ** in, \
+			int * nonzero, int ch, long ** partword, int submap) \
+	{ \
+		int ret; \
+		TIMED(STAGE_RESIDUE, ret = _residue_P[n]->forward(opb, vb, look, in, nonzero, ch, partword, submap)); \
+		return ret; \
+	} \
+	static int \
+	timedResidue##n##Inverse(vorbis_block * vb, vorbis_look_residue * look, float ** in, int * nonzero, int ch) \
+	{ \
+		int ret; \
+		TIMED(STAGE_RESIDUE, ret = _residue_P[n]->inverse(vb, look, in, nonzero, ch)); \
+		return ret; \
+	}
+
+TIMED_FLOOR(0)
+TIMED_FLOOR(1)
+TIMED_RESIDUE(0)
+TIMED_RESIDUE(1)
+TIMED_RESIDUE(2)
+
+static void
+initBackends(void)
+{
+	int i;
+
+	for (i = 0; i < 2; i++) {
+		timedFloors[i] = *_floor_P[i];
+	}
+	timedFloors[0].inverse1 = timedFloor0Inverse1;
+	timedFloors[0].inverse2 = timedFloor0Inverse2;
+	timedFloors[1].inverse1 = timedFloor1Inverse1;
+	timedFloors[1].inverse2 = timedFloor1Inverse2;
+
+	for (i = 0; i < 3; i++) {
+		timedResidues[i] = *_residue_P[i];
+	}
+	timedResidues[0].class = timedResidue0Class;
+	timedResidues[0].forward = timedResidue0Forward;
+	timedResidues[0].inverse = timedResidue0Inverse;
+	timedResidues[1].class = timedResidue1Class;
+	timedResidues[1].forward = timedResidue1Forward;
+	timedResidues[1].inverse = timedResidue1Inverse;
+	timedResidues[2].class = timedResidue2Class;
+	timedResidues[2].forward = timedResidue2Forward;
+	timedResidues[2].inverse = timedResidue2Inverse;
+}
+
+/* Planar pcm of a whole file */
+struct audio {
+	int		channels;
+	long	rate;
+	long	samples;
+	float **	pcm;
+};
+
+/* What one run took, overall and per stage */
+struct run {
+	double	total;
+	double	stages[STAGES];
+};
+
+static void *
+xrealloc(void * ptr, size_t size)
+{
+	ptr = realloc(ptr, size);
+	if (ptr == NULL) {
+		fprintf(stderr, "out of memory\n");
+		exit(2);
+	}
+	return ptr;
+}
+
+static void
+startRun(void)
+{
+	memset(stageTime, 0, sizeof(stageTime));
+}
+
+/* Finishes a run, keeping it if it was the fastest */
+static void
+endRun(double start, struct run * best)
+{
+	double total = now() - start;
+	if (best->total == 0 || total < best->total) {
+		best->total = total;
+		memcpy(best->stages, stageTime, sizeof(stageTime));
+	}
+}
+
+/* Decodes a file, keeping the pcm if audio is not NULL. Returns 0 on success */
+static int
+decode(const char * path, struct audio * audio, struct run * best)
+{
+	OggVorbis_File vf;
+	vorbis_info * vi;
+	long capacity = 0;
+	double start;
+	int section, i;
+
+	startRun();
+	start = now();
+	if (ov_fopen(path, &vf) != 0) {
+		fprintf(stderr, "%s: not an ogg vorbis file\n", path);
+		return -1;
+	}
+	vi = ov_info(&vf, -1);
+	if (audio != NULL) {
+		audio->channels = vi->channels;
+		audio->rate = vi->rate;
+		audio->samples = 0;
+		audio->pcm = xrealloc(NULL, vi->channels * sizeof(float *));
+		for (i = 0; i < vi->channels; i++) {
+			audio->pcm[i] = NULL;
+		}
+	}
+	while (1) {
+		float ** pcm;
+		long samples = ov_read_float(&vf, &pcm, CHUNK, &section);
+		if (samples == 0) {
+			break;
+		}
+		if (samples < 0) {
+			/* holes are reported and skipped */
+			continue;
+		}
+		/* chained streams with other layouts are only decoded, not kept */
+		if (audio != NULL && ov_info(&vf, -1)->channels == audio->channels) {
+			if (audio->samples + samples > capacity) {
+				capacity = (audio->samples + samples) * 2;
+				for (i = 0; i < audio->channels; i++) {
+					audio->pcm[i] = xrealloc(audio->pcm[i], capacity * sizeof(float));
+				}
+			}
+			for (i = 0; i < audio->channels; i++) {
+				memcpy(audio->pcm[i] + audio->samples, pcm[i], samples * sizeof(float));
+			}
+			audio->samples += samples;
+		}
+	}
+	ov_clear(&vf);
+	endRun(start, best);
+	return 0;
+}
+
+/* Encodes the pcm, handing back the stream if out is not NULL. Returns 0 on success */
+static int
+encode(const struct audio * audio, float quality, char ** out, long * outLength, struct run * best)
+{
+	vorbis_info vi;
+	vorbis_comment vc;
+	vorbis_dsp_state vd;
+	vorbis_block vb;
+	ogg_stream_state os;
+	ogg_packet header, headerComm, headerCode, op;
+	ogg_page og;
+	long position = 0, length = 0;
+	double start;
+	int eos = 0, i;
+
+	startRun();
+	start = now();
+	vorbis_info_init(&vi);
+	if (vorbis_encode_init_vbr(&vi, audio->channels, audio->rate, quality) != 0) {
+		vorbis_info_clear(&vi);
+		return -1;
+	}
+	vorbis_comment_init(&vc);
+	vorbis_analysis_init(&vd, &vi);
+	vorbis_block_init(&vd, &vb);
+	ogg_stream_init(&os, 1);
+	vorbis_analysis_headerout(&vd, &vc, &header, &headerComm, &headerCode);
+	ogg_stream_packetin(&os, &header);
+	ogg_stream_packetin(&os, &headerComm);
+	ogg_stream_packetin(&os, &headerCode);
+
+	while (!eos) {
+		long samples = audio->samples - position;
+		if (samples > CHUNK) {
+			samples = CHUNK;
+		}
+		if (samples == 0) {
+			vorbis_analysis_wrote(&vd, 0);
+		}
+		else {
+			float ** buffer = vorbis_analysis_buffer(&vd, samples);
+			for (i = 0; i < audio->channels; i++) {
+				memcpy(buffer[i], audio->pcm[i] + position, samples * sizeof(float));
+			}
+			vorbis_analysis_wrote(&vd, samples);
+			position += samples;
+		}
+		while (vorbis_analysis_blockout(&vd, &vb) == 1) {
+			vorbis_analysis(&vb, NULL);
+			vorbis_bitrate_addblock(&vb);
+			while (vorbis_bitrate_flushpacket(&vd, &op)) {
+				ogg_stream_packetin(&os, &op);
+				while (ogg_stream_pageout(&os, &og) != 0) {
+					if (out != NULL) {
+						*out = xrealloc(*out, length + og.header_len + og.body_len);
+						memcpy(*out + length, og.header, og.header_len);
+						memcpy(*out + length + og.header_len, og.body, og.body_len);
+					}
+					length += og.header_len + og.body_len;
+					eos = ogg_page_eos(&og);
+				}
+			}
+		}
+	}
+
+	ogg_stream_clear(&os);
+	vorbis_block_clear(&vb);
+	vorbis_dsp_clear(&vd);
+	vorbis_comment_clear(&vc);
+	vorbis_info_clear(&vi);
+	endRun(start, best);
+	if (outLength != NULL) {
+		*outLength = length;
+	}
+	return 0;
+}
+
+static void
+report(const char * file, const char * direction, const struct audio * audio, const struct run * run)
+{
+	double other = run->total;
+	int i;
+
+	printf("{\"file\":\"%s\",\"direction\":\"%s\",\"seconds\":%.3f,\"channels\":%d,\"rate\":%ld,\"total_ms\":%.3f",
+			file, direction, (double) audio->samples / audio->rate, audio->channels, audio->rate, run->total * 1e3);
+	for (i = 0; i < STAGES; i++) {
+		printf(",\"%s_ms\":%.3f", stageNames[i], run->stages[i] * 1e3);
+		other -= run->stages[i];
+	}
+	printf(",\"other_ms\":%.3f}\n", other * 1e3);
+	fflush(stdout);
+}
+
+/* A few detuned tones over quiet noise, like pcm-bench and the JMH suite */
+static void
+synthesize(struct audio * audio)
+{
+	long j;
+	int i;
+
+	srand(1);
+	audio->channels = 2;
+	audio->rate = 44100;
+	audio->samples = SYNTHETIC * audio->rate;
+	audio->pcm = xrealloc(NULL, audio->channels * sizeof(float *));
+	for (i = 0; i < audio->channels; i++) {
+		audio->pcm[i] = xrealloc(NULL, audio->samples * sizeof(float));
+		for (j = 0; j < audio->samples; j++) {
+			double t = (double) j / audio->rate;
+			audio->pcm[i][j] = .3 * sin(2 * M_PI * (220 + 30 * i) * t) + .2 * sin(2 * M_PI * 1375.5 * t + i)
+					+ .1 * sin(2 * M_PI * 7040 * t * (1 + .01 * sin(t)))
+					+ .05 * (rand() / (double) RAND_MAX - .5);
+		}
+	}
+}
+
+static void
+freeAudio(struct audio * audio)
+{
+	int i;
+	for (i = 0; i < audio->channels; i++) {
+		free(audio->pcm[i]);
+	}
+	free(audio->pcm);
+}
+
+int
+main(int argc, char ** argv)
+{
+	float quality = .4f;
+	int repeats = 3;
+	int failed = 0;
+	int opt, f, r;
+
+	while ((opt = getopt(argc, argv, "n:q:")) != -1) {
+		switch (opt) {
+		case 'n':
+			repeats = atoi(optarg);
+			break;
+		case 'q':
+			quality = atof(optarg);
+			break;
+		default:
+			fprintf(stderr, "usage: %s [-n repeats] [-q quality] [file.ogg ...]\n", argv[0]);
+			return 2;
+		}
+	}
+	if (repeats < 1) {
+		repeats = 1;
+	}
+	initBackends();
+
+	if (optind == argc) {
+		/* encode the synthetic audio, then decode what came out */
+		struct audio audio;
+		struct run encoded = { 0 }, decoded = { 0 };
+		char path[] = "/tmp/vorbis-benchXXXXXX";
+		char * ogg = NULL;
+		long length;
+		FILE * fh;
+		int fd;
+
+		synthesize(&audio);
+		for (r = 0; r < repeats; r++) {
+			encode(&audio, quality, r == 0 ? &ogg : NULL, r == 0 ? &length : NULL, &encoded);
+		}
+		report("synthetic", "encode", &audio, &encoded);
+
+		fd = mkstemp(path);
+		fh = fd < 0 ? NULL : fdopen(fd, "wb");
+		if (fh == NULL || fwrite(ogg, 1, length, fh) != (size_t) length || fclose(fh) != 0) {
+			fprintf(stderr, "%s: can't write\n", path);
+			return 1;
+		}
+		for (r = 0; r < repeats; r++) {
+			decode(path, NULL, &decoded);
+		}
+		report("synthetic", "decode", &audio, &decoded);
+		unlink(path);
+		free(ogg);
+		freeAudio(&audio);
+		return 0;
+	}
+
+	for (f = optind; f < argc; f++) {
+		struct audio audio;
+		struct run loaded = { 0 }, decoded = { 0 }, encoded = { 0 };
+
+		/* the pcm to encode is kept by a decode of its own, so copying it isn't timed */
+		if (decode(argv[f], &audio, &loaded) != 0) {
+			failed = 1;
+			continue;
+		}
+		for (r = 0; r < repeats; r++) {
+			decode(argv[f], NULL, &decoded);
+		}
+		report(argv[f], "decode", &audio, &decoded);
+
+		for (r = 0; r < repeats; r++) {
+			if (encode(&audio, quality, NULL, NULL, &encoded) != 0) {
+				fprintf(stderr, "%s: can't encode %d channels at %ld Hz\n", argv[f], audio.channels, audio.rate);
+				failed = 1;
+				break;
+			}
+		}
+		if (r == repeats) {
+			report(argv[f], "encode", &audio, &encoded);
+		}
+		freeAudio(&audio);
+	}
+	return failed;
+}
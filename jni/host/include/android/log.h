@@ -0,0 +1,41 @@
+/*
+ * Stands in for the ndk's android/log.h when the native libraries are built
+ * for the build host, see jni/host/Makefile. Warnings and errors go to
+ * stderr, the chatter below them is dropped.
+ */
+#ifndef _HOST_ANDROID_LOG_H
+#define _HOST_ANDROID_LOG_H
+
+#include <stdio.h>
+#include <stdarg.h>
+
+typedef enum android_LogPriority {
+	ANDROID_LOG_UNKNOWN = 0,
+	ANDROID_LOG_DEFAULT,
+	ANDROID_LOG_VERBOSE,
+	ANDROID_LOG_DEBUG,
+	ANDROID_LOG_INFO,
+	ANDROID_LOG_WARN,
+	ANDROID_LOG_ERROR,
+	ANDROID_LOG_FATAL,
+	ANDROID_LOG_SILENT
+} android_LogPriority;
+
+static inline int
+__android_log_print(int prio, const char * tag, const char * fmt, ...)
+{
+	va_list args;
+	int ret;
+
+	if (prio < ANDROID_LOG_WARN) {
+		return 0;
+	}
+	va_start(args, fmt);
+	fprintf(stderr, "%s: ", tag);
+	ret = vfprintf(stderr, fmt, args);
+	fputc('\n', stderr);
+	va_end(args);
+	return ret;
+}
+
+#endif
@@ -0,0 +1,31 @@
+package org.xiph.vorbis.jmh;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * What a benchmark got through besides its invocations, reported by JMH as rates next to the score: pcm samples per
+ * channel per second, and calls across jni (feed callbacks or stream reads and writes) per second.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class Counters {
+    /**
+     * Samples per channel decoded or encoded
+     */
+    public long samples;
+
+    /**
+     * Calls from native code into a feed, or from java into a stream
+     */
+    public long jniCalls;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        samples = 0;
+        jniCalls = 0;
+    }
+}
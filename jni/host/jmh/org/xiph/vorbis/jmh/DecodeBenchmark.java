@@ -0,0 +1,153 @@
+package org.xiph.vorbis.jmh;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xiph.vorbis.decoder.ByteBufferDecodeFeed;
+import org.xiph.vorbis.decoder.DecodeFeed;
+import org.xiph.vorbis.decoder.DecodeStreamInfo;
+import org.xiph.vorbis.decoder.VorbisDecoder;
+
+/**
+ * Decodes a stream held in memory through {@link VorbisDecoder#startDecoding(DecodeFeed)} and its batch and direct
+ * buffer variants. A pcm buffer size of <code>0</code> writes each packet's pcm to the feed as it is decoded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({"1", "2", "6"})
+    public int channels;
+
+    @Param({"-0.1", "0.4", "1.0"})
+    public float quality;
+
+    @Param({"array", "direct"})
+    public String feed;
+
+    @Param({"0", "4096", "65536"})
+    public int pcmBufferSize;
+
+    private byte[] ogg;
+
+    @Setup
+    public void encode() {
+        ogg = Signals.ogg(Signals.pcm(channels, 10), channels, quality);
+    }
+
+    @Benchmark
+    public int decode(final Counters counters, final Blackhole blackhole) {
+        int result;
+        if (feed.equals("direct")) {
+            result = pcmBufferSize == 0 ? VorbisDecoder.startDecoding(new DirectFeed(counters, blackhole))
+                    : VorbisDecoder.startDecoding(new DirectFeed(counters, blackhole), pcmBufferSize, pcmBufferSize);
+        } else {
+            result = pcmBufferSize == 0 ? VorbisDecoder.startDecoding(new ArrayFeed(counters, blackhole))
+                    : VorbisDecoder.startDecoding(new ArrayFeed(counters, blackhole), pcmBufferSize, pcmBufferSize);
+        }
+        if (result != DecodeFeed.SUCCESS) {
+            throw new IllegalStateException("Decoding failed: " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the stream out of the array and sinks the pcm
+     */
+    private class ArrayFeed implements DecodeFeed {
+        private final Counters counters;
+        private final Blackhole blackhole;
+        private int position;
+
+        ArrayFeed(Counters counters, Blackhole blackhole) {
+            this.counters = counters;
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public int readVorbisData(byte[] buffer, int amountToWrite) {
+            int length = Math.min(amountToWrite, ogg.length - position);
+            System.arraycopy(ogg, position, buffer, 0, length);
+            position += length;
+            counters.jniCalls++;
+            return length;
+        }
+
+        @Override
+        public void writePCMData(short[] pcmData, int amountToRead) {
+            blackhole.consume(pcmData);
+            counters.samples += amountToRead / channels;
+            counters.jniCalls++;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void startReadingHeader() {
+        }
+
+        @Override
+        public void start(DecodeStreamInfo decodeStreamInfo) {
+        }
+    }
+
+    /**
+     * The same over the decoder's direct buffers
+     */
+    private class DirectFeed implements ByteBufferDecodeFeed {
+        private final Counters counters;
+        private final Blackhole blackhole;
+        private int position;
+
+        DirectFeed(Counters counters, Blackhole blackhole) {
+            this.counters = counters;
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public int readVorbisData(ByteBuffer buffer, int amountToWrite) {
+            int length = Math.min(amountToWrite, ogg.length - position);
+            buffer.put(ogg, position, length);
+            position += length;
+            counters.jniCalls++;
+            return length;
+        }
+
+        @Override
+        public void writePCMData(ShortBuffer pcmData, int amountToRead) {
+            blackhole.consume(pcmData);
+            counters.samples += amountToRead / channels;
+            counters.jniCalls++;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void startReadingHeader() {
+        }
+
+        @Override
+        public void start(DecodeStreamInfo decodeStreamInfo) {
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package org.xiph.vorbis.jmh;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xiph.vorbis.encoder.EncodeFeed;
+import org.xiph.vorbis.encoder.VorbisEncoder;
+
+/**
+ * Encodes synthetic pcm held in memory through {@link VorbisEncoder#startEncodingWithQuality} and
+ * {@link VorbisEncoder#startEncodingWithBitrate}. The levels are quality -0.1, 0.4 and 1.0, or 32, 64 and 112 kbit/s
+ * per channel. Blocks are analysed on one thread unless asked otherwise, e.g. with
+ * <code>-p analysisThreads=1,2,4</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class EncodeBenchmark {
+    private static final float[] QUALITIES = {-.1f, .4f, 1f};
+
+    private static final long[] BITRATES = {32000, 64000, 112000};
+
+    @Param({"1", "2", "6"})
+    public int channels;
+
+    @Param({"quality", "bitrate"})
+    public String mode;
+
+    @Param({"0", "1", "2"})
+    public int level;
+
+    @Param({"1"})
+    public int analysisThreads;
+
+    private byte[] pcm;
+
+    @Setup
+    public void synthesize() {
+        pcm = Signals.bytes(Signals.pcm(channels, 5));
+    }
+
+    @Benchmark
+    public int encode(Counters counters, Blackhole blackhole) {
+        SynthesizedFeed encodeFeed = new SynthesizedFeed(counters, blackhole);
+        int result;
+        if (mode.equals("bitrate")) {
+            result = VorbisEncoder.startEncodingWithBitrate(Signals.SAMPLE_RATE, channels, BITRATES[level] * channels,
+                    encodeFeed, analysisThreads);
+        } else {
+            result = VorbisEncoder.startEncodingWithQuality(Signals.SAMPLE_RATE, channels, QUALITIES[level], encodeFeed,
+                    analysisThreads);
+        }
+        if (result != EncodeFeed.SUCCESS) {
+            throw new IllegalStateException("Encoding failed: " + result);
+        }
+        return result;
+    }
+
+    /**
+     * Hands over the pcm and sinks the vorbis data
+     */
+    private class SynthesizedFeed implements EncodeFeed {
+        private final Counters counters;
+        private final Blackhole blackhole;
+        private int position;
+
+        SynthesizedFeed(Counters counters, Blackhole blackhole) {
+            this.counters = counters;
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public long readPCMData(byte[] pcmDataBuffer, int amountToWrite) {
+            int length = Math.min(amountToWrite, pcm.length - position);
+            System.arraycopy(pcm, position, pcmDataBuffer, 0, length);
+            position += length;
+            counters.samples += length / 2 / channels;
+            counters.jniCalls++;
+            return length;
+        }
+
+        @Override
+        public int writeVorbisData(byte[] vorbisData, int amountToRead) {
+            blackhole.consume(vorbisData);
+            counters.jniCalls++;
+            return amountToRead;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void stopEncoding() {
+        }
+
+        @Override
+        public void start() {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.xiph.vorbis.jmh;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import org.xiph.vorbis.encoder.EncodeFeed;
+import org.xiph.vorbis.encoder.VorbisEncoder;
+
+/**
+ * Synthetic audio for the benchmarks, so they need no corpus. A few detuned tones over quiet noise keep the encoder
+ * busy across the spectrum the way music does, unlike silence or a lone sine.
+ */
+final class Signals {
+    static final int SAMPLE_RATE = 44100;
+
+    private Signals() {
+    }
+
+    /**
+     * Creates interleaved 16 bit pcm
+     *
+     * @param channels the number of channels
+     * @param seconds  the length of the audio
+     * @return the interleaved samples
+     */
+    static short[] pcm(int channels, int seconds) {
+        Random random = new Random(channels);
+        short[] pcm = new short[SAMPLE_RATE * seconds * channels];
+        for (int i = 0; i < pcm.length; i++) {
+            int channel = i % channels;
+            double t = (double) (i / channels) / SAMPLE_RATE;
+            double value = .3 * Math.sin(2 * Math.PI * (220 + 30 * channel) * t)
+                    + .2 * Math.sin(2 * Math.PI * 1375.5 * t + channel)
+                    + .1 * Math.sin(2 * Math.PI * 7040 * t * (1 + .01 * Math.sin(t)))
+                    + .05 * random.nextGaussian();
+            pcm[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value * Short.MAX_VALUE));
+        }
+        return pcm;
+    }
+
+    /**
+     * Lays interleaved pcm out the way {@link EncodeFeed#readPCMData(byte[], int)} hands it over, little endian
+     */
+    static byte[] bytes(short[] pcm) {
+        byte[] bytes = new byte[pcm.length * 2];
+        for (int i = 0; i < pcm.length; i++) {
+            bytes[2 * i] = (byte) pcm[i];
+            bytes[2 * i + 1] = (byte) (pcm[i] >> 8);
+        }
+        return bytes;
+    }
+
+    /**
+     * Encodes interleaved pcm to an ogg vorbis stream in memory
+     *
+     * @param pcm      the interleaved samples
+     * @param channels the number of channels
+     * @param quality  the vbr quality, from -.1 to 1
+     * @return the ogg vorbis stream
+     */
+    static byte[] ogg(short[] pcm, int channels, float quality) {
+        final byte[] in = bytes(pcm);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int result = VorbisEncoder.startEncodingWithQuality(SAMPLE_RATE, channels, quality, new EncodeFeed() {
+            private int position;
+
+            @Override
+            public long readPCMData(byte[] pcmDataBuffer, int amountToWrite) {
+                int length = Math.min(amountToWrite, in.length - position);
+                System.arraycopy(in, position, pcmDataBuffer, 0, length);
+                position += length;
+                return length;
+            }
+
+            @Override
+            public int writeVorbisData(byte[] vorbisData, int amountToRead) {
+                out.write(vorbisData, 0, amountToRead);
+                return amountToRead;
+            }
+
+            @Override
+            public void stop() {
+            }
+
+            @Override
+            public void stopEncoding() {
+            }
+
+            @Override
+            public void start() {
+            }
+        });
+        if (result != EncodeFeed.SUCCESS) {
+            throw new IllegalStateException("Encoding failed: " + result);
+        }
+        return out.toByteArray();
+    }
+}
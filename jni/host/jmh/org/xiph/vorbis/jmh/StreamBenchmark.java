@@ -0,0 +1,102 @@
+package org.xiph.vorbis.jmh;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xiph.vorbis.stream.VorbisFileInputStream;
+import org.xiph.vorbis.stream.VorbisFileOutputStream;
+import org.xiph.vorbis.stream.VorbisInfo;
+
+/**
+ * Reads a whole file through {@link VorbisFileInputStream} and writes one through {@link VorbisFileOutputStream}, in
+ * buffers of a given number of interleaved values. Small buffers show what each call across jni costs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamBenchmark {
+    @Param({"1", "2", "6"})
+    public int channels;
+
+    @Param({"-0.1", "0.4", "1.0"})
+    public float quality;
+
+    @Param({"512", "4096", "65536"})
+    public int bufferSize;
+
+    private short[] pcm;
+
+    private short[] buffer;
+
+    private File read;
+
+    private File written;
+
+    @Setup
+    public void write() throws IOException {
+        pcm = Signals.pcm(channels, 10);
+        buffer = new short[bufferSize];
+        read = File.createTempFile("read", ".ogg");
+        written = File.createTempFile("written", ".ogg");
+        VorbisFileOutputStream out = new VorbisFileOutputStream(read.getPath(), info());
+        out.write(pcm, 0, pcm.length);
+        out.close();
+    }
+
+    @TearDown
+    public void delete() {
+        read.delete();
+        written.delete();
+    }
+
+    @Benchmark
+    public void readFile(Counters counters, Blackhole blackhole) throws IOException {
+        VorbisFileInputStream in = new VorbisFileInputStream(read.getPath());
+        int length;
+        while ((length = in.read(buffer, 0, buffer.length)) != -1) {
+            blackhole.consume(buffer);
+            counters.samples += length / channels;
+            counters.jniCalls++;
+        }
+        in.close();
+    }
+
+    @Benchmark
+    public void writeFile(Counters counters) throws IOException {
+        VorbisFileOutputStream out = new VorbisFileOutputStream(written.getPath(), info());
+        // whole samples per channel per write, as the stream expects
+        int chunk = bufferSize - bufferSize % channels;
+        for (int offset = 0; offset < pcm.length; offset += chunk) {
+            int length = Math.min(chunk, pcm.length - offset);
+            out.write(pcm, offset, length);
+            counters.samples += length / channels;
+            counters.jniCalls++;
+        }
+        out.close();
+    }
+
+    private VorbisInfo info() {
+        VorbisInfo info = new VorbisInfo();
+        info.channels = channels;
+        info.sampleRate = Signals.SAMPLE_RATE;
+        info.quality = quality;
+        return info;
+    }
+}
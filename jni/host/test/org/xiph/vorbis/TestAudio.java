@@ -0,0 +1,387 @@
+package org.xiph.vorbis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.xiph.vorbis.decoder.DecodeFeed;
+import org.xiph.vorbis.decoder.DecodeStreamInfo;
+import org.xiph.vorbis.decoder.VorbisDecoder;
+import org.xiph.vorbis.encoder.EncodeFeed;
+import org.xiph.vorbis.encoder.VorbisEncoder;
+import org.xiph.vorbis.stream.VorbisFileInputStream;
+import org.xiph.vorbis.stream.VorbisFileOutputStream;
+import org.xiph.vorbis.stream.VorbisInfo;
+
+/**
+ * Synthetic audio and ogg files for the tests, so they need no corpus. See jmh/org/xiph/vorbis/jmh/Signals.java, the
+ * signal is the same.
+ */
+public final class TestAudio {
+    public static final int SAMPLE_RATE = 44100;
+
+    private TestAudio() {
+    }
+
+    /**
+     * Creates interleaved 16 bit pcm
+     *
+     * @param channels the number of channels
+     * @param samples  the number of samples per channel
+     * @return the interleaved samples
+     */
+    public static short[] pcm(int channels, int samples) {
+        Random random = new Random(channels);
+        short[] pcm = new short[samples * channels];
+        for (int i = 0; i < pcm.length; i++) {
+            int channel = i % channels;
+            double t = (double) (i / channels) / SAMPLE_RATE;
+            double value = .3 * Math.sin(2 * Math.PI * (220 + 30 * channel) * t)
+                    + .2 * Math.sin(2 * Math.PI * 1375.5 * t + channel)
+                    + .1 * Math.sin(2 * Math.PI * 7040 * t * (1 + .01 * Math.sin(t)))
+                    + .05 * random.nextGaussian();
+            pcm[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value * Short.MAX_VALUE));
+        }
+        return pcm;
+    }
+
+    /**
+     * Encodes interleaved pcm to an ogg vorbis stream in memory through {@link VorbisEncoder}
+     *
+     * @param pcm      the interleaved samples
+     * @param channels the number of channels
+     * @param quality  the vbr quality, from -.1 to 1
+     * @return the ogg vorbis stream
+     */
+    public static byte[] encode(short[] pcm, int channels, float quality) {
+        return encode(pcm, channels, quality, 1);
+    }
+
+    /**
+     * Encodes interleaved pcm in quality mode, analysing blocks on a number of threads
+     *
+     * @param analysisThreads the threads to analyse blocks on
+     * @see #encode(short[], int, float)
+     */
+    public static byte[] encode(short[] pcm, int channels, float quality, int analysisThreads) {
+        ArrayEncodeFeed feed = new ArrayEncodeFeed(pcm);
+        return feed.result(VorbisEncoder.startEncodingWithQuality(SAMPLE_RATE, channels, quality, feed,
+                analysisThreads));
+    }
+
+    /**
+     * Encodes interleaved pcm in managed bitrate mode, analysing blocks on a number of threads
+     *
+     * @param bitrate         the average bitrate, in bits per second
+     * @param analysisThreads the threads to analyse blocks on
+     * @see #encode(short[], int, float)
+     */
+    public static byte[] encodeWithBitrate(short[] pcm, int channels, long bitrate, int analysisThreads) {
+        ArrayEncodeFeed feed = new ArrayEncodeFeed(pcm);
+        return feed.result(VorbisEncoder.startEncodingWithBitrate(SAMPLE_RATE, channels, bitrate, feed,
+                analysisThreads));
+    }
+
+    /**
+     * Feeds little endian pcm from memory and collects the pages
+     */
+    private static class ArrayEncodeFeed implements EncodeFeed {
+        private final byte[] in;
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int position;
+
+        ArrayEncodeFeed(short[] pcm) {
+            in = new byte[pcm.length * 2];
+            for (int i = 0; i < pcm.length; i++) {
+                in[2 * i] = (byte) pcm[i];
+                in[2 * i + 1] = (byte) (pcm[i] >> 8);
+            }
+        }
+
+        @Override
+        public long readPCMData(byte[] pcmDataBuffer, int amountToWrite) {
+            int length = Math.min(amountToWrite, in.length - position);
+            System.arraycopy(in, position, pcmDataBuffer, 0, length);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public int writeVorbisData(byte[] vorbisData, int amountToRead) {
+            out.write(vorbisData, 0, amountToRead);
+            return amountToRead;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void stopEncoding() {
+        }
+
+        @Override
+        public void start() {
+        }
+
+        byte[] result(int result) {
+            if (result != EncodeFeed.SUCCESS) {
+                throw new IllegalStateException("Encoding failed: " + result);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Decodes an ogg vorbis stream in memory through {@link VorbisDecoder}
+     *
+     * @param ogg the ogg vorbis stream
+     * @return the interleaved samples
+     */
+    public static short[] decode(final byte[] ogg) {
+        final short[][] pcm = { new short[1 << 16] };
+        final int[] length = new int[1];
+        int result = VorbisDecoder.startDecoding(new DecodeFeed() {
+            private int position;
+
+            @Override
+            public int readVorbisData(byte[] buffer, int amountToWrite) {
+                int read = Math.min(amountToWrite, ogg.length - position);
+                System.arraycopy(ogg, position, buffer, 0, read);
+                position += read;
+                return read;
+            }
+
+            @Override
+            public void writePCMData(short[] pcmData, int amountToRead) {
+                if (length[0] + amountToRead > pcm[0].length) {
+                    pcm[0] = Arrays.copyOf(pcm[0], Math.max(2 * pcm[0].length, length[0] + amountToRead));
+                }
+                System.arraycopy(pcmData, 0, pcm[0], length[0], amountToRead);
+                length[0] += amountToRead;
+            }
+
+            @Override
+            public void stop() {
+            }
+
+            @Override
+            public void startReadingHeader() {
+            }
+
+            @Override
+            public void start(DecodeStreamInfo decodeStreamInfo) {
+            }
+        });
+        if (result != DecodeFeed.SUCCESS) {
+            throw new IllegalStateException("Decoding failed: " + result);
+        }
+        return Arrays.copyOf(pcm[0], length[0]);
+    }
+
+    /**
+     * Writes interleaved pcm to an ogg vorbis file through {@link VorbisFileOutputStream}
+     *
+     * @param file     the file to write
+     * @param pcm      the interleaved samples
+     * @param channels the number of channels
+     */
+    public static void write(File file, short[] pcm, int channels) throws IOException {
+        VorbisInfo info = new VorbisInfo();
+        info.channels = channels;
+        info.sampleRate = SAMPLE_RATE;
+        VorbisFileOutputStream out = new VorbisFileOutputStream(file.getPath(), info);
+        try {
+            out.write(pcm, 0, pcm.length);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the rest of a stream as interleaved 16 bit pcm
+     */
+    public static short[] readAll(VorbisFileInputStream in) throws IOException {
+        short[] pcm = new short[1 << 16];
+        short[] buffer = new short[4096];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, 0, buffer.length)) > 0) {
+            if (length + read > pcm.length) {
+                pcm = Arrays.copyOf(pcm, 2 * pcm.length);
+            }
+            System.arraycopy(buffer, 0, pcm, length, read);
+            length += read;
+        }
+        return Arrays.copyOf(pcm, length);
+    }
+
+    /**
+     * Gets the ratio of the signal to the difference between it and its decoded version
+     *
+     * @return the ratio in dB
+     */
+    public static double snr(short[] original, short[] decoded) {
+        double signal = 0;
+        double noise = 0;
+        for (int i = 0; i < original.length; i++) {
+            double difference = original[i] - decoded[i];
+            signal += (double) original[i] * original[i];
+            noise += difference * difference;
+        }
+        return 10 * Math.log10(signal / noise);
+    }
+
+    /**
+     * Gets the largest difference between two decodes of the same samples
+     */
+    public static int maxDifference(short[] expected, short[] actual) {
+        int max = 0;
+        for (int i = 0; i < expected.length; i++) {
+            max = Math.max(max, Math.abs(expected[i] - actual[i]));
+        }
+        return max;
+    }
+
+    public static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] data = new byte[(int) file.length()];
+            int length = 0;
+            while (length < data.length) {
+                int read = in.read(data, length, data.length - length);
+                if (read < 0) {
+                    throw new IOException("Truncated " + file);
+                }
+                length += read;
+            }
+            return data;
+        } finally {
+            in.close();
+        }
+    }
+
+    public static void writeFile(File file, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Adds an offset to the granule position of every audio page, as a stream cut out of a live broadcast has. The
+     * header pages keep their granule position of 0, and pages no packet ends on keep -1.
+     *
+     * @param ogg    an ogg stream
+     * @param offset the samples per channel to add
+     * @return a copy of the stream with the granule positions moved and the page checksums updated
+     */
+    public static byte[] shiftGranules(byte[] ogg, long offset) {
+        byte[] shifted = ogg.clone();
+        int page = 0;
+        while (page + 27 <= shifted.length) {
+            if (shifted[page] != 'O' || shifted[page + 1] != 'g' || shifted[page + 2] != 'g'
+                    || shifted[page + 3] != 'S') {
+                throw new IllegalArgumentException("No page at " + page);
+            }
+            int segments = shifted[page + 26] & 0xff;
+            int length = 27 + segments;
+            for (int i = 0; i < segments; i++) {
+                length += shifted[page + 27 + i] & 0xff;
+            }
+            long granule = 0;
+            for (int i = 7; i >= 0; i--) {
+                granule = granule << 8 | shifted[page + 6 + i] & 0xff;
+            }
+            if (granule > 0) {
+                granule += offset;
+                for (int i = 0; i < 8; i++) {
+                    shifted[page + 6 + i] = (byte) (granule >> 8 * i);
+                }
+                for (int i = 0; i < 4; i++) {
+                    shifted[page + 22 + i] = 0;
+                }
+                int crc = crc(shifted, page, length);
+                for (int i = 0; i < 4; i++) {
+                    shifted[page + 22 + i] = (byte) (crc >> 8 * i);
+                }
+            }
+            page += length;
+        }
+        return shifted;
+    }
+
+    /**
+     * Clears the serial number and checksum of every page, which differ between encodes of the same pcm, so that the
+     * rest of two streams can be compared
+     *
+     * @param ogg an ogg stream
+     * @return a copy of the stream with the serial numbers and checksums zeroed
+     */
+    public static byte[] maskSerials(byte[] ogg) {
+        byte[] masked = ogg.clone();
+        int page = 0;
+        while (page + 27 <= masked.length) {
+            int segments = masked[page + 26] & 0xff;
+            int length = 27 + segments;
+            for (int i = 0; i < segments; i++) {
+                length += masked[page + 27 + i] & 0xff;
+            }
+            for (int i = 0; i < 4; i++) {
+                masked[page + 14 + i] = 0;
+                masked[page + 22 + i] = 0;
+            }
+            page += length;
+        }
+        return masked;
+    }
+
+    /**
+     * Splits an ogg stream into its packets, so that streams cut into pages at other points can be compared
+     *
+     * @param ogg an ogg stream of one logical stream
+     * @return the packets in order
+     */
+    public static List<byte[]> packets(byte[] ogg) {
+        List<byte[]> packets = new ArrayList<byte[]>();
+        ByteArrayOutputStream packet = new ByteArrayOutputStream();
+        int page = 0;
+        while (page + 27 <= ogg.length) {
+            int segments = ogg[page + 26] & 0xff;
+            int body = page + 27 + segments;
+            for (int i = 0; i < segments; i++) {
+                int lacing = ogg[page + 27 + i] & 0xff;
+                packet.write(ogg, body, lacing);
+                body += lacing;
+                if (lacing < 255) {
+                    packets.add(packet.toByteArray());
+                    packet.reset();
+                }
+            }
+            page = body;
+        }
+        return packets;
+    }
+
+    // The ogg page checksum, a crc32 with the polynomial 0x04c11db7, unreflected and starting at 0.
+    private static int crc(byte[] data, int offset, int length) {
+        int crc = 0;
+        for (int i = offset; i < offset + length; i++) {
+            crc ^= (data[i] & 0xff) << 24;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = crc < 0 ? crc << 1 ^ 0x04c11db7 : crc << 1;
+            }
+        }
+        return crc;
+    }
+}
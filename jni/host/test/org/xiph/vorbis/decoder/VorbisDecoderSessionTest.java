@@ -0,0 +1,135 @@
+package org.xiph.vorbis.decoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.xiph.vorbis.TestAudio;
+import org.xiph.vorbis.encoder.VorbisEncoderSession;
+
+/**
+ * Encodes through {@link VorbisEncoderSession} and decodes through {@link VorbisDecoderSession}, a chunk at a time.
+ */
+public class VorbisDecoderSessionTest {
+    @Test
+    public void roundTrips() throws IOException {
+        short[] pcm = TestAudio.pcm(2, 3 * TestAudio.SAMPLE_RATE);
+        byte[] ogg = encode(pcm, 2);
+
+        short[] decoded = decode(ogg, 777);
+        assertEquals(pcm.length, decoded.length);
+        double snr = TestAudio.snr(pcm, decoded);
+        assertTrue("snr " + snr, snr > 10);
+    }
+
+    @Test
+    public void decodesLikeVorbisDecoder() throws IOException {
+        short[] pcm = TestAudio.pcm(2, 2 * TestAudio.SAMPLE_RATE);
+        byte[] ogg = TestAudio.encode(pcm, 2, .4f);
+
+        VorbisDecoderTest.ArrayFeed feed = new VorbisDecoderTest.ArrayFeed(ogg, Integer.MAX_VALUE);
+        assertEquals(DecodeFeed.SUCCESS, VorbisDecoder.startDecoding(feed));
+
+        assertArrayEquals(feed.pcm(), decode(ogg, 4096));
+    }
+
+    @Test
+    public void decodesAlikeWithTheFixedPointEngine() throws IOException {
+        short[] pcm = TestAudio.pcm(1, 3 * TestAudio.SAMPLE_RATE);
+        byte[] ogg = encode(pcm, 1);
+
+        short[] expected = decode(ogg, 4096);
+        short[] decoded = decode(ogg, 4096, VorbisDecoder.ENGINE_FIXED_POINT);
+        assertEquals(expected.length, decoded.length);
+        assertTrue(TestAudio.maxDifference(expected, decoded) <= 1);
+    }
+
+    @Test
+    public void chainsSessionsStartedTogether() throws IOException {
+        short[] pcm = TestAudio.pcm(1, TestAudio.SAMPLE_RATE);
+        byte[] first = encode(pcm, 1);
+        byte[] second = encode(pcm, 1);
+        assertTrue("the sessions share serial " + serial(first), serial(first) != serial(second));
+
+        byte[] chained = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, chained, first.length, second.length);
+        assertEquals(2 * pcm.length, decode(chained, 4096).length);
+    }
+
+    // The serial number of the first page
+    private static int serial(byte[] ogg) {
+        return ogg[14] & 0xff | (ogg[15] & 0xff) << 8 | (ogg[16] & 0xff) << 16 | ogg[17] << 24;
+    }
+
+    private static byte[] encode(short[] pcm, int channels) throws IOException {
+        VorbisEncoderSession session = VorbisEncoderSession.createWithQuality(TestAudio.SAMPLE_RATE, channels, .4f);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer pages = ByteBuffer.allocate(8192);
+        try {
+            for (int i = 0; i < pcm.length; i += 4096) {
+                session.writePcm(ShortBuffer.wrap(pcm, i, Math.min(4096, pcm.length - i)));
+                drain(session, pages, out);
+            }
+            session.finish();
+            while (drain(session, pages, out) != VorbisEncoderSession.END_OF_STREAM) {
+            }
+        } finally {
+            session.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static int drain(VorbisEncoderSession session, ByteBuffer pages, ByteArrayOutputStream out) {
+        int written;
+        while ((written = session.drainPages(pages)) > 0) {
+            out.write(pages.array(), 0, pages.position());
+            pages.clear();
+        }
+        return written;
+    }
+
+    private static short[] decode(byte[] ogg, int chunk) throws IOException {
+        return decode(ogg, chunk, VorbisDecoder.ENGINE_FLOAT);
+    }
+
+    private static short[] decode(byte[] ogg, int chunk, int engine) throws IOException {
+        VorbisDecoderSession session = new VorbisDecoderSession(engine);
+        short[] pcm = new short[0];
+        int length = 0;
+        ShortBuffer buffer = ShortBuffer.allocate(4096);
+        int position = 0;
+        try {
+            while (true) {
+                buffer.clear();
+                int drained = session.drainPcm(buffer);
+                if (drained > 0) {
+                    if (length + drained > pcm.length) {
+                        pcm = Arrays.copyOf(pcm, Math.max(2 * pcm.length, length + drained));
+                    }
+                    System.arraycopy(buffer.array(), 0, pcm, length, drained);
+                    length += drained;
+                } else if (drained == VorbisDecoderSession.END_OF_INPUT) {
+                    break;
+                } else if (drained == VorbisDecoderSession.NEED_MORE_INPUT) {
+                    if (position == ogg.length) {
+                        session.endOfInput();
+                    } else {
+                        int fed = Math.min(chunk, ogg.length - position);
+                        session.feed(ByteBuffer.wrap(ogg, position, fed));
+                        position += fed;
+                    }
+                }
+            }
+        } finally {
+            session.close();
+        }
+        return Arrays.copyOf(pcm, length);
+    }
+}
@@ -0,0 +1,264 @@
+package org.xiph.vorbis.decoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.xiph.vorbis.TestAudio;
+
+/**
+ * Encodes through {@link org.xiph.vorbis.encoder.VorbisEncoder} and decodes the result again through
+ * {@link VorbisDecoder}, with both kinds of feed.
+ */
+public class VorbisDecoderTest {
+    /**
+     * Collects the pcm of an array feed, reading the vorbis data in chunks of a given size
+     */
+    static class ArrayFeed implements DecodeFeed {
+        final byte[] ogg;
+        final int chunk;
+        int position;
+        short[] pcm = new short[0];
+        int length;
+        DecodeStreamInfo info;
+
+        ArrayFeed(byte[] ogg, int chunk) {
+            this.ogg = ogg;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public int readVorbisData(byte[] buffer, int amountToWrite) {
+            int read = Math.min(Math.min(amountToWrite, chunk), ogg.length - position);
+            System.arraycopy(ogg, position, buffer, 0, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void writePCMData(short[] pcmData, int amountToRead) {
+            if (length + amountToRead > pcm.length) {
+                pcm = Arrays.copyOf(pcm, Math.max(2 * pcm.length, length + amountToRead));
+            }
+            System.arraycopy(pcmData, 0, pcm, length, amountToRead);
+            length += amountToRead;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void startReadingHeader() {
+        }
+
+        @Override
+        public void start(DecodeStreamInfo decodeStreamInfo) {
+            info = decodeStreamInfo;
+        }
+
+        short[] pcm() {
+            return Arrays.copyOf(pcm, length);
+        }
+    }
+
+    /**
+     * Collects the pcm of a direct feed, putting the vorbis data in chunks of the sizes given in turn
+     */
+    static class BufferFeed implements ByteBufferDecodeFeed {
+        final byte[] ogg;
+        final int[] chunks;
+        int reads;
+        int position;
+        short[] pcm = new short[0];
+        int length;
+        DecodeStreamInfo info;
+
+        BufferFeed(byte[] ogg, int... chunks) {
+            this.ogg = ogg;
+            this.chunks = chunks;
+        }
+
+        @Override
+        public int readVorbisData(ByteBuffer buffer, int amountToWrite) {
+            int chunk = chunks[reads++ % chunks.length];
+            int read = Math.min(Math.min(amountToWrite, chunk), ogg.length - position);
+            buffer.put(ogg, position, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void writePCMData(ShortBuffer pcmData, int amountToRead) {
+            if (length + amountToRead > pcm.length) {
+                pcm = Arrays.copyOf(pcm, Math.max(2 * pcm.length, length + amountToRead));
+            }
+            pcmData.get(pcm, length, amountToRead);
+            length += amountToRead;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void startReadingHeader() {
+        }
+
+        @Override
+        public void start(DecodeStreamInfo decodeStreamInfo) {
+            info = decodeStreamInfo;
+        }
+
+        short[] pcm() {
+            return Arrays.copyOf(pcm, length);
+        }
+    }
+
+    /**
+     * Collects the float pcm of a float feed, putting all the vorbis data in at once
+     */
+    static class FloatFeed implements FloatDecodeFeed {
+        final byte[] ogg;
+        int position;
+        float[] pcm = new float[0];
+        int length;
+
+        FloatFeed(byte[] ogg) {
+            this.ogg = ogg;
+        }
+
+        @Override
+        public int readVorbisData(ByteBuffer buffer, int amountToWrite) {
+            int read = Math.min(amountToWrite, ogg.length - position);
+            buffer.put(ogg, position, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void writePCMData(FloatBuffer pcmData, int amountToRead) {
+            if (length + amountToRead > pcm.length) {
+                pcm = Arrays.copyOf(pcm, Math.max(2 * pcm.length, length + amountToRead));
+            }
+            pcmData.get(pcm, length, amountToRead);
+            length += amountToRead;
+        }
+
+        @Override
+        public void stop() {
+        }
+
+        @Override
+        public void startReadingHeader() {
+        }
+
+        @Override
+        public void start(DecodeStreamInfo decodeStreamInfo) {
+        }
+    }
+
+    @Test
+    public void roundTripsMono() {
+        roundTrip(1);
+    }
+
+    @Test
+    public void roundTripsStereo() {
+        roundTrip(2);
+    }
+
+    private void roundTrip(int channels) {
+        short[] pcm = TestAudio.pcm(channels, 3 * TestAudio.SAMPLE_RATE);
+        byte[] ogg = TestAudio.encode(pcm, channels, .4f);
+
+        ArrayFeed feed = new ArrayFeed(ogg, Integer.MAX_VALUE);
+        assertEquals(DecodeFeed.SUCCESS, VorbisDecoder.startDecoding(feed));
+        assertEquals(TestAudio.SAMPLE_RATE, feed.info.getSampleRate());
+        assertEquals(channels, feed.info.getChannels());
+
+        short[] decoded = feed.pcm();
+        assertEquals(pcm.length, decoded.length);
+        double snr = TestAudio.snr(pcm, decoded);
+        assertTrue("snr " + snr, snr > 10);
+    }
+
+    @Test
+    public void decodesTheSameThroughBothFeeds() {
+        short[] pcm = TestAudio.pcm(2, 2 * TestAudio.SAMPLE_RATE);
+        byte[] ogg = TestAudio.encode(pcm, 2, .4f);
+
+        ArrayFeed arrayFeed = new ArrayFeed(ogg, 1000);
+        assertEquals(DecodeFeed.SUCCESS, VorbisDecoder.startDecoding(arrayFeed));
+        BufferFeed bufferFeed = new BufferFeed(ogg, Integer.MAX_VALUE);
+        assertEquals(DecodeFeed.SUCCESS, VorbisDecoder.startDecoding(bufferFeed));
+
+        assertArrayEquals(arrayFeed.pcm(), bufferFeed.pcm());
+    }
+
+    @Test
+    public void decodesAlikeWithTheFixedPointEngine() {
+        short[] pcm = TestAudio.pcm(2, 3 * TestAudio.SAMPLE_RATE);
+        byte[] ogg = TestAudio.encode(pcm, 2, .4f);
+
+        ArrayFeed floatFeed = new ArrayFeed(ogg, Integer.MAX_VALUE);
+        assertEquals(DecodeFeed.SUCCESS,
+                VorbisDecoder.startDecoding(floatFeed, 4096, 4096, VorbisDecoder.ENGINE_FLOAT));
+        ArrayFeed fixedFeed = new ArrayFeed(ogg, Integer.MAX_VALUE);
+        assertEquals(DecodeFeed.SUCCESS,
+                VorbisDecoder.startDecoding(fixedFeed, 4096, 4096, VorbisDecoder.ENGINE_FIXED_POINT));
+
+        assertEquals(floatFeed.info.getSampleRate(), fixedFeed.info.getSampleRate());
+        assertEquals(floatFeed.pcm().length, fixedFeed.pcm().length);
+        assertTrue(TestAudio.maxDifference(floatFeed.pcm(), fixedFeed.pcm()) <= 1);
+
+        BufferFeed bufferFeed = new BufferFeed(ogg, Integer.MAX_VALUE);
+        assertEquals(DecodeFeed.SUCCESS,
+                VorbisDecoder.startDecoding(bufferFeed, 4096, 4096, VorbisDecoder.ENGINE_FIXED_POINT));
+        assertArrayEquals(fixedFeed.pcm(), bufferFeed.pcm());
+    }
+
+    @Test
+    public void decodesFloatsAlikeWithTheFixedPointEngine() {
+        byte[] ogg = TestAudio.encode(TestAudio.pcm(2, 2 * TestAudio.SAMPLE_RATE), 2, .4f);
+
+        FloatFeed floatFeed = new FloatFeed(ogg);
+        assertEquals(DecodeFeed.SUCCESS, VorbisDecoder.startDecoding(floatFeed, 4096, 4096));
+        FloatFeed fixedFeed = new FloatFeed(ogg);
+        assertEquals(DecodeFeed.SUCCESS,
+                VorbisDecoder.startDecoding(fixedFeed, 4096, 4096, VorbisDecoder.ENGINE_FIXED_POINT));
+
+        assertEquals(floatFeed.length, fixedFeed.length);
+        for (int i = 0; i < floatFeed.length; i++) {
+            assertEquals(floatFeed.pcm[i], fixedFeed.pcm[i], 1f / 16384);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownEngines() {
+        VorbisDecoder.startDecoding(new ArrayFeed(new byte[0], 1), 4096, 4096, 2);
+    }
+
+    @Test
+    public void rewindsTheReadBufferForEveryRead() {
+        short[] pcm = TestAudio.pcm(2, 3 * TestAudio.SAMPLE_RATE);
+        byte[] ogg = TestAudio.encode(pcm, 2, .4f);
+
+        ArrayFeed arrayFeed = new ArrayFeed(ogg, Integer.MAX_VALUE);
+        assertEquals(DecodeFeed.SUCCESS, VorbisDecoder.startDecoding(arrayFeed));
+        short[] expected = arrayFeed.pcm();
+
+        // some sizes have libogg hand out the region of the previous read again, which must come back rewound
+        for (int size = 4096; size <= 12288; size += 3) {
+            BufferFeed bufferFeed = new BufferFeed(ogg, size);
+            assertEquals(DecodeFeed.SUCCESS, VorbisDecoder.startDecoding(bufferFeed, size, 4096));
+            assertArrayEquals("read size " + size, expected, bufferFeed.pcm());
+        }
+    }
+}
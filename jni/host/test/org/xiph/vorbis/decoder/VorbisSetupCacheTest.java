@@ -0,0 +1,155 @@
+package org.xiph.vorbis.decoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xiph.vorbis.TestAudio;
+import org.xiph.vorbis.util.SetupCacheStats;
+
+/**
+ * Decodes streams of a few encoder settings through {@link VorbisDecoderSession} and checks what the setup header cache
+ * of libvorbis makes of them. The cache is shared by the whole process, so the tests look at how the counters move.
+ */
+public class VorbisSetupCacheTest {
+    private static final int CAPACITY = 2;
+
+    private int capacity;
+
+    @Before
+    public void empty() {
+        capacity = VorbisDecoder.getSetupCacheStats().getCapacity();
+        VorbisDecoder.setSetupCacheCapacity(0);
+        VorbisDecoder.setSetupCacheCapacity(CAPACITY);
+    }
+
+    @After
+    public void restore() {
+        VorbisDecoder.setSetupCacheCapacity(capacity);
+    }
+
+    @Test
+    public void sharesTheSetupOfTheSameSettings() throws IOException {
+        byte[] first = TestAudio.encode(TestAudio.pcm(2, TestAudio.SAMPLE_RATE), 2, .4f);
+        byte[] second = TestAudio.encode(TestAudio.pcm(2, 2 * TestAudio.SAMPLE_RATE), 2, .4f);
+
+        SetupCacheStats before = VorbisDecoder.getSetupCacheStats();
+        short[] expected = decode(first);
+        assertCounts(before, 0, 1, 0);
+
+        before = VorbisDecoder.getSetupCacheStats();
+        assertEquals(2 * 2 * TestAudio.SAMPLE_RATE, decode(second).length);
+        assertCounts(before, 1, 0, 0);
+        assertArrayEquals(expected, decode(first));
+        assertEquals(1, VorbisDecoder.getSetupCacheStats().getEntries());
+    }
+
+    @Test
+    public void unpacksTheSetupOfOtherSettings() throws IOException {
+        short[] pcm = TestAudio.pcm(2, TestAudio.SAMPLE_RATE);
+
+        SetupCacheStats before = VorbisDecoder.getSetupCacheStats();
+        decode(TestAudio.encode(pcm, 2, .4f));
+        decode(TestAudio.encode(pcm, 2, 1f));
+        assertCounts(before, 0, 2, 0);
+        assertEquals(2, VorbisDecoder.getSetupCacheStats().getEntries());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedSetup() throws IOException {
+        short[] pcm = TestAudio.pcm(1, TestAudio.SAMPLE_RATE);
+        byte[] low = TestAudio.encode(pcm, 1, 0f);
+        byte[] middle = TestAudio.encode(pcm, 1, .5f);
+        byte[] high = TestAudio.encode(pcm, 1, 1f);
+
+        SetupCacheStats before = VorbisDecoder.getSetupCacheStats();
+        decode(low);
+        decode(middle);
+        decode(low);
+        decode(high);
+        assertCounts(before, 1, 3, 1);
+        assertEquals(CAPACITY, VorbisDecoder.getSetupCacheStats().getEntries());
+
+        // middle went, low was used after it
+        before = VorbisDecoder.getSetupCacheStats();
+        decode(low);
+        decode(middle);
+        assertCounts(before, 1, 1, 1);
+    }
+
+    @Test
+    public void decodesOnWithAnEvictedSetup() throws IOException {
+        short[] pcm = TestAudio.pcm(2, 3 * TestAudio.SAMPLE_RATE);
+        byte[] ogg = TestAudio.encode(pcm, 2, .4f);
+        short[] expected = decode(ogg);
+
+        VorbisDecoderSession session = new VorbisDecoderSession();
+        try {
+            short[] decoded = new short[expected.length];
+            int length = drain(session, ByteBuffer.wrap(ogg, 0, ogg.length / 3), decoded, 0);
+
+            // drops the entry the session decodes with, the session still holds it
+            SetupCacheStats before = VorbisDecoder.getSetupCacheStats();
+            VorbisDecoder.setSetupCacheCapacity(0);
+            assertCounts(before, 0, 0, 1);
+            assertEquals(0, VorbisDecoder.getSetupCacheStats().getEntries());
+            decode(TestAudio.encode(pcm, 2, 1f));
+
+            length = drain(session, ByteBuffer.wrap(ogg, ogg.length / 3, ogg.length - ogg.length / 3), decoded,
+                    length);
+            session.endOfInput();
+            length = drain(session, null, decoded, length);
+            assertEquals(expected.length, length);
+            assertArrayEquals(expected, decoded);
+        } finally {
+            session.close();
+        }
+    }
+
+    private static void assertCounts(SetupCacheStats before, long hits, long misses, long evictions) {
+        SetupCacheStats after = VorbisDecoder.getSetupCacheStats();
+        assertEquals("hits", hits, after.getHits() - before.getHits());
+        assertEquals("misses", misses, after.getMisses() - before.getMisses());
+        assertEquals("evictions", evictions, after.getEvictions() - before.getEvictions());
+    }
+
+    // Feeds data, if any, and drains the session into pcm from length on until it needs more
+    private static int drain(VorbisDecoderSession session, ByteBuffer data, short[] pcm, int length)
+            throws IOException {
+        ShortBuffer buffer = ShortBuffer.allocate(4096);
+        if (data != null) {
+            session.feed(data);
+        }
+        while (true) {
+            buffer.clear();
+            int drained = session.drainPcm(buffer);
+            if (drained > 0) {
+                System.arraycopy(buffer.array(), 0, pcm, length, drained);
+                length += drained;
+            } else if (drained == VorbisDecoderSession.NEED_MORE_INPUT
+                    || drained == VorbisDecoderSession.END_OF_INPUT) {
+                return length;
+            }
+        }
+    }
+
+    private static short[] decode(byte[] ogg) throws IOException {
+        VorbisDecoderSession session = new VorbisDecoderSession();
+        try {
+            short[] pcm = new short[8 * ogg.length];
+            int length = drain(session, ByteBuffer.wrap(ogg), pcm, 0);
+            session.endOfInput();
+            length = drain(session, null, pcm, length);
+            return Arrays.copyOf(pcm, length);
+        } finally {
+            session.close();
+        }
+    }
+}
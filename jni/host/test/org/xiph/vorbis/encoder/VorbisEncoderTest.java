@@ -0,0 +1,179 @@
+package org.xiph.vorbis.encoder;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.List;
+
+import org.junit.Test;
+import org.xiph.vorbis.TestAudio;
+import org.xiph.vorbis.util.ContextPoolStats;
+
+/**
+ * Encodes through {@link VorbisEncoder} with blocks analysed on one and on several threads, and with new and pooled
+ * encoder contexts, and compares the pages with their serial numbers and checksums masked.
+ */
+public class VorbisEncoderTest {
+    private static final float QUALITY = .4f;
+    private static final long BITRATE = 96000;
+    private static final int THREADS = 4;
+
+    @Test
+    public void encodesOnOneThreadLikeTheSessionEncoder() throws IOException {
+        // the session analyses every block on the calling thread, the serial loop VorbisEncoder had before its
+        // analysis threads. The first block libvorbis cuts depends on how much pcm it was handed at once, and for
+        // stereo both hand it 1024 samples at a time. They page differently, so the packets are compared
+        short[] pcm = TestAudio.pcm(2, 3 * TestAudio.SAMPLE_RATE);
+
+        assertSamePackets(encodeSession(VorbisEncoderSession.createWithQuality(TestAudio.SAMPLE_RATE, 2, QUALITY), pcm),
+                TestAudio.encode(pcm, 2, QUALITY, 1));
+        assertSamePackets(encodeSession(VorbisEncoderSession.createWithBitrate(TestAudio.SAMPLE_RATE, 2, BITRATE), pcm),
+                TestAudio.encodeWithBitrate(pcm, 2, BITRATE, 1));
+    }
+
+    @Test
+    public void encodesOnSeveralThreadsTheSameEachTime() {
+        for (int channels = 1; channels <= 2; channels++) {
+            short[] pcm = TestAudio.pcm(channels, 3 * TestAudio.SAMPLE_RATE);
+
+            assertArrayEquals(TestAudio.maskSerials(TestAudio.encode(pcm, channels, QUALITY, THREADS)),
+                    TestAudio.maskSerials(TestAudio.encode(pcm, channels, QUALITY, THREADS)));
+            // the peaks of blocks in flight reach later blocks late, which can change a byte or so of a managed
+            // bitrate stream against one thread, but never between runs
+            assertArrayEquals(TestAudio.maskSerials(TestAudio.encodeWithBitrate(pcm, channels, BITRATE, THREADS)),
+                    TestAudio.maskSerials(TestAudio.encodeWithBitrate(pcm, channels, BITRATE, THREADS)));
+        }
+    }
+
+    @Test
+    public void encodesOnSeveralThreadsToTheSameQuality() {
+        for (int channels = 1; channels <= 2; channels++) {
+            short[] pcm = TestAudio.pcm(channels, 3 * TestAudio.SAMPLE_RATE);
+
+            checkSameQuality(pcm, TestAudio.encode(pcm, channels, QUALITY, 1),
+                    TestAudio.encode(pcm, channels, QUALITY, THREADS));
+            checkSameQuality(pcm, TestAudio.encodeWithBitrate(pcm, channels, BITRATE, 1),
+                    TestAudio.encodeWithBitrate(pcm, channels, BITRATE, THREADS));
+        }
+    }
+
+    @Test
+    public void encodesWithARestartedContextLikeWithANewOne() {
+        int capacity = VorbisEncoder.getContextPoolStats().getCapacity();
+        try {
+            for (int channels = 1; channels <= 2; channels++) {
+                short[] pcm = TestAudio.pcm(channels, TestAudio.SAMPLE_RATE);
+
+                // quality
+                VorbisEncoder.setContextPoolCapacity(0);
+                ContextPoolStats before = VorbisEncoder.getContextPoolStats();
+                byte[] expected = TestAudio.maskSerials(TestAudio.encode(pcm, channels, QUALITY));
+                assertCounts(before, 0, 1, 1);
+
+                VorbisEncoder.setContextPoolCapacity(capacity);
+                before = VorbisEncoder.getContextPoolStats();
+                assertArrayEquals(expected, TestAudio.maskSerials(TestAudio.encode(pcm, channels, QUALITY)));
+                assertArrayEquals(expected, TestAudio.maskSerials(TestAudio.encode(pcm, channels, QUALITY)));
+                assertCounts(before, 1, 1, 0);
+
+                // managed bitrate
+                VorbisEncoder.setContextPoolCapacity(0);
+                before = VorbisEncoder.getContextPoolStats();
+                expected = TestAudio.maskSerials(TestAudio.encodeWithBitrate(pcm, channels, BITRATE, 1));
+                assertCounts(before, 0, 1, 1);
+
+                VorbisEncoder.setContextPoolCapacity(capacity);
+                before = VorbisEncoder.getContextPoolStats();
+                assertArrayEquals(expected,
+                        TestAudio.maskSerials(TestAudio.encodeWithBitrate(pcm, channels, BITRATE, 1)));
+                assertArrayEquals(expected,
+                        TestAudio.maskSerials(TestAudio.encodeWithBitrate(pcm, channels, BITRATE, 1)));
+                assertCounts(before, 1, 1, 0);
+            }
+        } finally {
+            VorbisEncoder.setContextPoolCapacity(capacity);
+        }
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyReleasedContext() {
+        int capacity = VorbisEncoder.getContextPoolStats().getCapacity();
+        short[] pcm = TestAudio.pcm(1, TestAudio.SAMPLE_RATE / 4);
+        try {
+            VorbisEncoder.setContextPoolCapacity(0);
+            VorbisEncoder.setContextPoolCapacity(2);
+
+            ContextPoolStats before = VorbisEncoder.getContextPoolStats();
+            TestAudio.encode(pcm, 1, 0f);
+            TestAudio.encode(pcm, 1, .5f);
+            TestAudio.encode(pcm, 1, 0f);
+            TestAudio.encode(pcm, 1, 1f);
+            assertCounts(before, 1, 3, 1);
+            assertEquals(2, VorbisEncoder.getContextPoolStats().getIdle());
+
+            // .5 went, 0 was released after it
+            before = VorbisEncoder.getContextPoolStats();
+            TestAudio.encode(pcm, 1, 0f);
+            TestAudio.encode(pcm, 1, .5f);
+            assertCounts(before, 1, 1, 1);
+        } finally {
+            VorbisEncoder.setContextPoolCapacity(capacity);
+        }
+    }
+
+    private static void assertCounts(ContextPoolStats before, long hits, long misses, long evictions) {
+        ContextPoolStats after = VorbisEncoder.getContextPoolStats();
+        assertEquals("hits", hits, after.getHits() - before.getHits());
+        assertEquals("misses", misses, after.getMisses() - before.getMisses());
+        assertEquals("evictions", evictions, after.getEvictions() - before.getEvictions());
+    }
+
+    private static void assertSamePackets(byte[] expected, byte[] actual) {
+        List<byte[]> expectedPackets = TestAudio.packets(expected);
+        List<byte[]> actualPackets = TestAudio.packets(actual);
+        assertEquals(expectedPackets.size(), actualPackets.size());
+        for (int i = 0; i < expectedPackets.size(); i++) {
+            assertArrayEquals("packet " + i, expectedPackets.get(i), actualPackets.get(i));
+        }
+    }
+
+    private static void checkSameQuality(short[] pcm, byte[] expected, byte[] actual) {
+        short[] expectedPcm = TestAudio.decode(expected);
+        short[] actualPcm = TestAudio.decode(actual);
+        assertEquals(expectedPcm.length, actualPcm.length);
+        double expectedSnr = TestAudio.snr(pcm, expectedPcm);
+        double actualSnr = TestAudio.snr(pcm, actualPcm);
+        assertTrue("snr " + actualSnr + " against " + expectedSnr, Math.abs(expectedSnr - actualSnr) < .1);
+    }
+
+    private static byte[] encodeSession(VorbisEncoderSession session, short[] pcm) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer pages = ByteBuffer.allocate(8192);
+        try {
+            for (int i = 0; i < pcm.length; i += 4096) {
+                session.writePcm(ShortBuffer.wrap(pcm, i, Math.min(4096, pcm.length - i)));
+                drain(session, pages, out);
+            }
+            session.finish();
+            while (drain(session, pages, out) != VorbisEncoderSession.END_OF_STREAM) {
+            }
+        } finally {
+            session.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static int drain(VorbisEncoderSession session, ByteBuffer pages, ByteArrayOutputStream out) {
+        int written;
+        while ((written = session.drainPages(pages)) > 0) {
+            out.write(pages.array(), 0, pages.position());
+            pages.clear();
+        }
+        return written;
+    }
+}
@@ -0,0 +1,150 @@
+package org.xiph.vorbis.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xiph.vorbis.TestAudio;
+
+/**
+ * Decodes segments of a file side by side through {@link VorbisBatchDecoder} and stitches them together again.
+ */
+public class VorbisBatchDecoderTest {
+	private static final int	SAMPLES	= 20 * TestAudio.SAMPLE_RATE;
+
+	private File				file;
+	private File				shifted;
+
+	/**
+	 * Collects the float pcm of an item
+	 */
+	static class Collector implements VorbisBatchDecoder.Sink {
+		float[]	pcm	= new float[0];
+		int		length;
+		boolean	ended;
+
+		@Override
+		public void start(VorbisInfo info) {
+		}
+
+		@Override
+		public void write(float[] buffer, int count) {
+			if (length + count > pcm.length) {
+				pcm = Arrays.copyOf(pcm, Math.max(2 * pcm.length, length + count));
+			}
+			System.arraycopy(buffer, 0, pcm, length, count);
+			length += count;
+		}
+
+		@Override
+		public void end() {
+			ended = true;
+		}
+
+		float[] pcm() {
+			return Arrays.copyOf(pcm, length);
+		}
+	}
+
+	@Before
+	public void write() throws IOException {
+		file = File.createTempFile("batch", ".ogg");
+		shifted = File.createTempFile("shifted", ".ogg");
+		TestAudio.write(file, TestAudio.pcm(2, SAMPLES), 2);
+		TestAudio.writeFile(shifted, TestAudio.shiftGranules(TestAudio.readFile(file), 300000));
+	}
+
+	@After
+	public void delete() {
+		file.delete();
+		shifted.delete();
+	}
+
+	@Test
+	public void stitchesSegmentsIntoTheWholeFile() throws Exception {
+		checkStitched(file);
+	}
+
+	@Test
+	public void stitchesSegmentsOfAShiftedStream() throws Exception {
+		checkStitched(shifted);
+	}
+
+	@Test
+	public void reportsEveryFailedItem() throws Exception {
+		VorbisBatchDecoder batch = new VorbisBatchDecoder();
+		Collector decoded = new Collector();
+		batch.add(file.getPath() + ".missing", new Collector());
+		batch.add(file.getPath(), decoded);
+		batch.add(shifted.getPath() + ".missing", new Collector());
+		try {
+			batch.decode(2);
+			fail("decoded missing files");
+		} catch (BatchDecodeException e) {
+			assertEquals(2, e.getFailures().size());
+			assertTrue(e.getFailures().get(0).getMessage().contains(file.getPath() + ".missing"));
+			assertTrue(e.getFailures().get(1).getMessage().contains(shifted.getPath() + ".missing"));
+			assertSame(e.getFailures().get(0), e.getCause());
+		}
+		assertTrue(decoded.ended);
+		assertEquals(SAMPLES * 2, decoded.length);
+	}
+
+	private static void checkStitched(File ogg) throws Exception {
+		final Map<Long, Collector> segments = new TreeMap<Long, Collector>();
+		final Map<Long, Long> lengths = new TreeMap<Long, Long>();
+		VorbisBatchDecoder batch = new VorbisBatchDecoder();
+		int added = batch.addSegments(ogg.getPath(), 7, new VorbisBatchDecoder.SegmentSinkFactory() {
+			@Override
+			public VorbisBatchDecoder.Sink create(int segment, long start, VorbisInfo info) {
+				Collector collector = new Collector();
+				segments.put(start, collector);
+				lengths.put(start, info.length);
+				return collector;
+			}
+		});
+		assertEquals(7, added);
+		batch.decode(3);
+
+		float[] whole = readAll(ogg);
+		float[] stitched = new float[0];
+		long next = 0;
+		for (Map.Entry<Long, Collector> segment : segments.entrySet()) {
+			assertEquals(next, segment.getKey().longValue());
+			float[] pcm = segment.getValue().pcm();
+			assertEquals(lengths.get(segment.getKey()) * 2, pcm.length);
+			stitched = Arrays.copyOf(stitched, stitched.length + pcm.length);
+			System.arraycopy(pcm, 0, stitched, stitched.length - pcm.length, pcm.length);
+			next += pcm.length / 2;
+		}
+		assertEquals(SAMPLES, next);
+		assertArrayEquals(whole, stitched, 0);
+	}
+
+	private static float[] readAll(File ogg) throws IOException {
+		VorbisFileInputStream in = new VorbisFileInputStream(ogg.getPath());
+		try {
+			float[] pcm = new float[(int) in.getDurationSamples() * 2];
+			int length = 0;
+			int read;
+			while (length < pcm.length && (read = in.read(pcm, length, pcm.length - length)) > 0) {
+				length += read;
+			}
+			assertEquals(pcm.length, length);
+			return pcm;
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,259 @@
+package org.xiph.vorbis.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xiph.vorbis.TestAudio;
+import org.xiph.vorbis.decoder.VorbisDecoder;
+import org.xiph.vorbis.util.NativeCleaner;
+
+/**
+ * Writes a file through {@link VorbisFileOutputStream} and reads it back through {@link VorbisFileInputStream}.
+ */
+public class VorbisFileStreamTest {
+	private static final int	CHANNELS	= 2;
+	private static final int	SAMPLES		= 3 * TestAudio.SAMPLE_RATE;
+
+	private short[]				pcm;
+	private File				file;
+
+	@Before
+	public void write() throws IOException {
+		pcm = TestAudio.pcm(CHANNELS, SAMPLES);
+		file = File.createTempFile("stream", ".ogg");
+		TestAudio.write(file, pcm, CHANNELS);
+	}
+
+	@After
+	public void delete() {
+		file.delete();
+	}
+
+	@Test
+	public void roundTrips() throws IOException {
+		VorbisFileInputStream in = new VorbisFileInputStream(file.getPath());
+		try {
+			assertEquals(CHANNELS, in.getInfo().channels);
+			assertEquals(TestAudio.SAMPLE_RATE, in.getInfo().sampleRate);
+			assertEquals(SAMPLES, in.getDurationSamples());
+
+			short[] decoded = TestAudio.readAll(in);
+			assertEquals(pcm.length, decoded.length);
+			double snr = TestAudio.snr(pcm, decoded);
+			assertTrue("snr " + snr, snr > 10);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void readsTheSameFromEverySource() throws IOException {
+		short[] fromFile = readAll(new VorbisFileInputStream(file.getPath()));
+		assertArrayEquals(fromFile, readAll(new VorbisFileInputStream(file.getPath(), true)));
+		assertArrayEquals(fromFile, readAll(new VorbisFileInputStream(ByteBuffer.wrap(TestAudio.readFile(file)))));
+	}
+
+	@Test
+	public void seeksToTheSamplesReadFromTheStart() throws IOException {
+		short[] all = readAll(new VorbisFileInputStream(file.getPath()));
+		VorbisFileInputStream in = new VorbisFileInputStream(file.getPath());
+		try {
+			long sample = 100000;
+			assertEquals(sample, in.seekToSample(sample, true));
+			short[] rest = TestAudio.readAll(in);
+			assertArrayEquals(Arrays.copyOfRange(all, (int) sample * CHANNELS, all.length), rest);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void switchesToTheFixedPointEngineMidStream() throws IOException {
+		short[] all = readAll(new VorbisFileInputStream(file.getPath()));
+		VorbisFileInputStream in = new VorbisFileInputStream(file.getPath());
+		try {
+			short[] start = new short[0];
+			short[] buffer = new short[4096];
+			while (start.length < 10000) {
+				int read = in.read(buffer, 0, buffer.length);
+				start = Arrays.copyOf(start, start.length + read);
+				System.arraycopy(buffer, 0, start, start.length - read, read);
+			}
+			in.setEngine(VorbisDecoder.ENGINE_FIXED_POINT);
+			assertEquals(VorbisDecoder.ENGINE_FIXED_POINT, in.getEngine());
+			short[] rest = TestAudio.readAll(in);
+
+			assertArrayEquals(Arrays.copyOf(all, start.length), start);
+			assertEquals(all.length - start.length, rest.length);
+			assertTrue(TestAudio.maxDifference(Arrays.copyOfRange(all, start.length, all.length), rest) <= 1);
+		} finally {
+			in.close();
+		}
+	}
+
+	@Test
+	public void readsFloatsAndSeeksWithTheFixedPointEngine() throws IOException {
+		VorbisFileInputStream floats = new VorbisFileInputStream(file.getPath());
+		VorbisFileInputStream fixed = new VorbisFileInputStream(file.getPath());
+		try {
+			fixed.setEngine(VorbisDecoder.ENGINE_FIXED_POINT);
+			assertEquals(100000, floats.seekToSample(100000, true));
+			assertEquals(100000, fixed.seekToSample(100000, true));
+
+			float[] expected = new float[4096];
+			float[] actual = new float[4096];
+			int read = Math.min(floats.read(expected, 0, expected.length), fixed.read(actual, 0, actual.length));
+			assertTrue(read > 0);
+			for (int i = 0; i < read; i++) {
+				assertEquals(expected[i], actual[i], 1f / 16384);
+			}
+
+			assertEquals(100000, floats.seekToSample(100000, true));
+			assertEquals(100000, fixed.seekToSample(100000, true));
+			float[][] expectedPlanar = new float[CHANNELS][1000];
+			float[][] actualPlanar = new float[CHANNELS][1000];
+			read = Math.min(floats.read(expectedPlanar, 0, 1000), fixed.read(actualPlanar, 0, 1000));
+			assertTrue(read > 0);
+			for (int i = 0; i < CHANNELS; i++) {
+				for (int j = 0; j < read; j++) {
+					assertEquals(expectedPlanar[i][j], actualPlanar[i][j], 1f / 16384);
+				}
+			}
+		} finally {
+			floats.close();
+			fixed.close();
+		}
+	}
+
+	@Test
+	public void opensAndClosesFromManyThreads() throws Exception {
+		final byte[] ogg = TestAudio.readFile(file);
+		final short[] expected = new short[4096];
+		VorbisFileInputStream first = new VorbisFileInputStream(ByteBuffer.wrap(ogg));
+		first.read(expected, 0, expected.length);
+		first.close();
+
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		Thread[] threads = new Thread[8];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				@Override
+				public void run() {
+					try {
+						short[] pcm = new short[expected.length];
+						for (int round = 0; round < 50; round++) {
+							VorbisFileInputStream in = new VorbisFileInputStream(ByteBuffer.wrap(ogg));
+							in.read(pcm, 0, pcm.length);
+							in.close();
+							assertArrayEquals(expected, pcm);
+							try {
+								in.read(pcm, 0, pcm.length);
+								fail("read a closed stream");
+							} catch (IOException e) {
+								// the handle of a closed stream stays stale
+							}
+						}
+					} catch (Throwable e) {
+						failure.compareAndSet(null, e);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+	}
+
+	@Test
+	public void reclaimsStreamsThatWereNeverClosed() throws Exception {
+		byte[] ogg = TestAudio.readFile(file);
+		short[] expected = new short[4096];
+		VorbisFileInputStream first = new VorbisFileInputStream(ByteBuffer.wrap(ogg));
+		first.read(expected, 0, expected.length);
+		first.close();
+
+		File leaked = File.createTempFile("leaked", ".ogg");
+		List<VorbisFileInputStream> opened = new ArrayList<VorbisFileInputStream>();
+		try {
+			long reclaimed = NativeCleaner.getReclaimedCount();
+			long[] handles = leak(leaked);
+			for (int i = 0; i < 500 && NativeCleaner.getReclaimedCount() < reclaimed + handles.length; i++) {
+				System.gc();
+				Thread.sleep(10);
+			}
+			assertTrue(NativeCleaner.getReclaimedCount() >= reclaimed + handles.length);
+
+			// the cleaner finished the file of the output stream
+			assertEquals(pcm.length, readAll(new VorbisFileInputStream(leaked.getPath())).length);
+
+			// and freed both slots, the next streams take them with a new generation
+			short[] read = new short[expected.length];
+			int reused = 0;
+			while (reused < handles.length && opened.size() < 16) {
+				VorbisFileInputStream in = new VorbisFileInputStream(ByteBuffer.wrap(ogg));
+				opened.add(in);
+				long handle = handle(in);
+				for (long old : handles) {
+					if ((int) old == (int) handle) {
+						assertTrue(old >>> 32 != handle >>> 32);
+						reused++;
+					}
+				}
+				in.read(read, 0, read.length);
+				assertArrayEquals(expected, read);
+			}
+			assertEquals(handles.length, reused);
+		} finally {
+			for (VorbisFileInputStream in : opened) {
+				in.close();
+			}
+			leaked.delete();
+		}
+	}
+
+	// Opens a stream of each kind, uses them and drops them unclosed, returning their handles
+	private long[] leak(File leaked) throws Exception {
+		VorbisFileInputStream in = new VorbisFileInputStream(file.getPath());
+		in.read(new short[4096], 0, 4096);
+
+		VorbisInfo info = new VorbisInfo();
+		info.channels = CHANNELS;
+		info.sampleRate = TestAudio.SAMPLE_RATE;
+		VorbisFileOutputStream out = new VorbisFileOutputStream(leaked.getPath(), info);
+		out.write(pcm, 0, pcm.length);
+
+		return new long[] { handle(in), handle(out) };
+	}
+
+	private static long handle(Object stream) throws Exception {
+		Field field = stream.getClass().getDeclaredField("oggStreamHandle");
+		field.setAccessible(true);
+		return field.getLong(stream);
+	}
+
+	private static short[] readAll(VorbisFileInputStream in) throws IOException {
+		try {
+			return TestAudio.readAll(in);
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package org.xiph.vorbis.stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xiph.vorbis.TestAudio;
+import org.xiph.vorbis.decoder.VorbisDecoder;
+import org.xiph.vorbis.util.SetupCacheStats;
+
+/**
+ * Probes files written through {@link VorbisFileOutputStream} and checks what {@link VorbisProbe} reads against what
+ * {@link VorbisFileInputStream} does.
+ */
+public class VorbisProbeTest {
+	private static final int	SAMPLES	= 20 * TestAudio.SAMPLE_RATE;
+
+	private File				file;
+	private File				shifted;
+
+	@Before
+	public void write() throws IOException {
+		file = File.createTempFile("probe", ".ogg");
+		shifted = File.createTempFile("shifted", ".ogg");
+		TestAudio.write(file, TestAudio.pcm(2, SAMPLES), 2);
+		TestAudio.writeFile(shifted, TestAudio.shiftGranules(TestAudio.readFile(file), 300000));
+	}
+
+	@After
+	public void delete() {
+		file.delete();
+		shifted.delete();
+	}
+
+	@Test
+	public void readsTheFormat() throws IOException {
+		VorbisProbe probe = VorbisProbe.probe(file.getPath());
+		assertEquals(2, probe.getChannels());
+		assertEquals(TestAudio.SAMPLE_RATE, probe.getSampleRate());
+		assertEquals(SAMPLES, probe.getDurationSamples());
+		assertEquals(file.length(), probe.getSourceLength());
+		assertTrue(probe.getVendor(), probe.getVendor().startsWith("Xiph.Org libVorbis"));
+	}
+
+	@Test
+	public void measuresAShiftedStreamFromItsStart() throws IOException {
+		VorbisFileInputStream in = new VorbisFileInputStream(shifted.getPath());
+		try {
+			assertEquals(in.getDurationSamples(), VorbisProbe.probe(shifted.getPath()).getDurationSamples());
+		} finally {
+			in.close();
+		}
+		assertEquals(SAMPLES, VorbisProbe.probe(shifted.getPath()).getDurationSamples());
+	}
+
+	@Test
+	public void readsTheSameFromEverySource() throws IOException {
+		byte[] ogg = TestAudio.readFile(shifted);
+		ByteBuffer direct = ByteBuffer.allocateDirect(ogg.length);
+		direct.put(ogg).flip();
+		assertEquals(SAMPLES, VorbisProbe.probe(ByteBuffer.wrap(ogg)).getDurationSamples());
+		assertEquals(SAMPLES, VorbisProbe.probe(direct).getDurationSamples());
+		assertEquals(SAMPLES, VorbisProbe.probe(ByteBuffer.wrap(ogg).asReadOnlyBuffer()).getDurationSamples());
+	}
+
+	@Test
+	public void leavesTheSetupCacheAlone() throws IOException {
+		SetupCacheStats before = VorbisDecoder.getSetupCacheStats();
+		VorbisProbe.probe(file.getPath());
+		VorbisProbe.probe(shifted.getPath());
+		VorbisSeekIndex.build(shifted.getPath());
+		SetupCacheStats after = VorbisDecoder.getSetupCacheStats();
+
+		assertEquals(before.getHits(), after.getHits());
+		assertEquals(before.getMisses(), after.getMisses());
+		assertEquals(before.getEvictions(), after.getEvictions());
+		assertEquals(before.getEntries(), after.getEntries());
+	}
+
+	@Test
+	public void rejectsOtherData() {
+		try {
+			VorbisProbe.probe(ByteBuffer.wrap(new byte[100000]));
+			fail("probed zeros");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
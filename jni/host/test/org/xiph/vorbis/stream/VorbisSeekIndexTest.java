@@ -0,0 +1,131 @@
+package org.xiph.vorbis.stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.xiph.vorbis.TestAudio;
+
+/**
+ * Seeks through a {@link VorbisSeekIndex} and checks that the pcm read afterwards is the pcm read after bisecting the
+ * file, also for a stream whose granule positions don't start at 0.
+ */
+public class VorbisSeekIndexTest {
+	private static final int	SAMPLES	= 15 * TestAudio.SAMPLE_RATE;
+	// as in a stream cut out of a live broadcast
+	private static final long	SHIFT	= 300000;
+
+	private File				file;
+	private File				shifted;
+
+	@Before
+	public void write() throws IOException {
+		file = File.createTempFile("index", ".ogg");
+		shifted = File.createTempFile("shifted", ".ogg");
+		TestAudio.write(file, TestAudio.pcm(1, SAMPLES), 1);
+		TestAudio.writeFile(shifted, TestAudio.shiftGranules(TestAudio.readFile(file), SHIFT));
+	}
+
+	@After
+	public void delete() {
+		file.delete();
+		shifted.delete();
+	}
+
+	@Test
+	public void seeksLikeBisecting() throws IOException {
+		checkSeeks(file);
+	}
+
+	@Test
+	public void seeksLikeBisectingFromAShiftedStart() throws IOException {
+		checkSeeks(shifted);
+	}
+
+	@Test
+	public void indexesPositionsFromTheStartOfTheStream() throws IOException {
+		VorbisSeekIndex index = VorbisSeekIndex.build(shifted.getPath());
+		VorbisSeekIndex unshifted = VorbisSeekIndex.build(file.getPath());
+		assertEquals(unshifted.size(), index.size());
+		for (int page = 0; page < index.size(); page++) {
+			assertEquals(unshifted.getSample(page), index.getSample(page));
+		}
+		assertEquals(SAMPLES, index.getSample(index.size() - 1));
+	}
+
+	@Test
+	public void savesAndLoads() throws IOException {
+		VorbisSeekIndex index = VorbisSeekIndex.build(file.getPath());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		index.writeTo(out);
+		VorbisSeekIndex loaded = VorbisSeekIndex.readFrom(new ByteArrayInputStream(out.toByteArray()));
+		assertEquals(index.getFileLength(), loaded.getFileLength());
+		assertEquals(index.size(), loaded.size());
+		for (int page = 0; page < index.size(); page++) {
+			assertEquals(index.getSample(page), loaded.getSample(page));
+			assertEquals(index.getOffset(page), loaded.getOffset(page));
+		}
+	}
+
+	@Test
+	public void rejectsPageCountsOutOfRange() throws IOException {
+		checkRejected(1000, -1);
+		checkRejected(1000, 1001);
+		checkRejected(1000, Integer.MAX_VALUE + 1L);
+	}
+
+	private static void checkRejected(long fileLength, long count) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0x4f565349);
+		out.writeByte(1);
+		writeVarLong(out, fileLength);
+		writeVarLong(out, count);
+		try {
+			VorbisSeekIndex.readFrom(new ByteArrayInputStream(bytes.toByteArray()));
+			fail("read a count of " + count);
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static void checkSeeks(File ogg) throws IOException {
+		VorbisSeekIndex index = VorbisSeekIndex.build(ogg.getPath());
+		VorbisFileInputStream indexed = new VorbisFileInputStream(ogg.getPath());
+		VorbisFileInputStream bisected = new VorbisFileInputStream(ogg.getPath());
+		try {
+			assertEquals(SAMPLES, indexed.getDurationSamples());
+			indexed.setSeekIndex(index);
+			short[] expected = new short[2048];
+			short[] actual = new short[2048];
+			for (long sample : new long[] { 0, 1000, 99999, 400000, 400000, 123456, SAMPLES - 3000, 5 }) {
+				assertEquals(sample, bisected.seekToSample(sample));
+				assertEquals(sample, indexed.seekToSample(sample));
+				assertEquals(sample, indexed.getPositionSamples());
+				int read = bisected.read(expected, 0, expected.length);
+				assertEquals(read, indexed.read(actual, 0, actual.length));
+				assertArrayEquals("at " + sample, expected, actual);
+			}
+		} finally {
+			indexed.close();
+			bisected.close();
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Stress test of the handle registry of libvorbis-stream, see
+ * stream/registry.h. Fills the table to its last slot, empties it and fills
+ * it again, then has threads add, acquire and remove handles side by side.
+ * Exits with 1 and says why on the first check that fails.
+ *
+ *	make -C jni/host test
+ */
+
+#include <stdio.h>
+#include <stdlib.h>
+#include <pthread.h>
+#include <stream/registry.h>
+
+/* MAX_CHUNKS * CHUNK_SIZE of registry.c */
+#define CAPACITY	(1024 * 256)
+#define THREADS		8
+#define ROUNDS		200000
+#define KEPT		64
+
+static jlong handles[CAPACITY];
+static int values[CAPACITY];
+
+#define check(condition) do { \
+	if (!(condition)) { \
+		fprintf(stderr, "%s:%d: %s failed\n", __FILE__, __LINE__, #condition); \
+		exit(1); \
+	} \
+} while (0)
+
+/* Fills every slot and checks each handle leads to its own value */
+static void fill(void)
+{
+	int i;
+
+	for (i = 0; i < CAPACITY; i++) {
+		handles[i] = registry_add(REGISTRY_INPUT_STREAM, &values[i]);
+		check(handles[i] != 0);
+	}
+	check(registry_add(REGISTRY_INPUT_STREAM, &values[0]) == 0);
+	for (i = 0; i < CAPACITY; i++) {
+		check(registry_acquire(handles[i], REGISTRY_INPUT_STREAM) == &values[i]);
+		registry_release(handles[i]);
+	}
+}
+
+static void empty(void)
+{
+	int i;
+
+	for (i = 0; i < CAPACITY; i++) {
+		check(registry_remove(handles[i], REGISTRY_INPUT_STREAM) == &values[i]);
+		check(registry_acquire(handles[i], REGISTRY_INPUT_STREAM) == NULL);
+	}
+}
+
+/* Opens and closes handles, keeping a few open at a time */
+static void * churn(void * arg)
+{
+	int id = (int)(long)arg;
+	jlong kept[KEPT] = { 0 };
+	int value[KEPT];
+	int round;
+
+	for (round = 0; round < ROUNDS; round++) {
+		int k = (round * 7 + id) % KEPT;
+
+		if (kept[k] != 0) {
+			check(registry_acquire(kept[k], REGISTRY_INPUT_STREAM) == &value[k]);
+			check(registry_acquire(kept[k], REGISTRY_OUTPUT_STREAM) == NULL);
+			registry_release(kept[k]);
+			check(registry_remove(kept[k], REGISTRY_INPUT_STREAM) == &value[k]);
+			/* a closed handle stays closed, whoever gets its slot next */
+			check(registry_acquire(kept[k], REGISTRY_INPUT_STREAM) == NULL);
+			check(registry_remove(kept[k], REGISTRY_INPUT_STREAM) == NULL);
+		}
+		kept[k] = registry_add(REGISTRY_INPUT_STREAM, &value[k]);
+		check(kept[k] != 0);
+	}
+	for (round = 0; round < KEPT; round++) {
+		if (kept[round] != 0)
+			check(registry_remove(kept[round], REGISTRY_INPUT_STREAM) == &value[round]);
+	}
+	return NULL;
+}
+
+int main(void)
+{
+	pthread_t threads[THREADS];
+	int i;
+
+	fill();
+	empty();
+	/* the second time round every slot comes off the free stack */
+	fill();
+	empty();
+
+	for (i = 0; i < THREADS; i++)
+		check(pthread_create(&threads[i], NULL, churn, (void *)(long)i) == 0);
+	for (i = 0; i < THREADS; i++)
+		pthread_join(threads[i], NULL);
+
+	fill();
+	empty();
+
+	printf("registry-test: OK\n");
+	return 0;
+}
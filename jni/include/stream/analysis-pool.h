@@ -0,0 +1,49 @@
+/*
+ * Runs vorbis_analysis on several blocks of one stream at once.
+ *
+ * vorbis_analysis_blockout hands out blocks in order and each block is then
+ * analysed on its own, so a pool keeps a ring of blocks in flight that worker
+ * threads, and the caller while it waits, analyse concurrently. Blocks are
+ * added to the bitrate manager strictly in stream order, so the packets come
+ * out exactly as they would encoding serially.
+ *
+ * The one thing a block passes on to the next is the loudest peak seen so
+ * far, which the psychoacoustics let decay over time. With blocks in flight
+ * a peak reaches the blocks after it a few blocks late. A pool of one thread
+ * analyses one block at a time and encodes exactly like the serial loop.
+ */
+#ifndef _STREAM_ANALYSIS_POOL_H
+#define _STREAM_ANALYSIS_POOL_H
+
+#include <vorbis/codec.h>
+
+/* More threads than this are clamped to it */
+#define ANALYSIS_POOL_MAX_THREADS	16
+
+struct analysis_pool;
+
+/*
+ * Creates a pool analysing the blocks of vd on threads threads, the caller
+ * counting as one of them. Returns NULL if out of memory.
+ */
+struct analysis_pool *
+analysis_pool_create(vorbis_dsp_state * vd, int threads);
+
+/*
+ * Takes the place of vorbis_analysis_blockout, vorbis_analysis and
+ * vorbis_bitrate_addblock: returns 1 each time the next block in stream
+ * order has been analysed and added to the bitrate manager, 0 when there
+ * isn't one yet. Drain vorbis_bitrate_flushpacket before calling again, the
+ * block is reused. Until vorbis_analysis_wrote(vd, 0) marks the end of the
+ * stream blocks can be kept in flight between calls.
+ */
+int
+analysis_pool_blockout(struct analysis_pool * pool);
+
+/*
+ * Waits for the threads of the pool and frees it, before vorbis_dsp_clear.
+ */
+void
+analysis_pool_free(struct analysis_pool * pool);
+
+#endif
@@ -0,0 +1,77 @@
+/*
+ * Keeps encoder contexts between streams.
+ *
+ * Setting up an encoder is dominated by vorbis_analysis_init building the
+ * psychoacoustic, MDCT and FFT lookups, which takes longer than encoding a
+ * short clip. The lookups only depend on how the encoder was set up, so a
+ * context released at the end of a stream is kept idle and handed to the
+ * next stream set up the same way, restarted with vorbis_analysis_restart.
+ * A restarted context encodes exactly like a new one.
+ *
+ * The pool is shared by every stream of the library and bounded by the
+ * number of idle contexts it keeps, the least recently released context is
+ * freed first.
+ */
+#ifndef _STREAM_CONTEXT_POOL_H
+#define _STREAM_CONTEXT_POOL_H
+
+#include <vorbis/codec.h>
+
+/* How a context is set up, as vorbis_encode_init or vorbis_encode_init_vbr */
+enum {
+	CONTEXT_POOL_WITH_BITRATE = 1,
+	CONTEXT_POOL_WITH_QUALITY = 2,
+};
+
+/* The idle contexts kept until told otherwise */
+#define CONTEXT_POOL_DEFAULT_CAPACITY	4
+
+struct encoder_context {
+	vorbis_info					vi;
+	vorbis_dsp_state			vd;
+
+	/* the set up, and the next idle context, private to the pool */
+	int							type;
+	long						channels;
+	long						rate;
+	float						quality;
+	long						bitrate;
+	struct encoder_context *	next;
+};
+
+struct context_pool_stats {
+	long long	hits;		/* contexts handed out again */
+	long long	misses;		/* contexts set up from scratch */
+	long long	evictions;	/* idle contexts freed to stay in capacity */
+	int			idle;		/* contexts kept right now */
+	int			capacity;
+};
+
+/*
+ * Hands out a context ready for vorbis_analysis_headerout, set up with
+ * vorbis_encode_init for CONTEXT_POOL_WITH_BITRATE and with
+ * vorbis_encode_init_vbr for CONTEXT_POOL_WITH_QUALITY. Returns NULL with
+ * error set to the libvorbis error code if it can't be set up.
+ */
+struct encoder_context *
+context_pool_acquire(int type, long channels, long rate, float quality,
+		long bitrate, int * error);
+
+/*
+ * Takes back a context once its stream is done with it, whether or not the
+ * stream was finished, and keeps it or frees it.
+ */
+void
+context_pool_release(struct encoder_context * context);
+
+/*
+ * Changes the number of idle contexts kept, 0 frees every context at the
+ * end of its stream.
+ */
+void
+context_pool_set_capacity(int capacity);
+
+void
+context_pool_get_stats(struct context_pool_stats * stats);
+
+#endif
@@ -0,0 +1,47 @@
+/*
+ * Works out where the pcm of a link starts, the way vorbisfile does.
+ *
+ * The granule position of a page is the pcm position at its end, but a
+ * stream doesn't have to start at 0: one cut out of a live broadcast keeps
+ * the granule positions it had there. vorbisfile counts the pcm of a link
+ * from the granule position of its first audio page less the samples
+ * completed on that page, so anything mapping granule positions to pcm
+ * positions has to take that start off too. Counting the samples means
+ * knowing the block size of each packet, so the setup header is unpacked,
+ * though past the setup cache: nothing is decoded with it.
+ */
+#ifndef _STREAM_LINK_START_H
+#define _STREAM_LINK_START_H
+
+#include <ogg/ogg.h>
+#include <vorbis/codec.h>
+
+struct link_start {
+	ogg_stream_state	os;
+	vorbis_info			vi;
+	vorbis_comment		vc;
+	int					headers;	/* header packets taken */
+	long				lastblock;	/* block size of the last audio packet, -1 before the first */
+	ogg_int64_t			samples;	/* samples completed by the audio packets taken */
+};
+
+/*
+ * Starts on the link of a vorbis stream.
+ */
+void
+link_start_init(struct link_start * ls, int serial);
+
+/*
+ * Takes the next page of the stream, from its beginning of stream page on.
+ * Returns 1 once the start is known and put in start, 0 while more pages
+ * are needed or OV_EBADHEADER if the headers are broken. Once the
+ * identification and comment headers have been taken their contents are in
+ * vi and vc.
+ */
+int
+link_start_pagein(struct link_start * ls, ogg_page * og, ogg_int64_t * start);
+
+void
+link_start_clear(struct link_start * ls);
+
+#endif
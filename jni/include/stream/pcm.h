@@ -0,0 +1,78 @@
+/*
+ * Conversion of pcm between the interleaved 16 bit or float samples java
+ * hands around and the per channel float, or fixed point, buffers of
+ * libvorbis.
+ *
+ * Every kernel is built for the scalar fallback and whichever of SSE2, AVX2
+ * and NEON the ABI can have, and the fastest one the cpu supports is picked
+ * the first time pcm_kernels is called. All of them give exactly the results
+ * of the scalar one.
+ */
+#ifndef _STREAM_PCM_H
+#define _STREAM_PCM_H
+
+#include <ogg/os_types.h>
+
+/* The instruction sets kernels are built for */
+enum {
+	PCM_SCALAR = 0,
+	PCM_SSE2 = 1,
+	PCM_AVX2 = 2,
+	PCM_NEON = 3,
+	PCM_ISA_COUNT
+};
+
+struct pcm_kernels {
+	int				isa;
+	const char *	name;
+
+	/*
+	 * Rounds floats to 16 bit signed ints (host order), clipping them,
+	 * and interleaves them. Returns whether anything clipped.
+	 */
+	int (*quantize)(float ** pcm, int channels, int samples, ogg_int16_t * out);
+
+	/*
+	 * Interleaves floats as they are.
+	 */
+	void (*interleave)(float ** pcm, int channels, int samples, float * out);
+
+	/*
+	 * Scales interleaved 16 bit signed ints (host order) to floats from -1
+	 * to 1 and splits them into the channels.
+	 */
+	void (*dequantize)(const ogg_int16_t * pcm, int channels, int samples, float ** out);
+
+	/*
+	 * Splits interleaved floats into the channels as they are.
+	 */
+	void (*deinterleave)(const float * pcm, int channels, int samples, float ** out);
+
+	/*
+	 * quantize for the 8.24 ints of the fixed point synthesis, 1 << 24 being
+	 * full scale: rounds them to 16 bit signed ints (host order) the way
+	 * quantize rounds floats, clipping them, and interleaves them. Returns
+	 * whether anything clipped.
+	 */
+	int (*quantizeFixed)(ogg_int32_t ** pcm, int channels, int samples, ogg_int16_t * out);
+
+	/*
+	 * Scales 8.24 ints to floats from -1 to 1 and interleaves them.
+	 */
+	void (*interleaveFixed)(ogg_int32_t ** pcm, int channels, int samples, float * out);
+};
+
+/*
+ * The fastest kernels the cpu supports.
+ */
+const struct pcm_kernels *
+pcm_kernels(void);
+
+/*
+ * The kernels of an instruction set, NULL if they aren't built for this ABI
+ * or the cpu doesn't support them.
+ */
+const struct pcm_kernels *
+pcm_kernels_for(int isa);
+
+#endif
@@ -0,0 +1,46 @@
+/*
+ * A lock free table of the native streams handed out to java.
+ *
+ * Java only ever sees a long handle made of a slot index and the generation
+ * of that slot. Closing a stream bumps the generation, so a stale handle of a
+ * closed stream can never reach whatever stream reuses its slot.
+ */
+#ifndef _STREAM_REGISTRY_H
+#define _STREAM_REGISTRY_H
+
+#include <jni.h>
+
+/* What kind of stream a handle refers to */
+enum {
+	REGISTRY_INPUT_STREAM = 1,
+	REGISTRY_OUTPUT_STREAM = 2,
+};
+
+/*
+ * Registers a stream, returns its handle or 0 if the table is full.
+ */
+jlong
+registry_add(int type, void * value);
+
+/*
+ * Looks up the stream of a handle and pins it so it can't be removed while
+ * in use, NULL if the handle is stale or of another type. Every successful
+ * acquire must be followed by a registry_release.
+ */
+void *
+registry_acquire(jlong handle, int type);
+
+/*
+ * Unpins a stream acquired with registry_acquire.
+ */
+void
+registry_release(jlong handle);
+
+/*
+ * Unregisters a stream once nobody has it pinned, returns it so it can be
+ * freed, NULL if the handle is stale or of another type.
+ */
+void *
+registry_remove(jlong handle, int type);
+
+#endif
@@ -0,0 +1,39 @@
+/*
+ * Where an input stream reads its vorbis data from, as vorbisfile callbacks.
+ *
+ * Every source is opened into a datasource and the callbacks to hand to
+ * ov_open_callbacks. Once that succeeds ov_clear closes the source, if it
+ * fails the source must be closed with callbacks->close_func.
+ */
+#ifndef _STREAM_SOURCE_H
+#define _STREAM_SOURCE_H
+
+#include <jni.h>
+#include <vorbis/vorbisfile.h>
+
+/*
+ * Maps a whole file into memory, so reads are copies out of the page cache
+ * and seeks only move an offset. Returns 0, or an errno value on failure.
+ */
+int
+source_open_mapped(const char * path, void ** datasource, ov_callbacks * callbacks);
+
+/*
+ * Reads length bytes of a direct buffer from offset on, in place. The buffer
+ * is kept alive until the source is closed. Returns 0, or an errno value.
+ */
+int
+source_open_buffer(JNIEnv * env, jobject buffer, jint offset, jint length,
+		void ** datasource, ov_callbacks * callbacks);
+
+/*
+ * Reads a java VorbisSource, calling back into it in large batches. An
+ * unseekable source is opened without seek and tell callbacks. If a java
+ * method throws, its exception is left pending and every later call fails
+ * with an IOException. Returns 0, or an errno value.
+ */
+int
+source_open_java(JNIEnv * env, jobject source, int seekable,
+		void ** datasource, ov_callbacks * callbacks);
+
+#endif
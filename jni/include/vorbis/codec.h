@@ -184,6 +184,7 @@ extern const char *vorbis_version_string(void);
 /* Vorbis PRIMITIVES: analysis/DSP layer ****************************/
 
 extern int      vorbis_analysis_init(vorbis_dsp_state *v,vorbis_info *vi);
+extern int      vorbis_analysis_restart(vorbis_dsp_state *v);
 extern int      vorbis_commentheader_out(vorbis_comment *vc, ogg_packet *op);
 extern int      vorbis_analysis_headerout(vorbis_dsp_state *v,
                                           vorbis_comment *vc,
@@ -217,6 +218,39 @@ extern long     vorbis_packet_blocksize(vorbis_info *vi,ogg_packet *op);
 extern int      vorbis_synthesis_halfrate(vorbis_info *v,int flag);
 extern int      vorbis_synthesis_halfrate_p(vorbis_info *v);
 
+/* Fixed point synthesis: set before vorbis_synthesis_init, blocks are
+   then synthesized with 32 bit ints alone, for cpus without a fast
+   FPU. Its pcm comes from vorbis_synthesis_pcmout_fixed in 8.24 fixed
+   point, 1<<24 being full scale. vorbis_synthesis_pcmout only counts
+   it and lapout refuses it. It can't be combined with half rate
+   synthesis. */
+extern int      vorbis_synthesis_fixed(vorbis_info *v,int flag);
+extern int      vorbis_synthesis_fixed_p(vorbis_info *v);
+extern int      vorbis_synthesis_pcmout_fixed(vorbis_dsp_state *v,
+                                              ogg_int32_t ***pcm);
+
+/* Vorbis PRIMITIVES: setup cache ***********************************/
+
+/* Streams with the same setup header share what vorbis_synthesis_headerin
+   unpacks from it, the decode tables of their codebooks included. Up to
+   capacity setups are kept, the least recently used go first. */
+typedef struct vorbis_setup_cache_stats{
+  ogg_int64_t hits;      /* setup headers found in the cache */
+  ogg_int64_t misses;    /* setup headers unpacked */
+  ogg_int64_t evictions; /* setups dropped to stay within capacity */
+  int         entries;
+  int         capacity;
+} vorbis_setup_cache_stats;
+
+/* vorbis_synthesis_headerin without the cache, for reading headers
+   of streams that aren't decoded: the setup is unpacked, but the
+   decode tables aren't built and nothing is looked up or kept. */
+extern int      vorbis_synthesis_headerin_uncached(vorbis_info *vi,
+                                                   vorbis_comment *vc,
+                                                   ogg_packet *op);
+extern void     vorbis_setup_cache_set_capacity(int entries);
+extern void     vorbis_setup_cache_get_stats(vorbis_setup_cache_stats *stats);
+
 /* Vorbis ERRORS and return codes ***********************************/
 
 #define OV_FALSE      -1
@@ -198,6 +198,11 @@ extern int ov_crosslap(OggVorbis_File *vf1,OggVorbis_File *vf2);
 extern int ov_halfrate(OggVorbis_File *vf,int flag);
 extern int ov_halfrate_p(OggVorbis_File *vf);
 
+extern int ov_fixed(OggVorbis_File *vf,int flag);
+extern int ov_fixed_p(OggVorbis_File *vf);
+extern long ov_read_fixed(OggVorbis_File *vf,ogg_int32_t ***pcm_channels,int samples,
+                          int *bitstream);
+
 #ifdef __cplusplus
 }
 #endif /* __cplusplus */
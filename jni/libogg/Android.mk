@@ -4,9 +4,16 @@ include $(CLEAR_VARS)
 
 LOCAL_MODULE := libogg
 LOCAL_CFLAGS += -I$(LOCAL_PATH)/../include -ffast-math -fsigned-char
-ifeq ($(TARGET_ARCH),arm)
+ifeq ($(TARGET_ARCH_ABI),armeabi)
 	LOCAL_CFLAGS += -march=armv6 -marm -mfloat-abi=softfp -mfpu=vfp
 endif
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+	# the ndk defaults to armv7-a with vfpv3-d16, NEON is added for the tuned build
+	LOCAL_CFLAGS += -O3 -marm
+endif
+ifneq ($(filter arm64-v8a x86 x86_64,$(TARGET_ARCH_ABI)),)
+	LOCAL_CFLAGS += -O3
+endif
 
 
 LOCAL_SRC_FILES := \
@@ -4,9 +4,17 @@ include $(CLEAR_VARS)
 
 LOCAL_MODULE := vorbis-jni
 LOCAL_CFLAGS += -I$(LOCAL_PATH)/../include -fsigned-char
-ifeq ($(TARGET_ARCH),arm)
+ifeq ($(TARGET_ARCH_ABI),armeabi)
 	LOCAL_CFLAGS += -march=armv6 -marm -mfloat-abi=softfp -mfpu=vfp
 endif
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+	# the ndk defaults to armv7-a with vfpv3-d16, .neon files get -mfpu=neon on top
+	LOCAL_CFLAGS += -marm -DHAVE_NEON
+	LOCAL_STATIC_LIBRARIES := cpufeatures
+endif
+ifeq ($(TARGET_ARCH_ABI),arm64-v8a)
+	LOCAL_CFLAGS += -DHAVE_NEON
+endif
 
 LOCAL_SHARED_LIBRARIES := libogg libvorbis
 
@@ -14,6 +22,22 @@ LOCAL_LDLIBS := -L$(SYSROOT)/usr/lib -llog
 
 LOCAL_SRC_FILES := \
 	org_xiph_vorbis_encoder_VorbisEncoder.c \
-	org_xiph_vorbis_decoder_VorbisDecoder.c
+	org_xiph_vorbis_encoder_VorbisEncoderSession.c \
+	org_xiph_vorbis_decoder_VorbisDecoder.c \
+	org_xiph_vorbis_decoder_VorbisDecoderSession.c \
+	decoder-session.c \
+	encoder-session.c \
+	../libvorbis-stream/pcm.c \
+	../libvorbis-stream/analysis-pool.c \
+	../libvorbis-stream/context-pool.c \
+	../libvorbis-stream/jni-util.c
+
+# Only the pcm kernels are built with NEON, armeabi-v7a checks for it at runtime
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+	LOCAL_SRC_FILES += ../libvorbis-stream/pcm-neon.c.neon
+endif
+ifeq ($(TARGET_ARCH_ABI),arm64-v8a)
+	LOCAL_SRC_FILES += ../libvorbis-stream/pcm-neon.c
+endif
 
 include $(BUILD_SHARED_LIBRARY)
@@ -0,0 +1,283 @@
+/* An incremental version of the decoder loop from the libvorbis
+decoder_example.c. Instead of pulling data from a callback the session is
+handed data whenever the caller has some, and decodes as far as it can with
+what it was given. */
+
+#include "decoder-session.h"
+
+#if defined(__arm__) && defined(__ANDROID__) && defined(__ARM_ARCH_7A__)
+#include <cpu-features.h>
+#endif
+
+//Clears the logical stream in progress, if any, ready for the first page of the next one
+static void clearLink(struct decoder_session *session) {
+    if(session->state == DECODER_SESSION_HEADERS_READY || session->state == DECODER_SESSION_DECODING) {
+        /* ogg_page and ogg_packet structs always point to storage in
+        libvorbis.  They're never freed or manipulated directly */
+        vorbis_block_clear(&session->vb);
+        vorbis_dsp_clear(&session->vd);
+    }
+    if(session->state == DECODER_SESSION_HEADERS || session->state == DECODER_SESSION_HEADERS_READY || session->state == DECODER_SESSION_DECODING) {
+        ogg_stream_clear(&session->os);
+        vorbis_comment_clear(&session->vc);
+        vorbis_info_clear(&session->vi);  /* must be called last */
+    }
+    session->state = DECODER_SESSION_FIRST_PAGE;
+    session->headers = 0;
+    session->eos = 0;
+}
+
+//Clears the logical stream in progress and remembers why the session failed
+static int fail(struct decoder_session *session, int error) {
+    clearLink(session);
+    session->state = DECODER_SESSION_FAILED;
+    session->error = error;
+    return error;
+}
+
+//Finds the first page of the next logical stream and checks its initial header, returns 1 when found
+static int readFirstPage(struct decoder_session *session) {
+    int result = ogg_sync_pageout(&session->oy, &session->og);
+
+    /* garbage before the first stream means this isn't ogg at all,
+    garbage after a finished stream is skipped */
+    while(result < 0 && session->links > 0) {
+        result = ogg_sync_pageout(&session->oy, &session->og);
+    }
+    if(result < 0) {
+        return fail(session, INVALID_OGG_BITSTREAM);
+    }
+    if(result == 0) {
+        /* have we simply run out of data?  If so, we're done. */
+        if(session->endOfInput) {
+            session->state = DECODER_SESSION_ENDED;
+            return DECODER_SESSION_END_OF_INPUT;
+        }
+        return DECODER_SESSION_NEED_MORE_DATA;
+    }
+
+    /* Get the serial number and set up the rest of decode. */
+    /* serialno first; use it to set up a logical stream */
+    ogg_stream_init(&session->os, ogg_page_serialno(&session->og));
+    vorbis_info_init(&session->vi);
+    vorbis_comment_init(&session->vc);
+    session->state = DECODER_SESSION_HEADERS;
+
+    /* extract the initial header from the first page and verify that the
+    Ogg bitstream is in fact Vorbis data */
+    if(ogg_stream_pagein(&session->os, &session->og) < 0) {
+        /* error; stream version mismatch perhaps */
+        return fail(session, ERROR_READING_FIRST_PAGE);
+    }
+    if(ogg_stream_packetout(&session->os, &session->op) != 1) {
+        /* no page? must not be vorbis */
+        return fail(session, ERROR_READING_INITIAL_HEADER_PACKET);
+    }
+    if(vorbis_synthesis_headerin(&session->vi, &session->vc, &session->op) < 0) {
+        /* error case; not a vorbis header */
+        return fail(session, NOT_VORBIS_HEADER);
+    }
+    session->headers = 1;
+    return 1;
+}
+
+//Reads the comment and codebook headers and sets up the vorbis decoder, returns 1 when ready
+static int readHeaders(struct decoder_session *session) {
+    /* The next two packets in order are the comment and codebook headers.
+    They're likely large and may span multiple pages. If a page is missing,
+    error out; losing a header page is the only place where missing data is
+    fatal. */
+    while(session->headers < 3) {
+        int result = ogg_stream_packetout(&session->os, &session->op);
+        if(result < 0) {
+            /* Uh oh; data at some point was corrupted or missing!
+            We can't tolerate that in a header.  Die. */
+            return fail(session, CORRUPT_SECONDARY_HEADER);
+        }
+        if(result > 0) {
+            if(vorbis_synthesis_headerin(&session->vi, &session->vc, &session->op) < 0) {
+                return fail(session, CORRUPT_SECONDARY_HEADER);
+            }
+            session->headers++;
+            continue;
+        }
+
+        result = ogg_sync_pageout(&session->oy, &session->og);
+        if(result == 0) {
+            if(session->endOfInput) {
+                return fail(session, PREMATURE_END_OF_FILE);
+            }
+            return DECODER_SESSION_NEED_MORE_DATA;
+        }
+        /* Don't complain about missing or corrupt data yet. We'll
+        catch it at the packet output phase */
+        if(result > 0) {
+            ogg_stream_pagein(&session->os, &session->og);
+        }
+    }
+
+    /* OK, got and parsed all three headers. Initialize the Vorbis
+    packet->PCM decoder. */
+    if(session->fixedPoint && vorbis_synthesis_fixed(&session->vi, 1) != 0) {
+        return fail(session, CORRUPT_SECONDARY_HEADER);
+    }
+    if(vorbis_synthesis_init(&session->vd, &session->vi) != 0) {
+        return fail(session, CORRUPT_SECONDARY_HEADER);
+    }
+    vorbis_block_init(&session->vd, &session->vb);
+    session->state = DECODER_SESSION_HEADERS_READY;
+    session->links++;
+    return 1;
+}
+
+struct decoder_session* decoder_session_create(void) {
+    struct decoder_session *session = calloc(1, sizeof(struct decoder_session));
+    if(session == NULL) {
+        return NULL;
+    }
+    ogg_sync_init(&session->oy); /* Now we can read pages */
+    session->state = DECODER_SESSION_FIRST_PAGE;
+    return session;
+}
+
+void decoder_session_destroy(struct decoder_session *session) {
+    if(session == NULL) {
+        return;
+    }
+    clearLink(session);
+
+    /* OK, clean up the framer */
+    ogg_sync_clear(&session->oy);
+    free(session);
+}
+
+char* decoder_session_buffer(struct decoder_session *session, long size) {
+    return ogg_sync_buffer(&session->oy, size);
+}
+
+void decoder_session_wrote(struct decoder_session *session, long bytes) {
+    if(bytes == 0) {
+        session->endOfInput = 1;
+        return;
+    }
+    ogg_sync_wrote(&session->oy, bytes);
+}
+
+int decoder_session_pcmout(struct decoder_session *session, void ***pcm) {
+    int result;
+
+    while(1) {
+        switch(session->state) {
+            case DECODER_SESSION_FIRST_PAGE:
+                result = readFirstPage(session);
+                if(result != 1) {
+                    return result;
+                }
+                break;
+            case DECODER_SESSION_HEADERS:
+                result = readHeaders(session);
+                if(result != 1) {
+                    return result;
+                }
+                break;
+            case DECODER_SESSION_HEADERS_READY:
+                return DECODER_SESSION_STREAM_START;
+            case DECODER_SESSION_ENDED:
+                return DECODER_SESSION_END_OF_INPUT;
+            case DECODER_SESSION_FAILED:
+                return session->error;
+            case DECODER_SESSION_DECODING:
+                /* **pcm is a multichannel float vector.  In stereo, for
+                example, pcm[0] is left, and pcm[1] is right. */
+                if(session->fixedPoint) {
+                    result = vorbis_synthesis_pcmout_fixed(&session->vd, (ogg_int32_t ***)pcm);
+                }
+                else {
+                    result = vorbis_synthesis_pcmout(&session->vd, (float ***)pcm);
+                }
+                if(result > 0) {
+                    return result;
+                }
+
+                /* no pcm left, decode the next packet */
+                result = ogg_stream_packetout(&session->os, &session->op);
+                if(result > 0) {
+                    if(vorbis_synthesis(&session->vb, &session->op) == 0) /* test for success! */
+                        vorbis_synthesis_blockin(&session->vd, &session->vb);
+                    break;
+                }
+                if(result < 0) {
+                    /* missing or corrupt data at this page position */
+                    /* no reason to complain; already complained below */
+                    break;
+                }
+
+                /* no packets left, that was the last page of this logical stream */
+                if(session->eos) {
+                    clearLink(session);
+                    break;
+                }
+
+                /* read the next page */
+                result = ogg_sync_pageout(&session->oy, &session->og);
+                if(result == 0) {
+                    /* need more data */
+                    if(session->endOfInput) {
+                        clearLink(session);
+                        break;
+                    }
+                    return DECODER_SESSION_NEED_MORE_DATA;
+                }
+                if(result > 0) {
+                    ogg_stream_pagein(&session->os, &session->og); /* can safely ignore errors at
+                    this point */
+                    if(ogg_page_eos(&session->og)) {
+                        session->eos = 1;
+                    }
+                }
+                /* missing or corrupt data at this page position is skipped */
+                break;
+        }
+    }
+}
+
+void decoder_session_read(struct decoder_session *session, int samples) {
+    vorbis_synthesis_read(&session->vd, samples); /* tell libvorbis how many samples we actually consumed */
+}
+
+void decoder_session_start(struct decoder_session *session) {
+    if(session->state == DECODER_SESSION_HEADERS_READY) {
+        session->state = DECODER_SESSION_DECODING;
+    }
+}
+
+int decoder_session_preferred_engine(void) {
+#if defined(__arm__) && !defined(__ARM_ARCH_7A__)
+    /* armv6 and older, with a vfp at best */
+    return ENGINE_FIXED_POINT;
+#elif defined(__arm__) && defined(__ANDROID__)
+    /* armv7 cpus without NEON mostly come with the cut down vfpv3-d16 */
+    if(android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM
+            && !(android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON)) {
+        return ENGINE_FIXED_POINT;
+    }
+    return ENGINE_FLOAT;
+#else
+    return ENGINE_FLOAT;
+#endif
+}
+
+int decoder_session_interleave(struct decoder_session *session, void **pcm, int channels, int samples, ogg_int16_t *buffer) {
+    if(session->fixedPoint) {
+        return pcm_kernels()->quantizeFixed((ogg_int32_t **)pcm, channels, samples, buffer);
+    }
+    return pcm_kernels()->quantize((float **)pcm, channels, samples, buffer);
+}
+
+void decoder_session_interleave_float(struct decoder_session *session, void **pcm, int channels, int samples, float *buffer) {
+    if(session->fixedPoint) {
+        pcm_kernels()->interleaveFixed((ogg_int32_t **)pcm, channels, samples, buffer);
+        return;
+    }
+    pcm_kernels()->interleave((float **)pcm, channels, samples, buffer);
+}
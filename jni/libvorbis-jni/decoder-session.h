@@ -0,0 +1,98 @@
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include <vorbis/codec.h>
+#include <stream/pcm.h>
+
+#ifndef _Included_decoder_session
+#define _Included_decoder_session
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*Define message codes, shared with DecodeFeed*/
+#define INVALID_OGG_BITSTREAM -21
+#define ERROR_READING_FIRST_PAGE -22
+#define ERROR_READING_INITIAL_HEADER_PACKET -23
+#define NOT_VORBIS_HEADER -24
+#define CORRUPT_SECONDARY_HEADER -25
+#define PREMATURE_END_OF_FILE -26
+#define ERROR_ALLOCATING_BUFFERS -27
+#define SUCCESS 0
+
+/*The decode engines, shared with VorbisDecoder.ENGINE_* */
+#define ENGINE_FLOAT 0
+#define ENGINE_FIXED_POINT 1
+
+/*What decoder_session_pcmout hands back when there is no pcm to read*/
+#define DECODER_SESSION_NEED_MORE_DATA 0
+#define DECODER_SESSION_END_OF_INPUT -1
+#define DECODER_SESSION_STREAM_START -2
+
+/*Where the session is within the (possibly chained) bitstream*/
+#define DECODER_SESSION_FIRST_PAGE 0
+#define DECODER_SESSION_HEADERS 1
+#define DECODER_SESSION_HEADERS_READY 2
+#define DECODER_SESSION_DECODING 3
+#define DECODER_SESSION_ENDED 4
+#define DECODER_SESSION_FAILED 5
+
+/* An incremental ogg/vorbis decoder. Data is pushed in with
+decoder_session_buffer/decoder_session_wrote and pcm is pulled out with
+decoder_session_pcmout/decoder_session_read, so nothing ever blocks waiting
+on input. Chained bitstreams are decoded one logical stream after the other. */
+struct decoder_session {
+    ogg_sync_state   oy; /* sync and verify incoming physical bitstream */
+    ogg_stream_state os; /* take physical pages, weld into a logical stream of packets */
+    ogg_page         og; /* one Ogg bitstream page. Vorbis packets are inside */
+    ogg_packet       op; /* one raw packet of data for decode */
+
+    vorbis_info      vi; /* struct that stores all the static vorbis bitstream settings */
+    vorbis_comment   vc; /* struct that stores all the bitstream user comments */
+    vorbis_dsp_state vd; /* central working state for the packet->PCM decoder */
+    vorbis_block     vb; /* local working space for packet->PCM decode */
+
+    int state;           /* one of the DECODER_SESSION_* states */
+    int error;           /* the message code once the session has failed */
+    int headers;         /* header packets read for the current logical stream */
+    int links;           /* logical streams started so far */
+    int eos;             /* the last page of the current logical stream has been read */
+    int endOfInput;      /* no more data will be written */
+    int fixedPoint;      /* synthesize in fixed point ints rather than floats, set before the first stream starts */
+};
+
+//Creates a session ready to be written to, NULL if out of memory
+struct decoder_session* decoder_session_create(void);
+
+//Clears whatever logical stream is in progress and frees the session
+void decoder_session_destroy(struct decoder_session *session);
+
+//Exposes a buffer of at least size bytes to copy vorbis data into
+char* decoder_session_buffer(struct decoder_session *session, long size);
+
+//Tells the session how many bytes were copied into its buffer, 0 once there is no more input
+void decoder_session_wrote(struct decoder_session *session, long bytes);
+
+//Decodes until pcm is available or the session needs attention, returns the samples per channel available or a DECODER_SESSION_* or message code.
+//The pcm is a float vector per channel, or of 8.24 ogg_int32_t for fixed point sessions, hand it to the decoder_session_interleave functions
+int decoder_session_pcmout(struct decoder_session *session, void ***pcm);
+
+//Tells the session how many samples per channel of the pcm were consumed
+void decoder_session_read(struct decoder_session *session, int samples);
+
+//Acknowledges a DECODER_SESSION_STREAM_START once the stream info has been handled, and starts decoding it
+void decoder_session_start(struct decoder_session *session);
+
+//The ENGINE_* suggested for this cpu, going by its architecture and NEON alone
+int decoder_session_preferred_engine(void);
+
+//Converts the session's pcm to 16 bit signed ints (host order) and interleaves them, returns whether anything clipped
+int decoder_session_interleave(struct decoder_session *session, void **pcm, int channels, int samples, ogg_int16_t *buffer);
+
+//Interleaves the session's pcm as floats, with no clipping
+void decoder_session_interleave_float(struct decoder_session *session, void **pcm, int channels, int samples, float *buffer);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
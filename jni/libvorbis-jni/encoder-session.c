@@ -0,0 +1,234 @@
+/* An incremental version of the encoder loop from the libvorbis
+encoder_example.c. Instead of pulling pcm from a callback the session is
+handed pcm whenever the caller has some, and the pages it produces wait inside
+the session until the caller reads them. */
+
+#include "encoder-session.h"
+
+//Picks a serial number for a new session. The count of sessions created keeps sessions started within the same
+//second apart, and unlike srand(time(NULL)) the rand() state of the rest of the process is left alone
+static int newSerial(void) {
+    static unsigned int sessions;
+    unsigned int serial = (unsigned int)time(NULL) ^ ((unsigned int)getpid() << 16);
+
+    serial += __sync_fetch_and_add(&sessions, 1) * 0x9e3779b9u;
+    //Spread the bits so serials of consecutive sessions look unrelated (the murmur3 finalizer)
+    serial ^= serial >> 16;
+    serial *= 0x85ebca6bu;
+    serial ^= serial >> 13;
+    serial *= 0xc2b2ae35u;
+    serial ^= serial >> 16;
+    return (int)serial;
+}
+
+//Makes sure pending can hold size bytes, returns 0 if out of memory
+static int reservePending(struct encoder_session *session, long size) {
+    char *pending;
+
+    if(size <= session->pendingSize) {
+        return 1;
+    }
+    pending = realloc(session->pending, size);
+    if(pending == NULL) {
+        return 0;
+    }
+    session->pending = pending;
+    session->pendingSize = size;
+    return 1;
+}
+
+//Appends bytes to the unread page data kept by the session, returns 0 if out of memory
+static int appendPending(struct encoder_session *session, const unsigned char *bytes, long length) {
+    if(!reservePending(session, session->pendingLength + length)) {
+        return 0;
+    }
+    memcpy(session->pending + session->pendingLength, bytes, length);
+    session->pendingLength += length;
+    return 1;
+}
+
+//Copies as much of bytes as fits into buffer, keeping the rest pending, returns the bytes copied
+static long copyPage(struct encoder_session *session, const unsigned char *bytes, long length, char *buffer, long space) {
+    long copied = length < space ? length : space;
+
+    memcpy(buffer, bytes, copied);
+    if(copied < length && !appendPending(session, bytes + copied, length - copied)) {
+        /* out of memory, the page can't be kept so this is as far as the stream goes */
+        session->eos = 1;
+    }
+    return copied;
+}
+
+struct encoder_session* encoder_session_create(int type, long channels, long sampleRate, float quality, long bitrate, int *error) {
+    struct encoder_session *session = calloc(1, sizeof(struct encoder_session));
+    int ret;
+
+    if(session == NULL) {
+        *error = OV_EFAULT;
+        return NULL;
+    }
+
+    /********** Encode setup ************/
+    /* the analysis state comes set up from the pool when a session set up
+    the same way has been closed before */
+    switch(type) {
+        case ENCODER_SESSION_WITH_BITRATE:
+            session->context = context_pool_acquire(CONTEXT_POOL_WITH_BITRATE, channels, sampleRate, -1, bitrate, &ret);
+            break;
+        case ENCODER_SESSION_WITH_QUALITY:
+            session->context = context_pool_acquire(CONTEXT_POOL_WITH_QUALITY, channels, sampleRate, quality, -1, &ret);
+            break;
+        default:
+            ret = OV_EINVAL;
+            break;
+    }
+
+    /* do not continue if setup failed; this can happen if we ask for a
+    mode that libVorbis does not support (eg, too low a bitrate, etc,
+    will return 'OV_EIMPL') */
+    if(session->context == NULL) {
+        free(session);
+        *error = ret;
+        return NULL;
+    }
+    session->channels = channels;
+
+    /* add a comment */
+    vorbis_comment_init(&session->vc);
+    vorbis_comment_add_tag(&session->vc, "ENCODER", "JNIVorbisEncoder");
+
+    /* set up the auxiliary encoding storage */
+    vorbis_block_init(&session->context->vd, &session->vb);
+
+    /* set up our packet->stream encoder */
+    /* pick a serial number of its own; that way we can more likely build
+    chained streams just by concatenation */
+    ogg_stream_init(&session->os, newSerial());
+
+    /* Vorbis streams begin with three headers; the initial header (with
+    most of the codec setup parameters) which is mandated by the Ogg
+    bitstream spec.  The second header holds any comment fields.  The
+    third header holds the bitstream codebook. */
+    {
+        ogg_packet header;
+        ogg_packet header_comm;
+        ogg_packet header_code;
+
+        vorbis_analysis_headerout(&session->context->vd, &session->vc, &header, &header_comm, &header_code);
+        ogg_stream_packetin(&session->os, &header); /* automatically placed in its own page */
+        ogg_stream_packetin(&session->os, &header_comm);
+        ogg_stream_packetin(&session->os, &header_code);
+
+        /* This ensures the actual audio data will start on a new page, as
+        per spec. The header pages are kept until the caller reads them. */
+        while(ogg_stream_flush(&session->os, &session->og) != 0) {
+            if(!appendPending(session, session->og.header, session->og.header_len)
+                    || !appendPending(session, session->og.body, session->og.body_len)) {
+                encoder_session_destroy(session);
+                *error = OV_EFAULT;
+                return NULL;
+            }
+        }
+    }
+    return session;
+}
+
+void encoder_session_destroy(struct encoder_session *session) {
+    if(session == NULL) {
+        return;
+    }
+
+    /* clean up, the analysis state goes back to the pool once its block is
+    cleared */
+    ogg_stream_clear(&session->os);
+    vorbis_block_clear(&session->vb);
+    context_pool_release(session->context);
+    vorbis_comment_clear(&session->vc);
+
+    /* ogg_page and ogg_packet structs always point to storage in
+    libvorbis.  They're never freed or manipulated directly */
+    free(session->pending);
+    free(session);
+}
+
+float** encoder_session_buffer(struct encoder_session *session, int samples) {
+    /* expose the buffer to submit data */
+    return vorbis_analysis_buffer(&session->context->vd, samples);
+}
+
+void encoder_session_wrote(struct encoder_session *session, int samples) {
+    if(session->finished) {
+        return;
+    }
+
+    /* tell the library how much we actually submitted, 0 tells it we're at
+    end of stream so that it can handle the last frame and mark end of
+    stream in the output properly */
+    vorbis_analysis_wrote(&session->context->vd, samples);
+    if(samples == 0) {
+        session->finished = 1;
+    }
+
+    /* vorbis does some data preanalysis, then divvies up blocks for
+    more involved (potentially parallel) processing.  Get a single
+    block for encoding now */
+    while(vorbis_analysis_blockout(&session->context->vd, &session->vb) == 1) {
+
+        /* analysis, assume we want to use bitrate management */
+        vorbis_analysis(&session->vb, NULL);
+        vorbis_bitrate_addblock(&session->vb);
+
+        while(vorbis_bitrate_flushpacket(&session->context->vd, &session->op)) {
+            /* weld the packet into the bitstream, the pages are cut when
+            the caller reads them */
+            ogg_stream_packetin(&session->os, &session->op);
+        }
+    }
+}
+
+long encoder_session_pageout(struct encoder_session *session, char *buffer, long length) {
+    long written = 0;
+
+    /* whatever was left over from the last read goes first */
+    if(session->pendingOffset < session->pendingLength) {
+        written = session->pendingLength - session->pendingOffset;
+        if(written > length) {
+            written = length;
+        }
+        memcpy(buffer, session->pending + session->pendingOffset, written);
+        session->pendingOffset += written;
+        if(session->pendingOffset < session->pendingLength) {
+            return written;
+        }
+    }
+    session->pendingOffset = 0;
+    session->pendingLength = 0;
+
+    /* then pages straight out of the stream. A page is only valid until
+    the next packet goes in, so any part that doesn't fit is copied into
+    pending. */
+    while(written < length && !session->eos) {
+        if(ogg_stream_pageout(&session->os, &session->og) == 0) {
+            break;
+        }
+        written += copyPage(session, session->og.header, session->og.header_len, buffer + written, length - written);
+        written += copyPage(session, session->og.body, session->og.body_len, buffer + written, length - written);
+
+        if(ogg_page_eos(&session->og)) {
+            session->eos = 1;
+        }
+    }
+
+    if(written == 0 && session->eos && session->pendingLength == 0) {
+        return ENCODER_SESSION_END_OF_STREAM;
+    }
+    return written;
+}
+
+void encoder_session_deinterleave(const ogg_int16_t *pcm, int channels, int samples, float **buffer) {
+    pcm_kernels()->dequantize(pcm, channels, samples, buffer);
+}
+
+void encoder_session_deinterleave_float(const float *pcm, int channels, int samples, float **buffer) {
+    pcm_kernels()->deinterleave(pcm, channels, samples, buffer);
+}
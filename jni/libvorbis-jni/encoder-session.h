@@ -0,0 +1,68 @@
+#include <stdlib.h>
+#include <string.h>
+#include <time.h>
+#include <unistd.h>
+#include <vorbis/vorbisenc.h>
+#include <stream/pcm.h>
+#include <stream/context-pool.h>
+
+#ifndef _Included_encoder_session
+#define _Included_encoder_session
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+/*How the session picks its encoding mode*/
+#define ENCODER_SESSION_WITH_BITRATE 1
+#define ENCODER_SESSION_WITH_QUALITY 2
+
+/*What encoder_session_pageout hands back once every page was read*/
+#define ENCODER_SESSION_END_OF_STREAM -1
+
+/* An incremental ogg/vorbis encoder. PCM is pushed in with
+encoder_session_buffer/encoder_session_wrote whenever the caller has some and
+the ogg pages it turns into are copied out with encoder_session_pageout, so
+nothing ever blocks waiting on input. */
+struct encoder_session {
+    ogg_stream_state os; /* take physical pages, weld into a logical stream of packets */
+    ogg_page         og; /* one Ogg bitstream page.  Vorbis packets are inside */
+    ogg_packet       op; /* one raw packet of data for decode */
+
+    struct encoder_context *context; /* the static vorbis bitstream settings and the central working state for the PCM->packet encoder */
+    vorbis_comment   vc; /* struct that stores all the user comments */
+    vorbis_block     vb; /* local working space for packet->PCM decode */
+
+    int   channels;
+    int   finished;      /* the end of stream was signalled, no more pcm is taken */
+    int   eos;           /* the last page was handed out of the stream */
+    char* pending;       /* page data handed out of the stream but not read yet */
+    long  pendingLength; /* bytes of pending in use */
+    long  pendingOffset; /* bytes of pending already read */
+    long  pendingSize;   /* bytes allocated for pending */
+};
+
+//Sets up the encoder and queues the header pages, NULL with error set if the mode isn't supported
+struct encoder_session* encoder_session_create(int type, long channels, long sampleRate, float quality, long bitrate, int *error);
+
+//Clears the encoder and frees the session
+void encoder_session_destroy(struct encoder_session *session);
+
+//Exposes the per channel buffers to copy samples pcm into
+float** encoder_session_buffer(struct encoder_session *session, int samples);
+
+//Tells the session how many samples per channel were copied and encodes them, 0 ends the stream
+void encoder_session_wrote(struct encoder_session *session, int samples);
+
+//Converts interleaved 16 bit signed ints (host order) into the per channel float buffers
+void encoder_session_deinterleave(const ogg_int16_t *pcm, int channels, int samples, float **buffer);
+
+//Splits interleaved floats into the per channel float buffers as they are
+void encoder_session_deinterleave_float(const float *pcm, int channels, int samples, float **buffer);
+
+//Copies up to length bytes of encoded ogg pages into buffer, returns the bytes copied or ENCODER_SESSION_END_OF_STREAM
+long encoder_session_pageout(struct encoder_session *session, char *buffer, long length);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
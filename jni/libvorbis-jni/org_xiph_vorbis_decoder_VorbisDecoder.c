@@ -4,28 +4,37 @@ to end. */
 
 #include "org_xiph_vorbis_decoder_VorbisDecoder.h"
 
-/*Define message codes*/
-#define INVALID_OGG_BITSTREAM -21
-#define ERROR_READING_FIRST_PAGE -22
-#define ERROR_READING_INITIAL_HEADER_PACKET -23
-#define NOT_VORBIS_HEADER -24
-#define CORRUPT_SECONDARY_HEADER -25
-#define PREMATURE_END_OF_FILE -26
-#define SUCCESS 0
-
 #define BUFFER_LENGTH 4096
 
 extern void _VDBG_dump(void);
 
 //Stops the vorbis data feed
-void stopDecodeFeed(JNIEnv *env, jobject* vorbisDataFeed, jmethodID* stopMethodId) {
-    (*env)->CallVoidMethod(env, (*vorbisDataFeed), (*stopMethodId));
+void stopDecodeFeed(JNIEnv *env, struct decode_feed *decodeFeed) {
+    (*env)->CallVoidMethod(env, decodeFeed->feed, decodeFeed->stopMethodId);
 }
 
 //Reads raw vorbis data from the jni callback
-int readVorbisDataFromVorbisDataFeed(JNIEnv *env, jobject* vorbisDataFeed, jmethodID* readVorbisDataMethodId, char* buffer, jbyteArray* jByteArrayReadBuffer) {
+int readVorbisDataFromVorbisDataFeed(JNIEnv *env, struct decode_feed *decodeFeed, char* buffer) {
+    int readByteCount;
+
+    //Direct feeds write straight into the ogg sync buffer, only wrap it again if libogg handed us a new region
+    if(decodeFeed->direct) {
+        if(decodeFeed->readAddress != buffer) {
+            if(decodeFeed->readDirectBuffer != NULL) {
+                (*env)->DeleteLocalRef(env, decodeFeed->readDirectBuffer);
+            }
+            decodeFeed->readDirectBuffer = (*env)->NewDirectByteBuffer(env, buffer, decodeFeed->readLength);
+            decodeFeed->readAddress = buffer;
+        }
+
+        //A region handed out again still has the position the last read left it at, rewind it
+        (*env)->DeleteLocalRef(env, (*env)->CallObjectMethod(env, decodeFeed->readDirectBuffer, decodeFeed->clearMethodId));
+        (*env)->DeleteLocalRef(env, (*env)->CallObjectMethod(env, decodeFeed->readDirectBuffer, decodeFeed->limitMethodId, decodeFeed->readLength));
+        return (*env)->CallIntMethod(env, decodeFeed->feed, decodeFeed->readVorbisDataMethodId, decodeFeed->readDirectBuffer, decodeFeed->readLength);
+    }
+
     //Call the read method
-    int readByteCount = (*env)->CallIntMethod(env, (*vorbisDataFeed), (*readVorbisDataMethodId), (*jByteArrayReadBuffer), BUFFER_LENGTH);
+    readByteCount = (*env)->CallIntMethod(env, decodeFeed->feed, decodeFeed->readVorbisDataMethodId, decodeFeed->readBuffer, decodeFeed->readLength);
     
     //Don't bother copying, just return 0
     if(readByteCount == 0) {
@@ -33,33 +42,70 @@ int readVorbisDataFromVorbisDataFeed(JNIEnv *env, jobject* vorbisDataFeed, jmeth
     }
 
     //Gets the bytes from the java array and copies them to the vorbis buffer
-    jbyte* readBytes = (*env)->GetByteArrayElements(env, (*jByteArrayReadBuffer), NULL);
+    jbyte* readBytes = (*env)->GetByteArrayElements(env, decodeFeed->readBuffer, NULL);
     memcpy(buffer, readBytes, readByteCount);
     
     //Clean up memory and return how much data was read
-    (*env)->ReleaseByteArrayElements(env, (*jByteArrayReadBuffer), readBytes, JNI_ABORT);
+    (*env)->ReleaseByteArrayElements(env, decodeFeed->readBuffer, readBytes, JNI_ABORT);
 
     //Return the amount actually read
     return readByteCount;
 }
 
 //Writes the pcm data to the Java layer
-void writePCMDataFromVorbisDataFeed(JNIEnv *env, jobject* vorbisDataFeed, jmethodID* writePCMDataMethodId, ogg_int16_t* buffer, int bytes, jshortArray* jShortArrayWriteBuffer) {
+void writePCMDataFromVorbisDataFeed(JNIEnv *env, struct decode_feed *decodeFeed, ogg_int16_t* buffer, int bytes) {
     
     //No data to read, just exit
     if(bytes == 0) {
         return;
     }
 
+    //Direct feeds already see the conversion buffer, just rewind the view over it
+    if(decodeFeed->direct) {
+        (*env)->DeleteLocalRef(env, (*env)->CallObjectMethod(env, decodeFeed->writeDirectBuffer, decodeFeed->clearMethodId));
+        (*env)->DeleteLocalRef(env, (*env)->CallObjectMethod(env, decodeFeed->writeDirectBuffer, decodeFeed->limitMethodId, bytes));
+        (*env)->CallVoidMethod(env, decodeFeed->feed, decodeFeed->writePCMDataMethodId, decodeFeed->writeDirectBuffer, bytes);
+        return;
+    }
+
     //Copy the contents of what we're writing to the java short array
-    (*env)->SetShortArrayRegion(env, (*jShortArrayWriteBuffer), 0, bytes, (jshort *)buffer);
+    (*env)->SetShortArrayRegion(env, decodeFeed->writeBuffer, 0, bytes, (jshort *)buffer);
     
     //Call the write pcm data method
-    (*env)->CallVoidMethod(env, (*vorbisDataFeed), (*writePCMDataMethodId), (*jShortArrayWriteBuffer), bytes);
+    (*env)->CallVoidMethod(env, decodeFeed->feed, decodeFeed->writePCMDataMethodId, decodeFeed->writeBuffer, bytes);
+}
+
+//Hands whatever pcm has been collected to the Java layer and empties the pcm buffer
+void flushPCMData(JNIEnv *env, struct decode_feed *decodeFeed) {
+    writePCMDataFromVorbisDataFeed(env, decodeFeed, decodeFeed->pcmBuffer, decodeFeed->pcmFill);
+    decodeFeed->pcmFill = 0;
+}
+
+//Wraps the pcm buffer in a native ordered ShortBuffer, or FloatBuffer for float feeds, for direct decode feeds
+jobject newDirectPCMWriteBuffer(JNIEnv *env, void* buffer, int length, int floats) {
+    jclass byteBufferClass = (*env)->FindClass(env, "java/nio/ByteBuffer");
+    jclass byteOrderClass = (*env)->FindClass(env, "java/nio/ByteOrder");
+    jmethodID nativeOrderMethodId = (*env)->GetStaticMethodID(env, byteOrderClass, "nativeOrder", "()Ljava/nio/ByteOrder;");
+    jmethodID orderMethodId = (*env)->GetMethodID(env, byteBufferClass, "order", "(Ljava/nio/ByteOrder;)Ljava/nio/ByteBuffer;");
+    jmethodID asViewMethodId = floats
+            ? (*env)->GetMethodID(env, byteBufferClass, "asFloatBuffer", "()Ljava/nio/FloatBuffer;")
+            : (*env)->GetMethodID(env, byteBufferClass, "asShortBuffer", "()Ljava/nio/ShortBuffer;");
+
+    jobject byteBuffer = (*env)->NewDirectByteBuffer(env, buffer, length * (floats ? sizeof(float) : sizeof(ogg_int16_t)));
+    jobject nativeOrder = (*env)->CallStaticObjectMethod(env, byteOrderClass, nativeOrderMethodId);
+    jobject orderedBuffer = (*env)->CallObjectMethod(env, byteBuffer, orderMethodId, nativeOrder);
+    jobject viewBuffer = (*env)->CallObjectMethod(env, orderedBuffer, asViewMethodId);
+
+    (*env)->DeleteLocalRef(env, orderedBuffer);
+    (*env)->DeleteLocalRef(env, nativeOrder);
+    (*env)->DeleteLocalRef(env, byteBuffer);
+    (*env)->DeleteLocalRef(env, byteOrderClass);
+    (*env)->DeleteLocalRef(env, byteBufferClass);
+    return viewBuffer;
 }
 
 //Starts the decode feed with the necessary information about sample rates, channels, etc about the stream
-void start(JNIEnv *env, jobject *vorbisDataFeed, jmethodID* startMethodId, long sampleRate, long channels, char* vendor) {
+void start(JNIEnv *env, struct decode_feed *decodeFeed, long sampleRate, long channels, char* vendor) {
     __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Notifying decode feed");
 
     //Creates a java string for the vendor
@@ -73,7 +119,7 @@ void start(JNIEnv *env, jobject *vorbisDataFeed, jmethodID* startMethodId, long
     jobject decodeStreamInfo = (*env)->NewObject(env, decodeStreamInfoClass, constructor, (jlong)sampleRate, (jlong)channels, vendorString);
 
     //Call decode feed start
-    (*env)->CallVoidMethod(env, (*vorbisDataFeed), (*startMethodId), decodeStreamInfo);
+    (*env)->CallVoidMethod(env, decodeFeed->feed, decodeFeed->startMethodId, decodeStreamInfo);
 
     //Cleanup decode feed object
     (*env)->DeleteLocalRef(env, decodeStreamInfo);
@@ -83,316 +129,323 @@ void start(JNIEnv *env, jobject *vorbisDataFeed, jmethodID* startMethodId, long
 }
 
 //Starts reading the header information
-void startReadingHeader(JNIEnv *env, jobject *vorbisDataFeed, jmethodID* startReadingHeaderMethodId) {
+void startReadingHeader(JNIEnv *env, struct decode_feed *decodeFeed) {
     __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Notifying decode feed to start reading the header");
 
     //Call header start reading method
-    (*env)->CallVoidMethod(env, (*vorbisDataFeed), (*startReadingHeaderMethodId));
+    (*env)->CallVoidMethod(env, decodeFeed->feed, decodeFeed->startReadingHeaderMethodId);
 }
 
-JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startDecoding
-(JNIEnv *env, jclass cls, jobject vorbisDataFeed) {
+//Looks up the callbacks of a DecodeFeed and creates the buffers handed to it
+int initDecodeFeed(JNIEnv *env, jobject vorbisDataFeed, struct decode_feed *decodeFeed, int readLength, int pcmLength, int batch) {
+    memset(decodeFeed, 0, sizeof(*decodeFeed));
+    decodeFeed->feed = vorbisDataFeed;
+    decodeFeed->readLength = readLength;
+    decodeFeed->pcmLength = pcmLength;
+    decodeFeed->batch = batch;
+
+    //Create our pcm conversion buffer
+    decodeFeed->pcmBuffer = malloc(pcmLength * sizeof(ogg_int16_t));
+    if(decodeFeed->pcmBuffer == NULL) {
+        return ERROR_ALLOCATING_BUFFERS;
+    }
 
     //Create a new java byte array to pass to the vorbis data feed method
-    jbyteArray jByteArrayReadBuffer = (*env)->NewByteArray(env, BUFFER_LENGTH);
+    decodeFeed->readBuffer = (*env)->NewByteArray(env, readLength);
 
     //Create our write buffer
-    jshortArray jShortArrayWriteBuffer = (*env)->NewShortArray(env, BUFFER_LENGTH*2);
+    decodeFeed->writeBuffer = (*env)->NewShortArray(env, pcmLength);
+    if(decodeFeed->readBuffer == NULL || decodeFeed->writeBuffer == NULL) {
+        return ERROR_ALLOCATING_BUFFERS;
+    }
 
     //Find our java classes we'll be calling
     jclass vorbisDataFeedClass = (*env)->FindClass(env, "org/xiph/vorbis/decoder/DecodeFeed");
 
     //Find our java method id's we'll be calling
-    jmethodID readVorbisDataMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "readVorbisData", "([BI)I");
-    jmethodID writePCMDataMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "writePCMData", "([SI)V");
-    jmethodID startMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "start", "(Lorg/xiph/vorbis/decoder/DecodeStreamInfo;)V");
-    jmethodID startReadingHeaderMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "startReadingHeader", "()V");
-    jmethodID stopMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "stop", "()V");
-
-    ogg_int16_t convbuffer[BUFFER_LENGTH]; /* take 8k out of the data segment, not the stack */
-    int convsize=BUFFER_LENGTH;
-    
-    ogg_sync_state   oy; /* sync and verify incoming physical bitstream */
-    ogg_stream_state os; /* take physical pages, weld into a logical stream of packets */
-    ogg_page         og; /* one Ogg bitstream page. Vorbis packets are inside */
-    ogg_packet       op; /* one raw packet of data for decode */
-    
-    vorbis_info      vi; /* struct that stores all the static vorbis bitstream settings */
-    vorbis_comment   vc; /* struct that stores all the bitstream user comments */
-    vorbis_dsp_state vd; /* central working state for the packet->PCM decoder */
-    vorbis_block     vb; /* local working space for packet->PCM decode */
-    
-    char *buffer;
-    int  bytes;
-    
-    /********** Decode setup ************/
+    decodeFeed->readVorbisDataMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "readVorbisData", "([BI)I");
+    decodeFeed->writePCMDataMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "writePCMData", "([SI)V");
+    decodeFeed->startMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "start", "(Lorg/xiph/vorbis/decoder/DecodeStreamInfo;)V");
+    decodeFeed->startReadingHeaderMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "startReadingHeader", "()V");
+    decodeFeed->stopMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "stop", "()V");
+    return SUCCESS;
+}
 
-    //Notify the decode feed we are starting to initialize
-    startReadingHeader(env, &vorbisDataFeed, &startReadingHeaderMethodId);
-    
-    ogg_sync_init(&oy); /* Now we can read pages */
-    
-    while(1){
-        /* we repeat if the bitstream is chained */
-        int eos=0;
-        int i;
-        
-        /* grab some data at the head of the stream. We want the first page
-        (which is guaranteed to be small and only contain the Vorbis
-        stream initial header) We need the first page to get the stream
-        serialno. */
-        
-        /* submit a 4k block to libvorbis' Ogg layer */
-        __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Submitting 4k block to libvorbis' Ogg layer");
-        buffer=ogg_sync_buffer(&oy,BUFFER_LENGTH);
-        bytes=readVorbisDataFromVorbisDataFeed(env, &vorbisDataFeed, &readVorbisDataMethodId, buffer, &jByteArrayReadBuffer);
-        ogg_sync_wrote(&oy,bytes);
-        
-        /* Get the first page. */
-        __android_log_print(ANDROID_LOG_DEBUG, "VorbisDecoder", "Getting the first page, read (%d) bytes", bytes);
-        if(ogg_sync_pageout(&oy,&og)!=1){
-            /* have we simply run out of data?  If so, we're done. */
-            if(bytes<BUFFER_LENGTH)break;
-            
-            /* error case.  Must not be Vorbis data */
-            stopDecodeFeed(env, &vorbisDataFeed, &stopMethodId);
-            return INVALID_OGG_BITSTREAM;
-        }
+//Looks up the callbacks of a ByteBufferDecodeFeed and wraps the pcm conversion buffer handed to it
+int initDirectDecodeFeed(JNIEnv *env, jobject vorbisDataFeed, struct decode_feed *decodeFeed, int readLength, int pcmLength, int batch) {
+    memset(decodeFeed, 0, sizeof(*decodeFeed));
+    decodeFeed->feed = vorbisDataFeed;
+    decodeFeed->direct = 1;
+    decodeFeed->readLength = readLength;
+    decodeFeed->pcmLength = pcmLength;
+    decodeFeed->batch = batch;
+
+    //Create our pcm conversion buffer, direct feeds get a view over it instead of a copy of it
+    decodeFeed->pcmBuffer = malloc(pcmLength * sizeof(ogg_int16_t));
+    if(decodeFeed->pcmBuffer == NULL) {
+        return ERROR_ALLOCATING_BUFFERS;
+    }
+    decodeFeed->writeDirectBuffer = newDirectPCMWriteBuffer(env, decodeFeed->pcmBuffer, pcmLength, 0);
 
-        __android_log_write(ANDROID_LOG_INFO, "VorbisDecoder", "Successfully fetched the first page");
+    //Find our java classes we'll be calling
+    jclass vorbisDataFeedClass = (*env)->FindClass(env, "org/xiph/vorbis/decoder/ByteBufferDecodeFeed");
+    jclass bufferClass = (*env)->FindClass(env, "java/nio/Buffer");
 
-        /* Get the serial number and set up the rest of decode. */
-        /* serialno first; use it to set up a logical stream */
-        ogg_stream_init(&os,ogg_page_serialno(&og));
+    //Find our java method id's we'll be calling
+    decodeFeed->readVorbisDataMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "readVorbisData", "(Ljava/nio/ByteBuffer;I)I");
+    decodeFeed->writePCMDataMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "writePCMData", "(Ljava/nio/ShortBuffer;I)V");
+    decodeFeed->startMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "start", "(Lorg/xiph/vorbis/decoder/DecodeStreamInfo;)V");
+    decodeFeed->startReadingHeaderMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "startReadingHeader", "()V");
+    decodeFeed->stopMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "stop", "()V");
+    decodeFeed->clearMethodId = (*env)->GetMethodID(env, bufferClass, "clear", "()Ljava/nio/Buffer;");
+    decodeFeed->limitMethodId = (*env)->GetMethodID(env, bufferClass, "limit", "(I)Ljava/nio/Buffer;");
+    return SUCCESS;
+}
 
-        /* extract the initial header from the first page and verify that the
-        Ogg bitstream is in fact Vorbis data */
+//Looks up the callbacks of a FloatDecodeFeed and wraps the float pcm buffer handed to it
+int initFloatDecodeFeed(JNIEnv *env, jobject vorbisDataFeed, struct decode_feed *decodeFeed, int readLength, int pcmLength, int batch) {
+    memset(decodeFeed, 0, sizeof(*decodeFeed));
+    decodeFeed->feed = vorbisDataFeed;
+    decodeFeed->direct = 1;
+    decodeFeed->floats = 1;
+    decodeFeed->readLength = readLength;
+    decodeFeed->pcmLength = pcmLength;
+    decodeFeed->batch = batch;
+
+    //Libvorbis' floats are interleaved straight into the buffer the feed sees, nothing is converted
+    decodeFeed->floatBuffer = malloc(pcmLength * sizeof(float));
+    if(decodeFeed->floatBuffer == NULL) {
+        return ERROR_ALLOCATING_BUFFERS;
+    }
+    decodeFeed->writeDirectBuffer = newDirectPCMWriteBuffer(env, decodeFeed->floatBuffer, pcmLength, 1);
 
-        /* I handle the initial header first instead of just having the code
-        read all three Vorbis headers at once because reading the initial
-        header is an easy way to identify a Vorbis bitstream and it's
-        useful to see that functionality seperated out. */
+    //Find our java classes we'll be calling
+    jclass vorbisDataFeedClass = (*env)->FindClass(env, "org/xiph/vorbis/decoder/FloatDecodeFeed");
+    jclass bufferClass = (*env)->FindClass(env, "java/nio/Buffer");
 
-        vorbis_info_init(&vi);
-        vorbis_comment_init(&vc);
-        if(ogg_stream_pagein(&os,&og)<0){
-            /* error; stream version mismatch perhaps */
-            stopDecodeFeed(env, &vorbisDataFeed, &stopMethodId);
-            return ERROR_READING_FIRST_PAGE;
-        }
+    //Find our java method id's we'll be calling
+    decodeFeed->readVorbisDataMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "readVorbisData", "(Ljava/nio/ByteBuffer;I)I");
+    decodeFeed->writePCMDataMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "writePCMData", "(Ljava/nio/FloatBuffer;I)V");
+    decodeFeed->startMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "start", "(Lorg/xiph/vorbis/decoder/DecodeStreamInfo;)V");
+    decodeFeed->startReadingHeaderMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "startReadingHeader", "()V");
+    decodeFeed->stopMethodId = (*env)->GetMethodID(env, vorbisDataFeedClass, "stop", "()V");
+    decodeFeed->clearMethodId = (*env)->GetMethodID(env, bufferClass, "clear", "()Ljava/nio/Buffer;");
+    decodeFeed->limitMethodId = (*env)->GetMethodID(env, bufferClass, "limit", "(I)Ljava/nio/Buffer;");
+    return SUCCESS;
+}
 
+//Cleans up the buffers held by the decode feed
+void clearDecodeFeed(JNIEnv *env, struct decode_feed *decodeFeed) {
+    if(decodeFeed->readBuffer != NULL) {
+        (*env)->DeleteLocalRef(env, decodeFeed->readBuffer);
+    }
+    if(decodeFeed->writeBuffer != NULL) {
+        (*env)->DeleteLocalRef(env, decodeFeed->writeBuffer);
+    }
+    if(decodeFeed->readDirectBuffer != NULL) {
+        (*env)->DeleteLocalRef(env, decodeFeed->readDirectBuffer);
+    }
+    if(decodeFeed->writeDirectBuffer != NULL) {
+        (*env)->DeleteLocalRef(env, decodeFeed->writeDirectBuffer);
+    }
+    free(decodeFeed->pcmBuffer);
+    free(decodeFeed->floatBuffer);
+}
 
-        if(ogg_stream_packetout(&os,&op)!=1){
-            /* no page? must not be vorbis */
-            stopDecodeFeed(env, &vorbisDataFeed, &stopMethodId);
-            return ERROR_READING_INITIAL_HEADER_PACKET;
-        }
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startDecoding
+(JNIEnv *env, jclass cls, jobject vorbisDataFeed) {
+    struct decode_feed decodeFeed;
+    int result = initDecodeFeed(env, vorbisDataFeed, &decodeFeed, BUFFER_LENGTH, BUFFER_LENGTH, 0);
+    if(result == SUCCESS) {
+        result = decodeFromFeed(env, &decodeFeed);
+    }
+    clearDecodeFeed(env, &decodeFeed);
+    return result;
+}
 
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startDecodingDirect
+(JNIEnv *env, jclass cls, jobject vorbisDataFeed) {
+    struct decode_feed decodeFeed;
+    int result = initDirectDecodeFeed(env, vorbisDataFeed, &decodeFeed, BUFFER_LENGTH, BUFFER_LENGTH, 0);
+    if(result == SUCCESS) {
+        result = decodeFromFeed(env, &decodeFeed);
+    }
+    clearDecodeFeed(env, &decodeFeed);
+    return result;
+}
 
-        if(vorbis_synthesis_headerin(&vi,&vc,&op)<0){
-            /* error case; not a vorbis header */
-            stopDecodeFeed(env, &vorbisDataFeed, &stopMethodId);
-            return NOT_VORBIS_HEADER;
-        }
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startBatchDecoding
+(JNIEnv *env, jclass cls, jobject vorbisDataFeed, jint readBufferSize, jint pcmBufferSize, jint engine) {
+    struct decode_feed decodeFeed;
+    int result = initDecodeFeed(env, vorbisDataFeed, &decodeFeed, readBufferSize, pcmBufferSize, 1);
+    if(result == SUCCESS) {
+        decodeFeed.fixedPoint = engine == ENGINE_FIXED_POINT;
+        result = decodeFromFeed(env, &decodeFeed);
+    }
+    clearDecodeFeed(env, &decodeFeed);
+    return result;
+}
 
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startBatchDecodingDirect
+(JNIEnv *env, jclass cls, jobject vorbisDataFeed, jint readBufferSize, jint pcmBufferSize, jint engine) {
+    struct decode_feed decodeFeed;
+    int result = initDirectDecodeFeed(env, vorbisDataFeed, &decodeFeed, readBufferSize, pcmBufferSize, 1);
+    if(result == SUCCESS) {
+        decodeFeed.fixedPoint = engine == ENGINE_FIXED_POINT;
+        result = decodeFromFeed(env, &decodeFeed);
+    }
+    clearDecodeFeed(env, &decodeFeed);
+    return result;
+}
 
-        /* At this point, we're sure we're Vorbis. We've set up the logical
-        (Ogg) bitstream decoder. Get the comment and codebook headers and
-        set up the Vorbis decoder */
-
-        /* The next two packets in order are the comment and codebook headers.
-        They're likely large and may span multiple pages. Thus we read
-        and submit data until we get our two packets, watching that no
-        pages are missing. If a page is missing, error out; losing a
-        header page is the only place where missing data is fatal. */
-
-        i=0;
-        while(i<2){
-            while(i<2){
-                int result=ogg_sync_pageout(&oy,&og);
-                if(result==0)break; /* Need more data */
-                /* Don't complain about missing or corrupt data yet. We'll
-                catch it at the packet output phase */
-                if(result==1){
-                    ogg_stream_pagein(&os,&og); /* we can ignore any errors here
-                    as they'll also become apparent
-                    at packetout */
-                    while(i<2){
-                        result=ogg_stream_packetout(&os,&op);
-                        if(result==0)break;
-                        if(result<0){
-                            /* Uh oh; data at some point was corrupted or missing!
-                            We can't tolerate that in a header.  Die. */
-                            stopDecodeFeed(env, &vorbisDataFeed, &stopMethodId);
-                            return CORRUPT_SECONDARY_HEADER;
-                        }
-                        result=vorbis_synthesis_headerin(&vi,&vc,&op);
-                        if(result<0){
-                            stopDecodeFeed(env, &vorbisDataFeed, &stopMethodId);
-                            return CORRUPT_SECONDARY_HEADER;
-                        }
-                        i++;
-                    }
-                }
-            }
-            /* no harm in not checking before adding more */
-            buffer=ogg_sync_buffer(&oy,BUFFER_LENGTH);
-            bytes=readVorbisDataFromVorbisDataFeed(env, &vorbisDataFeed, &readVorbisDataMethodId, buffer, &jByteArrayReadBuffer);
-            if(bytes==0 && i<2){
-                stopDecodeFeed(env, &vorbisDataFeed, &stopMethodId);
-                return PREMATURE_END_OF_FILE;
-            }
-            ogg_sync_wrote(&oy,bytes);
-        }
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startDecodingFloat
+(JNIEnv *env, jclass cls, jobject vorbisDataFeed) {
+    struct decode_feed decodeFeed;
+    int result = initFloatDecodeFeed(env, vorbisDataFeed, &decodeFeed, BUFFER_LENGTH, BUFFER_LENGTH, 0);
+    if(result == SUCCESS) {
+        result = decodeFromFeed(env, &decodeFeed);
+    }
+    clearDecodeFeed(env, &decodeFeed);
+    return result;
+}
 
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startBatchDecodingFloat
+(JNIEnv *env, jclass cls, jobject vorbisDataFeed, jint readBufferSize, jint pcmBufferSize, jint engine) {
+    struct decode_feed decodeFeed;
+    int result = initFloatDecodeFeed(env, vorbisDataFeed, &decodeFeed, readBufferSize, pcmBufferSize, 1);
+    if(result == SUCCESS) {
+        decodeFeed.fixedPoint = engine == ENGINE_FIXED_POINT;
+        result = decodeFromFeed(env, &decodeFeed);
+    }
+    clearDecodeFeed(env, &decodeFeed);
+    return result;
+}
 
-        /* Throw the comments plus a few lines about the bitstream we're
-        decoding */
-        {
-            char **ptr=vc.user_comments;
-            while(*ptr){
-                ++ptr;
-            }
+//Returns the engine suggested for this cpu, see decoder_session_preferred_engine
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_preferredEngine
+(JNIEnv *env, jclass cls) {
+    return decoder_session_preferred_engine();
+}
 
-            __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Bitstream is %d channel",vi.channels);
-            __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Bitstream %d Hz",vi.rate);
-            __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Encoded by: %s\n\n",vc.vendor);
+//Changes how many unpacked setup headers libvorbis keeps, for every decoder in the process
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_setupCacheCapacity
+(JNIEnv *env, jclass cls, jint capacity) {
+    vorbis_setup_cache_set_capacity(capacity);
+}
 
-            start(env, &vorbisDataFeed, &startMethodId, vi.rate, vi.channels, vc.vendor);
-        }
+//Returns the hits, misses, evictions, entries and capacity of the setup cache
+JNIEXPORT jlongArray JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_setupCacheStats
+(JNIEnv *env, jclass cls) {
+    vorbis_setup_cache_stats stats;
+    jlong values[5];
+    jlongArray array;
+
+    vorbis_setup_cache_get_stats(&stats);
+    values[0] = stats.hits;
+    values[1] = stats.misses;
+    values[2] = stats.evictions;
+    values[3] = stats.entries;
+    values[4] = stats.capacity;
+
+    //NULL with an OutOfMemoryError pending if the array can't be allocated
+    array = (*env)->NewLongArray(env, 5);
+    if(array != NULL) {
+        (*env)->SetLongArrayRegion(env, array, 0, 5, values);
+    }
+    return array;
+}
 
-        convsize=BUFFER_LENGTH/vi.channels;
-
-        /* OK, got and parsed all three headers. Initialize the Vorbis
-        packet->PCM decoder. */
-        if(vorbis_synthesis_init(&vd,&vi)==0){
-            /* central decode state */
-            vorbis_block_init(&vd,&vb);          /* local state for most of the decode
-            so multiple block decodes can
-            proceed in parallel. We could init
-            multiple vorbis_block structures
-            for vd here */
-
-            /* The rest is just a straight decode loop until end of stream */
-            while(!eos){
-                while(!eos){
-                    int result=ogg_sync_pageout(&oy,&og);
-                    if(result==0)break; /* need more data */
-                    if(result<0){
-                        /* missing or corrupt data at this page position */
-                        __android_log_write(ANDROID_LOG_WARN, "VorbisDecoder", "Corrupt or missing data in bitstream; continuing...");
-                    }
-                    else{
-                        ogg_stream_pagein(&os,&og); /* can safely ignore errors at
-                        this point */
-                        while(1){
-                            result=ogg_stream_packetout(&os,&op);
-
-                            if(result==0)break; /* need more data */
-                            if(result<0){
-                                /* missing or corrupt data at this page position */
-                                /* no reason to complain; already complained above */
-                            }
-                            else{
-
-                                /* we have a packet.  Decode it */
-                                float **pcm;
-                                int samples;
-
-                                if(vorbis_synthesis(&vb,&op)==0) /* test for success! */
-                                vorbis_synthesis_blockin(&vd,&vb);
-                                /*
-
-                                **pcm is a multichannel float vector.  In stereo, for
-                                example, pcm[0] is left, and pcm[1] is right.  samples is
-                                the size of each channel.  Convert the float values
-                                (-1.<=range<=1.) to whatever PCM format and write it out */
-
-                                while((samples=vorbis_synthesis_pcmout(&vd,&pcm))>0){
-                                    int j;
-                                    int clipflag=0;
-                                    int bout=(samples<convsize?samples:convsize);
-
-                                    /* convert floats to 16 bit signed ints (host order) and
-                                    interleave */
-                                    for(i=0;i<vi.channels;i++){
-                                        ogg_int16_t *ptr=convbuffer+i;
-                                        float  *mono=pcm[i];
-                                        for(j=0;j<bout;j++){
-
-                                            #if 1
-                                            int val=floor(mono[j]*32767.f+.5f);
-                                            #else /* optional dither */
-                                            int val=mono[j]*32767.f+drand48()-0.5f;
-                                            #endif
-                                            /* might as well guard against clipping */
-                                            if(val>32767){
-                                                val=32767;
-                                                clipflag=1;
-                                            }
-
-                                            if(val<-32768){
-                                                val=-32768;
-                                                clipflag=1;
-                                            }
-
-                                            *ptr=val;
-                                            ptr+=vi.channels;
-                                        }
-                                    }
-
-                                    if(clipflag) {
-                                        __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Clipping in frame %ld\n",(long)(vd.sequence));
-                                    }
-
-                                    writePCMDataFromVorbisDataFeed(env, &vorbisDataFeed, &writePCMDataMethodId, &convbuffer[0], bout*vi.channels, &jShortArrayWriteBuffer);
-
-                                    vorbis_synthesis_read(&vd,bout); /* tell libvorbis how many samples we actually consumed */
-                                }
-                            }
-                        }
-                        if(ogg_page_eos(&og))eos=1;
-                    }
-                }
-
-                if(!eos){
-                    buffer=ogg_sync_buffer(&oy,BUFFER_LENGTH);
-                    bytes=readVorbisDataFromVorbisDataFeed(env, &vorbisDataFeed, &readVorbisDataMethodId, buffer, &jByteArrayReadBuffer);
-                    ogg_sync_wrote(&oy,bytes);
-                    if(bytes==0) {
-                        eos=1;
-                    }
-                }
+//Decodes the vorbis bitstream read from the decode feed and writes the pcm back to it
+int decodeFromFeed(JNIEnv *env, struct decode_feed *decodeFeed) {
+    int convsize=decodeFeed->pcmLength;
+    int channels=1;
+
+    struct decoder_session *session;
+
+    char *buffer;
+    int  bytes;
+    int  result;
+
+    /********** Decode setup ************/
+
+    //Notify the decode feed we are starting to initialize
+    startReadingHeader(env, decodeFeed);
+
+    session=decoder_session_create();
+    if(session==NULL){
+        stopDecodeFeed(env, decodeFeed);
+        return ERROR_ALLOCATING_BUFFERS;
+    }
+    session->fixedPoint=decodeFeed->fixedPoint;
+
+    /* Pull pcm out of the session, feeding it whenever it runs dry. Chained
+    bitstreams are decoded one logical stream after the other */
+    while(1){
+        void **pcm;
+
+        result=decoder_session_pcmout(session,&pcm);
+
+        if(result>0){
+            int bout;
+
+            /* batches only go out once the pcm buffer can't take another sample */
+            if(convsize-decodeFeed->pcmFill/channels<=0){
+                flushPCMData(env, decodeFeed);
             }
+            bout=convsize-decodeFeed->pcmFill/channels;
+            if(result<bout)bout=result;
 
-            /* ogg_page and ogg_packet structs always point to storage in
-            libvorbis.  They're never freed or manipulated directly */
-            vorbis_block_clear(&vb);
-            vorbis_dsp_clear(&vd);
+            if(decodeFeed->floats) {
+                decoder_session_interleave_float(session, pcm, channels, bout, decodeFeed->floatBuffer+decodeFeed->pcmFill);
+            }
+            else if(decoder_session_interleave(session, pcm, channels, bout, decodeFeed->pcmBuffer+decodeFeed->pcmFill)) {
+                __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Clipping in frame %ld\n",(long)(session->vd.sequence));
+            }
+
+            decodeFeed->pcmFill+=bout*channels;
+            if(!decodeFeed->batch){
+                flushPCMData(env, decodeFeed);
+            }
 
+            decoder_session_read(session,bout); /* tell libvorbis how many samples we actually consumed */
         }
-        else{
-            __android_log_print(ANDROID_LOG_WARN, "VorbisDecoder", "Error: Corrupt header during playback initialization.");
+        else if(result==DECODER_SESSION_NEED_MORE_DATA){
+            /* submit a 4k (or batch sized) block to libvorbis' Ogg layer */
+            buffer=decoder_session_buffer(session,decodeFeed->readLength);
+            bytes=readVorbisDataFromVorbisDataFeed(env, decodeFeed, buffer);
+            decoder_session_wrote(session,bytes);
         }
+        else if(result==DECODER_SESSION_STREAM_START){
+            /* hand over what is left of the previous link before the next one starts */
+            flushPCMData(env, decodeFeed);
 
-        /* clean up this logical bitstream; before exit we see if we're
-        followed by another [chained] */
-
-        ogg_stream_clear(&os);
-        vorbis_comment_clear(&vc);
-        vorbis_info_clear(&vi);  /* must be called last */
-    }
+            __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Bitstream is %d channel",session->vi.channels);
+            __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Bitstream %ld Hz",session->vi.rate);
+            __android_log_print(ANDROID_LOG_INFO, "VorbisDecoder", "Encoded by: %s\n\n",session->vc.vendor);
 
-    /* OK, clean up the framer */
-    ogg_sync_clear(&oy);
+            start(env, decodeFeed, session->vi.rate, session->vi.channels, session->vc.vendor);
 
+            channels=session->vi.channels;
+            convsize=decodeFeed->pcmLength/channels;
+            decoder_session_start(session);
+        }
+        else if(result==DECODER_SESSION_END_OF_INPUT){
+            break;
+        }
+        else{
+            /* error case, the session already cleaned up the stream it was reading */
+            decoder_session_destroy(session);
+            stopDecodeFeed(env, decodeFeed);
+            return result;
+        }
+    }
 
+    flushPCMData(env, decodeFeed);
 
-    stopDecodeFeed(env, &vorbisDataFeed, &stopMethodId);
+    /* OK, clean up the session */
+    decoder_session_destroy(session);
 
-    //Clean up our buffers
-    (*env)->DeleteLocalRef(env, jByteArrayReadBuffer);
-    (*env)->DeleteLocalRef(env, jShortArrayWriteBuffer);
+    stopDecodeFeed(env, decodeFeed);
 
     return SUCCESS;
-}
\ No newline at end of file
+}
@@ -5,6 +5,7 @@
 #include <string.h>
 #include <vorbis/codec.h>
 #include <android/log.h>
+#include "decoder-session.h"
 
 #ifndef _Included_org_xiph_vorbis_VorbisDecoder
 #define _Included_org_xiph_vorbis_VorbisDecoder
@@ -12,24 +13,103 @@
 extern "C" {
 #endif
 
+//Everything needed to call back into a java decode feed
+struct decode_feed {
+    jobject     feed;                       /* the DecodeFeed, ByteBufferDecodeFeed or FloatDecodeFeed being called */
+    int         direct;                     /* whether the feed takes direct buffers instead of arrays */
+    int         floats;                     /* whether the feed takes float pcm, always direct */
+    jmethodID   readVorbisDataMethodId;
+    jmethodID   writePCMDataMethodId;
+    jmethodID   startMethodId;
+    jmethodID   startReadingHeaderMethodId;
+    jmethodID   stopMethodId;
+    jmethodID   clearMethodId;              /* Buffer.clear(), direct feeds only */
+    jmethodID   limitMethodId;              /* Buffer.limit(int), direct feeds only */
+    int         readLength;                 /* how much vorbis data to ask the feed for at once */
+    int         pcmLength;                  /* size of the pcm conversion buffer in samples */
+    int         batch;                      /* whether pcm is only written once the pcm buffer is full */
+    int         fixedPoint;                 /* whether to decode with the fixed point engine */
+    ogg_int16_t* pcmBuffer;                 /* interleaved pcm waiting to be written to the feed */
+    float*      floatBuffer;                /* the same for float feeds, which have no pcmBuffer */
+    int         pcmFill;                    /* how many samples of pcmBuffer are in use */
+    jbyteArray  readBuffer;                 /* byte[] handed to DecodeFeed.readVorbisData */
+    jshortArray writeBuffer;                /* short[] handed to DecodeFeed.writePCMData */
+    char*       readAddress;                /* the ogg sync buffer region wrapped by readDirectBuffer */
+    jobject     readDirectBuffer;           /* ByteBuffer over the ogg sync buffer */
+    jobject     writeDirectBuffer;          /* ShortBuffer or FloatBuffer over the pcm conversion buffer */
+};
+
 //Starts the decoding from a vorbis bitstream to pcm
 JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startDecoding
   (JNIEnv *env, jclass cls, jobject vorbisDataFeed);
 
+//Starts the decoding from a vorbis bitstream to pcm through direct buffers
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startDecodingDirect
+  (JNIEnv *env, jclass cls, jobject vorbisDataFeed);
+
+//Starts decoding from a vorbis bitstream to pcm, reading and writing in caller sized batches, with the given VorbisDecoder.ENGINE_*
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startBatchDecoding
+  (JNIEnv *env, jclass cls, jobject vorbisDataFeed, jint readBufferSize, jint pcmBufferSize, jint engine);
+
+//Starts decoding from a vorbis bitstream to pcm through direct buffers, reading and writing in caller sized batches, with the given VorbisDecoder.ENGINE_*
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startBatchDecodingDirect
+  (JNIEnv *env, jclass cls, jobject vorbisDataFeed, jint readBufferSize, jint pcmBufferSize, jint engine);
+
+//Starts decoding from a vorbis bitstream to float pcm through direct buffers
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startDecodingFloat
+  (JNIEnv *env, jclass cls, jobject vorbisDataFeed);
+
+//Starts decoding from a vorbis bitstream to float pcm through direct buffers, reading and writing in caller sized batches, with the given VorbisDecoder.ENGINE_*
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_startBatchDecodingFloat
+  (JNIEnv *env, jclass cls, jobject vorbisDataFeed, jint readBufferSize, jint pcmBufferSize, jint engine);
+
+//Returns the VorbisDecoder.ENGINE_* suggested for this cpu
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_preferredEngine
+  (JNIEnv *env, jclass cls);
+
+//Changes how many unpacked setup headers libvorbis keeps
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_setupCacheCapacity
+  (JNIEnv *env, jclass cls, jint capacity);
+
+//Returns the hits, misses, evictions, entries and capacity of the setup cache of libvorbis
+JNIEXPORT jlongArray JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoder_setupCacheStats
+  (JNIEnv *env, jclass cls);
+
+//Looks up the callbacks of a DecodeFeed and creates the buffers handed to it
+int initDecodeFeed(JNIEnv *env, jobject vorbisDataFeed, struct decode_feed *decodeFeed, int readLength, int pcmLength, int batch);
+
+//Looks up the callbacks of a ByteBufferDecodeFeed and wraps the pcm conversion buffer handed to it
+int initDirectDecodeFeed(JNIEnv *env, jobject vorbisDataFeed, struct decode_feed *decodeFeed, int readLength, int pcmLength, int batch);
+
+//Looks up the callbacks of a FloatDecodeFeed and wraps the float pcm buffer handed to it
+int initFloatDecodeFeed(JNIEnv *env, jobject vorbisDataFeed, struct decode_feed *decodeFeed, int readLength, int pcmLength, int batch);
+
+//Cleans up the buffers held by the decode feed
+void clearDecodeFeed(JNIEnv *env, struct decode_feed *decodeFeed);
+
+//Decodes the vorbis bitstream read from the decode feed and writes the pcm back to it
+int decodeFromFeed(JNIEnv *env, struct decode_feed *decodeFeed);
+
 //Stops the vorbis data feed
-void stopDecodeFeed(JNIEnv *env, jobject* vorbisDataFeed, jmethodID* stopMethodId);
+void stopDecodeFeed(JNIEnv *env, struct decode_feed *decodeFeed);
 
 //Reads raw vorbis data from the jni callback
-int readVorbisDataFromVorbisDataFeed(JNIEnv *env, jobject* vorbisDataFeed, jmethodID* readVorbisDataMethodId, char* buffer, jbyteArray* jByteArrayReadBuffer);
+int readVorbisDataFromVorbisDataFeed(JNIEnv *env, struct decode_feed *decodeFeed, char* buffer);
 
 //Writes the pcm data to the Java layer
-void writePCMDataFromVorbisDataFeed(JNIEnv *env, jobject* vorbisDataFeed, jmethodID* writePCMDataMethodId, ogg_int16_t* buffer, int bytes, jshortArray* jShortArrayWriteBuffer);
+void writePCMDataFromVorbisDataFeed(JNIEnv *env, struct decode_feed *decodeFeed, ogg_int16_t* buffer, int bytes);
+
+//Hands whatever pcm has been collected to the Java layer and empties the pcm buffer
+void flushPCMData(JNIEnv *env, struct decode_feed *decodeFeed);
+
+//Wraps the pcm buffer in a native ordered ShortBuffer, or FloatBuffer for float feeds, for direct decode feeds
+jobject newDirectPCMWriteBuffer(JNIEnv *env, void* buffer, int length, int floats);
 
 //Starts the decode feed with the necessary information about sample rates, channels, etc about the stream
-void start(JNIEnv *env, jobject *vorbisDataFeed, jmethodID* startMethodId, long sampleRate, long channels, char* vendor);
+void start(JNIEnv *env, struct decode_feed *decodeFeed, long sampleRate, long channels, char* vendor);
 
 //Starts reading the header information
-void startReadingHeader(JNIEnv *env, jobject *vorbisDataFeed, jmethodID* startReadingHeaderMethodId);
+void startReadingHeader(JNIEnv *env, struct decode_feed *decodeFeed);
 
 #ifdef __cplusplus
 }
@@ -0,0 +1,269 @@
+/* The jni side of VorbisDecoderSession. The java object keeps a pointer to a
+decoder_session_handle in a long and drives the session from whatever thread
+it likes, nothing here ever calls back into java. */
+
+#include "org_xiph_vorbis_decoder_VorbisDecoderSession.h"
+
+/*Codes handed back to VorbisDecoderSession.drainPcm*/
+#define NEED_MORE_INPUT 0
+#define END_OF_INPUT -1
+#define NEW_STREAM -2
+
+//Grows the scratch float pcm to at least length samples, returns 0 and throws if out of memory
+static int reserveFloatBuffer(JNIEnv *env, struct decoder_session_handle *handle, int length) {
+    if(handle->floatLength < length) {
+        float *floatBuffer = realloc(handle->floatBuffer, length * sizeof(float));
+        if(floatBuffer == NULL) {
+            JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not allocate pcm buffer", length);
+            return 0;
+        }
+        handle->floatBuffer = floatBuffer;
+        handle->floatLength = length;
+    }
+    return 1;
+}
+
+int drainSession(JNIEnv *env, struct decoder_session_handle *handle, ogg_int16_t *buffer, float *floatBuffer, int length) {
+    struct decoder_session *session = handle->session;
+    int written = 0;
+
+    while(1) {
+        void **pcm;
+        int result = decoder_session_pcmout(session, &pcm);
+
+        if(result > 0) {
+            int channels = session->vi.channels;
+            int bout = (length - written) / channels;
+
+            if(bout == 0) {
+                if(written == 0) {
+                    JNU_ThrowByName(env, "java/lang/IllegalArgumentException", "PCM buffer smaller than a sample per channel", channels);
+                }
+                return written;
+            }
+            if(result < bout) bout = result;
+
+            if(buffer == NULL) {
+                decoder_session_interleave_float(session, pcm, channels, bout, floatBuffer + written);
+            }
+            else if(decoder_session_interleave(session, pcm, channels, bout, buffer + written)) {
+                __android_log_print(ANDROID_LOG_INFO, "VorbisDecoderSession", "Clipping in frame %ld", (long)(session->vd.sequence));
+            }
+            decoder_session_read(session, bout);
+            written += bout * channels;
+        }
+        else if(result == DECODER_SESSION_NEED_MORE_DATA) {
+            return written;
+        }
+        else if(result == DECODER_SESSION_STREAM_START) {
+            /* new streams are reported on their own so pcm of two links never shares a drain */
+            if(written > 0) {
+                return written;
+            }
+            decoder_session_start(session);
+            return NEW_STREAM;
+        }
+        else if(result == DECODER_SESSION_END_OF_INPUT) {
+            return written > 0 ? written : END_OF_INPUT;
+        }
+        else {
+            /* the session keeps failing with the same code, report it once the pcm before it was drained */
+            if(written == 0) {
+                JNU_ThrowByName(env, "java/io/IOException", "Vorbis decode failed", result);
+            }
+            return written;
+        }
+    }
+}
+
+int drainSessionPlanar(JNIEnv *env, struct decoder_session_handle *handle, jobjectArray out, int offset, int length) {
+    struct decoder_session *session = handle->session;
+    int written = 0;
+
+    while(1) {
+        void **pcm;
+        int result = decoder_session_pcmout(session, &pcm);
+
+        if(result > 0) {
+            int channels = session->vi.channels;
+            int bout = length - written;
+            int i;
+
+            if(bout == 0) {
+                return written;
+            }
+            if((*env)->GetArrayLength(env, out) < channels) {
+                JNU_ThrowByName(env, "java/lang/IllegalArgumentException", "PCM buffer has fewer channels than the stream", channels);
+                return written;
+            }
+            if(result < bout) bout = result;
+            if(session->fixedPoint && !reserveFloatBuffer(env, handle, bout)) {
+                return written;
+            }
+
+            /* libvorbis' pcm is planar already, each channel is one straight copy,
+            fixed point channels are scaled to floats on the way */
+            for(i = 0; i < channels; i++) {
+                jfloatArray channel = (*env)->GetObjectArrayElement(env, out, i);
+                float *mono = pcm[i];
+                if(session->fixedPoint) {
+                    decoder_session_interleave_float(session, pcm + i, 1, bout, handle->floatBuffer);
+                    mono = handle->floatBuffer;
+                }
+                (*env)->SetFloatArrayRegion(env, channel, offset + written, bout, mono);
+                (*env)->DeleteLocalRef(env, channel);
+            }
+            decoder_session_read(session, bout);
+            written += bout;
+        }
+        else if(result == DECODER_SESSION_NEED_MORE_DATA) {
+            return written;
+        }
+        else if(result == DECODER_SESSION_STREAM_START) {
+            if(written > 0) {
+                return written;
+            }
+            decoder_session_start(session);
+            return NEW_STREAM;
+        }
+        else if(result == DECODER_SESSION_END_OF_INPUT) {
+            return written > 0 ? written : END_OF_INPUT;
+        }
+        else {
+            if(written == 0) {
+                JNU_ThrowByName(env, "java/io/IOException", "Vorbis decode failed", result);
+            }
+            return written;
+        }
+    }
+}
+
+JNIEXPORT jlong JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_create
+(JNIEnv *env, jclass cls, jint engine) {
+    struct decoder_session_handle *handle = calloc(1, sizeof(struct decoder_session_handle));
+    if(handle != NULL) {
+        handle->session = decoder_session_create();
+    }
+    if(handle == NULL || handle->session == NULL) {
+        free(handle);
+        JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not allocate decoder session", 0);
+        return 0;
+    }
+    handle->session->fixedPoint = engine == ENGINE_FIXED_POINT;
+    return (jlong)(intptr_t)handle;
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_feedDirect
+(JNIEnv *env, jclass cls, jlong handle, jobject in, jint offset, jint length) {
+    struct decoder_session *session = ((struct decoder_session_handle *)(intptr_t)handle)->session;
+    char *data = (*env)->GetDirectBufferAddress(env, in);
+    char *buffer = decoder_session_buffer(session, length);
+
+    memcpy(buffer, data + offset, length);
+    decoder_session_wrote(session, length);
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_feedArray
+(JNIEnv *env, jclass cls, jlong handle, jbyteArray in, jint offset, jint length) {
+    struct decoder_session *session = ((struct decoder_session_handle *)(intptr_t)handle)->session;
+    char *buffer = decoder_session_buffer(session, length);
+
+    (*env)->GetByteArrayRegion(env, in, offset, length, (jbyte *)buffer);
+    decoder_session_wrote(session, length);
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_endOfInput
+(JNIEnv *env, jclass cls, jlong handle) {
+    decoder_session_wrote(((struct decoder_session_handle *)(intptr_t)handle)->session, 0);
+}
+
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainDirect
+(JNIEnv *env, jclass cls, jlong handle, jobject out, jint offset, jint length) {
+    ogg_int16_t *buffer = (*env)->GetDirectBufferAddress(env, out);
+    return drainSession(env, (struct decoder_session_handle *)(intptr_t)handle, buffer + offset, NULL, length);
+}
+
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainArray
+(JNIEnv *env, jclass cls, jlong handle, jshortArray out, jint offset, jint length) {
+    struct decoder_session_handle *sessionHandle = (struct decoder_session_handle *)(intptr_t)handle;
+    int written;
+
+    /* decode into our own scratch rather than pinning the array for the whole decode */
+    if(sessionHandle->pcmLength < length) {
+        ogg_int16_t *pcmBuffer = realloc(sessionHandle->pcmBuffer, length * sizeof(ogg_int16_t));
+        if(pcmBuffer == NULL) {
+            JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not allocate pcm buffer", length);
+            return 0;
+        }
+        sessionHandle->pcmBuffer = pcmBuffer;
+        sessionHandle->pcmLength = length;
+    }
+
+    written = drainSession(env, sessionHandle, sessionHandle->pcmBuffer, NULL, length);
+    if(written > 0) {
+        (*env)->SetShortArrayRegion(env, out, offset, written, (jshort *)sessionHandle->pcmBuffer);
+    }
+    return written;
+}
+
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainFloatDirect
+(JNIEnv *env, jclass cls, jlong handle, jobject out, jint offset, jint length) {
+    float *buffer = (*env)->GetDirectBufferAddress(env, out);
+    return drainSession(env, (struct decoder_session_handle *)(intptr_t)handle, NULL, buffer + offset, length);
+}
+
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainFloatArray
+(JNIEnv *env, jclass cls, jlong handle, jfloatArray out, jint offset, jint length) {
+    struct decoder_session_handle *sessionHandle = (struct decoder_session_handle *)(intptr_t)handle;
+    int written;
+
+    if(!reserveFloatBuffer(env, sessionHandle, length)) {
+        return 0;
+    }
+
+    written = drainSession(env, sessionHandle, NULL, sessionHandle->floatBuffer, length);
+    if(written > 0) {
+        (*env)->SetFloatArrayRegion(env, out, offset, written, sessionHandle->floatBuffer);
+    }
+    return written;
+}
+
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainFloatPlanar
+(JNIEnv *env, jclass cls, jlong handle, jobjectArray out, jint offset, jint length) {
+    return drainSessionPlanar(env, (struct decoder_session_handle *)(intptr_t)handle, out, offset, length);
+}
+
+JNIEXPORT jobject JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_getStreamInfo
+(JNIEnv *env, jclass cls, jlong handle) {
+    struct decoder_session *session = ((struct decoder_session_handle *)(intptr_t)handle)->session;
+    jclass decodeStreamInfoClass;
+    jmethodID constructor;
+    jstring vendorString;
+    jobject decodeStreamInfo;
+
+    if(session->state != DECODER_SESSION_HEADERS_READY && session->state != DECODER_SESSION_DECODING) {
+        return NULL;
+    }
+
+    //Get decode stream info class and constructor
+    decodeStreamInfoClass = (*env)->FindClass(env, "org/xiph/vorbis/decoder/DecodeStreamInfo");
+    constructor = (*env)->GetMethodID(env, decodeStreamInfoClass, "<init>", "(JJLjava/lang/String;)V");
+
+    //Create the decode stream info object
+    vendorString = (*env)->NewStringUTF(env, session->vc.vendor);
+    decodeStreamInfo = (*env)->NewObject(env, decodeStreamInfoClass, constructor, (jlong)session->vi.rate, (jlong)session->vi.channels, vendorString);
+
+    (*env)->DeleteLocalRef(env, vendorString);
+    (*env)->DeleteLocalRef(env, decodeStreamInfoClass);
+    return decodeStreamInfo;
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_destroy
+(JNIEnv *env, jclass cls, jlong handle) {
+    struct decoder_session_handle *sessionHandle = (struct decoder_session_handle *)(intptr_t)handle;
+
+    decoder_session_destroy(sessionHandle->session);
+    free(sessionHandle->pcmBuffer);
+    free(sessionHandle->floatBuffer);
+    free(sessionHandle);
+}
@@ -0,0 +1,79 @@
+#include <jni.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdint.h>
+#include <vorbis/codec.h>
+#include <android/log.h>
+#include <stream/util.h>
+#include "decoder-session.h"
+
+#ifndef _Included_org_xiph_vorbis_decoder_VorbisDecoderSession
+#define _Included_org_xiph_vorbis_decoder_VorbisDecoderSession
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+//What a VorbisDecoderSession's handle points to
+struct decoder_session_handle {
+    struct decoder_session* session;
+    ogg_int16_t*            pcmBuffer;      /* scratch pcm for sessions drained into java arrays */
+    int                     pcmLength;      /* size of pcmBuffer in samples */
+    float*                  floatBuffer;    /* scratch float pcm for sessions drained into java arrays */
+    int                     floatLength;    /* size of floatBuffer in samples */
+};
+
+//Drains interleaved pcm from the session into buffer, or floatBuffer if buffer is NULL, returns the samples written or a VorbisDecoderSession code
+int drainSession(JNIEnv *env, struct decoder_session_handle *handle, ogg_int16_t *buffer, float *floatBuffer, int length);
+
+//Drains planar float pcm from the session into one java array per channel, returns the samples per channel written or a VorbisDecoderSession code
+int drainSessionPlanar(JNIEnv *env, struct decoder_session_handle *handle, jobjectArray out, int offset, int length);
+
+//Creates a new decoder session decoding with the given VorbisDecoder.ENGINE_*, and returns its handle
+JNIEXPORT jlong JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_create
+  (JNIEnv *env, jclass cls, jint engine);
+
+//Copies vorbis data from a direct buffer into the session
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_feedDirect
+  (JNIEnv *env, jclass cls, jlong handle, jobject in, jint offset, jint length);
+
+//Copies vorbis data from a java array into the session
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_feedArray
+  (JNIEnv *env, jclass cls, jlong handle, jbyteArray in, jint offset, jint length);
+
+//Tells the session no more vorbis data will be fed
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_endOfInput
+  (JNIEnv *env, jclass cls, jlong handle);
+
+//Decodes interleaved pcm into a direct buffer
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainDirect
+  (JNIEnv *env, jclass cls, jlong handle, jobject out, jint offset, jint length);
+
+//Decodes interleaved pcm into a java array
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainArray
+  (JNIEnv *env, jclass cls, jlong handle, jshortArray out, jint offset, jint length);
+
+//Decodes interleaved float pcm into a direct buffer
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainFloatDirect
+  (JNIEnv *env, jclass cls, jlong handle, jobject out, jint offset, jint length);
+
+//Decodes interleaved float pcm into a java array
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainFloatArray
+  (JNIEnv *env, jclass cls, jlong handle, jfloatArray out, jint offset, jint length);
+
+//Decodes planar float pcm into one java array per channel
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_drainFloatPlanar
+  (JNIEnv *env, jclass cls, jlong handle, jobjectArray out, jint offset, jint length);
+
+//Gets the info of the logical stream being decoded, null before its headers were read
+JNIEXPORT jobject JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_getStreamInfo
+  (JNIEnv *env, jclass cls, jlong handle);
+
+//Frees the session and everything it holds
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_decoder_VorbisDecoderSession_destroy
+  (JNIEnv *env, jclass cls, jlong handle);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
@@ -14,109 +14,135 @@ jfloat NO_QUALITY = -1;
 jlong NO_BITRATE = -1;
 
 //Starts the encode feed
-void startEncodeFeed(JNIEnv *env, jobject *vorbisDataFeed, jmethodID* startMethodId) {
+void startEncodeFeed(JNIEnv *env, struct encode_feed *encodeFeed) {
     __android_log_print(ANDROID_LOG_INFO, "VorbisEncoder", "Notifying encode feed to start");
 
     //Call header start reading method
-    (*env)->CallVoidMethod(env, (*vorbisDataFeed), (*startMethodId));
+    (*env)->CallVoidMethod(env, encodeFeed->feed, encodeFeed->startMethodId);
 }
 
 //Stops the vorbis data feed
-void stopEncodeFeed(JNIEnv *env, jobject* vorbisDataFeed, jmethodID* stopMethodId) {
-    (*env)->CallVoidMethod(env, (*vorbisDataFeed), (*stopMethodId));
+void stopEncodeFeed(JNIEnv *env, struct encode_feed *encodeFeed) {
+    (*env)->CallVoidMethod(env, encodeFeed->feed, encodeFeed->stopMethodId);
 }
 
 //Reads pcm data from the jni callback
-long readPCMDataFromEncoderDataFeed(JNIEnv *env, jobject* encoderDataFeed, jmethodID* readPCMDataMethodId, char* buffer, int length, jbyteArray* jByteArrayBuffer) {
-    long readByteCount = (*env)->CallLongMethod(env, (*encoderDataFeed), (*readPCMDataMethodId), (*jByteArrayBuffer), length);
+long readPCMDataFromEncoderDataFeed(JNIEnv *env, struct encode_feed *encodeFeed, char* buffer, int length) {
+    long readByteCount;
+
+    //Direct feeds write straight into the pcm buffer, just rewind the view over it
+    if(encodeFeed->direct) {
+        if(encodeFeed->readDirectBuffer == NULL) {
+            encodeFeed->readDirectBuffer = newDirectPCMReadBuffer(env, buffer, length);
+        }
+        (*env)->DeleteLocalRef(env, (*env)->CallObjectMethod(env, encodeFeed->readDirectBuffer, encodeFeed->clearMethodId));
+        return (*env)->CallLongMethod(env, encodeFeed->feed, encodeFeed->readPCMDataMethodId, encodeFeed->readDirectBuffer, length);
+    }
+
+    readByteCount = (*env)->CallLongMethod(env, encodeFeed->feed, encodeFeed->readPCMDataMethodId, encodeFeed->readBuffer, length);
 
     //Don't bother copying, just delete the reference and return 0
     if(readByteCount == 0) {
-        (*env)->DeleteLocalRef(env, (*jByteArrayBuffer));
+        (*env)->DeleteLocalRef(env, encodeFeed->readBuffer);
         return 0;
     }
 
     //Gets the bytes from the java array and copies them to the pcm buffer
-    jbyte* readBytes = (*env)->GetByteArrayElements(env, (*jByteArrayBuffer), NULL);
+    jbyte* readBytes = (*env)->GetByteArrayElements(env, encodeFeed->readBuffer, NULL);
     memcpy(buffer, readBytes, readByteCount);
 
     //Clean up memory and return how much data was read
-    (*env)->ReleaseByteArrayElements(env, (*jByteArrayBuffer), readBytes, JNI_ABORT);
+    (*env)->ReleaseByteArrayElements(env, encodeFeed->readBuffer, readBytes, JNI_ABORT);
 
     return readByteCount;
 }
 
 //Writes the vorbis data to the Java layer
-int writeVorbisDataToEncoderDataFeed(JNIEnv *env, jobject* encoderDataFeed, jmethodID* writeVorbisDataMethodId, char* buffer, int bytes, jbyteArray* jByteArrayWriteBuffer) {
+int writeVorbisDataToEncoderDataFeed(JNIEnv *env, struct encode_feed *encodeFeed, char* buffer, int bytes) {
 
     //No data to write, just exit
     if(bytes == 0) {
         return 0;
     }
 
-    //Create and copy the contents of what we're writing to the java byte array
-    jbyteArray jByteArray = (*env)->NewByteArray(env, bytes);
-    (*env)->SetByteArrayRegion(env, (*jByteArrayWriteBuffer), 0, bytes, (jbyte *)buffer);
+    //Direct feeds read the page straight out of libogg's storage
+    if(encodeFeed->direct) {
+        jobject directBuffer = (*env)->NewDirectByteBuffer(env, buffer, bytes);
+        int amountWritten = (*env)->CallIntMethod(env, encodeFeed->feed, encodeFeed->writeVorbisDataMethodId, directBuffer, bytes);
+        (*env)->DeleteLocalRef(env, directBuffer);
+        return amountWritten;
+    }
 
-    //Call the write vorbis data method
-    int amountWritten = (*env)->CallIntMethod(env, (*encoderDataFeed), (*writeVorbisDataMethodId), (*jByteArrayWriteBuffer), bytes);
+    //A page body can be up to 64k, grow the java byte array for the rare ones that don't fit
+    if(bytes > (*env)->GetArrayLength(env, encodeFeed->writeBuffer)) {
+        (*env)->DeleteLocalRef(env, encodeFeed->writeBuffer);
+        encodeFeed->writeBuffer = (*env)->NewByteArray(env, bytes);
+        if(encodeFeed->writeBuffer == NULL) {
+            //OutOfMemoryError already thrown
+            return 0;
+        }
+    }
 
-    // clean up
-    (*env)->DeleteLocalRef(env, jByteArray);
+    //Copy the contents of what we're writing to the java byte array
+    (*env)->SetByteArrayRegion(env, encodeFeed->writeBuffer, 0, bytes, (jbyte *)buffer);
 
-    //Return the amount that was actually written
-    return amountWritten;
+    //Call the write vorbis data method and return the amount that was actually written
+    return (*env)->CallIntMethod(env, encodeFeed->feed, encodeFeed->writeVorbisDataMethodId, encodeFeed->writeBuffer, bytes);
+}
+
+//Wraps the pcm read buffer in a little endian ByteBuffer for direct encode feeds
+jobject newDirectPCMReadBuffer(JNIEnv *env, char* buffer, int length) {
+    jclass byteBufferClass = (*env)->FindClass(env, "java/nio/ByteBuffer");
+    jclass byteOrderClass = (*env)->FindClass(env, "java/nio/ByteOrder");
+    jfieldID littleEndianFieldId = (*env)->GetStaticFieldID(env, byteOrderClass, "LITTLE_ENDIAN", "Ljava/nio/ByteOrder;");
+    jmethodID orderMethodId = (*env)->GetMethodID(env, byteBufferClass, "order", "(Ljava/nio/ByteOrder;)Ljava/nio/ByteBuffer;");
+
+    jobject byteBuffer = (*env)->NewDirectByteBuffer(env, buffer, length);
+    jobject littleEndian = (*env)->GetStaticObjectField(env, byteOrderClass, littleEndianFieldId);
+
+    //order() hands back the same buffer
+    (*env)->DeleteLocalRef(env, (*env)->CallObjectMethod(env, byteBuffer, orderMethodId, littleEndian));
+
+    (*env)->DeleteLocalRef(env, littleEndian);
+    (*env)->DeleteLocalRef(env, byteOrderClass);
+    (*env)->DeleteLocalRef(env, byteBufferClass);
+    return byteBuffer;
 }
 
 //Method to start encoding
-int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *channels_ptr, jfloat *quality_ptr, jlong *bitrate_ptr, jobject *encoderDataFeed_ptr, int type) {
+int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *channels_ptr, jfloat *quality_ptr, jlong *bitrate_ptr, struct encode_feed *encodeFeed, int type, int threads) {
     //Dereference our variables
     jclass cls = (*cls_ptr);
     jlong sampleRate = (*sampleRate_ptr);
     jlong channels = (*channels_ptr);
     jfloat quality = (*quality_ptr);
     jlong bitrate = (*bitrate_ptr);
-    jobject encoderDataFeed = (*encoderDataFeed_ptr);
 
     //Create our PCM data buffer
-    signed char readbuffer[READ*4+44];
-
-    //Create a new java byte array to pass to the data feed method
-    jbyteArray jByteArrayBuffer = (*env)->NewByteArray(env, READ*4);
-
-    //Create a new java byte buffer to write to
-    jbyteArray jByteArrayWriteBuffer = (*env)->NewByteArray(env, READ*8);
-
-    //Find our java classes we'll be calling
-    jclass encoderDataFeedClass = (*env)->FindClass(env, "org/xiph/vorbis/encoder/EncodeFeed");
-
-    //Find our java method id's we'll be calling
-    jmethodID writeVorbisDataMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "writeVorbisData", "([BI)I");
-    jmethodID readPCMDataMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "readPCMData", "([BI)J");
-    jmethodID startMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "start", "()V");
-    jmethodID stopMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "stop", "()V");
+    ogg_int16_t readbuffer[READ*2+22]; /* shorts, so the pcm is aligned for them */
 
     ogg_stream_state os; /* take physical pages, weld into a logical
                             stream of packets */
     ogg_page         og; /* one Ogg bitstream page.  Vorbis packets are inside */
     ogg_packet       op; /* one raw packet of data for decode */
 
-    vorbis_info      vi; /* struct that stores all the static vorbis bitstream
-                            settings */
+    struct encoder_context *context; /* the static vorbis bitstream settings
+                                        and the central working state for
+                                        the PCM->packet encoder */
     vorbis_comment   vc; /* struct that stores all the user comments */
 
-    vorbis_dsp_state vd; /* central working state for the packet->PCM decoder */
-    vorbis_block     vb; /* local working space for packet->PCM decode */
+    struct analysis_pool *pool; /* the local working space of the blocks
+                                   being analysed at once */
 
     int eos=0,ret;
     int i, founddata;
 
     /********** Encode setup ************/
     __android_log_print(ANDROID_LOG_INFO, "VorbisEncoder", "Setting up encoding");
-    vorbis_info_init(&vi);
 
     /* choose an encoding mode.  A few possibilities commented out, one
-       actually used: */
+       actually used. A context left behind by an encoding set up the
+       same way is reused rather than set up again: */
 
     /*********************************************************************
      Encoding using a VBR quality mode.  The usable range is -.1
@@ -146,15 +172,15 @@ int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *ch
      switch(type) {
         case WITH_BITRATE:
             __android_log_print(ANDROID_LOG_INFO, "VorbisEncoder", "Initializing with %lld channels %lldHz sample rate and %lld bitrate", channels, sampleRate, bitrate);
-            ret=vorbis_encode_init(&vi, (long)channels, (long)sampleRate, (long)-1, (long)bitrate, (long)-1);
+            context=context_pool_acquire(CONTEXT_POOL_WITH_BITRATE, (long)channels, (long)sampleRate, NO_QUALITY, (long)bitrate, &ret);
             break;
         case WITH_QUALITY:
             __android_log_print(ANDROID_LOG_INFO, "VorbisEncoder", "Initializing with %lld channels %lldHz sample rate and %f quality", channels, sampleRate, quality);
-            ret=vorbis_encode_init_vbr(&vi, (long)channels, (long)sampleRate, (float)quality);
+            context=context_pool_acquire(CONTEXT_POOL_WITH_QUALITY, (long)channels, (long)sampleRate, (float)quality, NO_BITRATE, &ret);
             break;
         default:
             __android_log_print(ANDROID_LOG_ERROR, "VorbisEncoder", "Failed to initialize");
-            stopEncodeFeed(env, &encoderDataFeed, &stopMethodId);
+            stopEncodeFeed(env, encodeFeed);
             return ERROR_INITIALIZING;
      }
 
@@ -163,22 +189,28 @@ int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *ch
        mode that libVorbis does not support (eg, too low a bitrate, etc,
        will return 'OV_EIMPL') */
 
-    if(ret) {
+    if(context==NULL) {
       __android_log_print(ANDROID_LOG_ERROR, "VorbisEncoder", "Failed to initialize");
-      stopEncodeFeed(env, &encoderDataFeed, &stopMethodId);
+      stopEncodeFeed(env, encodeFeed);
       return ERROR_INITIALIZING;
     }
 
-    startEncodeFeed(env, &encoderDataFeed, &startMethodId);
+    startEncodeFeed(env, encodeFeed);
 
     /* add a comment */
     __android_log_print(ANDROID_LOG_DEBUG, "VorbisEncoder", "Adding comments");
     vorbis_comment_init(&vc);
     vorbis_comment_add_tag(&vc,"ENCODER","JNIVorbisEncoder");
 
-    /* set up the analysis state and auxiliary encoding storage */
-    vorbis_analysis_init(&vd,&vi);
-    vorbis_block_init(&vd,&vb);
+    /* set up the auxiliary encoding storage */
+    pool=analysis_pool_create(&context->vd,threads);
+    if(pool==NULL) {
+      __android_log_print(ANDROID_LOG_ERROR, "VorbisEncoder", "Failed to allocate the analysis pool");
+      context_pool_release(context);
+      vorbis_comment_clear(&vc);
+      stopEncodeFeed(env, encodeFeed);
+      return ERROR_INITIALIZING;
+    }
 
     /* set up our packet->stream encoder */
     /* pick a random serial number; that way we can more likely build
@@ -198,7 +230,7 @@ int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *ch
       ogg_packet header_comm;
       ogg_packet header_code;
 
-      vorbis_analysis_headerout(&vd,&vc,&header,&header_comm,&header_code);
+      vorbis_analysis_headerout(&context->vd,&vc,&header,&header_comm,&header_code);
       ogg_stream_packetin(&os,&header); /* automatically placed in its own
                                            page */
       ogg_stream_packetin(&os,&header_comm);
@@ -211,8 +243,8 @@ int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *ch
       while(!eos){
         int result=ogg_stream_flush(&os,&og);
         if(result==0)break;
-        writeVorbisDataToEncoderDataFeed(env, &encoderDataFeed, &writeVorbisDataMethodId, og.header, og.header_len, &jByteArrayWriteBuffer);
-        writeVorbisDataToEncoderDataFeed(env, &encoderDataFeed, &writeVorbisDataMethodId, og.body, og.body_len, &jByteArrayWriteBuffer);
+        writeVorbisDataToEncoderDataFeed(env, encodeFeed, og.header, og.header_len);
+        writeVorbisDataToEncoderDataFeed(env, encodeFeed, og.body, og.body_len);
       }
 
     }
@@ -220,7 +252,8 @@ int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *ch
     __android_log_print(ANDROID_LOG_INFO, "VorbisEncoder", "Starting to read from pcm callback");
     while(!eos){
       long i;
-      long bytes = readPCMDataFromEncoderDataFeed(env, &encoderDataFeed, &readPCMDataMethodId, readbuffer, READ*4, &jByteArrayBuffer);
+      /* whole samples for every channel, so a read never splits one */
+      long bytes = readPCMDataFromEncoderDataFeed(env, encodeFeed, (char *)readbuffer, READ*4/(2*channels)*(2*channels));
 
       if(bytes==0){
         /* end of file.  this can be done implicitly in the mainline,
@@ -228,37 +261,28 @@ int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *ch
            Tell the library we're at end of stream so that it can handle
            the last frame and mark end of stream in the output properly */
         __android_log_print(ANDROID_LOG_INFO, "VorbisEncoder", "End of file");
-        vorbis_analysis_wrote(&vd,0);
+        vorbis_analysis_wrote(&context->vd,0);
 
       }else{
         /* data to encode */
 
         /* expose the buffer to submit data */
-        float **buffer=vorbis_analysis_buffer(&vd,bytes/(2*channels));
-
-        /* uninterleave samples */
-        int channel;
-        for(i=0;i<bytes/(2*channels);i++) {
-            for(channel = 0; channel < channels; channel++) {
-                buffer[channel][i]=((readbuffer[i*(2*channels)+(channel*2+1)]<<8)|
-                              (0x00ff&(int)readbuffer[i*(2*channels)+(channel*2)]))/32768.f;
-            }
-        }
+        float **buffer=vorbis_analysis_buffer(&context->vd,bytes/(2*channels));
+
+        /* uninterleave samples, the little endian pcm is in host order on every ABI we build */
+        i=bytes/(2*channels);
+        pcm_kernels()->dequantize(readbuffer, channels, i, buffer);
 
         /* tell the library how much we actually submitted */
-        vorbis_analysis_wrote(&vd,i);
+        vorbis_analysis_wrote(&context->vd,i);
       }
 
       /* vorbis does some data preanalysis, then divvies up blocks for
-         more involved (potentially parallel) processing.  Get a single
-         block for encoding now */
-      while(vorbis_analysis_blockout(&vd,&vb)==1){
+         more involved (potentially parallel) processing.  The pool
+         analyses them on its threads and hands them back in order */
+      while(analysis_pool_blockout(pool)==1){
 
-        /* analysis, assume we want to use bitrate management */
-        vorbis_analysis(&vb,NULL);
-        vorbis_bitrate_addblock(&vb);
-
-        while(vorbis_bitrate_flushpacket(&vd,&op)){
+        while(vorbis_bitrate_flushpacket(&context->vd,&op)){
 
           /* weld the packet into the bitstream */
           ogg_stream_packetin(&os,&op);
@@ -267,8 +291,8 @@ int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *ch
           while(!eos){
             int result=ogg_stream_pageout(&os,&og);
             if(result==0)break;
-            writeVorbisDataToEncoderDataFeed(env, &encoderDataFeed, &writeVorbisDataMethodId, og.header, og.header_len, &jByteArrayWriteBuffer);
-            writeVorbisDataToEncoderDataFeed(env, &encoderDataFeed, &writeVorbisDataMethodId, og.body, og.body_len, &jByteArrayWriteBuffer);
+            writeVorbisDataToEncoderDataFeed(env, encodeFeed, og.header, og.header_len);
+            writeVorbisDataToEncoderDataFeed(env, encodeFeed, og.body, og.body_len);
 
             /* this could be set above, but for illustrative purposes, I do
                it here (to show that vorbis does know where the stream ends) */
@@ -279,33 +303,143 @@ int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *ch
       }
     }
 
-    /* clean up and exit.  vorbis_info_clear() must be called last */
+    /* clean up and exit, the context goes back to the pool for the next
+       encoding */
     __android_log_print(ANDROID_LOG_INFO, "VorbisEncoder", "Cleaning up encoder");
     ogg_stream_clear(&os);
-    vorbis_block_clear(&vb);
-    vorbis_dsp_clear(&vd);
+    analysis_pool_free(pool);
+    context_pool_release(context);
     vorbis_comment_clear(&vc);
-    vorbis_info_clear(&vi);
 
     /* ogg_page and ogg_packet structs always point to storage in
        libvorbis.  They're never freed or manipulated directly */
     __android_log_print(ANDROID_LOG_INFO, "VorbisEncoder", "Completed encoding.");
-    stopEncodeFeed(env, &encoderDataFeed, &stopMethodId);
-
-    //Clean up encode buffers
-    (*env)->DeleteLocalRef(env, jByteArrayWriteBuffer);
+    stopEncodeFeed(env, encodeFeed);
 
     return SUCCESS;
 }
 
+//Looks up the callbacks of an EncodeFeed and creates the java arrays handed to it
+void initEncodeFeed(JNIEnv *env, jobject encoderDataFeed, struct encode_feed *encodeFeed) {
+    memset(encodeFeed, 0, sizeof(*encodeFeed));
+    encodeFeed->feed = encoderDataFeed;
+
+    //Create a new java byte array to pass to the data feed method
+    encodeFeed->readBuffer = (*env)->NewByteArray(env, READ*4);
+
+    //Create a new java byte buffer to write to
+    encodeFeed->writeBuffer = (*env)->NewByteArray(env, READ*8);
+
+    //Find our java classes we'll be calling
+    jclass encoderDataFeedClass = (*env)->FindClass(env, "org/xiph/vorbis/encoder/EncodeFeed");
+
+    //Find our java method id's we'll be calling
+    encodeFeed->writeVorbisDataMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "writeVorbisData", "([BI)I");
+    encodeFeed->readPCMDataMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "readPCMData", "([BI)J");
+    encodeFeed->startMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "start", "()V");
+    encodeFeed->stopMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "stop", "()V");
+}
+
+//Looks up the callbacks of a ByteBufferEncodeFeed
+void initDirectEncodeFeed(JNIEnv *env, jobject encoderDataFeed, struct encode_feed *encodeFeed) {
+    memset(encodeFeed, 0, sizeof(*encodeFeed));
+    encodeFeed->feed = encoderDataFeed;
+    encodeFeed->direct = 1;
+
+    //Find our java classes we'll be calling
+    jclass encoderDataFeedClass = (*env)->FindClass(env, "org/xiph/vorbis/encoder/ByteBufferEncodeFeed");
+    jclass bufferClass = (*env)->FindClass(env, "java/nio/Buffer");
+
+    //Find our java method id's we'll be calling
+    encodeFeed->writeVorbisDataMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "writeVorbisData", "(Ljava/nio/ByteBuffer;I)I");
+    encodeFeed->readPCMDataMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "readPCMData", "(Ljava/nio/ByteBuffer;I)J");
+    encodeFeed->startMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "start", "()V");
+    encodeFeed->stopMethodId = (*env)->GetMethodID(env, encoderDataFeedClass, "stop", "()V");
+    encodeFeed->clearMethodId = (*env)->GetMethodID(env, bufferClass, "clear", "()Ljava/nio/Buffer;");
+}
+
+//Cleans up the java references held by the encode feed
+void clearEncodeFeed(JNIEnv *env, struct encode_feed *encodeFeed) {
+    if(encodeFeed->writeBuffer != NULL) {
+        (*env)->DeleteLocalRef(env, encodeFeed->writeBuffer);
+    }
+    if(encodeFeed->readDirectBuffer != NULL) {
+        (*env)->DeleteLocalRef(env, encodeFeed->readDirectBuffer);
+    }
+}
+
 //jni method for encoding with quality
-JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingWithQuality
-(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jfloat quality, jobject encoderDataFeed) {
-    startEncoding(env, &cls, &sampleRate, &channels, &quality, &NO_BITRATE, &encoderDataFeed, WITH_QUALITY);
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingArrayWithQuality
+(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jfloat quality, jobject encoderDataFeed, jint analysisThreads) {
+    struct encode_feed encodeFeed;
+    int result;
+
+    initEncodeFeed(env, encoderDataFeed, &encodeFeed);
+    result = startEncoding(env, &cls, &sampleRate, &channels, &quality, &NO_BITRATE, &encodeFeed, WITH_QUALITY, analysisThreads);
+    clearEncodeFeed(env, &encodeFeed);
+    return result;
 }
 
 //jni method for encoding with bitrate
-JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingWithBitrate
-(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jlong bitrate, jobject encoderDataFeed) {
-    startEncoding(env, &cls, &sampleRate, &channels, &NO_QUALITY, &bitrate, &encoderDataFeed, WITH_BITRATE);
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingArrayWithBitrate
+(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jlong bitrate, jobject encoderDataFeed, jint analysisThreads) {
+    struct encode_feed encodeFeed;
+    int result;
+
+    initEncodeFeed(env, encoderDataFeed, &encodeFeed);
+    result = startEncoding(env, &cls, &sampleRate, &channels, &NO_QUALITY, &bitrate, &encodeFeed, WITH_BITRATE, analysisThreads);
+    clearEncodeFeed(env, &encodeFeed);
+    return result;
+}
+
+//jni method for encoding with quality through direct buffers
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingDirectWithQuality
+(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jfloat quality, jobject encoderDataFeed, jint analysisThreads) {
+    struct encode_feed encodeFeed;
+    int result;
+
+    initDirectEncodeFeed(env, encoderDataFeed, &encodeFeed);
+    result = startEncoding(env, &cls, &sampleRate, &channels, &quality, &NO_BITRATE, &encodeFeed, WITH_QUALITY, analysisThreads);
+    clearEncodeFeed(env, &encodeFeed);
+    return result;
+}
+
+//jni method for encoding with bitrate through direct buffers
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingDirectWithBitrate
+(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jlong bitrate, jobject encoderDataFeed, jint analysisThreads) {
+    struct encode_feed encodeFeed;
+    int result;
+
+    initDirectEncodeFeed(env, encoderDataFeed, &encodeFeed);
+    result = startEncoding(env, &cls, &sampleRate, &channels, &NO_QUALITY, &bitrate, &encodeFeed, WITH_BITRATE, analysisThreads);
+    clearEncodeFeed(env, &encodeFeed);
+    return result;
+}
+
+//Changes how many idle encoder contexts the pool of this library keeps
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_contextPoolCapacity
+(JNIEnv *env, jclass cls, jint capacity) {
+    context_pool_set_capacity(capacity);
+}
+
+//Returns the hits, misses, evictions, idle contexts and capacity of the pool of this library
+JNIEXPORT jlongArray JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_contextPoolStats
+(JNIEnv *env, jclass cls) {
+    struct context_pool_stats stats;
+    jlong values[5];
+    jlongArray array;
+
+    context_pool_get_stats(&stats);
+    values[0] = stats.hits;
+    values[1] = stats.misses;
+    values[2] = stats.evictions;
+    values[3] = stats.idle;
+    values[4] = stats.capacity;
+
+    //NULL with an OutOfMemoryError pending if the array can't be allocated
+    array = (*env)->NewLongArray(env, 5);
+    if(array != NULL) {
+        (*env)->SetLongArrayRegion(env, array, 0, 5, values);
+    }
+    return array;
 }
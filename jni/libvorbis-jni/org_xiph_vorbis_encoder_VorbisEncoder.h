@@ -6,6 +6,9 @@
 #include <math.h>
 #include <vorbis/vorbisenc.h>
 #include <android/log.h>
+#include <stream/pcm.h>
+#include <stream/analysis-pool.h>
+#include <stream/context-pool.h>
 
 #ifndef _Included_org_xiph_vorbis_encoder_VorbisEncoder
 #define _Included_org_xiph_vorbis_encoder_VorbisEncoder
@@ -13,28 +16,70 @@
 extern "C" {
 #endif
 
+//Everything needed to call back into a java encode feed
+struct encode_feed {
+    jobject     feed;                       /* the EncodeFeed or ByteBufferEncodeFeed being called */
+    int         direct;                     /* whether the feed takes direct buffers instead of arrays */
+    jmethodID   readPCMDataMethodId;
+    jmethodID   writeVorbisDataMethodId;
+    jmethodID   startMethodId;
+    jmethodID   stopMethodId;
+    jmethodID   clearMethodId;              /* Buffer.clear(), direct feeds only */
+    jbyteArray  readBuffer;                 /* byte[] handed to EncodeFeed.readPCMData */
+    jbyteArray  writeBuffer;                /* byte[] handed to EncodeFeed.writeVorbisData */
+    jobject     readDirectBuffer;           /* ByteBuffer over the pcm read buffer */
+};
+
 //Starts the encode feed
-void startEncodeFeed(JNIEnv *env, jobject *vorbisDataFeed, jmethodID* startMethodId);
+void startEncodeFeed(JNIEnv *env, struct encode_feed *encodeFeed);
 
 //Stops the vorbis data feed
-void stopEncodeFeed(JNIEnv *env, jobject* vorbisDataFeed, jmethodID* stopMethodId);
+void stopEncodeFeed(JNIEnv *env, struct encode_feed *encodeFeed);
 
 //Reads pcm data from the jni callback
-long readPCMDataFromEncoderDataFeed(JNIEnv *env, jobject* encoderDataFeed, jmethodID* readPCMDataMethodId, char* buffer, int length, jbyteArray* jByteArrayBuffer);
+long readPCMDataFromEncoderDataFeed(JNIEnv *env, struct encode_feed *encodeFeed, char* buffer, int length);
 
 //Writes the vorbis data to the Java layer
-int writeVorbisDataToEncoderDataFeed(JNIEnv *env, jobject* encoderDataFeed, jmethodID* writeVorbisDataMethodId, char* buffer, int bytes, jbyteArray* jByteArrayWriteBuffer);
+int writeVorbisDataToEncoderDataFeed(JNIEnv *env, struct encode_feed *encodeFeed, char* buffer, int bytes);
+
+//Wraps the pcm read buffer in a little endian ByteBuffer for direct encode feeds
+jobject newDirectPCMReadBuffer(JNIEnv *env, char* buffer, int length);
 
 //Method to start encoding
-int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *channels_ptr, jfloat *quality_ptr, jlong *bitrate_ptr, jobject *encoderDataFeed_ptr, int type);
+int startEncoding(JNIEnv *env, jclass *cls_ptr, jlong *sampleRate_ptr, jlong *channels_ptr, jfloat *quality_ptr, jlong *bitrate_ptr, struct encode_feed *encodeFeed, int type, int threads);
+
+//Looks up the callbacks of an EncodeFeed and creates the java arrays handed to it
+void initEncodeFeed(JNIEnv *env, jobject encoderDataFeed, struct encode_feed *encodeFeed);
+
+//Looks up the callbacks of a ByteBufferEncodeFeed
+void initDirectEncodeFeed(JNIEnv *env, jobject encoderDataFeed, struct encode_feed *encodeFeed);
+
+//Cleans up the java references held by the encode feed
+void clearEncodeFeed(JNIEnv *env, struct encode_feed *encodeFeed);
 
 //jni method for encoding with quality
-JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingWithQuality
-(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jfloat quality, jobject encoderDataFeed);
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingArrayWithQuality
+(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jfloat quality, jobject encoderDataFeed, jint analysisThreads);
 
 //jni method for encoding with bitrate
-JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingWithBitrate
-(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jlong bitrate, jobject encoderDataFeed);
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingArrayWithBitrate
+(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jlong bitrate, jobject encoderDataFeed, jint analysisThreads);
+
+//jni method for encoding with quality through direct buffers
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingDirectWithQuality
+(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jfloat quality, jobject encoderDataFeed, jint analysisThreads);
+
+//jni method for encoding with bitrate through direct buffers
+JNIEXPORT int JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_startEncodingDirectWithBitrate
+(JNIEnv *env, jclass cls, jlong sampleRate, jlong channels, jlong bitrate, jobject encoderDataFeed, jint analysisThreads);
+
+//jni method for changing how many idle encoder contexts are kept
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_contextPoolCapacity
+(JNIEnv *env, jclass cls, jint capacity);
+
+//jni method for the hits, misses, evictions, idle contexts and capacity of the context pool
+JNIEXPORT jlongArray JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoder_contextPoolStats
+(JNIEnv *env, jclass cls);
 #ifdef __cplusplus
 }
 #endif
@@ -0,0 +1,132 @@
+/* The jni side of VorbisEncoderSession. The java object keeps a pointer to an
+encoder_session in a long and drives the session from whatever thread it
+likes, nothing here ever calls back into java. */
+
+#include "org_xiph_vorbis_encoder_VorbisEncoderSession.h"
+
+/*Samples per channel handed to the analysis at a time*/
+#define READ 1024
+
+void writeShortPCM(struct encoder_session *session, const ogg_int16_t *pcm, int length) {
+    int channels = session->channels;
+    int samples = length / channels;
+
+    while(samples > 0) {
+        int chunk = samples < READ ? samples : READ;
+        float **buffer = encoder_session_buffer(session, chunk);
+
+        encoder_session_deinterleave(pcm, channels, chunk, buffer);
+        encoder_session_wrote(session, chunk);
+        pcm += chunk * channels;
+        samples -= chunk;
+    }
+}
+
+void writeFloatPCM(struct encoder_session *session, const float *pcm, int length) {
+    int channels = session->channels;
+    int samples = length / channels;
+
+    while(samples > 0) {
+        int chunk = samples < READ ? samples : READ;
+        float **buffer = encoder_session_buffer(session, chunk);
+
+        encoder_session_deinterleave_float(pcm, channels, chunk, buffer);
+        encoder_session_wrote(session, chunk);
+        pcm += chunk * channels;
+        samples -= chunk;
+    }
+}
+
+JNIEXPORT jlong JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_create
+(JNIEnv *env, jclass cls, jint type, jlong sampleRate, jlong channels, jfloat quality, jlong bitrate) {
+    int error = 0;
+    struct encoder_session *session = encoder_session_create(type, (long)channels, (long)sampleRate, (float)quality, (long)bitrate, &error);
+
+    if(session == NULL) {
+        __android_log_print(ANDROID_LOG_ERROR, "VorbisEncoderSession", "Failed to initialize");
+        JNU_ThrowByName(env, "java/io/IOException", "Failed to initialize encoder", error);
+        return 0;
+    }
+    return (jlong)(intptr_t)session;
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeShortDirect
+(JNIEnv *env, jclass cls, jlong handle, jobject in, jint offset, jint length) {
+    ogg_int16_t *pcm = (*env)->GetDirectBufferAddress(env, in);
+    writeShortPCM((struct encoder_session *)(intptr_t)handle, pcm + offset, length);
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeShortArray
+(JNIEnv *env, jclass cls, jlong handle, jshortArray in, jint offset, jint length) {
+    jshort *pcm = (*env)->GetShortArrayElements(env, in, NULL);
+
+    writeShortPCM((struct encoder_session *)(intptr_t)handle, (ogg_int16_t *)pcm + offset, length);
+    (*env)->ReleaseShortArrayElements(env, in, pcm, JNI_ABORT);
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeFloatDirect
+(JNIEnv *env, jclass cls, jlong handle, jobject in, jint offset, jint length) {
+    float *pcm = (*env)->GetDirectBufferAddress(env, in);
+    writeFloatPCM((struct encoder_session *)(intptr_t)handle, pcm + offset, length);
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeFloatArray
+(JNIEnv *env, jclass cls, jlong handle, jfloatArray in, jint offset, jint length) {
+    jfloat *pcm = (*env)->GetFloatArrayElements(env, in, NULL);
+
+    writeFloatPCM((struct encoder_session *)(intptr_t)handle, pcm + offset, length);
+    (*env)->ReleaseFloatArrayElements(env, in, pcm, JNI_ABORT);
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeFloatPlanar
+(JNIEnv *env, jclass cls, jlong handle, jobjectArray in, jint offset, jint length) {
+    struct encoder_session *session = (struct encoder_session *)(intptr_t)handle;
+    int channels = session->channels;
+    jfloatArray channelArrays[255];
+    int i;
+
+    for(i = 0; i < channels; i++) {
+        channelArrays[i] = (*env)->GetObjectArrayElement(env, in, i);
+    }
+    while(length > 0) {
+        int chunk = length < READ ? length : READ;
+        float **buffer = encoder_session_buffer(session, chunk);
+
+        /* planar pcm is already laid out the way libvorbis wants it */
+        for(i = 0; i < channels; i++) {
+            (*env)->GetFloatArrayRegion(env, channelArrays[i], offset, chunk, buffer[i]);
+        }
+        encoder_session_wrote(session, chunk);
+        offset += chunk;
+        length -= chunk;
+    }
+    for(i = 0; i < channels; i++) {
+        (*env)->DeleteLocalRef(env, channelArrays[i]);
+    }
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_finish
+(JNIEnv *env, jclass cls, jlong handle) {
+    encoder_session_wrote((struct encoder_session *)(intptr_t)handle, 0);
+}
+
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_drainDirect
+(JNIEnv *env, jclass cls, jlong handle, jobject out, jint offset, jint length) {
+    char *buffer = (*env)->GetDirectBufferAddress(env, out);
+    return encoder_session_pageout((struct encoder_session *)(intptr_t)handle, buffer + offset, length);
+}
+
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_drainArray
+(JNIEnv *env, jclass cls, jlong handle, jbyteArray out, jint offset, jint length) {
+    jbyte *buffer = (*env)->GetByteArrayElements(env, out, NULL);
+    long written = encoder_session_pageout((struct encoder_session *)(intptr_t)handle, (char *)buffer + offset, length);
+
+    /* only copy back what was written */
+    (*env)->ReleaseByteArrayElements(env, out, buffer, written > 0 ? 0 : JNI_ABORT);
+    return written;
+}
+
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_destroy
+(JNIEnv *env, jclass cls, jlong handle) {
+    encoder_session_destroy((struct encoder_session *)(intptr_t)handle);
+}
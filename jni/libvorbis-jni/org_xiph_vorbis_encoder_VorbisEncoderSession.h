@@ -0,0 +1,66 @@
+#include <jni.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <stdint.h>
+#include <vorbis/vorbisenc.h>
+#include <android/log.h>
+#include <stream/util.h>
+#include "encoder-session.h"
+
+#ifndef _Included_org_xiph_vorbis_encoder_VorbisEncoderSession
+#define _Included_org_xiph_vorbis_encoder_VorbisEncoderSession
+#ifdef __cplusplus
+extern "C" {
+#endif
+
+//Encodes interleaved 16 bit pcm, a chunk at a time
+void writeShortPCM(struct encoder_session *session, const ogg_int16_t *pcm, int length);
+
+//Encodes interleaved float pcm, a chunk at a time
+void writeFloatPCM(struct encoder_session *session, const float *pcm, int length);
+
+//Creates a new encoder session and returns its handle
+JNIEXPORT jlong JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_create
+  (JNIEnv *env, jclass cls, jint type, jlong sampleRate, jlong channels, jfloat quality, jlong bitrate);
+
+//Encodes 16 bit pcm from a direct buffer
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeShortDirect
+  (JNIEnv *env, jclass cls, jlong handle, jobject in, jint offset, jint length);
+
+//Encodes 16 bit pcm from a java array
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeShortArray
+  (JNIEnv *env, jclass cls, jlong handle, jshortArray in, jint offset, jint length);
+
+//Encodes float pcm from a direct buffer
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeFloatDirect
+  (JNIEnv *env, jclass cls, jlong handle, jobject in, jint offset, jint length);
+
+//Encodes float pcm from a java array
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeFloatArray
+  (JNIEnv *env, jclass cls, jlong handle, jfloatArray in, jint offset, jint length);
+
+//Encodes planar float pcm, one java array per channel
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_writeFloatPlanar
+  (JNIEnv *env, jclass cls, jlong handle, jobjectArray in, jint offset, jint length);
+
+//Ends the stream, flushing the last packets into pages
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_finish
+  (JNIEnv *env, jclass cls, jlong handle);
+
+//Copies encoded pages into a direct buffer
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_drainDirect
+  (JNIEnv *env, jclass cls, jlong handle, jobject out, jint offset, jint length);
+
+//Copies encoded pages into a java array
+JNIEXPORT jint JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_drainArray
+  (JNIEnv *env, jclass cls, jlong handle, jbyteArray out, jint offset, jint length);
+
+//Frees the session and everything it holds
+JNIEXPORT void JNICALL Java_org_xiph_vorbis_encoder_VorbisEncoderSession_destroy
+  (JNIEnv *env, jclass cls, jlong handle);
+
+#ifdef __cplusplus
+}
+#endif
+#endif
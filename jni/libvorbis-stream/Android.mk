@@ -4,9 +4,17 @@ include $(CLEAR_VARS)
 
 LOCAL_MODULE := vorbis-stream
 LOCAL_CFLAGS += -I$(LOCAL_PATH)/../include -ffast-math -fsigned-char
-ifeq ($(TARGET_ARCH),arm)
+ifeq ($(TARGET_ARCH_ABI),armeabi)
 	LOCAL_CFLAGS += -march=armv6 -marm -mfloat-abi=softfp -mfpu=vfp
 endif
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+	# the ndk defaults to armv7-a with vfpv3-d16, .neon files get -mfpu=neon on top
+	LOCAL_CFLAGS += -marm -DHAVE_NEON
+	LOCAL_STATIC_LIBRARIES := cpufeatures
+endif
+ifeq ($(TARGET_ARCH_ABI),arm64-v8a)
+	LOCAL_CFLAGS += -DHAVE_NEON
+endif
 
 
 LOCAL_SHARED_LIBRARIES := libogg libvorbis
@@ -14,6 +22,22 @@ LOCAL_SHARED_LIBRARIES := libogg libvorbis
 LOCAL_SRC_FILES := \
 	vorbis-fileoutputstream.c \
 	vorbis-fileinputstream.c \
+	vorbis-seekindex.c \
+	vorbis-probe.c \
+	link-start.c \
+	source.c \
+	registry.c \
+	pcm.c \
+	analysis-pool.c \
+	context-pool.c \
 	jni-util.c
 
+# Only the pcm kernels are built with NEON, armeabi-v7a checks for it at runtime
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+	LOCAL_SRC_FILES += pcm-neon.c.neon
+endif
+ifeq ($(TARGET_ARCH_ABI),arm64-v8a)
+	LOCAL_SRC_FILES += pcm-neon.c
+endif
+
 include $(BUILD_SHARED_LIBRARY)
@@ -0,0 +1,202 @@
+/*
+ * Analyses the blocks of one stream on several threads, see
+ * stream/analysis-pool.h.
+ *
+ * The blocks form a ring in stream order, from the oldest block in flight at
+ * head on. Only the thread encoding fills and empties the ring, workers just
+ * pick the oldest block still queued. vorbis_analysis only reads the lookups
+ * hanging off the dsp state, so blockout can carry on cutting blocks while
+ * earlier ones are analysed.
+ */
+
+#include <stdlib.h>
+#include <pthread.h>
+#include <vorbis/codec.h>
+#include <stream/analysis-pool.h>
+
+enum {
+	SLOT_QUEUED = 1,
+	SLOT_RUNNING,
+	SLOT_DONE,
+};
+
+struct slot {
+	vorbis_block	vb;
+	int				state;
+};
+
+struct analysis_pool {
+	vorbis_dsp_state *	vd;
+	pthread_mutex_t		lock;
+	pthread_cond_t		queued;		/* a block was queued or the pool is closing */
+	pthread_cond_t		done;		/* a block was analysed */
+	int					closing;
+	int					workers;
+	pthread_t			threads[ANALYSIS_POOL_MAX_THREADS];
+	int					size;
+	int					head;		/* the oldest block in flight */
+	int					count;		/* the number of blocks in flight */
+	struct slot *		slots;
+};
+
+/* Marks the oldest queued block as running and returns it, NULL if there is
+ * none. Called with the lock held.
+ */
+static struct slot *
+take_queued(struct analysis_pool * pool)
+{
+	int i;
+
+	for (i = 0; i < pool->count; i++) {
+		struct slot * slot = &pool->slots[(pool->head + i) % pool->size];
+		if (slot->state == SLOT_QUEUED) {
+			slot->state = SLOT_RUNNING;
+			return slot;
+		}
+	}
+	return NULL;
+}
+
+/* Analyses a block taken with take_queued. Called with the lock held, which
+ * is let go meanwhile.
+ */
+static void
+analyse(struct analysis_pool * pool, struct slot * slot)
+{
+	pthread_mutex_unlock(&pool->lock);
+	vorbis_analysis(&slot->vb, NULL);
+	pthread_mutex_lock(&pool->lock);
+
+	slot->state = SLOT_DONE;
+	pthread_cond_broadcast(&pool->done);
+}
+
+static void *
+work(void * arg)
+{
+	struct analysis_pool * pool = arg;
+	struct slot * slot;
+
+	pthread_mutex_lock(&pool->lock);
+	while (1) {
+		while (!pool->closing && (slot = take_queued(pool)) == NULL)
+			pthread_cond_wait(&pool->queued, &pool->lock);
+		if (pool->closing)
+			break;
+		analyse(pool, slot);
+	}
+	pthread_mutex_unlock(&pool->lock);
+	return NULL;
+}
+
+struct analysis_pool *
+analysis_pool_create(vorbis_dsp_state * vd, int threads)
+{
+	struct analysis_pool * pool;
+	int i;
+
+	if (threads < 1)
+		threads = 1;
+	if (threads > ANALYSIS_POOL_MAX_THREADS)
+		threads = ANALYSIS_POOL_MAX_THREADS;
+
+	pool = calloc(1, sizeof(struct analysis_pool));
+	if (pool == NULL)
+		return NULL;
+
+	/* one thread works through a block at a time, like the serial loop.
+	 * Otherwise keep twice as many blocks as threads so none of them runs
+	 * dry while the encoding thread writes out packets */
+	pool->size = threads == 1 ? 1 : threads * 2;
+	pool->slots = calloc(pool->size, sizeof(struct slot));
+	if (pool->slots == NULL) {
+		free(pool);
+		return NULL;
+	}
+	pool->vd = vd;
+	for (i = 0; i < pool->size; i++)
+		vorbis_block_init(vd, &pool->slots[i].vb);
+
+	pthread_mutex_init(&pool->lock, NULL);
+	pthread_cond_init(&pool->queued, NULL);
+	pthread_cond_init(&pool->done, NULL);
+
+	/* the caller is one of the threads, it analyses while it waits. Fewer
+	 * workers than asked for only makes the pool slower */
+	for (i = 0; i < threads - 1; i++) {
+		if (pthread_create(&pool->threads[i], NULL, work, pool) != 0)
+			break;
+		pool->workers++;
+	}
+	return pool;
+}
+
+int
+analysis_pool_blockout(struct analysis_pool * pool)
+{
+	struct slot * slot;
+
+	/* queue every block that is ready while there is room. Slots outside
+	 * the ring are untouched by the workers, so no lock is needed to cut a
+	 * block into one */
+	while (pool->count < pool->size) {
+		slot = &pool->slots[(pool->head + pool->count) % pool->size];
+		if (vorbis_analysis_blockout(pool->vd, &slot->vb) != 1)
+			break;
+
+		pthread_mutex_lock(&pool->lock);
+		slot->state = SLOT_QUEUED;
+		pool->count++;
+		pthread_cond_signal(&pool->queued);
+		pthread_mutex_unlock(&pool->lock);
+	}
+	if (pool->count == 0)
+		return 0;
+
+	slot = &pool->slots[pool->head];
+	pthread_mutex_lock(&pool->lock);
+
+	/* more blocks are coming and there's room for them, don't hold up the
+	 * caller for a block that isn't done yet */
+	if (slot->state != SLOT_DONE && pool->count < pool->size && !pool->vd->eofflag) {
+		pthread_mutex_unlock(&pool->lock);
+		return 0;
+	}
+
+	while (slot->state != SLOT_DONE) {
+		struct slot * queued = take_queued(pool);
+		if (queued != NULL)
+			analyse(pool, queued);
+		else
+			pthread_cond_wait(&pool->done, &pool->lock);
+	}
+	pool->head = (pool->head + 1) % pool->size;
+	pool->count--;
+	pthread_mutex_unlock(&pool->lock);
+
+	vorbis_bitrate_addblock(&slot->vb);
+	return 1;
+}
+
+void
+analysis_pool_free(struct analysis_pool * pool)
+{
+	int i;
+
+	pthread_mutex_lock(&pool->lock);
+	pool->closing = 1;
+	pthread_cond_broadcast(&pool->queued);
+	pthread_mutex_unlock(&pool->lock);
+
+	/* a worker finishes the block it is on before it sees the pool close */
+	for (i = 0; i < pool->workers; i++)
+		pthread_join(pool->threads[i], NULL);
+
+	for (i = 0; i < pool->size; i++)
+		vorbis_block_clear(&pool->slots[i].vb);
+	pthread_cond_destroy(&pool->done);
+	pthread_cond_destroy(&pool->queued);
+	pthread_mutex_destroy(&pool->lock);
+	free(pool->slots);
+	free(pool);
+}
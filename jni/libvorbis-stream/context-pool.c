@@ -0,0 +1,176 @@
+/*
+ * Keeps encoder contexts between streams, see stream/context-pool.h.
+ *
+ * The idle contexts are a list from the most recently released on, a
+ * context is only on it while no stream uses it. Setting up and restarting
+ * contexts happens outside the lock.
+ */
+
+#include <stdlib.h>
+#include <pthread.h>
+#include <vorbis/vorbisenc.h>
+#include <stream/context-pool.h>
+
+static pthread_mutex_t			lock = PTHREAD_MUTEX_INITIALIZER;
+static struct encoder_context *	idle;
+static int						idleCount;
+static int						capacity = CONTEXT_POOL_DEFAULT_CAPACITY;
+static long long				hits;
+static long long				misses;
+static long long				evictions;
+
+static int
+matches(struct encoder_context * context, int type, long channels,
+		long rate, float quality, long bitrate)
+{
+	if (context->type != type || context->channels != channels
+			|| context->rate != rate)
+		return 0;
+	if (type == CONTEXT_POOL_WITH_QUALITY)
+		return context->quality == quality;
+	return context->bitrate == bitrate;
+}
+
+static void
+destroy(struct encoder_context * context)
+{
+	vorbis_dsp_clear(&context->vd);
+	vorbis_info_clear(&context->vi);
+	free(context);
+}
+
+/* Unlinks the idle contexts past the capacity, the least recently released,
+ * and returns them to be destroyed. Called with the lock held.
+ */
+static struct encoder_context *
+trim(void)
+{
+	struct encoder_context ** link = &idle;
+	struct encoder_context * evicted;
+	int i;
+
+	if (idleCount <= capacity)
+		return NULL;
+	for (i = 0; i < capacity; i++)
+		link = &(*link)->next;
+	evicted = *link;
+	*link = NULL;
+	evictions += idleCount - capacity;
+	idleCount = capacity;
+	return evicted;
+}
+
+static void
+destroy_all(struct encoder_context * context)
+{
+	struct encoder_context * next;
+
+	for (; context != NULL; context = next) {
+		next = context->next;
+		destroy(context);
+	}
+}
+
+struct encoder_context *
+context_pool_acquire(int type, long channels, long rate, float quality,
+		long bitrate, int * error)
+{
+	struct encoder_context ** link;
+	struct encoder_context * context;
+	int ret;
+
+	pthread_mutex_lock(&lock);
+	for (link = &idle; *link != NULL; link = &(*link)->next) {
+		if (matches(*link, type, channels, rate, quality, bitrate)) {
+			context = *link;
+			*link = context->next;
+			idleCount--;
+			hits++;
+			pthread_mutex_unlock(&lock);
+			context->next = NULL;
+			return context;
+		}
+	}
+	misses++;
+	pthread_mutex_unlock(&lock);
+
+	context = calloc(1, sizeof(struct encoder_context));
+	if (context == NULL) {
+		*error = OV_EFAULT;
+		return NULL;
+	}
+	context->type = type;
+	context->channels = channels;
+	context->rate = rate;
+	context->quality = quality;
+	context->bitrate = bitrate;
+
+	vorbis_info_init(&context->vi);
+	switch (type) {
+	case CONTEXT_POOL_WITH_BITRATE:
+		ret = vorbis_encode_init(&context->vi, channels, rate, -1, bitrate, -1);
+		break;
+	case CONTEXT_POOL_WITH_QUALITY:
+		ret = vorbis_encode_init_vbr(&context->vi, channels, rate, quality);
+		break;
+	default:
+		ret = OV_EINVAL;
+		break;
+	}
+	if (ret == 0 && vorbis_analysis_init(&context->vd, &context->vi) != 0)
+		ret = OV_EFAULT;
+	if (ret != 0) {
+		vorbis_info_clear(&context->vi);
+		free(context);
+		*error = ret;
+		return NULL;
+	}
+	return context;
+}
+
+void
+context_pool_release(struct encoder_context * context)
+{
+	struct encoder_context * evicted;
+
+	if (context == NULL)
+		return;
+	if (vorbis_analysis_restart(&context->vd) != 0) {
+		destroy(context);
+		return;
+	}
+
+	pthread_mutex_lock(&lock);
+	context->next = idle;
+	idle = context;
+	idleCount++;
+	evicted = trim();
+	pthread_mutex_unlock(&lock);
+
+	destroy_all(evicted);
+}
+
+void
+context_pool_set_capacity(int newCapacity)
+{
+	struct encoder_context * evicted;
+
+	pthread_mutex_lock(&lock);
+	capacity = newCapacity < 0 ? 0 : newCapacity;
+	evicted = trim();
+	pthread_mutex_unlock(&lock);
+
+	destroy_all(evicted);
+}
+
+void
+context_pool_get_stats(struct context_pool_stats * stats)
+{
+	pthread_mutex_lock(&lock);
+	stats->hits = hits;
+	stats->misses = misses;
+	stats->evictions = evictions;
+	stats->idle = idleCount;
+	stats->capacity = capacity;
+	pthread_mutex_unlock(&lock);
+}
@@ -14,9 +14,14 @@
 void
 JNU_ThrowByName(JNIEnv *env, const char *name, const char *msg, const int code)
 {
-	char buf [45];
+	char buf [128];
 
-	sprintf(buf, "%35s: %d", msg, code);
+	/* keep the first exception, e.g. one a java source threw during a read */
+	if ((*env)->ExceptionCheck(env)) {
+		return;
+	}
+
+	snprintf(buf, sizeof(buf), "%35s: %d", msg, code);
 
     jclass cls = (*env)->FindClass(env, name);
     /* if cls is NULL, an exception has already been thrown */
@@ -0,0 +1,66 @@
+/*
+ * Works out where the pcm of a link starts, see stream/link-start.h. This
+ * follows _initial_pcmoffset of vorbisfile.c.
+ */
+
+#include <stream/link-start.h>
+
+void
+link_start_init(struct link_start * ls, int serial)
+{
+	ogg_stream_init(&ls->os, serial);
+	vorbis_info_init(&ls->vi);
+	vorbis_comment_init(&ls->vc);
+	ls->headers = 0;
+	ls->lastblock = -1;
+	ls->samples = 0;
+}
+
+int
+link_start_pagein(struct link_start * ls, ogg_page * og, ogg_int64_t * start)
+{
+	ogg_packet op;
+	/* the headers end their page, the audio starts on the next one */
+	int audio = ls->headers == 3;
+	int result;
+
+	ogg_stream_pagein(&ls->os, og);
+	while ((result = ogg_stream_packetout(&ls->os, &op)) != 0) {
+		long thisblock;
+
+		if (ls->headers < 3) {
+			if (result < 0 || vorbis_synthesis_headerin_uncached(&ls->vi, &ls->vc, &op) != 0)
+				return OV_EBADHEADER;
+			ls->headers++;
+			continue;
+		}
+		if (result < 0)
+			/* ignore holes */
+			continue;
+		thisblock = vorbis_packet_blocksize(&ls->vi, &op);
+		if (thisblock < 0)
+			continue;
+		/* the first packet only primes the overlap */
+		if (ls->lastblock != -1)
+			ls->samples += (ls->lastblock + thisblock) >> 2;
+		ls->lastblock = thisblock;
+	}
+
+	/* the first audio page a packet ends on */
+	if (!audio || ogg_page_granulepos(og) == -1)
+		return 0;
+	*start = ogg_page_granulepos(og) - ls->samples;
+	/* less than 0 for a stream with samples trimmed off its beginning, which
+	 * then starts at 0 */
+	if (*start < 0)
+		*start = 0;
+	return 1;
+}
+
+void
+link_start_clear(struct link_start * ls)
+{
+	ogg_stream_clear(&ls->os);
+	vorbis_comment_clear(&ls->vc);
+	vorbis_info_clear(&ls->vi);
+}
@@ -0,0 +1,280 @@
+/*
+ * The NEON pcm conversion kernels, see stream/pcm.h and pcm.c. Built for
+ * arm64-v8a and, with NEON enabled for just this file, armeabi-v7a, where
+ * pcm.c only picks them if the cpu has NEON.
+ *
+ * NEON loads and stores of 2 to 4 interleaved channels split and merge them
+ * for free, so those layouts are done in registers. The rest go to the
+ * scalar kernels.
+ */
+
+#include <string.h>
+#include <arm_neon.h>
+#include <stream/pcm.h>
+
+/* Rounds 4 floats to ints, noting in clip whether any was out of range */
+static inline int32x4_t
+roundNEON(float32x4_t x, uint32x4_t * clip)
+{
+	float32x4_t y = vaddq_f32(vmulq_n_f32(x, 32767.f), vdupq_n_f32(.5f));
+	int32x4_t t;
+
+	*clip = vorrq_u32(*clip, vorrq_u32(vcgeq_f32(y, vdupq_n_f32(32768.f)),
+			vcltq_f32(y, vdupq_n_f32(-32768.f))));
+	y = vminq_f32(vmaxq_f32(y, vdupq_n_f32(-32768.f)), vdupq_n_f32(32767.f));
+	t = vcvtq_s32_f32(y);
+	/* the compare is all ones, -1, where truncating rounded up */
+	return vaddq_s32(t, vreinterpretq_s32_u32(vcgtq_f32(vcvtq_f32_s32(t), y)));
+}
+
+/* Rounds 8 floats of a channel to 8 ints */
+static inline int16x8_t
+round8NEON(const float * mono, uint32x4_t * clip)
+{
+	return vcombine_s16(vqmovn_s32(roundNEON(vld1q_f32(mono), clip)),
+			vqmovn_s32(roundNEON(vld1q_f32(mono + 4), clip)));
+}
+
+/* Rounds 4 8.24 ints like pcm.c's quantizeFixedScalar, noting in clip whether
+ * any was out of range */
+static inline int32x4_t
+roundFixedNEON(int32x4_t x, uint32x4_t * clip)
+{
+	int32x4_t y = vshrq_n_s32(vaddq_s32(vsubq_s32(x, vshrq_n_s32(x, 15)), vdupq_n_s32(256)), 9);
+
+	*clip = vorrq_u32(*clip, vorrq_u32(vcgtq_s32(y, vdupq_n_s32(32767)),
+			vcltq_s32(y, vdupq_n_s32(-32768))));
+	return y;
+}
+
+/* Rounds 8 8.24 ints of a channel to 8 ints */
+static inline int16x8_t
+roundFixed8NEON(const ogg_int32_t * mono, uint32x4_t * clip)
+{
+	return vcombine_s16(vqmovn_s32(roundFixedNEON(vld1q_s32(mono), clip)),
+			vqmovn_s32(roundFixedNEON(vld1q_s32(mono + 4), clip)));
+}
+
+static int
+quantizeScalar(float ** pcm, int channels, int from, int samples, ogg_int16_t * out)
+{
+	float * tail[255];
+	int i;
+
+	/* hand the tail over as a call of its own */
+	for (i = 0; i < channels; i++) {
+		tail[i] = pcm[i] + from;
+	}
+	return pcm_kernels_for(PCM_SCALAR)->quantize(tail, channels, samples - from, out + from * channels);
+}
+
+static int
+quantize(float ** pcm, int channels, int samples, ogg_int16_t * out)
+{
+	uint32x4_t clip = vdupq_n_u32(0);
+	uint32x2_t any;
+	int j = 0;
+
+	if (channels == 1) {
+		for (; j + 8 <= samples; j += 8) {
+			vst1q_s16(out + j, round8NEON(pcm[0] + j, &clip));
+		}
+	} else if (channels == 2) {
+		for (; j + 8 <= samples; j += 8) {
+			int16x8x2_t v;
+			v.val[0] = round8NEON(pcm[0] + j, &clip);
+			v.val[1] = round8NEON(pcm[1] + j, &clip);
+			vst2q_s16(out + 2 * j, v);
+		}
+	} else if (channels == 3) {
+		for (; j + 8 <= samples; j += 8) {
+			int16x8x3_t v;
+			v.val[0] = round8NEON(pcm[0] + j, &clip);
+			v.val[1] = round8NEON(pcm[1] + j, &clip);
+			v.val[2] = round8NEON(pcm[2] + j, &clip);
+			vst3q_s16(out + 3 * j, v);
+		}
+	} else if (channels == 4) {
+		for (; j + 8 <= samples; j += 8) {
+			int16x8x4_t v;
+			v.val[0] = round8NEON(pcm[0] + j, &clip);
+			v.val[1] = round8NEON(pcm[1] + j, &clip);
+			v.val[2] = round8NEON(pcm[2] + j, &clip);
+			v.val[3] = round8NEON(pcm[3] + j, &clip);
+			vst4q_s16(out + 4 * j, v);
+		}
+	}
+	any = vorr_u32(vget_low_u32(clip), vget_high_u32(clip));
+	return quantizeScalar(pcm, channels, j, samples, out)
+			| ((vget_lane_u32(any, 0) | vget_lane_u32(any, 1)) != 0);
+}
+
+static void
+interleave(float ** pcm, int channels, int samples, float * out)
+{
+	int i, j = 0;
+
+	if (channels == 1) {
+		memcpy(out, pcm[0], samples * sizeof(float));
+		return;
+	}
+	if (channels == 2) {
+		for (; j + 4 <= samples; j += 4) {
+			float32x4x2_t v;
+			v.val[0] = vld1q_f32(pcm[0] + j);
+			v.val[1] = vld1q_f32(pcm[1] + j);
+			vst2q_f32(out + 2 * j, v);
+		}
+	}
+	for (i = 0; i < channels; i++) {
+		float * ptr = out + j * channels + i;
+		int k;
+		for (k = j; k < samples; k++) {
+			*ptr = pcm[i][k];
+			ptr += channels;
+		}
+	}
+}
+
+static void
+dequantize(const ogg_int16_t * pcm, int channels, int samples, float ** out)
+{
+	int i, j = 0;
+
+	/* scaling by a power of two is exact, so multiplying is dividing */
+	if (channels == 1) {
+		for (; j + 8 <= samples; j += 8) {
+			int16x8_t v = vld1q_s16(pcm + j);
+			vst1q_f32(out[0] + j, vmulq_n_f32(vcvtq_f32_s32(vmovl_s16(vget_low_s16(v))), 1.f / 32768.f));
+			vst1q_f32(out[0] + j + 4, vmulq_n_f32(vcvtq_f32_s32(vmovl_s16(vget_high_s16(v))), 1.f / 32768.f));
+		}
+	} else if (channels == 2) {
+		for (; j + 8 <= samples; j += 8) {
+			int16x8x2_t v = vld2q_s16(pcm + 2 * j);
+			for (i = 0; i < 2; i++) {
+				vst1q_f32(out[i] + j, vmulq_n_f32(vcvtq_f32_s32(vmovl_s16(vget_low_s16(v.val[i]))), 1.f / 32768.f));
+				vst1q_f32(out[i] + j + 4, vmulq_n_f32(vcvtq_f32_s32(vmovl_s16(vget_high_s16(v.val[i]))), 1.f / 32768.f));
+			}
+		}
+	}
+	for (i = 0; i < channels; i++) {
+		const ogg_int16_t * ptr = pcm + j * channels + i;
+		int k;
+		for (k = j; k < samples; k++) {
+			out[i][k] = *ptr * (1.f / 32768.f);
+			ptr += channels;
+		}
+	}
+}
+
+static void
+deinterleave(const float * pcm, int channels, int samples, float ** out)
+{
+	int i, j = 0;
+
+	if (channels == 1) {
+		memcpy(out[0], pcm, samples * sizeof(float));
+		return;
+	}
+	if (channels == 2) {
+		for (; j + 4 <= samples; j += 4) {
+			float32x4x2_t v = vld2q_f32(pcm + 2 * j);
+			vst1q_f32(out[0] + j, v.val[0]);
+			vst1q_f32(out[1] + j, v.val[1]);
+		}
+	}
+	for (i = 0; i < channels; i++) {
+		const float * ptr = pcm + j * channels + i;
+		int k;
+		for (k = j; k < samples; k++) {
+			out[i][k] = *ptr;
+			ptr += channels;
+		}
+	}
+}
+
+static int
+quantizeFixedScalar(ogg_int32_t ** pcm, int channels, int from, int samples, ogg_int16_t * out)
+{
+	ogg_int32_t * tail[255];
+	int i;
+
+	for (i = 0; i < channels; i++) {
+		tail[i] = pcm[i] + from;
+	}
+	return pcm_kernels_for(PCM_SCALAR)->quantizeFixed(tail, channels, samples - from, out + from * channels);
+}
+
+static int
+quantizeFixed(ogg_int32_t ** pcm, int channels, int samples, ogg_int16_t * out)
+{
+	uint32x4_t clip = vdupq_n_u32(0);
+	uint32x2_t any;
+	int j = 0;
+
+	if (channels == 1) {
+		for (; j + 8 <= samples; j += 8) {
+			vst1q_s16(out + j, roundFixed8NEON(pcm[0] + j, &clip));
+		}
+	} else if (channels == 2) {
+		for (; j + 8 <= samples; j += 8) {
+			int16x8x2_t v;
+			v.val[0] = roundFixed8NEON(pcm[0] + j, &clip);
+			v.val[1] = roundFixed8NEON(pcm[1] + j, &clip);
+			vst2q_s16(out + 2 * j, v);
+		}
+	} else if (channels == 3) {
+		for (; j + 8 <= samples; j += 8) {
+			int16x8x3_t v;
+			v.val[0] = roundFixed8NEON(pcm[0] + j, &clip);
+			v.val[1] = roundFixed8NEON(pcm[1] + j, &clip);
+			v.val[2] = roundFixed8NEON(pcm[2] + j, &clip);
+			vst3q_s16(out + 3 * j, v);
+		}
+	} else if (channels == 4) {
+		for (; j + 8 <= samples; j += 8) {
+			int16x8x4_t v;
+			v.val[0] = roundFixed8NEON(pcm[0] + j, &clip);
+			v.val[1] = roundFixed8NEON(pcm[1] + j, &clip);
+			v.val[2] = roundFixed8NEON(pcm[2] + j, &clip);
+			v.val[3] = roundFixed8NEON(pcm[3] + j, &clip);
+			vst4q_s16(out + 4 * j, v);
+		}
+	}
+	any = vorr_u32(vget_low_u32(clip), vget_high_u32(clip));
+	return quantizeFixedScalar(pcm, channels, j, samples, out)
+			| ((vget_lane_u32(any, 0) | vget_lane_u32(any, 1)) != 0);
+}
+
+static void
+interleaveFixed(ogg_int32_t ** pcm, int channels, int samples, float * out)
+{
+	int i, j = 0;
+
+	/* scaling by a power of two is exact */
+	if (channels == 1) {
+		for (; j + 4 <= samples; j += 4) {
+			vst1q_f32(out + j, vmulq_n_f32(vcvtq_f32_s32(vld1q_s32(pcm[0] + j)), 1.f / 16777216.f));
+		}
+	} else if (channels == 2) {
+		for (; j + 4 <= samples; j += 4) {
+			float32x4x2_t v;
+			v.val[0] = vmulq_n_f32(vcvtq_f32_s32(vld1q_s32(pcm[0] + j)), 1.f / 16777216.f);
+			v.val[1] = vmulq_n_f32(vcvtq_f32_s32(vld1q_s32(pcm[1] + j)), 1.f / 16777216.f);
+			vst2q_f32(out + 2 * j, v);
+		}
+	}
+	for (i = 0; i < channels; i++) {
+		float * ptr = out + j * channels + i;
+		int k;
+		for (k = j; k < samples; k++) {
+			*ptr = pcm[i][k] * (1.f / 16777216.f);
+			ptr += channels;
+		}
+	}
+}
+
+const struct pcm_kernels pcm_neon_kernels = {
+	PCM_NEON, "neon", quantize, interleave, dequantize, deinterleave,
+	quantizeFixed, interleaveFixed
+};
@@ -0,0 +1,674 @@
+/*
+ * The scalar and x86 pcm conversion kernels and picking the ones to use, see
+ * stream/pcm.h. The NEON kernels are in pcm-neon.c.
+ *
+ * The vector kernels only take the common layouts, mono and stereo, in
+ * blocks of a full vector. Only rounding pays off for more channels, the
+ * other kernels leave those, and the tail of every call, to the scalar code.
+ * Rounding is floor(x * 32767 + .5) like the scalar code: the float is
+ * clamped first, so the truncating conversion only has to be stepped down
+ * for negative fractions. The 8.24 ints of the fixed point synthesis are
+ * rounded the same way in ints, x * 32767 being x - (x >> 15) in 8.24.
+ */
+
+#include <math.h>
+#include <string.h>
+#include <pthread.h>
+#include <stream/pcm.h>
+
+#if defined(__i386__) || defined(__x86_64__)
+#define PCM_X86
+#include <cpuid.h>
+#include <immintrin.h>
+#endif
+
+#if defined(__arm__) && defined(__ANDROID__)
+#include <cpu-features.h>
+#endif
+
+#ifdef HAVE_NEON
+extern const struct pcm_kernels pcm_neon_kernels;
+#endif
+
+/* Samples converted per channel at a time when there are too many channels to
+ * interleave in registers */
+#define BLOCK 64
+
+static int
+quantizeScalar(float ** pcm, int channels, int from, int samples, ogg_int16_t * out)
+{
+	int i, j;
+	int clipflag = 0;
+
+	for (i = 0; i < channels; i++) {
+		ogg_int16_t * ptr = out + from * channels + i;
+		float * mono = pcm[i];
+		for (j = from; j < samples; j++) {
+			int val = floor(mono[j] * 32767.f + .5f);
+
+			/* might as well guard against clipping */
+			if (val > 32767) {
+				val = 32767;
+				clipflag = 1;
+			}
+			if (val < -32768) {
+				val = -32768;
+				clipflag = 1;
+			}
+
+			*ptr = val;
+			ptr += channels;
+		}
+	}
+	return clipflag;
+}
+
+static void
+interleaveScalar(float ** pcm, int channels, int from, int samples, float * out)
+{
+	int i, j;
+
+	for (i = 0; i < channels; i++) {
+		float * ptr = out + from * channels + i;
+		float * mono = pcm[i];
+		for (j = from; j < samples; j++) {
+			*ptr = mono[j];
+			ptr += channels;
+		}
+	}
+}
+
+static void
+dequantizeScalar(const ogg_int16_t * pcm, int channels, int from, int samples, float ** out)
+{
+	int i, j;
+
+	for (i = 0; i < channels; i++) {
+		const ogg_int16_t * ptr = pcm + from * channels + i;
+		float * mono = out[i];
+		for (j = from; j < samples; j++) {
+			/* the same as dividing, 32768 being a power of two */
+			mono[j] = *ptr * (1.f / 32768.f);
+			ptr += channels;
+		}
+	}
+}
+
+static void
+deinterleaveScalar(const float * pcm, int channels, int from, int samples, float ** out)
+{
+	int i, j;
+
+	for (i = 0; i < channels; i++) {
+		const float * ptr = pcm + from * channels + i;
+		float * mono = out[i];
+		for (j = from; j < samples; j++) {
+			mono[j] = *ptr;
+			ptr += channels;
+		}
+	}
+}
+
+static int
+quantizeFixedScalar(ogg_int32_t ** pcm, int channels, int from, int samples, ogg_int16_t * out)
+{
+	int i, j;
+	int clipflag = 0;
+
+	for (i = 0; i < channels; i++) {
+		ogg_int16_t * ptr = out + from * channels + i;
+		ogg_int32_t * mono = pcm[i];
+		for (j = from; j < samples; j++) {
+			int val = (mono[j] - (mono[j] >> 15) + 256) >> 9;
+
+			if (val > 32767) {
+				val = 32767;
+				clipflag = 1;
+			}
+			if (val < -32768) {
+				val = -32768;
+				clipflag = 1;
+			}
+
+			*ptr = val;
+			ptr += channels;
+		}
+	}
+	return clipflag;
+}
+
+static void
+interleaveFixedScalar(ogg_int32_t ** pcm, int channels, int from, int samples, float * out)
+{
+	int i, j;
+
+	for (i = 0; i < channels; i++) {
+		float * ptr = out + from * channels + i;
+		ogg_int32_t * mono = pcm[i];
+		for (j = from; j < samples; j++) {
+			*ptr = mono[j] * (1.f / 16777216.f);
+			ptr += channels;
+		}
+	}
+}
+
+static int
+quantize(float ** pcm, int channels, int samples, ogg_int16_t * out)
+{
+	return quantizeScalar(pcm, channels, 0, samples, out);
+}
+
+static void
+interleave(float ** pcm, int channels, int samples, float * out)
+{
+	interleaveScalar(pcm, channels, 0, samples, out);
+}
+
+static void
+dequantize(const ogg_int16_t * pcm, int channels, int samples, float ** out)
+{
+	dequantizeScalar(pcm, channels, 0, samples, out);
+}
+
+static void
+deinterleave(const float * pcm, int channels, int samples, float ** out)
+{
+	deinterleaveScalar(pcm, channels, 0, samples, out);
+}
+
+static int
+quantizeFixed(ogg_int32_t ** pcm, int channels, int samples, ogg_int16_t * out)
+{
+	return quantizeFixedScalar(pcm, channels, 0, samples, out);
+}
+
+static void
+interleaveFixed(ogg_int32_t ** pcm, int channels, int samples, float * out)
+{
+	interleaveFixedScalar(pcm, channels, 0, samples, out);
+}
+
+static const struct pcm_kernels scalar_kernels = {
+	PCM_SCALAR, "scalar", quantize, interleave, dequantize, deinterleave,
+	quantizeFixed, interleaveFixed
+};
+
+#ifdef PCM_X86
+
+/* Rounds 4 floats to ints, noting in clip whether any was out of range */
+__attribute__((target("sse2")))
+static inline __m128i
+roundSSE2(__m128 x, __m128 * clip)
+{
+	__m128 y = _mm_add_ps(_mm_mul_ps(x, _mm_set1_ps(32767.f)), _mm_set1_ps(.5f));
+	__m128i t;
+
+	*clip = _mm_or_ps(*clip, _mm_or_ps(_mm_cmpge_ps(y, _mm_set1_ps(32768.f)),
+			_mm_cmplt_ps(y, _mm_set1_ps(-32768.f))));
+	y = _mm_min_ps(_mm_max_ps(y, _mm_set1_ps(-32768.f)), _mm_set1_ps(32767.f));
+	t = _mm_cvttps_epi32(y);
+	/* the compare is all ones, -1, where truncating rounded up */
+	return _mm_add_epi32(t, _mm_castps_si128(_mm_cmpgt_ps(_mm_cvtepi32_ps(t), y)));
+}
+
+__attribute__((target("sse2")))
+static int
+quantizeSSE2(float ** pcm, int channels, int samples, ogg_int16_t * out)
+{
+	__m128 clip = _mm_setzero_ps();
+	int i, j, k;
+
+	if (channels == 1) {
+		for (j = 0; j + 8 <= samples; j += 8) {
+			__m128i a = roundSSE2(_mm_loadu_ps(pcm[0] + j), &clip);
+			__m128i b = roundSSE2(_mm_loadu_ps(pcm[0] + j + 4), &clip);
+			_mm_storeu_si128((__m128i *) (out + j), _mm_packs_epi32(a, b));
+		}
+	} else if (channels == 2) {
+		for (j = 0; j + 8 <= samples; j += 8) {
+			__m128i l = _mm_packs_epi32(roundSSE2(_mm_loadu_ps(pcm[0] + j), &clip),
+					roundSSE2(_mm_loadu_ps(pcm[0] + j + 4), &clip));
+			__m128i r = _mm_packs_epi32(roundSSE2(_mm_loadu_ps(pcm[1] + j), &clip),
+					roundSSE2(_mm_loadu_ps(pcm[1] + j + 4), &clip));
+			_mm_storeu_si128((__m128i *) (out + 2 * j), _mm_unpacklo_epi16(l, r));
+			_mm_storeu_si128((__m128i *) (out + 2 * j + 8), _mm_unpackhi_epi16(l, r));
+		}
+	} else {
+		/* round a block of each channel in registers, then scatter it */
+		ogg_int16_t block[BLOCK];
+		for (j = 0; j + BLOCK <= samples; j += BLOCK) {
+			for (i = 0; i < channels; i++) {
+				ogg_int16_t * ptr = out + j * channels + i;
+				for (k = 0; k < BLOCK; k += 8) {
+					__m128i a = roundSSE2(_mm_loadu_ps(pcm[i] + j + k), &clip);
+					__m128i b = roundSSE2(_mm_loadu_ps(pcm[i] + j + k + 4), &clip);
+					_mm_storeu_si128((__m128i *) (block + k), _mm_packs_epi32(a, b));
+				}
+				for (k = 0; k < BLOCK; k++) {
+					*ptr = block[k];
+					ptr += channels;
+				}
+			}
+		}
+	}
+	return quantizeScalar(pcm, channels, j, samples, out) | (_mm_movemask_ps(clip) != 0);
+}
+
+__attribute__((target("sse2")))
+static void
+interleaveSSE2(float ** pcm, int channels, int samples, float * out)
+{
+	int j = 0;
+
+	if (channels == 1) {
+		memcpy(out, pcm[0], samples * sizeof(float));
+		return;
+	}
+	if (channels > 2) {
+		interleave(pcm, channels, samples, out);
+		return;
+	}
+	for (; j + 4 <= samples; j += 4) {
+		__m128 l = _mm_loadu_ps(pcm[0] + j);
+		__m128 r = _mm_loadu_ps(pcm[1] + j);
+		_mm_storeu_ps(out + 2 * j, _mm_unpacklo_ps(l, r));
+		_mm_storeu_ps(out + 2 * j + 4, _mm_unpackhi_ps(l, r));
+	}
+	interleaveScalar(pcm, channels, j, samples, out);
+}
+
+__attribute__((target("sse2")))
+static void
+dequantizeSSE2(const ogg_int16_t * pcm, int channels, int samples, float ** out)
+{
+	const __m128 scale = _mm_set1_ps(1.f / 32768.f);
+	int j = 0;
+
+	if (channels > 2) {
+		dequantize(pcm, channels, samples, out);
+		return;
+	}
+
+	/* scaling by a power of two is exact, so multiplying is dividing */
+	if (channels == 1) {
+		for (; j + 8 <= samples; j += 8) {
+			__m128i v = _mm_loadu_si128((const __m128i *) (pcm + j));
+			__m128i a = _mm_srai_epi32(_mm_unpacklo_epi16(v, v), 16);
+			__m128i b = _mm_srai_epi32(_mm_unpackhi_epi16(v, v), 16);
+			_mm_storeu_ps(out[0] + j, _mm_mul_ps(_mm_cvtepi32_ps(a), scale));
+			_mm_storeu_ps(out[0] + j + 4, _mm_mul_ps(_mm_cvtepi32_ps(b), scale));
+		}
+	} else if (channels == 2) {
+		for (; j + 4 <= samples; j += 4) {
+			/* each 32 bit lane is a left sample below a right one */
+			__m128i v = _mm_loadu_si128((const __m128i *) (pcm + 2 * j));
+			__m128i l = _mm_srai_epi32(_mm_slli_epi32(v, 16), 16);
+			__m128i r = _mm_srai_epi32(v, 16);
+			_mm_storeu_ps(out[0] + j, _mm_mul_ps(_mm_cvtepi32_ps(l), scale));
+			_mm_storeu_ps(out[1] + j, _mm_mul_ps(_mm_cvtepi32_ps(r), scale));
+		}
+	}
+	dequantizeScalar(pcm, channels, j, samples, out);
+}
+
+__attribute__((target("sse2")))
+static void
+deinterleaveSSE2(const float * pcm, int channels, int samples, float ** out)
+{
+	int j = 0;
+
+	if (channels == 1) {
+		memcpy(out[0], pcm, samples * sizeof(float));
+		return;
+	}
+	if (channels > 2) {
+		deinterleave(pcm, channels, samples, out);
+		return;
+	}
+	for (; j + 4 <= samples; j += 4) {
+		__m128 a = _mm_loadu_ps(pcm + 2 * j);
+		__m128 b = _mm_loadu_ps(pcm + 2 * j + 4);
+		_mm_storeu_ps(out[0] + j, _mm_shuffle_ps(a, b, _MM_SHUFFLE(2, 0, 2, 0)));
+		_mm_storeu_ps(out[1] + j, _mm_shuffle_ps(a, b, _MM_SHUFFLE(3, 1, 3, 1)));
+	}
+	deinterleaveScalar(pcm, channels, j, samples, out);
+}
+
+/* Rounds 4 8.24 ints, see quantizeFixedScalar; packing saturates them */
+__attribute__((target("sse2")))
+static inline __m128i
+roundFixedSSE2(__m128i x, __m128i * clip)
+{
+	__m128i y = _mm_srai_epi32(_mm_add_epi32(_mm_sub_epi32(x, _mm_srai_epi32(x, 15)),
+			_mm_set1_epi32(256)), 9);
+
+	*clip = _mm_or_si128(*clip, _mm_or_si128(_mm_cmpgt_epi32(y, _mm_set1_epi32(32767)),
+			_mm_cmplt_epi32(y, _mm_set1_epi32(-32768))));
+	return y;
+}
+
+__attribute__((target("sse2")))
+static inline __m128i
+loadFixedSSE2(const ogg_int32_t * mono)
+{
+	return _mm_loadu_si128((const __m128i *) mono);
+}
+
+__attribute__((target("sse2")))
+static int
+quantizeFixedSSE2(ogg_int32_t ** pcm, int channels, int samples, ogg_int16_t * out)
+{
+	__m128i clip = _mm_setzero_si128();
+	int i, j, k;
+
+	if (channels == 1) {
+		for (j = 0; j + 8 <= samples; j += 8) {
+			__m128i a = roundFixedSSE2(loadFixedSSE2(pcm[0] + j), &clip);
+			__m128i b = roundFixedSSE2(loadFixedSSE2(pcm[0] + j + 4), &clip);
+			_mm_storeu_si128((__m128i *) (out + j), _mm_packs_epi32(a, b));
+		}
+	} else if (channels == 2) {
+		for (j = 0; j + 8 <= samples; j += 8) {
+			__m128i l = _mm_packs_epi32(roundFixedSSE2(loadFixedSSE2(pcm[0] + j), &clip),
+					roundFixedSSE2(loadFixedSSE2(pcm[0] + j + 4), &clip));
+			__m128i r = _mm_packs_epi32(roundFixedSSE2(loadFixedSSE2(pcm[1] + j), &clip),
+					roundFixedSSE2(loadFixedSSE2(pcm[1] + j + 4), &clip));
+			_mm_storeu_si128((__m128i *) (out + 2 * j), _mm_unpacklo_epi16(l, r));
+			_mm_storeu_si128((__m128i *) (out + 2 * j + 8), _mm_unpackhi_epi16(l, r));
+		}
+	} else {
+		ogg_int16_t block[BLOCK];
+		for (j = 0; j + BLOCK <= samples; j += BLOCK) {
+			for (i = 0; i < channels; i++) {
+				ogg_int16_t * ptr = out + j * channels + i;
+				for (k = 0; k < BLOCK; k += 8) {
+					__m128i a = roundFixedSSE2(loadFixedSSE2(pcm[i] + j + k), &clip);
+					__m128i b = roundFixedSSE2(loadFixedSSE2(pcm[i] + j + k + 4), &clip);
+					_mm_storeu_si128((__m128i *) (block + k), _mm_packs_epi32(a, b));
+				}
+				for (k = 0; k < BLOCK; k++) {
+					*ptr = block[k];
+					ptr += channels;
+				}
+			}
+		}
+	}
+	return quantizeFixedScalar(pcm, channels, j, samples, out) | (_mm_movemask_epi8(clip) != 0);
+}
+
+__attribute__((target("sse2")))
+static void
+interleaveFixedSSE2(ogg_int32_t ** pcm, int channels, int samples, float * out)
+{
+	const __m128 scale = _mm_set1_ps(1.f / 16777216.f);
+	int j = 0;
+
+	if (channels > 2) {
+		interleaveFixed(pcm, channels, samples, out);
+		return;
+	}
+
+	if (channels == 1) {
+		for (; j + 4 <= samples; j += 4) {
+			_mm_storeu_ps(out + j, _mm_mul_ps(_mm_cvtepi32_ps(loadFixedSSE2(pcm[0] + j)), scale));
+		}
+	} else {
+		for (; j + 4 <= samples; j += 4) {
+			__m128 l = _mm_mul_ps(_mm_cvtepi32_ps(loadFixedSSE2(pcm[0] + j)), scale);
+			__m128 r = _mm_mul_ps(_mm_cvtepi32_ps(loadFixedSSE2(pcm[1] + j)), scale);
+			_mm_storeu_ps(out + 2 * j, _mm_unpacklo_ps(l, r));
+			_mm_storeu_ps(out + 2 * j + 4, _mm_unpackhi_ps(l, r));
+		}
+	}
+	interleaveFixedScalar(pcm, channels, j, samples, out);
+}
+
+static const struct pcm_kernels sse2_kernels = {
+	PCM_SSE2, "sse2", quantizeSSE2, interleaveSSE2, dequantizeSSE2, deinterleaveSSE2,
+	quantizeFixedSSE2, interleaveFixedSSE2
+};
+
+/* Rounds 8 floats to ints, see roundSSE2 */
+__attribute__((target("avx2")))
+static inline __m256i
+roundAVX2(__m256 x, __m256 * clip)
+{
+	__m256 y = _mm256_add_ps(_mm256_mul_ps(x, _mm256_set1_ps(32767.f)), _mm256_set1_ps(.5f));
+
+	*clip = _mm256_or_ps(*clip, _mm256_or_ps(_mm256_cmp_ps(y, _mm256_set1_ps(32768.f), _CMP_GE_OQ),
+			_mm256_cmp_ps(y, _mm256_set1_ps(-32768.f), _CMP_LT_OQ)));
+	y = _mm256_min_ps(_mm256_max_ps(y, _mm256_set1_ps(-32768.f)), _mm256_set1_ps(32767.f));
+	/* AVX can floor outright */
+	return _mm256_cvtps_epi32(_mm256_floor_ps(y));
+}
+
+/* Rounds 16 floats of a channel to 16 ints, in order */
+__attribute__((target("avx2")))
+static inline __m256i
+round16AVX2(const float * mono, __m256 * clip)
+{
+	__m256i v = _mm256_packs_epi32(roundAVX2(_mm256_loadu_ps(mono), clip),
+			roundAVX2(_mm256_loadu_ps(mono + 8), clip));
+	/* packing works within each 128 bit lane, put the quarters back in order */
+	return _mm256_permute4x64_epi64(v, _MM_SHUFFLE(3, 1, 2, 0));
+}
+
+__attribute__((target("avx2")))
+static int
+quantizeAVX2(float ** pcm, int channels, int samples, ogg_int16_t * out)
+{
+	__m256 clip = _mm256_setzero_ps();
+	int i, j, k;
+
+	if (channels == 1) {
+		for (j = 0; j + 16 <= samples; j += 16) {
+			_mm256_storeu_si256((__m256i *) (out + j), round16AVX2(pcm[0] + j, &clip));
+		}
+	} else if (channels == 2) {
+		for (j = 0; j + 16 <= samples; j += 16) {
+			__m256i l = round16AVX2(pcm[0] + j, &clip);
+			__m256i r = round16AVX2(pcm[1] + j, &clip);
+			__m256i lo = _mm256_unpacklo_epi16(l, r);
+			__m256i hi = _mm256_unpackhi_epi16(l, r);
+			_mm256_storeu_si256((__m256i *) (out + 2 * j), _mm256_permute2x128_si256(lo, hi, 0x20));
+			_mm256_storeu_si256((__m256i *) (out + 2 * j + 16), _mm256_permute2x128_si256(lo, hi, 0x31));
+		}
+	} else {
+		ogg_int16_t block[BLOCK];
+		for (j = 0; j + BLOCK <= samples; j += BLOCK) {
+			for (i = 0; i < channels; i++) {
+				ogg_int16_t * ptr = out + j * channels + i;
+				for (k = 0; k < BLOCK; k += 16) {
+					_mm256_storeu_si256((__m256i *) (block + k), round16AVX2(pcm[i] + j + k, &clip));
+				}
+				for (k = 0; k < BLOCK; k++) {
+					*ptr = block[k];
+					ptr += channels;
+				}
+			}
+		}
+	}
+	return quantizeScalar(pcm, channels, j, samples, out) | (_mm256_movemask_ps(clip) != 0);
+}
+
+__attribute__((target("avx2")))
+static void
+dequantizeAVX2(const ogg_int16_t * pcm, int channels, int samples, float ** out)
+{
+	const __m256 scale = _mm256_set1_ps(1.f / 32768.f);
+	int j = 0;
+
+	if (channels > 2) {
+		dequantize(pcm, channels, samples, out);
+		return;
+	}
+
+	if (channels == 1) {
+		for (; j + 8 <= samples; j += 8) {
+			__m256i v = _mm256_cvtepi16_epi32(_mm_loadu_si128((const __m128i *) (pcm + j)));
+			_mm256_storeu_ps(out[0] + j, _mm256_mul_ps(_mm256_cvtepi32_ps(v), scale));
+		}
+	} else if (channels == 2) {
+		for (; j + 8 <= samples; j += 8) {
+			__m256i v = _mm256_loadu_si256((const __m256i *) (pcm + 2 * j));
+			__m256i l = _mm256_srai_epi32(_mm256_slli_epi32(v, 16), 16);
+			__m256i r = _mm256_srai_epi32(v, 16);
+			_mm256_storeu_ps(out[0] + j, _mm256_mul_ps(_mm256_cvtepi32_ps(l), scale));
+			_mm256_storeu_ps(out[1] + j, _mm256_mul_ps(_mm256_cvtepi32_ps(r), scale));
+		}
+	}
+	dequantizeScalar(pcm, channels, j, samples, out);
+}
+
+/* Rounds 8 8.24 ints, see roundFixedSSE2 */
+__attribute__((target("avx2")))
+static inline __m256i
+roundFixedAVX2(const ogg_int32_t * mono, __m256i * clip)
+{
+	__m256i x = _mm256_loadu_si256((const __m256i *) mono);
+	__m256i y = _mm256_srai_epi32(_mm256_add_epi32(_mm256_sub_epi32(x, _mm256_srai_epi32(x, 15)),
+			_mm256_set1_epi32(256)), 9);
+
+	*clip = _mm256_or_si256(*clip, _mm256_or_si256(_mm256_cmpgt_epi32(y, _mm256_set1_epi32(32767)),
+			_mm256_cmpgt_epi32(_mm256_set1_epi32(-32768), y)));
+	return y;
+}
+
+/* Rounds 16 8.24 ints of a channel to 16 ints, in order */
+__attribute__((target("avx2")))
+static inline __m256i
+round16FixedAVX2(const ogg_int32_t * mono, __m256i * clip)
+{
+	__m256i v = _mm256_packs_epi32(roundFixedAVX2(mono, clip), roundFixedAVX2(mono + 8, clip));
+	return _mm256_permute4x64_epi64(v, _MM_SHUFFLE(3, 1, 2, 0));
+}
+
+__attribute__((target("avx2")))
+static int
+quantizeFixedAVX2(ogg_int32_t ** pcm, int channels, int samples, ogg_int16_t * out)
+{
+	__m256i clip = _mm256_setzero_si256();
+	int i, j, k;
+
+	if (channels == 1) {
+		for (j = 0; j + 16 <= samples; j += 16) {
+			_mm256_storeu_si256((__m256i *) (out + j), round16FixedAVX2(pcm[0] + j, &clip));
+		}
+	} else if (channels == 2) {
+		for (j = 0; j + 16 <= samples; j += 16) {
+			__m256i l = round16FixedAVX2(pcm[0] + j, &clip);
+			__m256i r = round16FixedAVX2(pcm[1] + j, &clip);
+			__m256i lo = _mm256_unpacklo_epi16(l, r);
+			__m256i hi = _mm256_unpackhi_epi16(l, r);
+			_mm256_storeu_si256((__m256i *) (out + 2 * j), _mm256_permute2x128_si256(lo, hi, 0x20));
+			_mm256_storeu_si256((__m256i *) (out + 2 * j + 16), _mm256_permute2x128_si256(lo, hi, 0x31));
+		}
+	} else {
+		ogg_int16_t block[BLOCK];
+		for (j = 0; j + BLOCK <= samples; j += BLOCK) {
+			for (i = 0; i < channels; i++) {
+				ogg_int16_t * ptr = out + j * channels + i;
+				for (k = 0; k < BLOCK; k += 16) {
+					_mm256_storeu_si256((__m256i *) (block + k), round16FixedAVX2(pcm[i] + j + k, &clip));
+				}
+				for (k = 0; k < BLOCK; k++) {
+					*ptr = block[k];
+					ptr += channels;
+				}
+			}
+		}
+	}
+	return quantizeFixedScalar(pcm, channels, j, samples, out) | (_mm256_movemask_epi8(clip) != 0);
+}
+
+/* Plain copies are bound by memory, wider vectors don't help them */
+static const struct pcm_kernels avx2_kernels = {
+	PCM_AVX2, "avx2", quantizeAVX2, interleaveSSE2, dequantizeAVX2, deinterleaveSSE2,
+	quantizeFixedAVX2, interleaveFixedSSE2
+};
+
+static int
+cpuHasSSE2(void)
+{
+#ifdef __x86_64__
+	return 1;
+#else
+	unsigned int eax, ebx, ecx, edx;
+	return __get_cpuid(1, &eax, &ebx, &ecx, &edx) && (edx & bit_SSE2);
+#endif
+}
+
+static int
+cpuHasAVX2(void)
+{
+	unsigned int eax, ebx, ecx, edx, xcr0;
+
+	if (!__get_cpuid(1, &eax, &ebx, &ecx, &edx) || !(ecx & bit_OSXSAVE) || !(ecx & bit_AVX)) {
+		return 0;
+	}
+	/* the os has to save the upper halves of the registers too */
+	__asm__ ("xgetbv" : "=a" (xcr0), "=d" (edx) : "c" (0));
+	if ((xcr0 & 6) != 6) {
+		return 0;
+	}
+	return __get_cpuid_count(7, 0, &eax, &ebx, &ecx, &edx) && (ebx & bit_AVX2);
+}
+
+#endif
+
+#ifdef HAVE_NEON
+static int
+cpuHasNEON(void)
+{
+#if defined(__arm__) && defined(__ANDROID__)
+	return android_getCpuFamily() == ANDROID_CPU_FAMILY_ARM
+			&& (android_getCpuFeatures() & ANDROID_CPU_ARM_FEATURE_NEON);
+#else
+	return 1;
+#endif
+}
+#endif
+
+static const struct pcm_kernels * supported[PCM_ISA_COUNT];
+static const struct pcm_kernels * best;
+static pthread_once_t selected = PTHREAD_ONCE_INIT;
+
+static void
+selectKernels(void)
+{
+	int isa;
+
+	supported[PCM_SCALAR] = &scalar_kernels;
+#ifdef PCM_X86
+	if (cpuHasSSE2()) {
+		supported[PCM_SSE2] = &sse2_kernels;
+	}
+	if (cpuHasAVX2()) {
+		supported[PCM_AVX2] = &avx2_kernels;
+	}
+#endif
+#ifdef HAVE_NEON
+	if (cpuHasNEON()) {
+		supported[PCM_NEON] = &pcm_neon_kernels;
+	}
+#endif
+	for (isa = 0; isa < PCM_ISA_COUNT; isa++) {
+		if (supported[isa] != NULL) {
+			best = supported[isa];
+		}
+	}
+}
+
+const struct pcm_kernels *
+pcm_kernels(void)
+{
+	pthread_once(&selected, selectKernels);
+	return best;
+}
+
+const struct pcm_kernels *
+pcm_kernels_for(int isa)
+{
+	pthread_once(&selected, selectKernels);
+	return isa >= 0 && isa < PCM_ISA_COUNT ? supported[isa] : NULL;
+}
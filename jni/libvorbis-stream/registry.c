@@ -0,0 +1,200 @@
+/*
+ * A lock free table of the native streams handed out to java, see
+ * stream/registry.h.
+ *
+ * Slots live in chunks that are allocated on demand and never freed, so a
+ * slot can always be read even through a stale handle. Each slot packs its
+ * generation, a live flag and a pin count into one 32 bit word, and free
+ * slots are kept on a tagged stack whose head is a 32 bit word too. Only 32
+ * bit compare and swap is needed, which every ABI we build for has.
+ */
+
+#include <stdlib.h>
+#include <stdint.h>
+#include <sched.h>
+#include <stream/registry.h>
+
+#define CHUNK_BITS		8
+#define CHUNK_SIZE		(1 << CHUNK_BITS)
+#define MAX_CHUNKS		1024
+
+/* Free stack head: the index + 1 of the top slot and a tag against ABA.
+ * Index + 1 runs up to MAX_CHUNKS * CHUNK_SIZE itself, one bit more than
+ * the slot indices take. */
+#define INDEX_BITS		19
+#define INDEX_MASK		((1u << INDEX_BITS) - 1)
+#define TAG_ONE			(1u << INDEX_BITS)
+
+/* Slot state: generation in the high half, then the live flag and pins */
+#define GENERATION_SHIFT	16
+#define LIVE			(1u << 15)
+#define PIN_MASK		(LIVE - 1)
+
+struct slot {
+	volatile uint32_t	state;
+	volatile uint32_t	next;	/* index + 1 of the next free slot */
+	int					type;
+	void *				value;
+};
+
+static struct slot * volatile chunks[MAX_CHUNKS];
+static volatile uint32_t free_head;
+static volatile uint32_t used_slots;
+
+static struct slot *
+slot_at(uint32_t index)
+{
+	return &chunks[index >> CHUNK_BITS][index & (CHUNK_SIZE - 1)];
+}
+
+/* Takes a slot off the free stack, or a brand new one. Returns its index
+ * + 1, 0 if the table is full.
+ */
+static uint32_t
+take_slot(void)
+{
+	uint32_t head, index, chunk;
+	struct slot * fresh;
+
+	while (1) {
+		head = free_head;
+		index = head & INDEX_MASK;
+		if (index == 0)
+			break;
+		/* slots are never freed so this read is safe even if another
+		 * thread takes the slot first, the tag makes our swap fail then */
+		if (__sync_bool_compare_and_swap(&free_head, head,
+				((head & ~INDEX_MASK) + TAG_ONE) | slot_at(index - 1)->next))
+			return index;
+	}
+
+	index = __sync_fetch_and_add(&used_slots, 1);
+	if (index >= MAX_CHUNKS * CHUNK_SIZE) {
+		__sync_fetch_and_sub(&used_slots, 1);
+		return 0;
+	}
+
+	chunk = index >> CHUNK_BITS;
+	if (chunks[chunk] == NULL) {
+		fresh = calloc(CHUNK_SIZE, sizeof(struct slot));
+		if (fresh == NULL) {
+			/* the index is lost, which only matters when out of memory */
+			return 0;
+		}
+		if (!__sync_bool_compare_and_swap(&chunks[chunk], NULL, fresh))
+			free(fresh);
+	}
+	return index + 1;
+}
+
+/* Puts a slot back on the free stack */
+static void
+give_slot(uint32_t index)
+{
+	struct slot * s = slot_at(index);
+	uint32_t head;
+
+	do {
+		head = free_head;
+		s->next = head & INDEX_MASK;
+	} while (!__sync_bool_compare_and_swap(&free_head, head,
+			((head & ~INDEX_MASK) + TAG_ONE) | (index + 1)));
+}
+
+/* Finds the slot of a handle, NULL if it can't be one of ours */
+static struct slot *
+handle_slot(jlong handle)
+{
+	uint32_t index = (uint32_t)(handle & 0xffffffff);
+
+	if (index == 0 || index > used_slots || chunks[(index - 1) >> CHUNK_BITS] == NULL)
+		return NULL;
+	return slot_at(index - 1);
+}
+
+static uint32_t
+handle_generation(jlong handle)
+{
+	return (uint32_t)((uint64_t)handle >> 32);
+}
+
+jlong
+registry_add(int type, void * value)
+{
+	uint32_t index = take_slot();
+	struct slot * s;
+	uint32_t generation;
+
+	if (index == 0)
+		return 0;
+	s = slot_at(index - 1);
+	s->type = type;
+	s->value = value;
+	generation = s->state >> GENERATION_SHIFT;
+
+	/* publish the value before the slot goes live */
+	__sync_synchronize();
+	s->state = (generation << GENERATION_SHIFT) | LIVE;
+
+	return ((jlong)generation << 32) | index;
+}
+
+void *
+registry_acquire(jlong handle, int type)
+{
+	struct slot * s = handle_slot(handle);
+	uint32_t state;
+
+	if (s == NULL)
+		return NULL;
+	do {
+		state = s->state;
+		if ((state >> GENERATION_SHIFT) != handle_generation(handle) || !(state & LIVE))
+			return NULL;
+		if ((state & PIN_MASK) == PIN_MASK)
+			return NULL;
+	} while (!__sync_bool_compare_and_swap(&s->state, state, state + 1));
+
+	if (s->type != type) {
+		registry_release(handle);
+		return NULL;
+	}
+	return s->value;
+}
+
+void
+registry_release(jlong handle)
+{
+	__sync_fetch_and_sub(&handle_slot(handle)->state, 1);
+}
+
+void *
+registry_remove(jlong handle, int type)
+{
+	struct slot * s = handle_slot(handle);
+	uint32_t state, generation;
+	void * value;
+
+	if (s == NULL)
+		return NULL;
+	do {
+		state = s->state;
+		generation = state >> GENERATION_SHIFT;
+		if (generation != handle_generation(handle) || !(state & LIVE) || s->type != type)
+			return NULL;
+	} while (!__sync_bool_compare_and_swap(&s->state, state, state & ~LIVE));
+
+	/* nothing new can pin the slot now, wait for whoever still has it */
+	while (s->state & PIN_MASK)
+		sched_yield();
+
+	value = s->value;
+	s->value = NULL;
+
+	/* retire the handle before the slot can be reused */
+	s->state = ((generation + 1) & 0xffff) << GENERATION_SHIFT;
+	__sync_synchronize();
+	give_slot((uint32_t)(handle & 0xffffffff) - 1);
+
+	return value;
+}
@@ -0,0 +1,385 @@
+/*
+ * The sources input streams read their vorbis data from, see
+ * stream/source.h.
+ */
+
+#include <stdlib.h>
+#include <stdint.h>
+#include <stdio.h>
+#include <limits.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/mman.h>
+#include <sys/stat.h>
+#include <stream/source.h>
+#include <stream/util.h>
+
+/* Size of the native buffer java sources fill at a time */
+#define JAVA_SOURCE_BATCH	65536
+
+/* A mapped file or a direct buffer */
+struct memory_source {
+	const unsigned char *	data;
+	size_t					length;
+	size_t					position;
+	JavaVM *				vm;
+	jobject					buffer;		/* global ref to the direct buffer, NULL if mapped */
+};
+
+/* A VorbisSource read through its java methods */
+struct java_source {
+	JavaVM *				vm;
+	jobject					source;		/* global ref to the VorbisSource */
+	jmethodID				fill;
+	jmethodID				seek;
+	jmethodID				size;
+	jobject					batch;		/* global ref to a direct buffer over data */
+	unsigned char *			data;
+	ogg_int64_t				start;		/* offset of data in the source */
+	size_t					length;		/* bytes of data read */
+	size_t					offset;		/* bytes of data consumed */
+	ogg_int64_t				total;		/* the size of the source, -1 until asked for */
+	int						failed;		/* a java method threw, every call fails from then on */
+};
+
+static JNIEnv * getEnv(JavaVM * vm)
+{
+	JNIEnv * env = NULL;
+	(*vm)->GetEnv(vm, (void **)&env, JNI_VERSION_1_4);
+	return env;
+}
+
+static size_t memoryRead(void * ptr, size_t size, size_t nmemb, void * datasource)
+{
+	struct memory_source * source = datasource;
+	size_t count;
+
+	if (size == 0) {
+		return 0;
+	}
+	count = (source->length - source->position) / size;
+	if (count > nmemb) {
+		count = nmemb;
+	}
+	memcpy(ptr, source->data + source->position, count * size);
+	source->position += count * size;
+	return count;
+}
+
+static int memorySeek(void * datasource, ogg_int64_t offset, int whence)
+{
+	struct memory_source * source = datasource;
+	ogg_int64_t position;
+
+	switch (whence) {
+	case SEEK_SET:
+		position = offset;
+		break;
+	case SEEK_CUR:
+		position = (ogg_int64_t)source->position + offset;
+		break;
+	case SEEK_END:
+		position = (ogg_int64_t)source->length + offset;
+		break;
+	default:
+		return -1;
+	}
+	if (position < 0 || position > (ogg_int64_t)source->length) {
+		return -1;
+	}
+	source->position = (size_t)position;
+	return 0;
+}
+
+static long memoryTell(void * datasource)
+{
+	return (long)((struct memory_source *)datasource)->position;
+}
+
+static int memoryClose(void * datasource)
+{
+	struct memory_source * source = datasource;
+
+	if (source->buffer != NULL) {
+		JNIEnv * env = getEnv(source->vm);
+		if (env != NULL) {
+			(*env)->DeleteGlobalRef(env, source->buffer);
+		}
+	}
+	else if (source->length > 0) {
+		munmap((void *)source->data, source->length);
+	}
+	free(source);
+	return 0;
+}
+
+static void setMemoryCallbacks(ov_callbacks * callbacks)
+{
+	callbacks->read_func = memoryRead;
+	callbacks->seek_func = memorySeek;
+	callbacks->tell_func = memoryTell;
+	callbacks->close_func = memoryClose;
+}
+
+int source_open_mapped(const char * path, void ** datasource, ov_callbacks * callbacks)
+{
+	struct memory_source * source;
+	struct stat st;
+	void * data = NULL;
+	int fd, error;
+
+	fd = open(path, O_RDONLY);
+	if (fd < 0) {
+		return errno;
+	}
+	if (fstat(fd, &st) < 0) {
+		error = errno;
+		close(fd);
+		return error;
+	}
+	/* tell is a long, so the file has to fit both the address space and that */
+	if ((uint64_t)st.st_size > SIZE_MAX || (uint64_t)st.st_size > LONG_MAX) {
+		close(fd);
+		return EFBIG;
+	}
+	if (st.st_size > 0) {
+		data = mmap(NULL, (size_t)st.st_size, PROT_READ, MAP_SHARED, fd, 0);
+		if (data == MAP_FAILED) {
+			error = errno;
+			close(fd);
+			return error;
+		}
+	}
+	/* the mapping outlives the descriptor */
+	close(fd);
+
+	source = calloc(1, sizeof(struct memory_source));
+	if (source == NULL) {
+		if (data != NULL) {
+			munmap(data, (size_t)st.st_size);
+		}
+		return ENOMEM;
+	}
+	source->data = data;
+	source->length = (size_t)st.st_size;
+
+	setMemoryCallbacks(callbacks);
+	*datasource = source;
+	return 0;
+}
+
+int source_open_buffer(JNIEnv * env, jobject buffer, jint offset, jint length,
+		void ** datasource, ov_callbacks * callbacks)
+{
+	struct memory_source * source;
+	unsigned char * data = (*env)->GetDirectBufferAddress(env, buffer);
+
+	if (data == NULL) {
+		return EINVAL;
+	}
+	source = calloc(1, sizeof(struct memory_source));
+	if (source == NULL) {
+		return ENOMEM;
+	}
+	source->buffer = (*env)->NewGlobalRef(env, buffer);
+	if (source->buffer == NULL || (*env)->GetJavaVM(env, &source->vm) != 0) {
+		if (source->buffer != NULL) {
+			(*env)->DeleteGlobalRef(env, source->buffer);
+		}
+		free(source);
+		return ENOMEM;
+	}
+	source->data = data + offset;
+	source->length = (size_t)length;
+
+	setMemoryCallbacks(callbacks);
+	*datasource = source;
+	return 0;
+}
+
+/* Reads the next batch from java, returns the bytes read, 0 at the end or on failure */
+static size_t javaFill(JNIEnv * env, struct java_source * source)
+{
+	jint read;
+
+	source->start += source->length;
+	source->length = 0;
+	source->offset = 0;
+	read = (*env)->CallIntMethod(env, source->source, source->fill, source->batch);
+	if ((*env)->ExceptionCheck(env)) {
+		source->failed = 1;
+		return 0;
+	}
+	if (read > 0) {
+		source->length = read > JAVA_SOURCE_BATCH ? JAVA_SOURCE_BATCH : (size_t)read;
+	}
+	return source->length;
+}
+
+static size_t javaRead(void * ptr, size_t size, size_t nmemb, void * datasource)
+{
+	struct java_source * source = datasource;
+	unsigned char * out = ptr;
+	size_t wanted, copied = 0;
+	JNIEnv * env;
+
+	if (size == 0 || (env = getEnv(source->vm)) == NULL) {
+		errno = EIO;
+		return 0;
+	}
+	if (source->failed) {
+		/* keep failing rather than look like the end of the stream */
+		JNU_ThrowByName(env, "java/io/IOException", "Vorbis Source Failed", 0);
+		errno = EIO;
+		return 0;
+	}
+	wanted = size * nmemb;
+	while (copied < wanted) {
+		size_t available = source->length - source->offset;
+		if (available == 0) {
+			if (javaFill(env, source) == 0) {
+				break;
+			}
+			continue;
+		}
+		if (available > wanted - copied) {
+			available = wanted - copied;
+		}
+		memcpy(out + copied, source->data + source->offset, available);
+		source->offset += available;
+		copied += available;
+	}
+	/* vorbisfile tells a failed read from the end by errno, which the vm may have touched */
+	errno = source->failed ? EIO : 0;
+	/* a partial item is dropped, vorbisfile always reads bytes */
+	return copied / size;
+}
+
+static int javaSeek(void * datasource, ogg_int64_t offset, int whence)
+{
+	struct java_source * source = datasource;
+	ogg_int64_t position;
+	JNIEnv * env;
+
+	if ((env = getEnv(source->vm)) == NULL) {
+		return -1;
+	}
+	if (source->failed) {
+		JNU_ThrowByName(env, "java/io/IOException", "Vorbis Source Failed", 0);
+		return -1;
+	}
+	switch (whence) {
+	case SEEK_SET:
+		position = offset;
+		break;
+	case SEEK_CUR:
+		position = source->start + (ogg_int64_t)source->offset + offset;
+		break;
+	case SEEK_END:
+		if (source->total < 0) {
+			source->total = (*env)->CallLongMethod(env, source->source, source->size);
+			if ((*env)->ExceptionCheck(env)) {
+				source->failed = 1;
+				return -1;
+			}
+		}
+		position = source->total + offset;
+		break;
+	default:
+		return -1;
+	}
+	if (position < 0) {
+		return -1;
+	}
+	/* stay in the batch if we can, vorbisfile often seeks back a little */
+	if (position >= source->start && position <= source->start + (ogg_int64_t)source->length) {
+		source->offset = (size_t)(position - source->start);
+		return 0;
+	}
+	(*env)->CallVoidMethod(env, source->source, source->seek, position);
+	if ((*env)->ExceptionCheck(env)) {
+		source->failed = 1;
+		return -1;
+	}
+	source->start = position;
+	source->length = 0;
+	source->offset = 0;
+	return 0;
+}
+
+static long javaTell(void * datasource)
+{
+	struct java_source * source = datasource;
+	return (long)(source->start + (ogg_int64_t)source->offset);
+}
+
+static int javaClose(void * datasource)
+{
+	struct java_source * source = datasource;
+	JNIEnv * env = getEnv(source->vm);
+
+	if (env != NULL) {
+		(*env)->DeleteGlobalRef(env, source->source);
+		(*env)->DeleteGlobalRef(env, source->batch);
+	}
+	free(source->data);
+	free(source);
+	return 0;
+}
+
+int source_open_java(JNIEnv * env, jobject object, int seekable,
+		void ** datasource, ov_callbacks * callbacks)
+{
+	struct java_source * source;
+	jclass cls = (*env)->GetObjectClass(env, object);
+	jobject batch;
+
+	source = calloc(1, sizeof(struct java_source));
+	if (source == NULL) {
+		return ENOMEM;
+	}
+	source->fill = (*env)->GetMethodID(env, cls, "fill", "(Ljava/nio/ByteBuffer;)I");
+	source->seek = (*env)->GetMethodID(env, cls, "seek", "(J)V");
+	source->size = (*env)->GetMethodID(env, cls, "size", "()J");
+	if (source->fill == NULL || source->seek == NULL || source->size == NULL) {
+		/* NoSuchMethodError is pending */
+		(*env)->ExceptionClear(env);
+		free(source);
+		return EINVAL;
+	}
+	source->data = malloc(JAVA_SOURCE_BATCH);
+	if (source->data == NULL || (*env)->GetJavaVM(env, &source->vm) != 0) {
+		free(source->data);
+		free(source);
+		return ENOMEM;
+	}
+	batch = (*env)->NewDirectByteBuffer(env, source->data, JAVA_SOURCE_BATCH);
+	if (batch != NULL) {
+		source->batch = (*env)->NewGlobalRef(env, batch);
+		(*env)->DeleteLocalRef(env, batch);
+	}
+	source->source = (*env)->NewGlobalRef(env, object);
+	if (source->batch == NULL || source->source == NULL) {
+		(*env)->ExceptionClear(env);
+		if (source->batch != NULL) {
+			(*env)->DeleteGlobalRef(env, source->batch);
+		}
+		if (source->source != NULL) {
+			(*env)->DeleteGlobalRef(env, source->source);
+		}
+		free(source->data);
+		free(source);
+		return ENOMEM;
+	}
+	source->total = -1;
+
+	callbacks->read_func = javaRead;
+	/* without seek and tell vorbisfile opens the stream as unseekable */
+	callbacks->seek_func = seekable ? javaSeek : NULL;
+	callbacks->tell_func = seekable ? javaTell : NULL;
+	callbacks->close_func = javaClose;
+	*datasource = source;
+	return 0;
+}
@@ -8,125 +8,249 @@
 #include <stdio.h>
 #include <time.h>
 #include <math.h>
+#include <errno.h>
 
 #include <vorbis/vorbisfile.h>
 #include <stream/util.h>
-
-/* This is arbitrary, If you don't like it, change it */
-#define MAX_INPUTSTREAMS 8
+#include <stream/registry.h>
+#include <stream/source.h>
+#include <stream/pcm.h>
 
 struct input_stream {
-	FILE * 				fh;
+	FILE * 				fh;		/* NULL when read through callbacks */
 	OggVorbis_File 		vf;
 	int					section;
-	int					length;
+	ogg_int64_t			length;
 };
-static struct input_stream input_streams[MAX_INPUTSTREAMS];
 
-jint Java_org_xiph_vorbis_stream_VorbisFileInputStream_create(
-		JNIEnv* env,
-		jobject this,
-		jstring path,
-		jobject info
-		)
-{
-	int ret;	/* Debugging variable */
-	jfieldID channels_field, sample_rate_field, length_field;	/* JNI field ID */
-	jclass cls = (*env)->GetObjectClass(env, info);
-	int stream_idx;
-	struct input_stream * iptr;
-	vorbis_info * vi;
+/* How the seek natives move through the stream */
+#define SEEK_SAMPLE	0
+#define SEEK_TIME	1
 
-	/* Find an unused input_stream */
-	for (stream_idx = 0; stream_idx < MAX_INPUTSTREAMS; stream_idx++) {
-		if (input_streams[stream_idx].fh == NULL) {
-			const jbyte * pchars = (*env)->GetStringUTFChars(env, path, NULL);
-			if (pchars == NULL) {
-				/* Exception Already thrown */
-				return;
-			}
-			/* We found one! */
-			iptr = &input_streams[stream_idx];
-			iptr->fh = fopen(pchars, "r");
-			if (iptr->fh == NULL) {
-				JNU_ThrowByName(env, "java/io/IOException", "Error Creating File Handle", 0);
-				return;
-			}
-			(*env)->ReleaseStringUTFChars(env, path, pchars);
-			break;
-		}
-	}
+/* Samples decoded at a time when an indexed seek decodes forward */
+#define SEEK_CHUNKSIZE	4096
 
-	if (stream_idx == MAX_INPUTSTREAMS) {
-		JNU_ThrowByName(env, "java/io/IOException",
-				"Too Many Vorbis InputStreams", stream_idx);
-		return;
+/* VorbisDecoder.ENGINE_FIXED_POINT */
+#define ENGINE_FIXED_POINT	1
+
+/* Streams live on the heap, the java side holds the registry handle of its
+ * input_stream. Pins the stream until registry_release, see stream/registry.h
+ */
+static struct input_stream * acquireInputStream(JNIEnv* env, jlong handle)
+{
+	struct input_stream * iptr = registry_acquire(handle, REGISTRY_INPUT_STREAM);
+	if (iptr == NULL) {
+		JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Handle", 0);
 	}
+	return iptr;
+}
 
-	/* Open the stream */
-	ret = ov_open(iptr->fh, &iptr->vf, NULL, 0);
-	if (ret < 0) {
-		JNU_ThrowByName(env, "java/io/IOException",
-				"Vorbis File Corrupt", ret);
-		fclose(iptr->fh);
-		iptr->fh = NULL;
-		return;
+/*
+ * ov_read_float for either engine: channels is set to float vectors or, when
+ * the stream decodes in fixed point, to ogg_int32_t vectors of 8.24 ints.
+ */
+static long readChannels(struct input_stream * iptr, int fixed, void *** channels, int length)
+{
+	if (fixed) {
+		return ov_read_fixed(&iptr->vf, (ogg_int32_t ***) channels, length, &iptr->section);
 	}
+	return ov_read_float(&iptr->vf, (float ***) channels, length, &iptr->section);
+}
+
+/*
+ * Registers a freshly opened stream and fills in its VorbisInfo. On failure
+ * the stream is cleared and freed, and 0 is returned.
+ */
+static jlong registerInputStream(JNIEnv* env, struct input_stream * iptr, jobject info)
+{
+	jfieldID channels_field, sample_rate_field, length_field;	/* JNI field ID */
+	jclass cls = (*env)->GetObjectClass(env, info);
+	vorbis_info * vi;
+	jlong handle;
 
 	channels_field = (*env)->GetFieldID(env, cls, "channels", "I");
 	sample_rate_field = (*env)->GetFieldID(env, cls, "sampleRate", "I");
 	length_field = (*env)->GetFieldID(env, cls, "length", "J");
-	if (channels_field == NULL || sample_rate_field == NULL) {
+	if (channels_field == NULL || sample_rate_field == NULL || length_field == NULL) {
 		JNU_ThrowByName(env, "java/lang/Exception",
 				"Native Field Misnamed", 0);
+		/* ov_clear closes the source too */
 		ov_clear(&iptr->vf);
-		fclose(iptr->fh);
-		iptr->fh = NULL;
-		return;
+		free(iptr);
+		return 0;
 	}
 
 	vi = ov_info(&iptr->vf, -1);
 
 	iptr->section = 0;
-	iptr->length = ov_pcm_total(&iptr->vf, -1);
+	/* the length of an unseekable stream isn't known up front */
+	iptr->length = ov_seekable(&iptr->vf) ? ov_pcm_total(&iptr->vf, -1) : -1;
+
+	handle = registry_add(REGISTRY_INPUT_STREAM, iptr);
+	if (handle == 0) {
+		JNU_ThrowByName(env, "java/io/IOException",
+				"Too Many Vorbis InputStreams", 0);
+		ov_clear(&iptr->vf);
+		free(iptr);
+		return 0;
+	}
 
 	/* Populate basic stream info into the VorbisInfo object. */
 	(*env)->SetIntField(env, info, channels_field, vi->channels);
 	(*env)->SetIntField(env, info, sample_rate_field, vi->rate);
 	(*env)->SetLongField(env, info, length_field, iptr->length);
 
+	return handle;
+}
+
+/*
+ * Opens a stream over a source opened with one of the source_open functions.
+ */
+static jlong openSourceStream(JNIEnv* env, jobject info, int error, void * datasource, ov_callbacks callbacks)
+{
+	struct input_stream * iptr;
+	int ret;
+
+	if (error != 0) {
+		JNU_ThrowByName(env, "java/io/IOException", "Error Opening Source", error);
+		return 0;
+	}
+
+	iptr = calloc(1, sizeof(struct input_stream));
+	if (iptr == NULL) {
+		callbacks.close_func(datasource);
+		JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not allocate Vorbis InputStream", BAD_MEM);
+		return 0;
+	}
+
+	ret = ov_open_callbacks(datasource, &iptr->vf, NULL, 0, callbacks);
+	if (ret < 0) {
+		/* a failed ov_open_callbacks leaves the source to us */
+		JNU_ThrowByName(env, "java/io/IOException",
+				"Vorbis File Corrupt", ret);
+		callbacks.close_func(datasource);
+		free(iptr);
+		return 0;
+	}
+	return registerInputStream(env, iptr, info);
+}
+
+jlong Java_org_xiph_vorbis_stream_VorbisFileInputStream_create(
+		JNIEnv* env,
+		jobject this,
+		jstring path,
+		jobject info,
+		jboolean mapped
+		)
+{
+	int ret;	/* Debugging variable */
+	const char * pchars;
+	struct input_stream * iptr;
+
+	pchars = (*env)->GetStringUTFChars(env, path, NULL);
+	if (pchars == NULL) {
+		/* Exception Already thrown */
+		return 0;
+	}
+
+	if (mapped) {
+		void * datasource;
+		ov_callbacks callbacks;
+
+		ret = source_open_mapped(pchars, &datasource, &callbacks);
+		(*env)->ReleaseStringUTFChars(env, path, pchars);
+		return openSourceStream(env, info, ret, datasource, callbacks);
+	}
+
+	iptr = calloc(1, sizeof(struct input_stream));
+	if (iptr == NULL) {
+		(*env)->ReleaseStringUTFChars(env, path, pchars);
+		JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not allocate Vorbis InputStream", BAD_MEM);
+		return 0;
+	}
+
+	iptr->fh = fopen(pchars, "r");
+	(*env)->ReleaseStringUTFChars(env, path, pchars);
+	if (iptr->fh == NULL) {
+		JNU_ThrowByName(env, "java/io/IOException", "Error Creating File Handle", errno);
+		free(iptr);
+		return 0;
+	}
+
+	/* Open the stream */
+	ret = ov_open(iptr->fh, &iptr->vf, NULL, 0);
+	if (ret < 0) {
+		/* a failed ov_open leaves the file handle to us */
+		JNU_ThrowByName(env, "java/io/IOException",
+				"Vorbis File Corrupt", ret);
+		fclose(iptr->fh);
+		free(iptr);
+		return 0;
+	}
+	return registerInputStream(env, iptr, info);
+}
+
+jlong Java_org_xiph_vorbis_stream_VorbisFileInputStream_createFromBuffer(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jobject 	info,
+		jobject 	buffer,
+		jint		offset,
+		jint		length
+		)
+{
+	void * datasource;
+	ov_callbacks callbacks;
+	int error = source_open_buffer(env, buffer, offset, length, &datasource, &callbacks);
+
+	return openSourceStream(env, info, error, datasource, callbacks);
+}
+
+jlong Java_org_xiph_vorbis_stream_VorbisFileInputStream_createFromSource(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jobject 	info,
+		jobject 	source,
+		jboolean	seekable
+		)
+{
+	void * datasource;
+	ov_callbacks callbacks;
+	int error = source_open_java(env, source, seekable, &datasource, &callbacks);
 
-	return stream_idx;
+	return openSourceStream(env, info, error, datasource, callbacks);
 }
 
 jint Java_org_xiph_vorbis_stream_VorbisFileInputStream_readStreamIdx(
 		JNIEnv* 	env,
 		jobject 	this,
-		jint		sidx,
+		jlong		handle,
 		jshortArray pcm,
 		jint 		offset,
 		jint 		length
 		)
 {
 	long ret;
-	struct input_stream * iptr = &input_streams[sidx];
-
-	jshort * pcmShorts 			= (*env)->GetShortArrayElements(env, pcm, NULL);
-	int maxLength				= (*env)->GetArrayLength(env,pcm);
+	struct input_stream * iptr;
+	jshort * pcmShorts;
+	int maxLength;
 
 	/* Do the battery of validation checks. */
+	maxLength = (*env)->GetArrayLength(env,pcm);
 	if (offset + length > maxLength) {
 		JNU_ThrowByName(env, "java/lang/ArrayIndexOutOfBoundsException",
 				"No data was written to the buffer",
 				offset + length - 1);
-		return;
+		return 0;
 	}
 
-	if (sidx >= MAX_INPUTSTREAMS || sidx < 0 || iptr->fh == NULL) {
-		JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Index", sidx);
-		return;
+	iptr = acquireInputStream(env, handle);
+	if (iptr == NULL) {
+		return 0;
 	}
 
+	pcmShorts = (*env)->GetShortArrayElements(env, pcm, NULL);
+
 	if (length > 0) {
 		ret = ov_read(&iptr->vf, (char *)(pcmShorts + offset), length, 0, 2, 1, &iptr->section);
 		/* -1 is EOF */
@@ -135,8 +259,10 @@ jint Java_org_xiph_vorbis_stream_VorbisFileInputStream_readStreamIdx(
 		}
 		else if (ret < 0) {
 			if (ret == OV_EBADLINK) {
+				(*env)->ReleaseShortArrayElements(env, pcm, pcmShorts, JNI_ABORT);
 				JNU_ThrowByName(env, "java/io/IOException", "Corrupt bitstream section!", iptr->section);
-				return;
+				registry_release(handle);
+				return 0;
 			}
 		}
 	}
@@ -146,52 +272,370 @@ jint Java_org_xiph_vorbis_stream_VorbisFileInputStream_readStreamIdx(
 	/* Apparently sample rates can change inside the stream... We may need to account for that. */
 
 	(*env)->ReleaseShortArrayElements(env, pcm, pcmShorts, 0);
+	registry_release(handle);
 	return ret >> 1;
 }
 
-jlong Java_org_xiph_vorbis_stream_VorbisFileInputStream_skipStreamIdx(
+jint Java_org_xiph_vorbis_stream_VorbisFileInputStream_readFloatStreamIdx(
 		JNIEnv* 	env,
-		jobject 	this,
-		jint		sidx,
-		jlong 		offset
+		jclass  	cls,
+		jlong		handle,
+		jfloatArray	pcm,
+		jint 		offset,
+		jint 		length
 		)
 {
-	struct input_stream * iptr = &input_streams[sidx];
+	struct input_stream * iptr;
+	void ** channels;
 	long ret;
-	if (sidx >= MAX_INPUTSTREAMS || sidx < 0 || iptr->fh == NULL) {
-		JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Index", sidx);
-		return;
+	int count = 0, fixed;
+
+	iptr = acquireInputStream(env, handle);
+	if (iptr == NULL) {
+		return 0;
+	}
+	fixed = ov_fixed_p(&iptr->vf) > 0;
+
+	do {
+		/* asking for nothing decodes up to the next pcm without consuming it, so the
+		 * channel count of the link it belongs to is known before we take any */
+		ret = readChannels(iptr, fixed, &channels, 0);
+		if (ret == 0) {
+			count = ov_info(&iptr->vf, -1)->channels;
+			ret = readChannels(iptr, fixed, &channels, length / count);
+		}
+	} while (ret == OV_HOLE);
+
+	if (ret < 0) {
+		JNU_ThrowByName(env, "java/io/IOException", "Read ERROR", ret);
+		registry_release(handle);
+		return 0;
+	}
+	if (ret == 0) {
+		registry_release(handle);
+		/* -1 is EOF, unless the buffer can't hold a sample per channel */
+		return length < count ? 0 : -1;
+	}
+
+	/* interleave straight into the java array */
+	{
+		jfloat * pcmFloats = (*env)->GetPrimitiveArrayCritical(env, pcm, NULL);
+		if (pcmFloats == NULL) {
+			registry_release(handle);
+			return 0;
+		}
+		if (fixed) {
+			pcm_kernels()->interleaveFixed((ogg_int32_t **) channels, count, ret, pcmFloats + offset);
+		}
+		else {
+			pcm_kernels()->interleave((float **) channels, count, ret, pcmFloats + offset);
+		}
+		(*env)->ReleasePrimitiveArrayCritical(env, pcm, pcmFloats, 0);
+	}
+
+	registry_release(handle);
+	return ret * count;
+}
+
+jint Java_org_xiph_vorbis_stream_VorbisFileInputStream_readPlanarStreamIdx(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jlong		handle,
+		jobjectArray	pcm,
+		jint 		offset,
+		jint 		length
+		)
+{
+	struct input_stream * iptr;
+	void ** channels;
+	long ret;
+	int count = 0, fixed, i;
+
+	iptr = acquireInputStream(env, handle);
+	if (iptr == NULL) {
+		return 0;
+	}
+	fixed = ov_fixed_p(&iptr->vf) > 0;
+
+	do {
+		/* see readFloatStreamIdx, learn the channel count before taking any pcm */
+		ret = readChannels(iptr, fixed, &channels, 0);
+		if (ret == 0) {
+			count = ov_info(&iptr->vf, -1)->channels;
+			if ((*env)->GetArrayLength(env, pcm) < count) {
+				JNU_ThrowByName(env, "java/lang/IllegalArgumentException", "PCM buffer has fewer channels than the stream", count);
+				registry_release(handle);
+				return 0;
+			}
+			ret = readChannels(iptr, fixed, &channels, length);
+		}
+	} while (ret == OV_HOLE);
+
+	if (ret < 0) {
+		JNU_ThrowByName(env, "java/io/IOException", "Read ERROR", ret);
+		registry_release(handle);
+		return 0;
+	}
+	if (ret == 0) {
+		registry_release(handle);
+		return length == 0 ? 0 : -1;
 	}
 
-	ret = ov_pcm_seek_lap(&iptr->vf, offset);
+	/* vorbisfile's pcm is planar already, one copy per channel, fixed point
+	 * channels are scaled straight into the java arrays */
+	for (i = 0; i < count; i++) {
+		jfloatArray channel = (*env)->GetObjectArrayElement(env, pcm, i);
+		if (fixed) {
+			jfloat * mono = (*env)->GetPrimitiveArrayCritical(env, channel, NULL);
+			if (mono == NULL) {
+				(*env)->DeleteLocalRef(env, channel);
+				registry_release(handle);
+				return 0;
+			}
+			pcm_kernels()->interleaveFixed((ogg_int32_t **) channels + i, 1, ret, mono + offset);
+			(*env)->ReleasePrimitiveArrayCritical(env, channel, mono, 0);
+		}
+		else {
+			(*env)->SetFloatArrayRegion(env, channel, offset, ret, channels[i]);
+		}
+		(*env)->DeleteLocalRef(env, channel);
+	}
+
+	registry_release(handle);
+	return ret;
+}
+
+/*
+ * Seeks to a sample or time, either exactly or to the start of the page
+ * holding it, and returns the sample we ended up at.
+ */
+static jlong seekInputStream(
+		JNIEnv* 	env,
+		jlong		handle,
+		int			type,
+		jlong		sample,
+		jdouble		seconds,
+		jboolean	exact
+		)
+{
+	struct input_stream * iptr = acquireInputStream(env, handle);
+	long ret;
+	jlong position;
+	if (iptr == NULL) {
+		return 0;
+	}
+
+	if (type == SEEK_TIME) {
+		ret = exact ? ov_time_seek(&iptr->vf, seconds) : ov_time_seek_page(&iptr->vf, seconds);
+	}
+	else {
+		ret = exact ? ov_pcm_seek(&iptr->vf, sample) : ov_pcm_seek_page(&iptr->vf, sample);
+	}
+	position = ov_pcm_tell(&iptr->vf);
+	registry_release(handle);
 
 	if (ret == OV_EREAD) {
 		JNU_ThrowByName(env, "java/io/IOException", "Read ERROR", ret);
-		return;
+		return 0;
+	}
+	else if (ret != 0){
+		JNU_ThrowByName(env, "java/io/IOException", "Vorbis Seek Error code: ", ret);
+		return 0;
+	}
+
+	return position;
+}
+
+jlong Java_org_xiph_vorbis_stream_VorbisFileInputStream_seekStreamIdx(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jlong		handle,
+		jlong 		sample,
+		jboolean	exact
+		)
+{
+	return seekInputStream(env, handle, SEEK_SAMPLE, sample, 0, exact);
+}
+
+jlong Java_org_xiph_vorbis_stream_VorbisFileInputStream_seekTimeStreamIdx(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jlong		handle,
+		jdouble 	seconds,
+		jboolean	exact
+		)
+{
+	return seekInputStream(env, handle, SEEK_TIME, 0, seconds, exact);
+}
+
+/*
+ * Seeks to a sample through a page offset looked up in a seek index. The
+ * page must end at or before the sample. Rather than bisecting the file
+ * vorbisfile jumps straight to the page, and an exact seek decodes forward
+ * from there.
+ */
+jlong Java_org_xiph_vorbis_stream_VorbisFileInputStream_seekIndexedStreamIdx(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jlong		handle,
+		jlong		pageOffset,
+		jlong 		sample,
+		jboolean	exact
+		)
+{
+	struct input_stream * iptr = acquireInputStream(env, handle);
+	long ret;
+	jlong position;
+	int fixed;
+	if (iptr == NULL) {
+		return 0;
+	}
+
+	fixed = ov_fixed_p(&iptr->vf) > 0;
+	ret = ov_raw_seek(&iptr->vf, pageOffset);
+	position = ov_pcm_tell(&iptr->vf);
+	if (ret == 0 && position > sample) {
+		/* the index doesn't fit the file, fall back to bisecting */
+		ret = exact ? ov_pcm_seek(&iptr->vf, sample) : ov_pcm_seek_page(&iptr->vf, sample);
+		position = ov_pcm_tell(&iptr->vf);
+	}
+
+	/* decode up to the sample, dropping the pcm without converting it */
+	while (ret == 0 && exact && position < sample) {
+		void ** pcm;
+		ogg_int64_t samples = sample - position;
+		if (samples > SEEK_CHUNKSIZE) {
+			samples = SEEK_CHUNKSIZE;
+		}
+		ret = readChannels(iptr, fixed, &pcm, samples);
+		if (ret == OV_HOLE) {
+			/* a gap in the data, keep going */
+			ret = 0;
+		}
+		else if (ret == 0) {
+			/* the index pointed past the end */
+			ret = OV_EINVAL;
+			break;
+		}
+		else if (ret > 0) {
+			ret = 0;
+		}
+		position = ov_pcm_tell(&iptr->vf);
+	}
+	registry_release(handle);
+
+	if (ret == OV_EREAD) {
+		JNU_ThrowByName(env, "java/io/IOException", "Read ERROR", ret);
+		return 0;
 	}
 	else if (ret != 0){
 		JNU_ThrowByName(env, "java/io/IOException", "Vorbis Seek Error code: ", ret);
+		return 0;
+	}
+
+	return position;
+}
+
+jlong Java_org_xiph_vorbis_stream_VorbisFileInputStream_tellStreamIdx(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jlong		handle
+		)
+{
+	struct input_stream * iptr = acquireInputStream(env, handle);
+	jlong position;
+	if (iptr == NULL) {
+		return 0;
+	}
+
+	position = ov_pcm_tell(&iptr->vf);
+	registry_release(handle);
+	return position;
+}
+
+/*
+ * Switches between the float and the fixed point decode engine. vorbisfile
+ * dumps the decoder and seeks back to where it was, so the next read carries
+ * on from the same sample.
+ */
+void Java_org_xiph_vorbis_stream_VorbisFileInputStream_engineStreamIdx(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jlong		handle,
+		jint		engine
+		)
+{
+	struct input_stream * iptr = acquireInputStream(env, handle);
+	int ret;
+	if (iptr == NULL) {
 		return;
 	}
 
-	return ret;
+	ret = ov_fixed(&iptr->vf, engine == ENGINE_FIXED_POINT);
+	registry_release(handle);
 
+	if (ret != 0) {
+		JNU_ThrowByName(env, "java/io/IOException", "Stream can't be decoded with this engine", ret);
+	}
+}
+
+/*
+ * Lists the chained links of a seekable stream, which vorbisfile tells apart
+ * by the serial numbers of their pages. Each link takes three longs: its
+ * length in samples, its channels and its sample rate.
+ */
+jlongArray Java_org_xiph_vorbis_stream_VorbisFileInputStream_linksStreamIdx(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jlong		handle
+		)
+{
+	struct input_stream * iptr = acquireInputStream(env, handle);
+	jlongArray links;
+	jlong * values;
+	int count, i;
+	if (iptr == NULL) {
+		return NULL;
+	}
+
+	count = ov_streams(&iptr->vf);
+	values = malloc(count * 3 * sizeof(jlong));
+	if (values == NULL) {
+		registry_release(handle);
+		JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not list Vorbis links", BAD_MEM);
+		return NULL;
+	}
+	for (i = 0; i < count; i++) {
+		vorbis_info * vi = ov_info(&iptr->vf, i);
+		values[3 * i] = ov_pcm_total(&iptr->vf, i);
+		values[3 * i + 1] = vi->channels;
+		values[3 * i + 2] = vi->rate;
+	}
+	registry_release(handle);
+
+	links = (*env)->NewLongArray(env, count * 3);
+	if (links != NULL) {
+		(*env)->SetLongArrayRegion(env, links, 0, count * 3, values);
+	}
+	free(values);
+	return links;
 }
 
 void Java_org_xiph_vorbis_stream_VorbisFileInputStream_closeStreamIdx(
 		JNIEnv* 	env,
-		jobject 	this,
-		jint		sidx
+		jclass  	cls,
+		jlong		handle
 		)
 {
-	struct input_stream * iptr = &input_streams[sidx];
-	if (sidx >= MAX_INPUTSTREAMS || sidx < 0 || iptr->fh == NULL) {
-		JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Index", sidx);
+	/* waits for any read still using the stream */
+	struct input_stream * iptr = registry_remove(handle, REGISTRY_INPUT_STREAM);
+	if (iptr == NULL) {
+		JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Handle", 0);
 		return;
 	}
+	/* ov_clear closes the file handle or source too */
 	ov_clear(&iptr->vf);
-	fclose(iptr->fh);
-	iptr->fh = NULL;
+	free(iptr);
 }
 
 
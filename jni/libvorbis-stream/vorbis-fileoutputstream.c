@@ -2,8 +2,9 @@
  *
  * The Java interface (a la outputstream) for vorbis encoding.  This acts
  * roughly the way I would expect a Java OutputStream to act. I didn't bother
- * trying to SWIG anythign around between the native world and java. In fact,
- * I jsut have a statically allocate array to store data in here.
+ * trying to SWIG anythign around between the native world and java. Each
+ * stream's state is allocated on the heap and java holds on to its registry
+ * handle.
  *
  * http://svn.xiph.org/trunk/vorbis/examples/encoder_example.c
  */
@@ -16,33 +17,45 @@
 
 #include <vorbis/vorbisenc.h>
 #include <stream/util.h>
+#include <stream/registry.h>
+#include <stream/pcm.h>
+#include <stream/analysis-pool.h>
+#include <stream/context-pool.h>
 
 /* I really don't want to figure out what vorbis is storing in their structs.
- * Let's just store it all in this here array and call it good.
+ * Let's just store it all in this here struct and call it good.
  */
 
-/* This is arbitrary, If you don't like it, change it */
-#define MAX_OUTPUTSTREAMS 4
 #define MAX_VORBIS_CHUNKSIZE 1024
 
 struct output_stream {
     FILE * 				fh;
-    vorbis_info 		vi;
+    struct encoder_context *	context;
     vorbis_comment 		vc;
-    vorbis_dsp_state 	vd;
-    vorbis_block 		vb;
+    struct analysis_pool *	pool;
     ogg_stream_state 	os;
     ogg_page 			og;
     ogg_packet 			op;
     int 				channels;
 };
-static struct output_stream output_streams[MAX_OUTPUTSTREAMS];
+
+/* The java side holds the registry handle of its output_stream. Pins the
+ * stream until registry_release, see stream/registry.h
+ */
+static struct output_stream * acquireOutputStream(JNIEnv* env, jlong handle)
+{
+    struct output_stream * optr = registry_acquire(handle, REGISTRY_OUTPUT_STREAM);
+    if (optr == NULL) {
+        JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Handle", 0);
+    }
+    return optr;
+}
 
 /* Based on code from:
  * http://svn.xiph.org/trunk/vorbis/examples/encoder_example.c
  * Returns a pointer to the stream struct related to that current vorbis file.
  */
-jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_create(
+jlong Java_org_xiph_vorbis_stream_VorbisFileOutputStream_create(
         JNIEnv* env,
         jobject this,
         jstring path,
@@ -53,7 +66,7 @@ jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_create(
     struct output_stream * optr = NULL;
 
     /* JNI field ID's */
-    jfieldID channels_field, sample_rate_field, quality_field;
+    jfieldID channels_field, sample_rate_field, quality_field, threads_field;
     jclass cls = (*env)->GetObjectClass(env, info);
 
     /* packet stream structs */
@@ -62,41 +75,33 @@ jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_create(
     ogg_packet header_code;
 
     int ret; /* Return code storage for function calls */
-    int eos = 0; /* End of Stream */
-    int stream_idx;
     int sample_rate;
     float quality;
-
-    /* Find an unused output_stream */
-    for (stream_idx = 0; stream_idx < MAX_OUTPUTSTREAMS; stream_idx++) {
-        if (output_streams[stream_idx].fh == NULL) {
-            const jbyte * pchars = (*env)->GetStringUTFChars(env, path, NULL);
-            if (pchars == NULL) {
-                /* Exception Already thrown */
-                return;
-            }
-            /* We found one! */
-            optr = &output_streams[stream_idx];
-            optr->fh = fopen(pchars, "w");
-            if (optr->fh == NULL) {
-                char * message = "Error Creating File Handle. ";
-                JNU_ThrowByName(env, "java/io/IOException", message, errno);
-                return;
-            }
-            (*env)->ReleaseStringUTFChars(env, path, pchars);
-            break;
-        }
+    int threads;
+    const char * pchars;
+    jlong handle;
+
+    pchars = (*env)->GetStringUTFChars(env, path, NULL);
+    if (pchars == NULL) {
+        /* Exception Already thrown */
+        return 0;
     }
-    if (stream_idx == MAX_OUTPUTSTREAMS) {
-        JNU_ThrowByName(env, "java/io/IOException",
-                "Too Many Vorbis OutputStreams", stream_idx);
-        return;
+
+    optr = calloc(1, sizeof(struct output_stream));
+    if (optr == NULL) {
+        (*env)->ReleaseStringUTFChars(env, path, pchars);
+        JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not allocate Vorbis OutputStream", BAD_MEM);
+        return 0;
     }
 
-    /* Step 1. According to documented workflow.
-     * http://xiph.org/vorbis/doc/libvorbis/overview.html
-     */
-    vorbis_info_init(&optr->vi);
+    optr->fh = fopen(pchars, "w");
+    (*env)->ReleaseStringUTFChars(env, path, pchars);
+    if (optr->fh == NULL) {
+        char * message = "Error Creating File Handle. ";
+        JNU_ThrowByName(env, "java/io/IOException", message, errno);
+        free(optr);
+        return 0;
+    }
 
     /* TODO: make these options passed in. We definitely don't need stereo
      * most of the time.
@@ -104,23 +109,34 @@ jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_create(
     channels_field = (*env)->GetFieldID(env, cls, "channels", "I");
     sample_rate_field = (*env)->GetFieldID(env, cls, "sampleRate", "I");
     quality_field = (*env)->GetFieldID(env, cls, "quality", "F");
+    threads_field = (*env)->GetFieldID(env, cls, "analysisThreads", "I");
 
     optr->channels = (*env)->GetIntField(env, info, channels_field);
     sample_rate = (*env)->GetIntField(env, info, sample_rate_field);
     quality = (*env)->GetFloatField(env, info, quality_field);
+    threads = (*env)->GetIntField(env, info, threads_field);
 
-    /* TODO: Optimize this for speed more? */
-    ret = vorbis_encode_init_vbr(&optr->vi,optr->channels,sample_rate,quality);
-
-    if (ret) {
+    /* Steps 1 and 2 of the documented workflow, vorbis_encode_init_vbr and
+     * vorbis_analysis_init, unless a stream set up the same way left its
+     * context behind.
+     * http://xiph.org/vorbis/doc/libvorbis/overview.html
+     */
+    optr->context = context_pool_acquire(CONTEXT_POOL_WITH_QUALITY, optr->channels, sample_rate, quality, 0, &ret);
+    if (optr->context == NULL) {
         JNU_ThrowByName(env, "java/io/IOException", "Bad Encoding options", ret);
         fclose(optr->fh);
-        return;
+        free(optr);
+        return 0;
     }
 
-    /* Step 2. */
-    vorbis_analysis_init(&optr->vd, &optr->vi);
-    vorbis_block_init(&optr->vd, &optr->vb);
+    optr->pool = analysis_pool_create(&optr->context->vd, threads);
+    if (optr->pool == NULL) {
+        JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not allocate Vorbis OutputStream", BAD_MEM);
+        context_pool_release(optr->context);
+        fclose(optr->fh);
+        free(optr);
+        return 0;
+    }
 
     /* Step 3. */
     vorbis_comment_init(&optr->vc);
@@ -129,19 +145,18 @@ jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_create(
     srand(time(NULL));
     ogg_stream_init(&optr->os, rand());
 
-    ret = vorbis_analysis_headerout(&optr->vd, &optr->vc, &header, &header_comm,
+    ret = vorbis_analysis_headerout(&optr->context->vd, &optr->vc, &header, &header_comm,
             &header_code);
 
     if (ret) {
         JNU_ThrowByName(env, "java/io/IOException", "header init error", ret);
         ogg_stream_clear(&optr->os);
-        vorbis_block_clear(&optr->vb);
-        vorbis_dsp_clear(&optr->vd);
+        analysis_pool_free(optr->pool);
+        context_pool_release(optr->context);
         vorbis_comment_clear(&optr->vc);
-        vorbis_info_clear(&optr->vi);
         fclose(optr->fh);
-        optr->fh = NULL;
-        return;
+        free(optr);
+        return 0;
     }
 
     ogg_stream_packetin(&optr->os, &header); /* placed in its own page */
@@ -159,7 +174,46 @@ jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_create(
         fwrite(optr->og.header, 1, optr->og.header_len, optr->fh);
         fwrite(optr->og.body, 1, optr->og.body_len, optr->fh);
     }
-    return stream_idx;
+
+    handle = registry_add(REGISTRY_OUTPUT_STREAM, optr);
+    if (handle == 0) {
+        JNU_ThrowByName(env, "java/io/IOException",
+                "Too Many Vorbis OutputStreams", 0);
+        ogg_stream_clear(&optr->os);
+        analysis_pool_free(optr->pool);
+        context_pool_release(optr->context);
+        vorbis_comment_clear(&optr->vc);
+        fclose(optr->fh);
+        free(optr);
+        return 0;
+    }
+    return handle;
+}
+
+/* Encodes the samples just written to the analysis buffer and writes out
+ * whatever pages are done.
+ */
+static void encodeWritten(struct output_stream * optr, int samples)
+{
+    vorbis_analysis_wrote(&optr->context->vd, samples);
+
+    /* vorbis does some data preanalysis, then divvies up blocks for
+       more involved (potentially parallel) processing.  The pool
+       analyses them on its threads and hands them back in order */
+    while (analysis_pool_blockout(optr->pool) == 1) {
+
+        while (vorbis_bitrate_flushpacket(&optr->context->vd, &optr->op)) {
+
+            /* weld the packet into the bitstream */
+            ogg_stream_packetin(&optr->os, &optr->op);
+
+            /* write out pages (if any) */
+            while (ogg_stream_pageout(&optr->os, &optr->og) != 0) {
+                fwrite(optr->og.header, 1, optr->og.header_len, optr->fh);
+                fwrite(optr->og.body, 1, optr->og.body_len, optr->fh);
+            }
+        }
+    }
 }
 
 /* Write out to the file handle
@@ -168,32 +222,33 @@ jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_create(
 jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_writeStreamIdx(
         JNIEnv* env,
         jobject this,
-        jint sidx,
+        jlong handle,
         jshortArray pcm,
         jint offset,
         jint length
         )
 {
 
-    jshort * pcmShorts 			= (*env)->GetShortArrayElements(env, pcm, NULL);
-    int maxLength				= (*env)->GetArrayLength(env,pcm);
-    struct output_stream * optr = &output_streams[sidx];
+    struct output_stream * optr;
+    jshort * pcmShorts;
+    int maxLength;
     int channels;
-    int i,j;
-    int eos = 0;
+    int i;
 
+    maxLength = (*env)->GetArrayLength(env,pcm);
     if (offset + length > maxLength) {
         JNU_ThrowByName(env, "java/lang/ArrayIndexOutOfBoundsException",
                 "No data was read from the buffer",
                 offset + length - 1);
-        return;
+        return 0;
     }
-    if (sidx >= MAX_OUTPUTSTREAMS || sidx < 0 || optr->fh == NULL) {
-        JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Index",
-                sidx);
-        return;
+    optr = acquireOutputStream(env, handle);
+    if (optr == NULL) {
+        return 0;
     }
 
+    pcmShorts = (*env)->GetShortArrayElements(env, pcm, NULL);
+
     channels = optr->channels;
 
     while (length > 0) {
@@ -207,74 +262,86 @@ jint Java_org_xiph_vorbis_stream_VorbisFileOutputStream_writeStreamIdx(
         if (chunksize > MAX_VORBIS_CHUNKSIZE) chunksize = MAX_VORBIS_CHUNKSIZE;
 
         /* expose the buffer to submit data */
-        float ** buffer = vorbis_analysis_buffer(&optr->vd, chunksize);
+        float ** buffer = vorbis_analysis_buffer(&optr->context->vd, chunksize);
 
         /* uninterleave samples */
-        for (i = 0; i < chunksize / channels; i++) {
-            for (j = 0; j < channels; j++) {
-                buffer[j][i] = pcmShorts[i*channels + j + offset] / 32768.f;
-            }
-        }
+        i = chunksize / channels;
+        pcm_kernels()->dequantize(pcmShorts + offset, channels, i, buffer);
 
         /* tell the library how much we actually submitted */
-        vorbis_analysis_wrote(&optr->vd, i);
+        encodeWritten(optr, i);
 
         length -= i*channels;
         offset += i*channels;
+    }
+    (*env)->ReleaseShortArrayElements(env, pcm, pcmShorts, JNI_ABORT);
+    registry_release(handle);
+    return 0;
+}
 
-        /* vorbis does some data preanalysis, then divvies up blocks for
-           more involved (potentially parallel) processing.  Get a single
-           block for encoding now */
-        while (vorbis_analysis_blockout(&optr->vd, &optr->vb) == 1) {
-
-            /* analysis, assume we want to use bitrate management */
-            vorbis_analysis(&optr->vb, NULL);
-            vorbis_bitrate_addblock(&optr->vb);
-
-            while (vorbis_bitrate_flushpacket(&optr->vd, &optr->op)) {
-
-                /* weld the packet into the bitstream */
-                ogg_stream_packetin(&optr->os, &optr->op);
+/* Write planar float pcm, one java array per channel, out to the file handle.
+ * The arrays were checked on the java side.
+ */
+void Java_org_xiph_vorbis_stream_VorbisFileOutputStream_writePlanarStreamIdx(
+        JNIEnv* env,
+        jclass cls,
+        jlong handle,
+        jobjectArray pcm,
+        jint offset,
+        jint length
+        )
+{
+    struct output_stream * optr;
+    jfloatArray channelArrays[255];
+    int i;
 
-                /* write out pages (if any) */
-                while (!eos) {
-                    int result = ogg_stream_pageout(&optr->os, &optr->og);
-                    if (result == 0)
-                        break;
-                    fwrite(optr->og.header, 1, optr->og.header_len, optr->fh);
-                    fwrite(optr->og.body, 1, optr->og.body_len, optr->fh);
+    optr = acquireOutputStream(env, handle);
+    if (optr == NULL) {
+        return;
+    }
 
-                    /* this could be set above, but for illustrative purposes, I do
-                       it here (to show that vorbis does know where the stream ends) */
+    for (i = 0; i < optr->channels; i++) {
+        channelArrays[i] = (*env)->GetObjectArrayElement(env, pcm, i);
+    }
+    while (length > 0) {
+        int chunksize = length;
+        if (chunksize > MAX_VORBIS_CHUNKSIZE) chunksize = MAX_VORBIS_CHUNKSIZE;
 
-                    if (ogg_page_eos(&optr->og))
-                        eos = 1;
-                }
-            }
+        /* planar pcm is already laid out the way vorbis wants it */
+        float ** buffer = vorbis_analysis_buffer(&optr->context->vd, chunksize);
+        for (i = 0; i < optr->channels; i++) {
+            (*env)->GetFloatArrayRegion(env, channelArrays[i], offset, chunksize, buffer[i]);
         }
+        encodeWritten(optr, chunksize);
+
+        length -= chunksize;
+        offset += chunksize;
     }
-    (*env)->ReleaseShortArrayElements(env, pcm, pcmShorts, JNI_ABORT);
+    for (i = 0; i < optr->channels; i++) {
+        (*env)->DeleteLocalRef(env, channelArrays[i]);
+    }
+    registry_release(handle);
 }
+
 /*
  * Clean up stream info.
  */
 void Java_org_xiph_vorbis_stream_VorbisFileOutputStream_closeStreamIdx(
         JNIEnv* env,
-        jobject this,
-        jint sidx
+        jclass cls,
+        jlong handle
         )
 {
-    struct output_stream * optr = &output_streams[sidx];
-    if (sidx >= MAX_OUTPUTSTREAMS || sidx < 0 || optr->fh == NULL) {
-        JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Index", sidx);
+    /* waits for any write still using the stream */
+    struct output_stream * optr = registry_remove(handle, REGISTRY_OUTPUT_STREAM);
+    if (optr == NULL) {
+        JNU_ThrowByName(env, "java/io/IOException", "Invalid Stream Handle", 0);
         return;
     }
-    vorbis_analysis_wrote(&optr->vd, 0);
+    vorbis_analysis_wrote(&optr->context->vd, 0);
 
-    while (vorbis_analysis_blockout(&optr->vd, &optr->vb) == 1) {
-        vorbis_analysis(&optr->vb, NULL);
-        vorbis_bitrate_addblock(&optr->vb);
-        while (vorbis_bitrate_flushpacket(&optr->vd, &optr->op)) {
+    while (analysis_pool_blockout(optr->pool) == 1) {
+        while (vorbis_bitrate_flushpacket(&optr->context->vd, &optr->op)) {
             ogg_stream_packetin(&optr->os, &optr->op);
         }
     }
@@ -285,11 +352,47 @@ void Java_org_xiph_vorbis_stream_VorbisFileOutputStream_closeStreamIdx(
     }
 
     ogg_stream_clear(&optr->os);
-    vorbis_block_clear(&optr->vb);
-    vorbis_dsp_clear(&optr->vd);
+    analysis_pool_free(optr->pool);
+    context_pool_release(optr->context);
     vorbis_comment_clear(&optr->vc);
-    vorbis_info_clear(&optr->vi);
     fclose(optr->fh);
-    optr->fh = NULL;
+    free(optr);
 }
 
+
+/* Changes how many idle encoder contexts the pool of this library keeps.
+ */
+void Java_org_xiph_vorbis_stream_VorbisFileOutputStream_contextPoolCapacity(
+        JNIEnv* env,
+        jclass cls,
+        jint capacity
+        )
+{
+    context_pool_set_capacity(capacity);
+}
+
+/* Returns the hits, misses, evictions, idle contexts and capacity of the
+ * pool of this library, NULL if out of memory.
+ */
+jlongArray Java_org_xiph_vorbis_stream_VorbisFileOutputStream_contextPoolStats(
+        JNIEnv* env,
+        jclass cls
+        )
+{
+    struct context_pool_stats stats;
+    jlong values[5];
+    jlongArray array;
+
+    context_pool_get_stats(&stats);
+    values[0] = stats.hits;
+    values[1] = stats.misses;
+    values[2] = stats.evictions;
+    values[3] = stats.idle;
+    values[4] = stats.capacity;
+
+    array = (*env)->NewLongArray(env, 5);
+    if (array != NULL) {
+        (*env)->SetLongArrayRegion(env, array, 0, 5, values);
+    }
+    return array;
+}
@@ -0,0 +1,381 @@
+/**
+ * 	Reads what a library scanner wants to know about an ogg vorbis file, see
+ * 	VorbisProbe.java. Only the pages up to the first audio page and the last
+ * 	page of the file are read, and nothing is set up for decoding. The setup
+ * 	header is only unpacked for the block sizes that tell where the pcm
+ * 	starts, see stream/link-start.h.
+ */
+
+#include <jni.h>
+#include <stdlib.h>
+#include <string.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <unistd.h>
+#include <sys/stat.h>
+
+#include <ogg/ogg.h>
+#include <vorbis/codec.h>
+#include <stream/util.h>
+#include <stream/link-start.h>
+
+#define PROBE_CHUNKSIZE 4096
+/* a page is at most 65307 bytes */
+#define PROBE_MAX_PAGE 65536
+
+/* The values handed back with the comments, see VorbisProbe.java */
+enum {
+	PROBE_CHANNELS,
+	PROBE_SAMPLE_RATE,
+	PROBE_BITRATE_UPPER,
+	PROBE_BITRATE_NOMINAL,
+	PROBE_BITRATE_LOWER,
+	PROBE_LENGTH,
+	PROBE_SOURCE_LENGTH,
+	PROBE_VALUES
+};
+
+/* A file, a direct buffer or a byte array to read from */
+struct probe_source {
+	JNIEnv *		env;
+	int				fd;			/* the file, or -1 */
+	const char *	data;		/* the direct buffer, or NULL */
+	jbyteArray		array;		/* the byte array, or NULL */
+	long			start;		/* where the data starts in the buffer or array */
+	long			length;
+};
+
+/* Reads up to bytes from offset on, returns the number read or -1 with errno set */
+static long readAt(struct probe_source * source, long offset, char * buffer, long bytes)
+{
+	long ret;
+
+	if (offset >= source->length) {
+		return 0;
+	}
+	if (bytes > source->length - offset) {
+		bytes = source->length - offset;
+	}
+	if (source->fd >= 0) {
+		do {
+			ret = pread(source->fd, buffer, bytes, offset);
+		} while (ret < 0 && errno == EINTR);
+		return ret;
+	}
+	if (source->array != NULL) {
+		/* the bounds were checked in java */
+		(*source->env)->GetByteArrayRegion(source->env, source->array,
+				source->start + offset, bytes, (jbyte *) buffer);
+		return bytes;
+	}
+	memcpy(buffer, source->data + source->start + offset, bytes);
+	return bytes;
+}
+
+/* Whether a beginning of stream page starts a vorbis logical stream */
+static int isVorbisHeader(ogg_page * og)
+{
+	return og->body_len >= 7 && og->body[0] == 0x01 && memcmp(og->body + 1, "vorbis", 6) == 0;
+}
+
+/*
+ * Reads the headers of the first vorbis stream into ls, its serial number
+ * and the granule position its pcm starts at, 0 if the stream ends first.
+ * Returns 0, an errno value if reading fails, OV_ENOTVORBIS if there is no
+ * vorbis stream or OV_EBADHEADER if its headers are broken.
+ */
+static int readHeaders(struct probe_source * source, struct link_start * ls, int * serial, ogg_int64_t * start)
+{
+	ogg_sync_state oy;
+	ogg_page og;
+	long offset = 0;
+	long chunk = PROBE_CHUNKSIZE;
+	int inStream = 0;
+	int found = 0;
+	int ret = 0;
+
+	*start = 0;
+	ogg_sync_init(&oy);
+	while (!found) {
+		int result = ogg_sync_pageout(&oy, &og);
+
+		if (result < 0) {
+			/* skipped over bytes that aren't a page */
+			continue;
+		}
+		if (result == 0) {
+			char * buffer;
+			long bytes;
+
+			/* don't read through a whole file that isn't ogg vorbis */
+			if (!inStream && offset >= PROBE_MAX_PAGE) {
+				break;
+			}
+			buffer = ogg_sync_buffer(&oy, chunk);
+			bytes = readAt(source, offset, buffer, chunk);
+			if (bytes < 0) {
+				ret = errno;
+				break;
+			}
+			if (bytes == 0) {
+				break;
+			}
+			ogg_sync_wrote(&oy, bytes);
+			offset += bytes;
+			/* fewer reads for long comments, e.g. embedded cover art */
+			if (chunk < PROBE_MAX_PAGE) {
+				chunk *= 2;
+			}
+			continue;
+		}
+
+		if (!inStream) {
+			if (!ogg_page_bos(&og)) {
+				/* past the beginning of stream pages of the first link */
+				break;
+			}
+			if (!isVorbisHeader(&og)) {
+				continue;
+			}
+			*serial = ogg_page_serialno(&og);
+			ogg_stream_reset_serialno(&ls->os, *serial);
+			inStream = 1;
+		}
+		if (ogg_page_serialno(&og) != *serial) {
+			if (ogg_page_bos(&og)) {
+				/* the next link, the stream ended without audio */
+				break;
+			}
+			continue;
+		}
+		found = link_start_pagein(ls, &og, start);
+		if (found < 0) {
+			ret = OV_EBADHEADER;
+			break;
+		}
+		if (ogg_page_eos(&og)) {
+			break;
+		}
+	}
+	/* the comments are all that is needed of a stream without audio */
+	if (ret == 0 && ls->headers < 2) {
+		ret = inStream ? OV_EBADHEADER : OV_ENOTVORBIS;
+	}
+
+	ogg_sync_clear(&oy);
+	return ret;
+}
+
+/*
+ * Finds the granule position of the last page of the file, the end of the
+ * stream if the page belongs to it. It is -1 if the last page belongs to
+ * another stream, the last link of a chained file or a stream multiplexed
+ * with this one. Returns 0, or an errno value if reading fails.
+ */
+static int readLength(struct probe_source * source, int serial, ogg_int64_t * length)
+{
+	ogg_sync_state oy;
+	ogg_page og;
+	long window = 2 * PROBE_CHUNKSIZE;
+	int ret = 0;
+
+	*length = -1;
+	ogg_sync_init(&oy);
+	while (1) {
+		long begin = source->length > window ? source->length - window : 0;
+		char * buffer = ogg_sync_buffer(&oy, source->length - begin);
+		long bytes = readAt(source, begin, buffer, source->length - begin);
+		int found = 0;
+		long skipped;
+
+		if (bytes < 0) {
+			ret = errno;
+			break;
+		}
+		ogg_sync_wrote(&oy, bytes);
+		while ((skipped = ogg_sync_pageseek(&oy, &og)) != 0) {
+			/* skipped bytes aren't a page, pages no packet ends on are at -1 */
+			if (skipped < 0 || ogg_page_granulepos(&og) == -1) {
+				continue;
+			}
+			found = 1;
+			*length = ogg_page_serialno(&og) == serial ? ogg_page_granulepos(&og) : -1;
+		}
+		/* twice the largest page holds at least one whole page */
+		if (found || begin == 0 || window >= 2 * PROBE_MAX_PAGE) {
+			break;
+		}
+		window *= 2;
+		ogg_sync_reset(&oy);
+	}
+	ogg_sync_clear(&oy);
+	return ret;
+}
+
+/* Returns the vendor and the comments as UTF-8 byte arrays, NULL with an exception pending on failure */
+static jobjectArray newCommentArray(JNIEnv * env, vorbis_comment * vc)
+{
+	jclass cls = (*env)->FindClass(env, "[B");
+	jobjectArray comments;
+	int i;
+
+	if (cls == NULL) {
+		return NULL;
+	}
+	comments = (*env)->NewObjectArray(env, vc->comments + 1, cls, NULL);
+	(*env)->DeleteLocalRef(env, cls);
+	if (comments == NULL) {
+		return NULL;
+	}
+	for (i = -1; i < vc->comments; i++) {
+		const char * chars = i < 0 ? vc->vendor : vc->user_comments[i];
+		int length = i < 0 ? (chars != NULL ? strlen(chars) : 0) : vc->comment_lengths[i];
+		jbyteArray bytes = (*env)->NewByteArray(env, length);
+
+		if (bytes == NULL) {
+			return NULL;
+		}
+		(*env)->SetByteArrayRegion(env, bytes, 0, length, (const jbyte *) chars);
+		(*env)->SetObjectArrayElement(env, comments, i + 1, bytes);
+		(*env)->DeleteLocalRef(env, bytes);
+	}
+	return comments;
+}
+
+/*
+ * Probes a source, filling in values and returning the vendor and comments.
+ * Throws an IOException and returns NULL if the source can't be read or isn't
+ * ogg vorbis.
+ */
+static jobjectArray probe(JNIEnv * env, struct probe_source * source, jlongArray values)
+{
+	struct link_start ls;
+	ogg_int64_t start, length;
+	jlong result[PROBE_VALUES];
+	jobjectArray comments = NULL;
+	int serial = 0;
+	int ret;
+
+	link_start_init(&ls, 0);
+
+	ret = readHeaders(source, &ls, &serial, &start);
+	if (ret == OV_ENOTVORBIS) {
+		JNU_ThrowByName(env, "java/io/IOException", "Not a Vorbis File", ret);
+		goto cleanup;
+	}
+	if (ret < 0) {
+		JNU_ThrowByName(env, "java/io/IOException", "Vorbis File Corrupt", ret);
+		goto cleanup;
+	}
+	if (ret == 0) {
+		ret = readLength(source, serial, &length);
+	}
+	if (ret != 0) {
+		JNU_ThrowByName(env, "java/io/IOException", "Read ERROR", ret);
+		goto cleanup;
+	}
+
+	/* count the length from where the pcm starts, as vorbisfile does */
+	if (length > start) {
+		length -= start;
+	}
+	else if (length >= 0) {
+		length = 0;
+	}
+
+	result[PROBE_CHANNELS] = ls.vi.channels;
+	result[PROBE_SAMPLE_RATE] = ls.vi.rate;
+	result[PROBE_BITRATE_UPPER] = ls.vi.bitrate_upper;
+	result[PROBE_BITRATE_NOMINAL] = ls.vi.bitrate_nominal;
+	result[PROBE_BITRATE_LOWER] = ls.vi.bitrate_lower;
+	result[PROBE_LENGTH] = length;
+	result[PROBE_SOURCE_LENGTH] = source->length;
+	(*env)->SetLongArrayRegion(env, values, 0, PROBE_VALUES, result);
+
+	comments = newCommentArray(env, &ls.vc);
+
+cleanup:
+	link_start_clear(&ls);
+	return comments;
+}
+
+jobjectArray Java_org_xiph_vorbis_stream_VorbisProbe_probeFile(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jstring		path,
+		jlongArray	values
+		)
+{
+	struct probe_source source;
+	struct stat st;
+	const char * pchars;
+	jobjectArray comments;
+
+	pchars = (*env)->GetStringUTFChars(env, path, NULL);
+	if (pchars == NULL) {
+		/* Exception Already thrown */
+		return NULL;
+	}
+	memset(&source, 0, sizeof(source));
+	source.env = env;
+	source.fd = open(pchars, O_RDONLY);
+	(*env)->ReleaseStringUTFChars(env, path, pchars);
+	if (source.fd < 0) {
+		JNU_ThrowByName(env, "java/io/IOException", "Error Creating File Handle", errno);
+		return NULL;
+	}
+	if (fstat(source.fd, &st) != 0) {
+		JNU_ThrowByName(env, "java/io/IOException", "Read ERROR", errno);
+		close(source.fd);
+		return NULL;
+	}
+	source.length = st.st_size;
+
+	comments = probe(env, &source, values);
+	close(source.fd);
+	return comments;
+}
+
+jobjectArray Java_org_xiph_vorbis_stream_VorbisProbe_probeBuffer(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jobject		buffer,
+		jint		offset,
+		jint		length,
+		jlongArray	values
+		)
+{
+	struct probe_source source;
+
+	memset(&source, 0, sizeof(source));
+	source.env = env;
+	source.fd = -1;
+	source.data = (*env)->GetDirectBufferAddress(env, buffer);
+	source.start = offset;
+	source.length = length;
+	if (source.data == NULL) {
+		JNU_ThrowByName(env, "java/io/IOException", "Error Opening Source", EINVAL);
+		return NULL;
+	}
+	return probe(env, &source, values);
+}
+
+jobjectArray Java_org_xiph_vorbis_stream_VorbisProbe_probeArray(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jbyteArray	array,
+		jint		offset,
+		jint		length,
+		jlongArray	values
+		)
+{
+	struct probe_source source;
+
+	memset(&source, 0, sizeof(source));
+	source.env = env;
+	source.fd = -1;
+	source.array = array;
+	source.start = offset;
+	source.length = length;
+	return probe(env, &source, values);
+}
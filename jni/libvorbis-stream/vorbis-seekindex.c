@@ -0,0 +1,165 @@
+/**
+ * 	Scans the pages of an ogg vorbis file once to build a seek index, see
+ * 	VorbisSeekIndex.java. Only page headers are looked at, nothing is decoded.
+ */
+
+#include <jni.h>
+#include <stdlib.h>
+#include <stdio.h>
+#include <string.h>
+#include <errno.h>
+
+#include <ogg/ogg.h>
+#include <vorbis/codec.h>
+#include <stream/util.h>
+#include <stream/link-start.h>
+
+#define SCAN_CHUNKSIZE 8192
+
+struct index_entries {
+	jlong *		values;		/* sample, offset pairs */
+	int			count;		/* values in use */
+	int			size;		/* values allocated */
+};
+
+/* Appends an entry, returns 0 if out of memory */
+static int addEntry(struct index_entries * entries, ogg_int64_t sample, long offset)
+{
+	if (entries->count + 2 > entries->size) {
+		int size = entries->size ? entries->size * 2 : 1024;
+		jlong * values = realloc(entries->values, size * sizeof(jlong));
+		if (values == NULL) {
+			return 0;
+		}
+		entries->values = values;
+		entries->size = size;
+	}
+	entries->values[entries->count++] = sample;
+	entries->values[entries->count++] = offset;
+	return 1;
+}
+
+/* Whether a beginning of stream page starts a vorbis logical stream */
+static int isVorbisHeader(ogg_page * og)
+{
+	return og->body_len >= 7 && og->body[0] == 0x01 && memcmp(og->body + 1, "vorbis", 6) == 0;
+}
+
+/*
+ * Returns the pcm position (over all chained links) at the end of every
+ * vorbis audio page and the byte offset the page starts at, as pairs in a
+ * long array. Positions count from the start of each link as vorbisfile
+ * does, not from granule position 0.
+ */
+jlongArray Java_org_xiph_vorbis_stream_VorbisSeekIndex_scan(
+		JNIEnv* 	env,
+		jclass  	cls,
+		jstring		path
+		)
+{
+	struct index_entries entries;
+	struct link_start ls;
+	ogg_sync_state oy;
+	ogg_page og;
+	const char * pchars;
+	FILE * fh;
+	long offset = 0;			/* where the next page starts */
+	long serial = 0;			/* the vorbis stream of the current link */
+	int inLink = 0;				/* whether serial is set */
+	int finding = 0;			/* whether ls is still looking for the start */
+	ogg_int64_t base = 0;		/* pcm of the links before this one */
+	ogg_int64_t start = 0;		/* the granule position this link starts at */
+	ogg_int64_t last = 0;		/* the last granule position of this link */
+	jlongArray result = NULL;
+
+	pchars = (*env)->GetStringUTFChars(env, path, NULL);
+	if (pchars == NULL) {
+		/* Exception Already thrown */
+		return NULL;
+	}
+	fh = fopen(pchars, "r");
+	(*env)->ReleaseStringUTFChars(env, path, pchars);
+	if (fh == NULL) {
+		JNU_ThrowByName(env, "java/io/IOException", "Error Creating File Handle", errno);
+		return NULL;
+	}
+
+	memset(&entries, 0, sizeof(entries));
+	ogg_sync_init(&oy);
+
+	while (1) {
+		long ret = ogg_sync_pageseek(&oy, &og);
+
+		if (ret < 0) {
+			/* skipped over bytes that aren't a page */
+			offset -= ret;
+			continue;
+		}
+		if (ret == 0) {
+			char * buffer = ogg_sync_buffer(&oy, SCAN_CHUNKSIZE);
+			size_t bytes = fread(buffer, 1, SCAN_CHUNKSIZE, fh);
+			if (bytes == 0) {
+				break;
+			}
+			ogg_sync_wrote(&oy, bytes);
+			continue;
+		}
+
+		if (ogg_page_bos(&og)) {
+			/* a new link; its vorbis stream is the one to follow */
+			if (isVorbisHeader(&og)) {
+				if (inLink && last > start) {
+					base += last - start;
+				}
+				if (finding) {
+					link_start_clear(&ls);
+				}
+				serial = ogg_page_serialno(&og);
+				link_start_init(&ls, serial);
+				inLink = 1;
+				finding = 1;
+				start = 0;
+				last = 0;
+			}
+		}
+		if (inLink && ogg_page_serialno(&og) == serial && finding) {
+			int found = link_start_pagein(&ls, &og, &start);
+			if (found < 0) {
+				JNU_ThrowByName(env, "java/io/IOException", "Vorbis File Corrupt", found);
+				goto cleanup;
+			}
+			if (found) {
+				link_start_clear(&ls);
+				finding = 0;
+			}
+		}
+		if (!ogg_page_bos(&og) && inLink && ogg_page_serialno(&og) == serial && ogg_page_granulepos(&og) > 0) {
+			/* header pages end at granule 0 and pages no packet ends on at -1 */
+			last = ogg_page_granulepos(&og);
+			if (!addEntry(&entries, base + (last > start ? last - start : 0), offset)) {
+				JNU_ThrowByName(env, "java/lang/OutOfMemoryError", "Could not allocate seek index", BAD_MEM);
+				goto cleanup;
+			}
+		}
+		offset += ret;
+	}
+
+	if (ferror(fh)) {
+		JNU_ThrowByName(env, "java/io/IOException", "Read ERROR", errno);
+		goto cleanup;
+	}
+
+	result = (*env)->NewLongArray(env, entries.count);
+	if (result != NULL) {
+		(*env)->SetLongArrayRegion(env, result, 0, entries.count, entries.values);
+	}
+
+cleanup:
+	if (finding) {
+		link_start_clear(&ls);
+	}
+	ogg_sync_clear(&oy);
+	fclose(fh);
+	free(entries.values);
+	return result;
+}
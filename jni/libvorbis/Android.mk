@@ -1,15 +1,61 @@
 LOCAL_PATH := $(call my-dir)
 
+# Flags for the weakest cpu of each ABI
+VORBIS_CFLAGS := -I$(LOCAL_PATH)/../include -ffast-math -fsigned-char
+ifeq ($(TARGET_ARCH_ABI),armeabi)
+	VORBIS_CFLAGS += -march=armv6 -marm -mfloat-abi=softfp -mfpu=vfp
+endif
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+	# the ndk defaults to armv7-a with vfpv3-d16, NEON is added for the tuned build
+	VORBIS_CFLAGS += -O3 -marm
+endif
+ifeq ($(TARGET_ARCH_ABI),arm64-v8a)
+	VORBIS_CFLAGS += -O3
+endif
+ifeq ($(TARGET_ARCH_ABI),x86)
+	VORBIS_CFLAGS += -O3 -mssse3 -mfpmath=sse
+endif
+ifeq ($(TARGET_ARCH_ABI),x86_64)
+	VORBIS_CFLAGS += -O3 -msse4.2 -mpopcnt
+endif
+
+# The hot paths again for the vector units only some cpus of an ABI have,
+# registry.c picks them at load time. See tuned.h
+VORBIS_TUNED := $(filter armeabi-v7a x86 x86_64,$(TARGET_ARCH_ABI))
+
+ifneq ($(VORBIS_TUNED),)
 include $(CLEAR_VARS)
-LOCAL_MODULE := libvorbis
-LOCAL_CFLAGS += -I$(LOCAL_PATH)/../include -ffast-math -fsigned-char
-ifeq ($(TARGET_ARCH),arm)
-	LOCAL_CFLAGS += -march=armv6 -marm -mfloat-abi=softfp -mfpu=vfp
+LOCAL_MODULE := libvorbis-tuned
+LOCAL_CFLAGS += $(VORBIS_CFLAGS)
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+	LOCAL_ARM_NEON := true
+else
+	LOCAL_CFLAGS += -mavx2
 endif
+
+LOCAL_SRC_FILES := \
+	mdct-tuned.c	\
+	res0-tuned.c	\
+	mapping0-tuned.c
+
+include $(BUILD_STATIC_LIBRARY)
+endif
+
+include $(CLEAR_VARS)
+LOCAL_MODULE := libvorbis
+LOCAL_CFLAGS += $(VORBIS_CFLAGS)
 LOCAL_SHARED_LIBRARIES := libogg
+ifneq ($(VORBIS_TUNED),)
+	LOCAL_CFLAGS += -DVORBIS_TUNED
+	LOCAL_STATIC_LIBRARIES := libvorbis-tuned
+endif
+ifeq ($(TARGET_ARCH_ABI),armeabi-v7a)
+	LOCAL_STATIC_LIBRARIES += cpufeatures
+endif
 
 LOCAL_SRC_FILES := \
 	mdct.c		\
+	mdct-fixed.c	\
 	smallft.c	\
 	block.c		\
 	envelope.c	\
@@ -30,6 +76,7 @@ LOCAL_SRC_FILES := \
 	lookup.c	\
 	bitrate.c	\
 	vorbisfile.c	\
-	vorbisenc.c
+	vorbisenc.c	\
+	setupcache.c
 
 include $(BUILD_SHARED_LIBRARY)
@@ -36,6 +36,10 @@ typedef struct{
   void *(*inverse1)  (struct vorbis_block *,vorbis_look_floor *);
   int   (*inverse2)  (struct vorbis_block *,vorbis_look_floor *,
                      void *buffer,float *);
+  /* the same for the fixed point synthesis, see fixed.h */
+  void *(*inverse1_fixed)(struct vorbis_block *,vorbis_look_floor *);
+  int   (*inverse2_fixed)(struct vorbis_block *,vorbis_look_floor *,
+                          void *buffer,ogg_int32_t *);
 } vorbis_func_floor;
 
 typedef struct{
@@ -99,6 +103,9 @@ typedef struct{
                         int **,int *,int,long **,int);
   int  (*inverse)      (struct vorbis_block *,vorbis_look_residue *,
                         float **,int *,int);
+  /* the same for the fixed point synthesis, see fixed.h */
+  int  (*inverse_fixed)(struct vorbis_block *,vorbis_look_residue *,
+                        ogg_int32_t **,int *,int);
 } vorbis_func_residue;
 
 typedef struct vorbis_info_residue0{
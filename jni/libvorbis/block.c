@@ -21,6 +21,7 @@
 #include <stdio.h>
 #include <stdlib.h>
 #include <string.h>
+#include <math.h>
 #include <ogg/ogg.h>
 #include "vorbis/codec.h"
 #include "codec_internal.h"
@@ -30,6 +31,7 @@
 #include "lpc.h"
 #include "registry.h"
 #include "misc.h"
+#include "fixed.h"
 
 static int ilog2(unsigned int v){
   int ret=0;
@@ -41,6 +43,15 @@ static int ilog2(unsigned int v){
   return(ret);
 }
 
+/* a float window of n samples in 1.31 */
+static ogg_int32_t *_fixed_window(const float *w,int n){
+  ogg_int32_t *ret=_ogg_malloc(n*sizeof(*ret));
+  int i;
+  for(i=0;i<n;i++)
+    ret[i]=FIXED31(w[i]);
+  return(ret);
+}
+
 /* pcm accumulator examples (not exhaustive):
 
  <-------------- lW ---------------->
@@ -192,20 +203,35 @@ static int _vds_shared_init(vorbis_dsp_state *v,vorbis_info *vi,int encp){
 
   v->vi=vi;
   b->modebits=ilog2(ci->modes);
+  /* fixed point is for synthesis only, and never at half rate */
+  b->fixed=!encp && ci->fixed_flag && !hs;
 
   b->transform[0]=_ogg_calloc(VI_TRANSFORMB,sizeof(*b->transform[0]));
   b->transform[1]=_ogg_calloc(VI_TRANSFORMB,sizeof(*b->transform[1]));
 
   /* MDCT is tranform 0 */
 
-  b->transform[0][0]=_ogg_calloc(1,sizeof(mdct_lookup));
-  b->transform[1][0]=_ogg_calloc(1,sizeof(mdct_lookup));
-  mdct_init(b->transform[0][0],ci->blocksizes[0]>>hs);
-  mdct_init(b->transform[1][0],ci->blocksizes[1]>>hs);
+  if(b->fixed){
+    b->transform[0][0]=_ogg_calloc(1,sizeof(mdct_fixed_lookup));
+    b->transform[1][0]=_ogg_calloc(1,sizeof(mdct_fixed_lookup));
+    mdct_fixed_init(b->transform[0][0],ci->blocksizes[0]);
+    mdct_fixed_init(b->transform[1][0],ci->blocksizes[1]);
+  }else{
+    b->transform[0][0]=_ogg_calloc(1,sizeof(mdct_lookup));
+    b->transform[1][0]=_ogg_calloc(1,sizeof(mdct_lookup));
+    mdct_init(b->transform[0][0],ci->blocksizes[0]>>hs);
+    mdct_init(b->transform[1][0],ci->blocksizes[1]>>hs);
+  }
 
   /* Vorbis I uses only window type 0 */
   b->window[0]=ilog2(ci->blocksizes[0])-6;
   b->window[1]=ilog2(ci->blocksizes[1])-6;
+  if(b->fixed){
+    b->fixedwindow[0]=_fixed_window(_vorbis_window_get(b->window[0]),
+                                    ci->blocksizes[0]/2);
+    b->fixedwindow[1]=_fixed_window(_vorbis_window_get(b->window[1]),
+                                    ci->blocksizes[1]/2);
+  }
 
   if(encp){ /* encode/decode differ here */
 
@@ -244,6 +270,14 @@ static int _vds_shared_init(vorbis_dsp_state *v,vorbis_info *vi,int encp){
         ci->book_param[i]=NULL;
       }
     }
+
+    /* fixed point values of the books, which may be shared and so
+       aren't touched */
+    if(b->fixed){
+      b->fixedbooks=_ogg_calloc(ci->books,sizeof(*b->fixedbooks));
+      for(i=0;i<ci->books;i++)
+        vorbis_book_init_fixed(b->fixedbooks+i,ci->fullbooks+i);
+    }
   }
 
   /* initialize the storage vectors. blocksize[1] is small for encode,
@@ -312,6 +346,55 @@ int vorbis_analysis_init(vorbis_dsp_state *v,vorbis_info *vi){
   return(0);
 }
 
+/* Takes an analysis state that has encoded a stream back to where
+   vorbis_analysis_init left it, ready to encode another stream with the
+   same vorbis_info. The lookups, which are what takes vorbis_analysis_init
+   its time, never change while encoding and are kept; only the pcm,
+   envelope, peak and bitrate state of the last stream are reset. */
+int vorbis_analysis_restart(vorbis_dsp_state *v){
+  vorbis_info *vi=v->vi;
+  codec_setup_info *ci;
+  private_state *b=v->backend_state;
+  envelope_lookup *ve;
+  int i;
+
+  if(!b || !v->analysisp)return -1;
+  if(!vi)return -1;
+  ci=vi->codec_setup;
+  if(!ci)return -1;
+
+  for(i=0;i<vi->channels;i++)
+    memset(v->pcm[i],0,v->pcm_storage*sizeof(*v->pcm[i]));
+  v->pcm_returned=0;
+  v->preextrapolate=0;
+  v->eofflag=0;
+  v->lW=0;
+  v->W=0;
+  v->nW=0;
+  v->centerW=ci->blocksizes[1]/2;
+  v->pcm_current=v->centerW;
+  v->granulepos=0;
+  v->sequence=3;
+  v->glue_bits=0;
+  v->time_bits=0;
+  v->floor_bits=0;
+  v->res_bits=0;
+
+  ve=b->ve;
+  memset(ve->filter,0,VE_BANDS*ve->ch*sizeof(*ve->filter));
+  memset(ve->mark,0,ve->storage*sizeof(*ve->mark));
+  ve->stretch=0;
+  ve->current=0;
+  ve->curmark=0;
+  ve->cursor=ci->blocksizes[1]/2;
+
+  b->psy_g_look->ampmax=-9999.;
+  vorbis_bitrate_init(vi,&b->bms);
+  b->sample_count=0;
+
+  return(0);
+}
+
 void vorbis_dsp_clear(vorbis_dsp_state *v){
   int i;
   if(v){
@@ -327,15 +410,29 @@ void vorbis_dsp_clear(vorbis_dsp_state *v){
       }
 
       if(b->transform[0]){
-        mdct_clear(b->transform[0][0]);
+        if(b->fixed)
+          mdct_fixed_clear(b->transform[0][0]);
+        else
+          mdct_clear(b->transform[0][0]);
         _ogg_free(b->transform[0][0]);
         _ogg_free(b->transform[0]);
       }
       if(b->transform[1]){
-        mdct_clear(b->transform[1][0]);
+        if(b->fixed)
+          mdct_fixed_clear(b->transform[1][0]);
+        else
+          mdct_clear(b->transform[1][0]);
         _ogg_free(b->transform[1][0]);
         _ogg_free(b->transform[1]);
       }
+      if(b->fixedbooks){
+        if(ci)
+          for(i=0;i<ci->books;i++)
+            vorbis_book_clear_fixed(b->fixedbooks+i);
+        _ogg_free(b->fixedbooks);
+      }
+      if(b->fixedwindow[0])_ogg_free(b->fixedwindow[0]);
+      if(b->fixedwindow[1])_ogg_free(b->fixedwindow[1]);
 
       if(b->flr){
         if(ci)
@@ -714,6 +811,60 @@ int vorbis_synthesis_init(vorbis_dsp_state *v,vorbis_info *vi){
   return 0;
 }
 
+/* the overlap/add and copy of vorbis_synthesis_blockin below for
+   channel j of the fixed point synthesis, whose pcm is x.24 ints in
+   the storage of the floats */
+static void _blockin_fixed(vorbis_dsp_state *v,vorbis_block *vb,int j,
+                           int prevCenter,int thisCenter){
+  codec_setup_info *ci=v->vi->codec_setup;
+  private_state *b=v->backend_state;
+  int n=ci->blocksizes[v->W]>>1;
+  int n0=ci->blocksizes[0]>>1;
+  int n1=ci->blocksizes[1]>>1;
+  ogg_int32_t *vpcm=(ogg_int32_t *)v->pcm[j];
+  ogg_int32_t *vbpcm=(ogg_int32_t *)vb->pcm[j];
+  int i;
+
+  if(v->lW){
+    if(v->W){
+      /* large/large */
+      ogg_int32_t *w=b->fixedwindow[1];
+      ogg_int32_t *pcm=vpcm+prevCenter;
+      ogg_int32_t *p=vbpcm;
+      for(i=0;i<n1;i++)
+        pcm[i]=MULT31(pcm[i],w[n1-i-1]) + MULT31(p[i],w[i]);
+    }else{
+      /* large/small */
+      ogg_int32_t *w=b->fixedwindow[0];
+      ogg_int32_t *pcm=vpcm+prevCenter+n1/2-n0/2;
+      ogg_int32_t *p=vbpcm;
+      for(i=0;i<n0;i++)
+        pcm[i]=MULT31(pcm[i],w[n0-i-1]) + MULT31(p[i],w[i]);
+    }
+  }else{
+    if(v->W){
+      /* small/large */
+      ogg_int32_t *w=b->fixedwindow[0];
+      ogg_int32_t *pcm=vpcm+prevCenter;
+      ogg_int32_t *p=vbpcm+n1/2-n0/2;
+      for(i=0;i<n0;i++)
+        pcm[i]=MULT31(pcm[i],w[n0-i-1]) + MULT31(p[i],w[i]);
+      for(;i<n1/2+n0/2;i++)
+        pcm[i]=p[i];
+    }else{
+      /* small/small */
+      ogg_int32_t *w=b->fixedwindow[0];
+      ogg_int32_t *pcm=vpcm+prevCenter;
+      ogg_int32_t *p=vbpcm;
+      for(i=0;i<n0;i++)
+        pcm[i]=MULT31(pcm[i],w[n0-i-1]) + MULT31(p[i],w[i]);
+    }
+  }
+
+  /* the copy section */
+  memcpy(vpcm+thisCenter,vbpcm+n,n*sizeof(*vpcm));
+}
+
 /* Unlike in analysis, the window is only partially applied for each
    block.  The time domain envelope is not yet handled at the point of
    calling (as it relies on the previous block). */
@@ -767,6 +918,11 @@ int vorbis_synthesis_blockin(vorbis_dsp_state *v,vorbis_block *vb){
        accept a new block until the old is shifted out */
 
     for(j=0;j<vi->channels;j++){
+      if(b->fixed){
+        _blockin_fixed(v,vb,j,prevCenter,thisCenter);
+        continue;
+      }
+
       /* the overlap/add section */
       if(v->lW){
         if(v->W){
@@ -936,6 +1092,10 @@ int vorbis_synthesis_blockin(vorbis_dsp_state *v,vorbis_block *vb){
 /* pcm==NULL indicates we just want the pending samples, no more */
 int vorbis_synthesis_pcmout(vorbis_dsp_state *v,float ***pcm){
   vorbis_info *vi=v->vi;
+  private_state *b=v->backend_state;
+
+  /* the fixed point synthesis has no floats to hand out */
+  if(pcm && b && b->fixed)return(OV_EINVAL);
 
   if(v->pcm_returned>-1 && v->pcm_returned<v->pcm_current){
     if(pcm){
@@ -949,6 +1109,26 @@ int vorbis_synthesis_pcmout(vorbis_dsp_state *v,float ***pcm){
   return(0);
 }
 
+/* pcmout for the fixed point synthesis; the pcm is x.24, 1<<24 being
+   full scale */
+int vorbis_synthesis_pcmout_fixed(vorbis_dsp_state *v,ogg_int32_t ***pcm){
+  vorbis_info *vi=v->vi;
+  private_state *b=v->backend_state;
+
+  if(pcm && (!b || !b->fixed))return(OV_EINVAL);
+
+  if(v->pcm_returned>-1 && v->pcm_returned<v->pcm_current){
+    if(pcm){
+      int i;
+      for(i=0;i<vi->channels;i++)
+        v->pcmret[i]=v->pcm[i]+v->pcm_returned;
+      *pcm=(ogg_int32_t **)v->pcmret;
+    }
+    return(v->pcm_current-v->pcm_returned);
+  }
+  return(0);
+}
+
 int vorbis_synthesis_read(vorbis_dsp_state *v,int n){
   if(n && v->pcm_returned+n>v->pcm_current)return(OV_EINVAL);
   v->pcm_returned+=n;
@@ -970,6 +1150,7 @@ int vorbis_synthesis_lapout(vorbis_dsp_state *v,float ***pcm){
   int n1=ci->blocksizes[1]>>(hs+1);
   int i,j;
 
+  if(((private_state *)v->backend_state)->fixed)return(OV_EINVAL);
   if(v->pcm_returned<0)return 0;
 
   /* our returned data ends at pcm_returned; because the synthesis pcm
@@ -477,3 +477,101 @@ long vorbis_book_decodevv_add(codebook *book,float **a,long offset,int ch,
   }
   return(0);
 }
+
+/* the fixed point decodes below take the book values from fb->point
+   fractional bits to point, rounding */
+#define FIXED_SHIFT(v,shift) ((shift)>0?((v)+(1<<((shift)-1)))>>(shift): \
+                              (v)<<-(shift))
+
+long vorbis_book_decodevs_add_fixed(codebook *book,const fixed_codebook *fb,
+                                    ogg_int32_t *a,oggpack_buffer *b,
+                                    int n,int point){
+  if(book->used_entries>0){
+    int step=n/book->dim;
+    int shift=fb->point-point;
+    long *entry = alloca(sizeof(*entry)*step);
+    ogg_int32_t **t = alloca(sizeof(*t)*step);
+    int i,j,o;
+
+    for (i = 0; i < step; i++) {
+      entry[i]=decode_packed_entry_number(book,b);
+      if(entry[i]==-1)return(-1);
+      t[i] = fb->valuelist+entry[i]*book->dim;
+    }
+    for(i=0,o=0;i<book->dim;i++,o+=step)
+      for (j=0;j<step;j++)
+        a[o+j]+=FIXED_SHIFT(t[j][i],shift);
+  }
+  return(0);
+}
+
+long vorbis_book_decodev_add_fixed(codebook *book,const fixed_codebook *fb,
+                                   ogg_int32_t *a,oggpack_buffer *b,
+                                   int n,int point){
+  if(book->used_entries>0){
+    int i,j,entry;
+    int shift=fb->point-point;
+    ogg_int32_t *t;
+
+    for(i=0;i<n;){
+      entry = decode_packed_entry_number(book,b);
+      if(entry==-1)return(-1);
+      t     = fb->valuelist+entry*book->dim;
+      for (j=0;j<book->dim;j++)
+        a[i++]+=FIXED_SHIFT(t[j],shift);
+    }
+  }
+  return(0);
+}
+
+long vorbis_book_decodev_set_fixed(codebook *book,const fixed_codebook *fb,
+                                   ogg_int32_t *a,oggpack_buffer *b,
+                                   int n,int point){
+  if(book->used_entries>0){
+    int i,j,entry;
+    int shift=fb->point-point;
+    ogg_int32_t *t;
+
+    for(i=0;i<n;){
+      entry = decode_packed_entry_number(book,b);
+      if(entry==-1)return(-1);
+      t     = fb->valuelist+entry*book->dim;
+      for (j=0;j<book->dim;j++)
+        a[i++]=FIXED_SHIFT(t[j],shift);
+    }
+  }else{
+    int i,j;
+
+    for(i=0;i<n;){
+      for (j=0;j<book->dim;j++)
+        a[i++]=0;
+    }
+  }
+  return(0);
+}
+
+long vorbis_book_decodevv_add_fixed(codebook *book,const fixed_codebook *fb,
+                                    ogg_int32_t **a,long offset,int ch,
+                                    oggpack_buffer *b,int n,int point){
+
+  long i,j,entry;
+  int chptr=0;
+  int shift=fb->point-point;
+  if(book->used_entries>0){
+    for(i=offset/ch;i<(offset+n)/ch;){
+      entry = decode_packed_entry_number(book,b);
+      if(entry==-1)return(-1);
+      {
+        const ogg_int32_t *t = fb->valuelist+entry*book->dim;
+        for (j=0;j<book->dim;j++){
+          a[chptr++][i]+=FIXED_SHIFT(t[j],shift);
+          if(chptr==ch){
+            chptr=0;
+            i++;
+          }
+        }
+      }
+    }
+  }
+  return(0);
+}
@@ -79,10 +79,21 @@ typedef struct codebook{
   int           delta;
 } codebook;
 
+/* The entry values of a decode codebook in fixed point, for the fixed
+   point synthesis: valuelist[i] is the float value times 2^point.
+   point is picked per book so its largest value keeps a bit of
+   headroom below 2^31. */
+typedef struct fixed_codebook{
+  ogg_int32_t  *valuelist;
+  int           point;
+} fixed_codebook;
+
 extern void vorbis_staticbook_destroy(static_codebook *b);
 extern int vorbis_book_init_encode(codebook *dest,const static_codebook *source);
 extern int vorbis_book_init_decode(codebook *dest,const static_codebook *source);
 extern void vorbis_book_clear(codebook *b);
+extern int vorbis_book_init_fixed(fixed_codebook *dest,const codebook *source);
+extern void vorbis_book_clear_fixed(fixed_codebook *b);
 
 extern float *_book_unquantize(const static_codebook *b,int n,int *map);
 extern float *_book_logdist(const static_codebook *b,float *vals);
@@ -114,6 +125,24 @@ extern long vorbis_book_decodevv_add(codebook *book, float **a,
                                      long off,int ch,
                                     oggpack_buffer *b,int n);
 
+/* the same into fixed point vectors with point fractional bits */
+extern long vorbis_book_decodevs_add_fixed(codebook *book,
+                                           const fixed_codebook *fb,
+                                           ogg_int32_t *a,oggpack_buffer *b,
+                                           int n,int point);
+extern long vorbis_book_decodev_set_fixed(codebook *book,
+                                          const fixed_codebook *fb,
+                                          ogg_int32_t *a,oggpack_buffer *b,
+                                          int n,int point);
+extern long vorbis_book_decodev_add_fixed(codebook *book,
+                                          const fixed_codebook *fb,
+                                          ogg_int32_t *a,oggpack_buffer *b,
+                                          int n,int point);
+extern long vorbis_book_decodevv_add_fixed(codebook *book,
+                                           const fixed_codebook *fb,
+                                           ogg_int32_t **a,long off,int ch,
+                                           oggpack_buffer *b,int n,int point);
+
 
 
 #endif
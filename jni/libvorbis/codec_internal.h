@@ -71,6 +71,12 @@ typedef struct private_state {
   vorbis_look_psy        *psy;
   vorbis_look_psy_global *psy_g_look;
 
+  /* fixed point synthesis, see vorbis_synthesis_fixed. The transforms
+     above are then mdct_fixed_lookups */
+  int                     fixed;
+  fixed_codebook         *fixedbooks; /* one per ci->fullbooks */
+  ogg_int32_t            *fixedwindow[2]; /* 1.31, per blocksize */
+
   /* local storage, only used on the encoding side.  This way the
      application does not need to worry about freeing some packets'
      memory and not others'; packet storage is always tracked.
@@ -128,6 +134,11 @@ typedef struct codec_setup_info {
                                 highly redundant structure, but
                                 improves clarity of program flow. */
   int         halfrate_flag; /* painless downsample for decode */
+  int         fixed_flag;    /* fixed point synthesis for decode */
+
+  struct vorbis_setup_entry *shared; /* the setup cache entry owning
+                                        what the pointers above point
+                                        to, NULL if this info owns it */
 } codec_setup_info;
 
 extern vorbis_look_psy_global *_vp_global_look(vorbis_info *vi);
@@ -0,0 +1,36 @@
+/********************************************************************
+
+ function: fixed point arithmetic of the fixed point synthesis
+
+ vorbis_synthesis_fixed has blocks synthesized in 32 bit ints rather
+ than floats, for cpus without an FPU or with a slow one. The
+ codebooks, floor curves, windows and mdct twiddles are turned into
+ fixed point tables once, by vorbis_synthesis_init; decoding a packet
+ then runs on ints alone.
+
+ The residue is decoded to x.8, scaled by a floor curve in 1.31 to
+ x.24 and stays x.24 through the mdct and the overlap/add, so
+ 1<<FIXED_PCM_POINT is full scale in what
+ vorbis_synthesis_pcmout_fixed returns. Windows and twiddles are
+ 1.31; products are taken in 64 bits.
+
+ ********************************************************************/
+
+#ifndef _V_FIXED_H_
+#define _V_FIXED_H_
+
+#include <ogg/ogg.h>
+
+#define FIXED_RESIDUE_POINT 8
+#define FIXED_PCM_POINT 24
+
+/* a*b for b in 1.31 */
+#define MULT31(a,b) ((ogg_int32_t)(((ogg_int64_t)(a)*(b))>>31))
+/* a*b>>15, x.8 residue times a 1.31 floor curve to x.24 */
+#define MULT31_SHIFT15(a,b) ((ogg_int32_t)(((ogg_int64_t)(a)*(b))>>15))
+
+/* v in 1.31, 1.0 clipped to the largest int */
+#define FIXED31(v) ((ogg_int32_t)((v)>=1.?0x7fffffff:(v)<=-1.?(-0x7fffffff-1): \
+                                  rint((v)*2147483648.)))
+
+#endif
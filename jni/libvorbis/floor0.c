@@ -215,8 +215,76 @@ static int floor0_inverse2(vorbis_block *vb,vorbis_look_floor *i,
   return(0);
 }
 
+/* floor0_inverse1 for the fixed point synthesis; the memo holds the
+   lsp angles in 0.16 with 1<<16 being PI, then amp in n.4 */
+static void *floor0_inverse1_fixed(vorbis_block *vb,vorbis_look_floor *i){
+  vorbis_look_floor0 *look=(vorbis_look_floor0 *)i;
+  vorbis_info_floor0 *info=look->vi;
+  int j,k;
+
+  int ampraw=oggpack_read(&vb->opb,info->ampbits);
+  if(ampraw>0){ /* also handles the -1 out of data case */
+    long maxval=(1<<info->ampbits)-1;
+    int ampi=((ogg_int64_t)ampraw*info->ampdB*16+maxval/2)/maxval;
+    int booknum=oggpack_read(&vb->opb,_ilog(info->numbooks));
+
+    if(booknum!=-1 && booknum<info->numbooks){ /* be paranoid */
+      codec_setup_info  *ci=vb->vd->vi->codec_setup;
+      private_state     *bs=vb->vd->backend_state;
+      codebook *b=ci->fullbooks+info->books[booknum];
+      fixed_codebook *fb=bs->fixedbooks+info->books[booknum];
+      ogg_int32_t last=0;
+
+      /* the additional b->dim is a guard against any possible stack
+         smash; b->dim is provably more than we can overflow the
+         vector */
+      ogg_int32_t *lsp=_vorbis_block_alloc(vb,sizeof(*lsp)*(look->m+b->dim+1));
+
+      /* radians in x.16 */
+      for(j=0;j<look->m;j+=b->dim)
+        if(vorbis_book_decodev_set_fixed(b,fb,lsp+j,&vb->opb,b->dim,16)==-1)
+          goto eop;
+      for(j=0;j<look->m;){
+        for(k=0;k<b->dim;k++,j++)lsp[j]+=last;
+        last=lsp[j-1];
+      }
+      /* times 1/PI in 0.16 */
+      for(j=0;j<look->m;j++)
+        lsp[j]=((ogg_int64_t)lsp[j]*20861+32768)>>16;
+
+      lsp[look->m]=ampi;
+      return(lsp);
+    }
+  }
+ eop:
+  return(NULL);
+}
+
+static int floor0_inverse2_fixed(vorbis_block *vb,vorbis_look_floor *i,
+                                 void *memo,ogg_int32_t *out){
+  vorbis_look_floor0 *look=(vorbis_look_floor0 *)i;
+  vorbis_info_floor0 *info=look->vi;
+
+  floor0_map_lazy_init(vb,info,look);
+
+  if(memo){
+    ogg_int32_t *lsp=(ogg_int32_t *)memo;
+
+    /* take the coefficients back to a spectral envelope curve */
+    vorbis_lsp_to_curve_fixed(out,
+                              look->linearmap[vb->W],
+                              look->n[vb->W],
+                              look->ln,
+                              lsp,look->m,lsp[look->m],info->ampdB*4096);
+    return(1);
+  }
+  memset(out,0,sizeof(*out)*look->n[vb->W]);
+  return(0);
+}
+
 /* export hooks */
 const vorbis_func_floor floor0_exportbundle={
   NULL,&floor0_unpack,&floor0_look,&floor0_free_info,
-  &floor0_free_look,&floor0_inverse1,&floor0_inverse2
+  &floor0_free_look,&floor0_inverse1,&floor0_inverse2,
+  &floor0_inverse1_fixed,&floor0_inverse2_fixed
 };
@@ -25,6 +25,7 @@
 #include "codebook.h"
 #include "misc.h"
 #include "scales.h"
+#include "fixed.h"
 
 #include <stdio.h>
 
@@ -359,6 +360,74 @@ static const float FLOOR1_fromdB_LOOKUP[256]={
   0.82788260F, 0.88168307F, 0.9389798F, 1.F,
 };
 
+/* the same in 1.31 for the fixed point synthesis, see fixed.h */
+static const ogg_int32_t FLOOR1_fromdB_LOOKUP_FIXED[256]={
+  0x000000e5, 0x000000f4, 0x00000103, 0x00000114,
+  0x00000126, 0x00000139, 0x0000014e, 0x00000163,
+  0x0000017a, 0x00000193, 0x000001ad, 0x000001c9,
+  0x000001e7, 0x00000206, 0x00000228, 0x0000024c,
+  0x00000272, 0x0000029b, 0x000002c6, 0x000002f4,
+  0x00000326, 0x0000035a, 0x00000392, 0x000003cd,
+  0x0000040c, 0x00000450, 0x00000497, 0x000004e4,
+  0x00000535, 0x0000058c, 0x000005e8, 0x0000064a,
+  0x000006b3, 0x00000722, 0x00000799, 0x00000818,
+  0x0000089e, 0x0000092e, 0x000009c6, 0x00000a69,
+  0x00000b16, 0x00000bcf, 0x00000c93, 0x00000d64,
+  0x00000e43, 0x00000f30, 0x0000102d, 0x0000113a,
+  0x00001258, 0x0000138a, 0x000014cf, 0x00001629,
+  0x0000179a, 0x00001922, 0x00001ac4, 0x00001c82,
+  0x00001e5c, 0x00002055, 0x0000226f, 0x000024ac,
+  0x0000270e, 0x00002997, 0x00002c4b, 0x00002f2c,
+  0x0000323d, 0x00003581, 0x000038fb, 0x00003caf,
+  0x000040a0, 0x000044d3, 0x0000494c, 0x00004e10,
+  0x00005323, 0x0000588a, 0x00005e4b, 0x0000646b,
+  0x00006af2, 0x000071e5, 0x0000794c, 0x0000812e,
+  0x00008993, 0x00009283, 0x00009c09, 0x0000a62d,
+  0x0000b0f9, 0x0000bc79, 0x0000c8b9, 0x0000d5c4,
+  0x0000e3a9, 0x0000f274, 0x00010236, 0x000112fd,
+  0x000124dc, 0x000137e4, 0x00014c29, 0x000161bf,
+  0x000178bc, 0x00019137, 0x0001ab4a, 0x0001c70e,
+  0x0001e4a1, 0x0002041f, 0x000225aa, 0x00024962,
+  0x00026f6d, 0x000297f0, 0x0002c316, 0x0002f109,
+  0x000321f9, 0x00035616, 0x00038d97, 0x0003c8b4,
+  0x000407a7, 0x00044ab2, 0x00049218, 0x0004de23,
+  0x00052f1e, 0x0005855c, 0x0005e135, 0x00064306,
+  0x0006ab33, 0x00071a24, 0x0007904b, 0x00080e20,
+  0x00089422, 0x000922da, 0x0009bad8, 0x000a5cb6,
+  0x000b091a, 0x000bc0b1, 0x000c8436, 0x000d5471,
+  0x000e3233, 0x000f1e5f, 0x001019e4, 0x001125c1,
+  0x00124306, 0x001372d5, 0x0014b663, 0x00160ef7,
+  0x00177df0, 0x001904c1, 0x001aa4f9, 0x001c603d,
+  0x001e384f, 0x00202f0f, 0x0022467a, 0x002480b2,
+  0x0026dff7, 0x002966b3, 0x002c1776, 0x002ef4fc,
+  0x0032022d, 0x00354222, 0x0038b828, 0x003c67c2,
+  0x004054ae, 0x004482e8, 0x0048f6af, 0x004db488,
+  0x0052c142, 0x005821fe, 0x005ddc34, 0x0063f5b0,
+  0x006a74a6, 0x00715fae, 0x0078bdce, 0x0080967f,
+  0x0088f1ba, 0x0091d7f9, 0x009b5247, 0x00a56a41,
+  0x00b02a27, 0x00bb9ce2, 0x00c7ce12, 0x00d4ca17,
+  0x00e29e20, 0x00f15835, 0x0101074c, 0x0111bb4e,
+  0x01238530, 0x01367704, 0x014aa402, 0x016020a8,
+  0x017702c2, 0x018f6190, 0x01a955ca, 0x01c4f9d0,
+  0x01e269a8, 0x0201c33c, 0x02232658, 0x0246b4e8,
+  0x026c9300, 0x0294e714, 0x02bfda14, 0x02ed9794,
+  0x031e4e08, 0x03522ee4, 0x03896ed0, 0x03c445e4,
+  0x0402efd8, 0x0445ac48, 0x048cbef8, 0x04d87010,
+  0x05290c68, 0x057ee5c8, 0x05da5368, 0x063bb200,
+  0x06a36488, 0x0711d428, 0x07877110, 0x0804b2a0,
+  0x088a17f0, 0x09182880, 0x09af7480, 0x0a509580,
+  0x0afc2f20, 0x0bb2ef80, 0x0c759030, 0x0d44d6d0,
+  0x0e2195c0, 0x0f0cad10, 0x10070b60, 0x1111aee0,
+  0x122da660, 0x135c1200, 0x149e24e0, 0x15f525c0,
+  0x176270e0, 0x18e77940, 0x1a85c9a0, 0x1c3f06e0,
+  0x1e14f080, 0x200963c0, 0x221e5cc0, 0x2455f880,
+  0x26b27700, 0x29363e40, 0x2be3db40, 0x2ebe06c0,
+  0x31c7a540, 0x3503ccc0, 0x3875c5c0, 0x3c210f40,
+  0x40096300, 0x4432b900, 0x48a14980, 0x4d599580,
+  0x52606700, 0x57bad880, 0x5d6e5900, 0x6380b280,
+  0x69f80e80, 0x70dafd80, 0x78307d80, 0x7fffffff,
+};
+
 static void render_line(int n, int x0,int x1,int y0,int y1,float *d){
   int dy=y1-y0;
   int adx=x1-x0;
@@ -388,6 +457,36 @@ static void render_line(int n, int x0,int x1,int y0,int y1,float *d){
   }
 }
 
+static void render_line_fixed(int n, int x0,int x1,int y0,int y1,
+                              ogg_int32_t *d){
+  int dy=y1-y0;
+  int adx=x1-x0;
+  int ady=abs(dy);
+  int base=dy/adx;
+  int sy=(dy<0?base-1:base+1);
+  int x=x0;
+  int y=y0;
+  int err=0;
+
+  ady-=abs(base*adx);
+
+  if(n>x1)n=x1;
+
+  if(x<n)
+    d[x]=MULT31_SHIFT15(d[x],FLOOR1_fromdB_LOOKUP_FIXED[y]);
+
+  while(++x<n){
+    err=err+ady;
+    if(err>=adx){
+      err-=adx;
+      y+=sy;
+    }else{
+      y+=base;
+    }
+    d[x]=MULT31_SHIFT15(d[x],FLOOR1_fromdB_LOOKUP_FIXED[y]);
+  }
+}
+
 static void render_line0(int n, int x0,int x1,int y0,int y1,int *d){
   int dy=y1-y0;
   int adx=x1-x0;
@@ -850,8 +949,12 @@ int floor1_encode(oggpack_buffer *opb,vorbis_block *vb,
     oggpack_write(opb,1,1);
 
     /* beginning/end post */
+#ifdef TRAIN_FLOOR1
+    /* the bit counts are only for training; blocks analysed on several
+       threads at once share the look */
     look->frames++;
     look->postbits+=ilog(look->quant_q-1)*2;
+#endif
     oggpack_write(opb,out[0],ilog(look->quant_q-1));
     oggpack_write(opb,out[1],ilog(look->quant_q-1));
 
@@ -890,7 +993,9 @@ int floor1_encode(oggpack_buffer *opb,vorbis_block *vb,
           cshift+=csubbits;
         }
         /* write it */
+#ifdef TRAIN_FLOOR1
         look->phrasebits+=
+#endif
           vorbis_book_encode(books+info->class_book[class],cval,opb);
 
 #ifdef TRAIN_FLOOR1
@@ -912,8 +1017,10 @@ int floor1_encode(oggpack_buffer *opb,vorbis_block *vb,
         if(book>=0){
           /* hack to allow training with 'bad' books */
           if(out[j+k]<(books+book)->entries)
-            look->postbits+=vorbis_book_encode(books+book,
-                                               out[j+k],opb);
+#ifdef TRAIN_FLOOR1
+            look->postbits+=
+#endif
+              vorbis_book_encode(books+book,out[j+k],opb);
           /*else
             fprintf(stderr,"+!");*/
 
@@ -1092,8 +1199,53 @@ static int floor1_inverse2(vorbis_block *vb,vorbis_look_floor *in,void *memo,
   return(0);
 }
 
+/* floor1_inverse2 for the fixed point synthesis; floor1_inverse1 is
+   all ints already */
+static int floor1_inverse2_fixed(vorbis_block *vb,vorbis_look_floor *in,
+                                 void *memo,ogg_int32_t *out){
+  vorbis_look_floor1 *look=(vorbis_look_floor1 *)in;
+  vorbis_info_floor1 *info=look->vi;
+
+  codec_setup_info   *ci=vb->vd->vi->codec_setup;
+  int                  n=ci->blocksizes[vb->W]/2;
+  int j;
+
+  if(memo){
+    /* render the lines */
+    int *fit_value=(int *)memo;
+    int hx=0;
+    int lx=0;
+    int ly=fit_value[0]*info->mult;
+    /* guard lookup against out-of-range values */
+    ly=(ly<0?0:ly>255?255:ly);
+
+    for(j=1;j<look->posts;j++){
+      int current=look->forward_index[j];
+      int hy=fit_value[current]&0x7fff;
+      if(hy==fit_value[current]){
+
+        hx=info->postlist[current];
+        hy*=info->mult;
+        /* guard lookup against out-of-range values */
+        hy=(hy<0?0:hy>255?255:hy);
+
+        render_line_fixed(n,lx,hx,ly,hy,out);
+
+        lx=hx;
+        ly=hy;
+      }
+    }
+    for(j=hx;j<n;j++)
+      out[j]=MULT31_SHIFT15(out[j],FLOOR1_fromdB_LOOKUP_FIXED[ly]);
+    return(1);
+  }
+  memset(out,0,sizeof(*out)*n);
+  return(0);
+}
+
 /* export hooks */
 const vorbis_func_floor floor1_exportbundle={
   &floor1_pack,&floor1_unpack,&floor1_look,&floor1_free_info,
-  &floor1_free_look,&floor1_inverse1,&floor1_inverse2
+  &floor1_free_look,&floor1_inverse1,&floor1_inverse2,
+  &floor1_inverse1,&floor1_inverse2_fixed
 };
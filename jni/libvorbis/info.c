@@ -29,6 +29,7 @@
 #include "window.h"
 #include "psy.h"
 #include "misc.h"
+#include "setupcache.h"
 #include "os.h"
 
 #define GENERAL_VENDOR_STRING "Xiph.Org libVorbis 1.3.2"
@@ -161,6 +162,13 @@ void vorbis_info_clear(vorbis_info *vi){
   codec_setup_info     *ci=vi->codec_setup;
   int i;
 
+  if(ci && ci->shared){
+    /* only the copy is ours, the cache frees the rest */
+    _vorbis_setup_cache_release(ci->shared);
+    _ogg_free(ci);
+    ci=NULL;
+  }
+
   if(ci){
 
     for(i=0;i<ci->modes;i++)
@@ -376,7 +384,8 @@ int vorbis_synthesis_idheader(ogg_packet *op){
    with bitstream comments and a third packet that holds the
    codebook. */
 
-int vorbis_synthesis_headerin(vorbis_info *vi,vorbis_comment *vc,ogg_packet *op){
+static int _vorbis_headerin(vorbis_info *vi,vorbis_comment *vc,
+                            ogg_packet *op,int cached){
   oggpack_buffer opb;
 
   if(op){
@@ -420,7 +429,19 @@ int vorbis_synthesis_headerin(vorbis_info *vi,vorbis_comment *vc,ogg_packet *op)
           return(OV_EBADHEADER);
         }
 
-        return(_vorbis_unpack_books(vi,&opb));
+        if(!cached)
+          return(_vorbis_unpack_books(vi,&opb));
+
+        /* the same header unpacked before is shared rather than
+           unpacked again */
+        if(_vorbis_setup_cache_lookup(vi,op)==0)
+          return(0);
+        {
+          int ret=_vorbis_unpack_books(vi,&opb);
+          if(ret==0)
+            _vorbis_setup_cache_insert(vi,op);
+          return(ret);
+        }
 
       default:
         /* Not a valid vorbis header type */
@@ -432,6 +453,15 @@ int vorbis_synthesis_headerin(vorbis_info *vi,vorbis_comment *vc,ogg_packet *op)
   return(OV_EBADHEADER);
 }
 
+int vorbis_synthesis_headerin(vorbis_info *vi,vorbis_comment *vc,ogg_packet *op){
+  return(_vorbis_headerin(vi,vc,op,1));
+}
+
+int vorbis_synthesis_headerin_uncached(vorbis_info *vi,vorbis_comment *vc,
+                                       ogg_packet *op){
+  return(_vorbis_headerin(vi,vc,op,0));
+}
+
 /* pack side **********************************************************/
 
 static int _vorbis_pack_info(oggpack_buffer *opb,vorbis_info *vi){
@@ -54,7 +54,8 @@ float vorbis_fromdBlook(float a){
 
 #endif
 
-#ifdef INT_LOOKUP
+/* the integer lookups are also used by the fixed point synthesis */
+
 /* interpolated 1./sqrt(p) where .5 <= a < 1. (.100000... to .111111...) in
    16.16 format
 
@@ -73,6 +74,7 @@ long vorbis_invsqlook_i(long a,long e){
   return(val>>e);
 }
 
+#ifdef INT_LOOKUP
 /* interpolated lookup based fromdB function, domain -140dB to 0dB only */
 /* a is in n.12 format */
 float vorbis_fromdBlook_i(long a){
@@ -81,6 +83,16 @@ float vorbis_fromdBlook_i(long a){
     ((i>=(FROMdB_LOOKUP_SZ<<FROMdB_SHIFT))?0.f:
      FROMdB_LOOKUP[i>>FROMdB_SHIFT]*FROMdB2_LOOKUP[i&FROMdB2_MASK]);
 }
+#endif
+
+/* the same returning 1.31 */
+ogg_int32_t vorbis_fromdBlook_fixed(long a){
+  int i=(-a)>>(12-FROMdB2_SHIFT);
+  return (i<0)?0x7fffffff:
+    ((i>=(FROMdB_LOOKUP_SZ<<FROMdB_SHIFT))?0:
+     (ogg_int32_t)(((ogg_int64_t)FROMdB_LOOKUP_FIXED[i>>FROMdB_SHIFT]*
+                    FROMdB2_LOOKUP_FIXED[i&FROMdB2_MASK])>>31));
+}
 
 /* interpolated lookup based cos function, domain 0 to PI only */
 /* a is in 0.16 format, where 0==0, 2^^16-1==PI, return 0.14 */
@@ -90,5 +102,3 @@ long vorbis_coslook_i(long a){
   return COS_LOOKUP_I[i]- ((d*(COS_LOOKUP_I[i]-COS_LOOKUP_I[i+1]))>>
                            COS_LOOKUP_I_SHIFT);
 }
-
-#endif
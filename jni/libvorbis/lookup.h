@@ -17,16 +17,19 @@
 
 #ifndef _V_LOOKUP_H_
 
+#include <ogg/ogg.h>
+
 #ifdef FLOAT_LOOKUP
 extern float vorbis_coslook(float a);
 extern float vorbis_invsqlook(float a);
 extern float vorbis_invsq2explook(int a);
 extern float vorbis_fromdBlook(float a);
 #endif
-#ifdef INT_LOOKUP
 extern long vorbis_invsqlook_i(long a,long e);
 extern long vorbis_coslook_i(long a);
+#ifdef INT_LOOKUP
 extern float vorbis_fromdBlook_i(long a);
 #endif
+extern ogg_int32_t vorbis_fromdBlook_fixed(long a);
 
 #endif
@@ -124,7 +124,32 @@ static const float FROMdB2_LOOKUP[FROMdB2_LOOKUP_SZ]={
 };
 #endif
 
-#ifdef INT_LOOKUP
+/* FROMdB_LOOKUP and FROMdB2_LOOKUP in 1.31 for the fixed point
+   synthesis */
+static const ogg_int32_t FROMdB_LOOKUP_FIXED[FROMdB_LOOKUP_SZ]={
+  0x7fffffff, 0x50c335d4, 0x32f52cff, 0x2026f310,
+  0x144960c5, 0x0ccccccd, 0x08138562, 0x05188480,
+  0x0337184e, 0x0207567a, 0x0147ae14, 0x00cec08a,
+  0x008273a6, 0x00524f3b, 0x0033ef0c, 0x0020c49c,
+  0x0014acdb, 0x000d0b91, 0x00083b20, 0x00053181,
+  0x000346dc, 0x00021149, 0x00014df5, 0x0000d2b6,
+  0x000084f3, 0x000053e3, 0x000034ee, 0x00002165,
+  0x00001512, 0x00000d4c, 0x00000863, 0x0000054b,
+  0x00000357, 0x0000021b, 0x00000154,
+};
+
+static const ogg_int32_t FROMdB2_LOOKUP_FIXED[FROMdB2_LOOKUP_SZ]={
+  0x7f150fc2, 0x7d4439d8, 0x7b7a082f, 0x79b6627b,
+  0x77f930cb, 0x76425b85, 0x7491cb63, 0x72e76976,
+  0x71431f23, 0x6fa4d623, 0x6e0c787c, 0x6c79f089,
+  0x6aed28f2, 0x69660cad, 0x67e486fe, 0x66688375,
+  0x64f1edea, 0x6380b283, 0x6214bdab, 0x60adfc16,
+  0x5f4c5abf, 0x5defc6e6, 0x5c982e0f, 0x5b457e04,
+  0x59f7a4cf, 0x58ae90bc, 0x576a305a, 0x562a7275,
+  0x54ef4619, 0x53b89a90, 0x52865f62, 0x51588453,
+};
+
+/* the integer tables are also used by the fixed point synthesis */
 
 #define INVSQ_LOOKUP_I_SHIFT 10
 #define INVSQ_LOOKUP_I_MASK 1023
@@ -188,5 +213,3 @@ static const long COS_LOOKUP_I[COS_LOOKUP_I_SZ+1]={
 };
 
 #endif
-
-#endif
@@ -19,10 +19,15 @@
 #ifndef _V_LSP_H_
 #define _V_LSP_H_
 
+#include <ogg/ogg.h>
+
 extern int vorbis_lpc_to_lsp(float *lpc,float *lsp,int m);
 
 extern void vorbis_lsp_to_curve(float *curve,int *map,int n,int ln,
                                 float *lsp,int m,
                                 float amp,float ampoffset);
+extern void vorbis_lsp_to_curve_fixed(ogg_int32_t *curve,int *map,int n,
+                                      int ln,ogg_int32_t *lsp,int m,
+                                      int amp,int ampoffset);
 
 #endif
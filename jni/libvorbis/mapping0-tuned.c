@@ -0,0 +1,4 @@
+/* mapping0.c built again for libvorbis-tuned, see tuned.h */
+
+#include "tuned.h"
+#include "mapping0.c"
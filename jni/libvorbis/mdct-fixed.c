@@ -0,0 +1,464 @@
+/********************************************************************
+
+ function: fixed point inverse mdct for the fixed point synthesis
+
+ mdct_backward of mdct.c step for step, on x.24 pcm with 1.31
+ twiddles. Every product is taken in 64 bits and the sums of two
+ products are normalized once, so a transform loses no more than the
+ rounding of its last bit on each output. See fixed.h
+
+ ********************************************************************/
+
+#include <stdlib.h>
+#include <string.h>
+#include <math.h>
+#include "vorbis/codec.h"
+#include "mdct.h"
+#include "fixed.h"
+#include "os.h"
+#include "misc.h"
+
+#define cPI3_8_FIXED 821806413
+#define cPI2_8_FIXED 1518500250
+#define cPI1_8_FIXED 1984016189
+
+#define MUL(a,b) ((ogg_int64_t)(a)*(b))
+#define MULT_NORM31(x) ((ogg_int32_t)((x)>>31))
+#define HALVE_FIXED(x) ((x)>>1)
+
+/* the lookups of mdct_init in 1.31 */
+void mdct_fixed_init(mdct_fixed_lookup *lookup,int n){
+  int   *bitrev=_ogg_malloc(sizeof(*bitrev)*(n/4));
+  ogg_int32_t *T=_ogg_malloc(sizeof(*T)*(n+n/4));
+
+  int i;
+  int n2=n>>1;
+  int log2n=lookup->log2n=rint(log((float)n)/log(2.f));
+  lookup->n=n;
+  lookup->trig=T;
+  lookup->bitrev=bitrev;
+
+  for(i=0;i<n/4;i++){
+    T[i*2]=FIXED31(cos((M_PI/n)*(4*i)));
+    T[i*2+1]=FIXED31(-sin((M_PI/n)*(4*i)));
+    T[n2+i*2]=FIXED31(cos((M_PI/(2*n))*(2*i+1)));
+    T[n2+i*2+1]=FIXED31(sin((M_PI/(2*n))*(2*i+1)));
+  }
+  for(i=0;i<n/8;i++){
+    T[n+i*2]=FIXED31(cos((M_PI/n)*(4*i+2))*.5);
+    T[n+i*2+1]=FIXED31(-sin((M_PI/n)*(4*i+2))*.5);
+  }
+
+  {
+    int mask=(1<<(log2n-1))-1,i,j;
+    int msb=1<<(log2n-2);
+    for(i=0;i<n/8;i++){
+      int acc=0;
+      for(j=0;msb>>j;j++)
+        if((msb>>j)&i)acc|=1<<j;
+      bitrev[i*2]=((~acc)&mask)-1;
+      bitrev[i*2+1]=acc;
+    }
+  }
+}
+
+void mdct_fixed_clear(mdct_fixed_lookup *l){
+  if(l){
+    if(l->trig)_ogg_free(l->trig);
+    if(l->bitrev)_ogg_free(l->bitrev);
+    memset(l,0,sizeof(*l));
+  }
+}
+
+/* 8 point butterfly (in place, 4 register) */
+STIN void mdct_butterfly_8(ogg_int32_t *x){
+  ogg_int32_t r0   = x[6] + x[2];
+  ogg_int32_t r1   = x[6] - x[2];
+  ogg_int32_t r2   = x[4] + x[0];
+  ogg_int32_t r3   = x[4] - x[0];
+
+           x[6] = r0   + r2;
+           x[4] = r0   - r2;
+
+           r0   = x[5] - x[1];
+           r2   = x[7] - x[3];
+           x[0] = r1   + r0;
+           x[2] = r1   - r0;
+
+           r0   = x[5] + x[1];
+           r1   = x[7] + x[3];
+           x[3] = r2   + r3;
+           x[1] = r2   - r3;
+           x[7] = r1   + r0;
+           x[5] = r1   - r0;
+
+}
+
+/* 16 point butterfly (in place, 4 register) */
+STIN void mdct_butterfly_16(ogg_int32_t *x){
+  ogg_int32_t r0     = x[1]  - x[9];
+  ogg_int32_t r1     = x[0]  - x[8];
+
+           x[8]  += x[0];
+           x[9]  += x[1];
+           x[0]   = MULT_NORM31(MUL(r0,cPI2_8_FIXED) + MUL(r1,cPI2_8_FIXED));
+           x[1]   = MULT_NORM31(MUL(r0,cPI2_8_FIXED) - MUL(r1,cPI2_8_FIXED));
+
+           r0     = x[3]  - x[11];
+           r1     = x[10] - x[2];
+           x[10] += x[2];
+           x[11] += x[3];
+           x[2]   = r0;
+           x[3]   = r1;
+
+           r0     = x[12] - x[4];
+           r1     = x[13] - x[5];
+           x[12] += x[4];
+           x[13] += x[5];
+           x[4]   = MULT_NORM31(MUL(r0,cPI2_8_FIXED) - MUL(r1,cPI2_8_FIXED));
+           x[5]   = MULT_NORM31(MUL(r0,cPI2_8_FIXED) + MUL(r1,cPI2_8_FIXED));
+
+           r0     = x[14] - x[6];
+           r1     = x[15] - x[7];
+           x[14] += x[6];
+           x[15] += x[7];
+           x[6]  = r0;
+           x[7]  = r1;
+
+           mdct_butterfly_8(x);
+           mdct_butterfly_8(x+8);
+}
+
+/* 32 point butterfly (in place, 4 register) */
+STIN void mdct_butterfly_32(ogg_int32_t *x){
+  ogg_int32_t r0     = x[30] - x[14];
+  ogg_int32_t r1     = x[31] - x[15];
+
+           x[30] +=         x[14];
+           x[31] +=         x[15];
+           x[14]  =         r0;
+           x[15]  =         r1;
+
+           r0     = x[28] - x[12];
+           r1     = x[29] - x[13];
+           x[28] +=         x[12];
+           x[29] +=         x[13];
+           x[12]  = MULT_NORM31(MUL(r0,cPI1_8_FIXED) - MUL(r1,cPI3_8_FIXED));
+           x[13]  = MULT_NORM31(MUL(r0,cPI3_8_FIXED) + MUL(r1,cPI1_8_FIXED));
+
+           r0     = x[26] - x[10];
+           r1     = x[27] - x[11];
+           x[26] +=         x[10];
+           x[27] +=         x[11];
+           x[10]  = MULT_NORM31(MUL(r0,cPI2_8_FIXED) - MUL(r1,cPI2_8_FIXED));
+           x[11]  = MULT_NORM31(MUL(r0,cPI2_8_FIXED) + MUL(r1,cPI2_8_FIXED));
+
+           r0     = x[24] - x[8];
+           r1     = x[25] - x[9];
+           x[24] += x[8];
+           x[25] += x[9];
+           x[8]   = MULT_NORM31(MUL(r0,cPI3_8_FIXED) - MUL(r1,cPI1_8_FIXED));
+           x[9]   = MULT_NORM31(MUL(r1,cPI3_8_FIXED) + MUL(r0,cPI1_8_FIXED));
+
+           r0     = x[22] - x[6];
+           r1     = x[7]  - x[23];
+           x[22] += x[6];
+           x[23] += x[7];
+           x[6]   = r1;
+           x[7]   = r0;
+
+           r0     = x[4]  - x[20];
+           r1     = x[5]  - x[21];
+           x[20] += x[4];
+           x[21] += x[5];
+           x[4]   = MULT_NORM31(MUL(r1,cPI1_8_FIXED) + MUL(r0,cPI3_8_FIXED));
+           x[5]   = MULT_NORM31(MUL(r1,cPI3_8_FIXED) - MUL(r0,cPI1_8_FIXED));
+
+           r0     = x[2]  - x[18];
+           r1     = x[3]  - x[19];
+           x[18] += x[2];
+           x[19] += x[3];
+           x[2]   = MULT_NORM31(MUL(r1,cPI2_8_FIXED) + MUL(r0,cPI2_8_FIXED));
+           x[3]   = MULT_NORM31(MUL(r1,cPI2_8_FIXED) - MUL(r0,cPI2_8_FIXED));
+
+           r0     = x[0]  - x[16];
+           r1     = x[1]  - x[17];
+           x[16] += x[0];
+           x[17] += x[1];
+           x[0]   = MULT_NORM31(MUL(r1,cPI3_8_FIXED) + MUL(r0,cPI1_8_FIXED));
+           x[1]   = MULT_NORM31(MUL(r1,cPI1_8_FIXED) - MUL(r0,cPI3_8_FIXED));
+
+           mdct_butterfly_16(x);
+           mdct_butterfly_16(x+16);
+
+}
+
+/* N point first stage butterfly (in place, 2 register) */
+STIN void mdct_butterfly_first(ogg_int32_t *T,
+                                        ogg_int32_t *x,
+                                        int points){
+
+  ogg_int32_t *x1        = x          + points      - 8;
+  ogg_int32_t *x2        = x          + (points>>1) - 8;
+  ogg_int32_t  r0;
+  ogg_int32_t  r1;
+
+  do{
+
+               r0      = x1[6]      -  x2[6];
+               r1      = x1[7]      -  x2[7];
+               x1[6]  += x2[6];
+               x1[7]  += x2[7];
+               x2[6]   = MULT_NORM31(MUL(r1,T[1])  +  MUL(r0,T[0]));
+               x2[7]   = MULT_NORM31(MUL(r1,T[0])  -  MUL(r0,T[1]));
+
+               r0      = x1[4]      -  x2[4];
+               r1      = x1[5]      -  x2[5];
+               x1[4]  += x2[4];
+               x1[5]  += x2[5];
+               x2[4]   = MULT_NORM31(MUL(r1,T[5])  +  MUL(r0,T[4]));
+               x2[5]   = MULT_NORM31(MUL(r1,T[4])  -  MUL(r0,T[5]));
+
+               r0      = x1[2]      -  x2[2];
+               r1      = x1[3]      -  x2[3];
+               x1[2]  += x2[2];
+               x1[3]  += x2[3];
+               x2[2]   = MULT_NORM31(MUL(r1,T[9])  +  MUL(r0,T[8]));
+               x2[3]   = MULT_NORM31(MUL(r1,T[8])  -  MUL(r0,T[9]));
+
+               r0      = x1[0]      -  x2[0];
+               r1      = x1[1]      -  x2[1];
+               x1[0]  += x2[0];
+               x1[1]  += x2[1];
+               x2[0]   = MULT_NORM31(MUL(r1,T[13]) +  MUL(r0,T[12]));
+               x2[1]   = MULT_NORM31(MUL(r1,T[12]) -  MUL(r0,T[13]));
+
+    x1-=8;
+    x2-=8;
+    T+=16;
+
+  }while(x2>=x);
+}
+
+/* N/stage point generic N stage butterfly (in place, 2 register) */
+STIN void mdct_butterfly_generic(ogg_int32_t *T,
+                                          ogg_int32_t *x,
+                                          int points,
+                                          int trigint){
+
+  ogg_int32_t *x1        = x          + points      - 8;
+  ogg_int32_t *x2        = x          + (points>>1) - 8;
+  ogg_int32_t  r0;
+  ogg_int32_t  r1;
+
+  do{
+
+               r0      = x1[6]      -  x2[6];
+               r1      = x1[7]      -  x2[7];
+               x1[6]  += x2[6];
+               x1[7]  += x2[7];
+               x2[6]   = MULT_NORM31(MUL(r1,T[1])  +  MUL(r0,T[0]));
+               x2[7]   = MULT_NORM31(MUL(r1,T[0])  -  MUL(r0,T[1]));
+
+               T+=trigint;
+
+               r0      = x1[4]      -  x2[4];
+               r1      = x1[5]      -  x2[5];
+               x1[4]  += x2[4];
+               x1[5]  += x2[5];
+               x2[4]   = MULT_NORM31(MUL(r1,T[1])  +  MUL(r0,T[0]));
+               x2[5]   = MULT_NORM31(MUL(r1,T[0])  -  MUL(r0,T[1]));
+
+               T+=trigint;
+
+               r0      = x1[2]      -  x2[2];
+               r1      = x1[3]      -  x2[3];
+               x1[2]  += x2[2];
+               x1[3]  += x2[3];
+               x2[2]   = MULT_NORM31(MUL(r1,T[1])  +  MUL(r0,T[0]));
+               x2[3]   = MULT_NORM31(MUL(r1,T[0])  -  MUL(r0,T[1]));
+
+               T+=trigint;
+
+               r0      = x1[0]      -  x2[0];
+               r1      = x1[1]      -  x2[1];
+               x1[0]  += x2[0];
+               x1[1]  += x2[1];
+               x2[0]   = MULT_NORM31(MUL(r1,T[1])  +  MUL(r0,T[0]));
+               x2[1]   = MULT_NORM31(MUL(r1,T[0])  -  MUL(r0,T[1]));
+
+               T+=trigint;
+    x1-=8;
+    x2-=8;
+
+  }while(x2>=x);
+}
+
+STIN void mdct_butterflies(mdct_fixed_lookup *init,
+                             ogg_int32_t *x,
+                             int points){
+
+  ogg_int32_t *T=init->trig;
+  int stages=init->log2n-5;
+  int i,j;
+
+  if(--stages>0){
+    mdct_butterfly_first(T,x,points);
+  }
+
+  for(i=1;--stages>0;i++){
+    for(j=0;j<(1<<i);j++)
+      mdct_butterfly_generic(T,x+(points>>i)*j,points>>i,4<<i);
+  }
+
+  for(j=0;j<points;j+=32)
+    mdct_butterfly_32(x+j);
+
+}
+
+STIN void mdct_bitreverse(mdct_fixed_lookup *init,
+                            ogg_int32_t *x){
+  int          n       = init->n;
+  int         *bit     = init->bitrev;
+  ogg_int32_t *w0      = x;
+  ogg_int32_t *w1      = x = w0+(n>>1);
+  ogg_int32_t *T       = init->trig+n;
+
+  do{
+    ogg_int32_t *x0    = x+bit[0];
+    ogg_int32_t *x1    = x+bit[1];
+
+    ogg_int32_t  r0     = x0[1]  - x1[1];
+    ogg_int32_t  r1     = x0[0]  + x1[0];
+    ogg_int32_t  r2     = MULT_NORM31(MUL(r1,T[0])   + MUL(r0,T[1]));
+    ogg_int32_t  r3     = MULT_NORM31(MUL(r1,T[1])   - MUL(r0,T[0]));
+
+              w1    -= 4;
+
+              r0     = HALVE_FIXED(x0[1] + x1[1]);
+              r1     = HALVE_FIXED(x0[0] - x1[0]);
+
+              w0[0]  = r0     + r2;
+              w1[2]  = r0     - r2;
+              w0[1]  = r1     + r3;
+              w1[3]  = r3     - r1;
+
+              x0     = x+bit[2];
+              x1     = x+bit[3];
+
+              r0     = x0[1]  - x1[1];
+              r1     = x0[0]  + x1[0];
+              r2     = MULT_NORM31(MUL(r1,T[2])   + MUL(r0,T[3]));
+              r3     = MULT_NORM31(MUL(r1,T[3])   - MUL(r0,T[2]));
+
+              r0     = HALVE_FIXED(x0[1] + x1[1]);
+              r1     = HALVE_FIXED(x0[0] - x1[0]);
+
+              w0[2]  = r0     + r2;
+              w1[0]  = r0     - r2;
+              w0[3]  = r1     + r3;
+              w1[1]  = r3     - r1;
+
+              T     += 4;
+              bit   += 4;
+              w0    += 4;
+
+  }while(w0<w1);
+}
+
+void mdct_fixed_backward(mdct_fixed_lookup *init, ogg_int32_t *in,
+                         ogg_int32_t *out){
+  int n=init->n;
+  int n2=n>>1;
+  int n4=n>>2;
+
+  /* rotate */
+
+  ogg_int32_t *iX = in+n2-7;
+  ogg_int32_t *oX = out+n2+n4;
+  ogg_int32_t *T  = init->trig+n4;
+
+  do{
+    oX         -= 4;
+    oX[0]       = MULT_NORM31(-MUL(iX[2],T[3]) - MUL(iX[0],T[2]));
+    oX[1]       = MULT_NORM31 (MUL(iX[0],T[3]) - MUL(iX[2],T[2]));
+    oX[2]       = MULT_NORM31(-MUL(iX[6],T[1]) - MUL(iX[4],T[0]));
+    oX[3]       = MULT_NORM31 (MUL(iX[4],T[1]) - MUL(iX[6],T[0]));
+    iX         -= 8;
+    T          += 4;
+  }while(iX>=in);
+
+  iX            = in+n2-8;
+  oX            = out+n2+n4;
+  T             = init->trig+n4;
+
+  do{
+    T          -= 4;
+    oX[0]       =  MULT_NORM31 (MUL(iX[4],T[3]) + MUL(iX[6],T[2]));
+    oX[1]       =  MULT_NORM31 (MUL(iX[4],T[2]) - MUL(iX[6],T[3]));
+    oX[2]       =  MULT_NORM31 (MUL(iX[0],T[1]) + MUL(iX[2],T[0]));
+    oX[3]       =  MULT_NORM31 (MUL(iX[0],T[0]) - MUL(iX[2],T[1]));
+    iX         -= 8;
+    oX         += 4;
+  }while(iX>=in);
+
+  mdct_butterflies(init,out+n2,n2);
+  mdct_bitreverse(init,out);
+
+  /* roatate + window */
+
+  {
+    ogg_int32_t *oX1=out+n2+n4;
+    ogg_int32_t *oX2=out+n2+n4;
+    ogg_int32_t *iX =out;
+    T               =init->trig+n2;
+
+    do{
+      oX1-=4;
+
+      oX1[3]  =  MULT_NORM31 (MUL(iX[0],T[1]) - MUL(iX[1],T[0]));
+      oX2[0]  = -MULT_NORM31 (MUL(iX[0],T[0]) + MUL(iX[1],T[1]));
+
+      oX1[2]  =  MULT_NORM31 (MUL(iX[2],T[3]) - MUL(iX[3],T[2]));
+      oX2[1]  = -MULT_NORM31 (MUL(iX[2],T[2]) + MUL(iX[3],T[3]));
+
+      oX1[1]  =  MULT_NORM31 (MUL(iX[4],T[5]) - MUL(iX[5],T[4]));
+      oX2[2]  = -MULT_NORM31 (MUL(iX[4],T[4]) + MUL(iX[5],T[5]));
+
+      oX1[0]  =  MULT_NORM31 (MUL(iX[6],T[7]) - MUL(iX[7],T[6]));
+      oX2[3]  = -MULT_NORM31 (MUL(iX[6],T[6]) + MUL(iX[7],T[7]));
+
+      oX2+=4;
+      iX    +=   8;
+      T     +=   8;
+    }while(iX<oX1);
+
+    iX=out+n2+n4;
+    oX1=out+n4;
+    oX2=oX1;
+
+    do{
+      oX1-=4;
+      iX-=4;
+
+      oX2[0] = -(oX1[3] = iX[3]);
+      oX2[1] = -(oX1[2] = iX[2]);
+      oX2[2] = -(oX1[1] = iX[1]);
+      oX2[3] = -(oX1[0] = iX[0]);
+
+      oX2+=4;
+    }while(oX2<iX);
+
+    iX=out+n2+n4;
+    oX1=out+n2+n4;
+    oX2=out+n2;
+    do{
+      oX1-=4;
+      oX1[0]= iX[3];
+      oX1[1]= iX[2];
+      oX1[2]= iX[1];
+      oX1[3]= iX[0];
+      iX+=4;
+    }while(oX1>oX2);
+  }
+}
@@ -0,0 +1,4 @@
+/* mdct.c built again for libvorbis-tuned, see tuned.h */
+
+#include "tuned.h"
+#include "mdct.c"
@@ -68,4 +68,19 @@ extern void mdct_clear(mdct_lookup *l);
 extern void mdct_forward(mdct_lookup *init, DATA_TYPE *in, DATA_TYPE *out);
 extern void mdct_backward(mdct_lookup *init, DATA_TYPE *in, DATA_TYPE *out);
 
+/* the backward transform again in fixed point, see fixed.h and
+   mdct-fixed.c */
+typedef struct {
+  int n;
+  int log2n;
+
+  ogg_int32_t *trig; /* 1.31 */
+  int         *bitrev;
+} mdct_fixed_lookup;
+
+extern void mdct_fixed_init(mdct_fixed_lookup *lookup,int n);
+extern void mdct_fixed_clear(mdct_fixed_lookup *l);
+extern void mdct_fixed_backward(mdct_fixed_lookup *init, ogg_int32_t *in,
+                                ogg_int32_t *out);
+
 #endif
@@ -19,6 +19,13 @@
 #include "codec_internal.h"
 #include "registry.h"
 #include "misc.h"
+
+#if defined(VORBIS_TUNED) && (defined(__i386__) || defined(__x86_64__))
+#include <cpuid.h>
+#endif
+#if defined(VORBIS_TUNED) && defined(__arm__)
+#include <cpu-features.h>
+#endif
 /* seems like major overkill now; the backend numbers will grow into
    the infrastructure soon enough */
 
@@ -34,12 +41,50 @@ const vorbis_func_floor     *const _floor_P[]={
   &floor1_exportbundle,
 };
 
-const vorbis_func_residue   *const _residue_P[]={
+/* the residue and mapping backends are swapped for their tuned
+   builds at load time, see tuned.h */
+const vorbis_func_residue   *_residue_P[]={
   &residue0_exportbundle,
   &residue1_exportbundle,
   &residue2_exportbundle,
 };
 
-const vorbis_func_mapping   *const _mapping_P[]={
+const vorbis_func_mapping   *_mapping_P[]={
   &mapping0_exportbundle,
 };
+
+#ifdef VORBIS_TUNED
+extern const vorbis_func_residue   residue0_tuned_exportbundle;
+extern const vorbis_func_residue   residue1_tuned_exportbundle;
+extern const vorbis_func_residue   residue2_tuned_exportbundle;
+extern const vorbis_func_mapping   mapping0_tuned_exportbundle;
+
+/* whether the cpu has the vector units libvorbis-tuned was built for */
+static int tuned_supported(void){
+#if defined(__i386__) || defined(__x86_64__)
+  unsigned int eax,ebx,ecx,edx,xcr0;
+
+  if(!__get_cpuid(1,&eax,&ebx,&ecx,&edx) || !(ecx&bit_OSXSAVE) || !(ecx&bit_AVX))
+    return 0;
+  /* the os has to save the upper halves of the registers too */
+  __asm__("xgetbv" : "=a"(xcr0), "=d"(edx) : "c"(0));
+  if((xcr0&6)!=6)return 0;
+  return __get_cpuid_count(7,0,&eax,&ebx,&ecx,&edx) && (ebx&bit_AVX2);
+#elif defined(__arm__)
+  return android_getCpuFamily()==ANDROID_CPU_FAMILY_ARM &&
+    (android_getCpuFeatures()&ANDROID_CPU_ARM_FEATURE_NEON);
+#else
+  return 0;
+#endif
+}
+
+static void select_backends(void) __attribute__((constructor));
+static void select_backends(void){
+  if(tuned_supported()){
+    _residue_P[0]=&residue0_tuned_exportbundle;
+    _residue_P[1]=&residue1_tuned_exportbundle;
+    _residue_P[2]=&residue2_tuned_exportbundle;
+    _mapping_P[0]=&mapping0_tuned_exportbundle;
+  }
+}
+#endif
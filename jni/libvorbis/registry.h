@@ -26,7 +26,7 @@
 #define VI_MAPB 1
 
 extern const vorbis_func_floor     *const _floor_P[];
-extern const vorbis_func_residue   *const _residue_P[];
-extern const vorbis_func_mapping   *const _mapping_P[];
+extern const vorbis_func_residue   *_residue_P[];
+extern const vorbis_func_mapping   *_mapping_P[];
 
 #endif
@@ -0,0 +1,4 @@
+/* res0.c built again for libvorbis-tuned, see tuned.h */
+
+#include "tuned.h"
+#include "res0.c"
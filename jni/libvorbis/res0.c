@@ -30,6 +30,7 @@
 #include "codebook.h"
 #include "misc.h"
 #include "os.h"
+#include "fixed.h"
 
 //#define TRAIN_RES 1
 //#define TRAIN_RESAUX 1
@@ -470,7 +471,11 @@ static long **_01class(vorbis_block *vb,vorbis_look_residue *vl,
     }
   }
 #endif
+#ifdef TRAIN_RES
+  /* the bit counts are only for training; blocks analysed on several
+     threads at once share the look */
   look->frames++;
+#endif
 
   return(partword);
 }
@@ -528,7 +533,9 @@ static long **_2class(vorbis_block *vb,vorbis_look_residue *vl,int **in,
   fclose(of);
 #endif
 
+#ifdef TRAIN_RES
   look->frames++;
+#endif
 
   return(partword);
 }
@@ -590,7 +597,10 @@ static int _01forward(oggpack_buffer *opb,
 
           /* training hack */
           if(val<look->phrasebook->entries)
-            look->phrasebits+=vorbis_book_encode(look->phrasebook,val,opb);
+#ifdef TRAIN_RES
+            look->phrasebits+=
+#endif
+              vorbis_book_encode(look->phrasebook,val,opb);
 #if 0 /*def TRAIN_RES*/
           else
             fprintf(stderr,"!");
@@ -628,7 +638,9 @@ static int _01forward(oggpack_buffer *opb,
               ret=encode(opb,in[j]+offset,samples_per_partition,
                          statebook,accumulator);
 
+#ifdef TRAIN_RES
               look->postbits+=ret;
+#endif
               resbits[partword[j][i]]+=ret;
             }
           }
@@ -854,6 +866,155 @@ int res2_inverse(vorbis_block *vb,vorbis_look_residue *vl,
   return(0);
 }
 
+/* the inverses again for the fixed point synthesis, decoding x.8
+   residue with the fixed point values of the books */
+
+static int _01inverse_fixed(vorbis_block *vb,vorbis_look_residue *vl,
+                            ogg_int32_t **in,int ch,
+                            long (*decodepart)(codebook *,
+                                               const fixed_codebook *,
+                                               ogg_int32_t *,
+                                               oggpack_buffer *,int,int)){
+
+  long i,j,k,l,s;
+  vorbis_look_residue0 *look=(vorbis_look_residue0 *)vl;
+  vorbis_info_residue0 *info=look->info;
+  private_state *b=vb->vd->backend_state;
+  codec_setup_info *ci=vb->vd->vi->codec_setup;
+
+  /* move all this setup out later */
+  int samples_per_partition=info->grouping;
+  int partitions_per_word=look->phrasebook->dim;
+  int max=vb->pcmend>>1;
+  int end=(info->end<max?info->end:max);
+  int n=end-info->begin;
+
+  if(n>0){
+    int partvals=n/samples_per_partition;
+    int partwords=(partvals+partitions_per_word-1)/partitions_per_word;
+    int ***partword=alloca(ch*sizeof(*partword));
+
+    for(j=0;j<ch;j++)
+      partword[j]=_vorbis_block_alloc(vb,partwords*sizeof(*partword[j]));
+
+    for(s=0;s<look->stages;s++){
+
+      /* each loop decodes on partition codeword containing
+         partitions_per_word partitions */
+      for(i=0,l=0;i<partvals;l++){
+        if(s==0){
+          /* fetch the partition word for each channel */
+          for(j=0;j<ch;j++){
+            int temp=vorbis_book_decode(look->phrasebook,&vb->opb);
+
+            if(temp==-1 || temp>=info->partvals)goto eopbreak;
+            partword[j][l]=look->decodemap[temp];
+            if(partword[j][l]==NULL)goto errout;
+          }
+        }
+
+        /* now we decode residual values for the partitions */
+        for(k=0;k<partitions_per_word && i<partvals;k++,i++)
+          for(j=0;j<ch;j++){
+            long offset=info->begin+i*samples_per_partition;
+            if(info->secondstages[partword[j][l][k]]&(1<<s)){
+              codebook *stagebook=look->partbooks[partword[j][l][k]][s];
+              if(stagebook){
+                if(decodepart(stagebook,
+                              b->fixedbooks+(stagebook-ci->fullbooks),
+                              in[j]+offset,&vb->opb,
+                              samples_per_partition,
+                              FIXED_RESIDUE_POINT)==-1)goto eopbreak;
+              }
+            }
+          }
+      }
+    }
+  }
+ errout:
+ eopbreak:
+  return(0);
+}
+
+static int res0_inverse_fixed(vorbis_block *vb,vorbis_look_residue *vl,
+                              ogg_int32_t **in,int *nonzero,int ch){
+  int i,used=0;
+  for(i=0;i<ch;i++)
+    if(nonzero[i])
+      in[used++]=in[i];
+  if(used)
+    return(_01inverse_fixed(vb,vl,in,used,vorbis_book_decodevs_add_fixed));
+  else
+    return(0);
+}
+
+static int res1_inverse_fixed(vorbis_block *vb,vorbis_look_residue *vl,
+                              ogg_int32_t **in,int *nonzero,int ch){
+  int i,used=0;
+  for(i=0;i<ch;i++)
+    if(nonzero[i])
+      in[used++]=in[i];
+  if(used)
+    return(_01inverse_fixed(vb,vl,in,used,vorbis_book_decodev_add_fixed));
+  else
+    return(0);
+}
+
+static int res2_inverse_fixed(vorbis_block *vb,vorbis_look_residue *vl,
+                              ogg_int32_t **in,int *nonzero,int ch){
+  long i,k,l,s;
+  vorbis_look_residue0 *look=(vorbis_look_residue0 *)vl;
+  vorbis_info_residue0 *info=look->info;
+  private_state *b=vb->vd->backend_state;
+  codec_setup_info *ci=vb->vd->vi->codec_setup;
+
+  /* move all this setup out later */
+  int samples_per_partition=info->grouping;
+  int partitions_per_word=look->phrasebook->dim;
+  int max=(vb->pcmend*ch)>>1;
+  int end=(info->end<max?info->end:max);
+  int n=end-info->begin;
+
+  if(n>0){
+    int partvals=n/samples_per_partition;
+    int partwords=(partvals+partitions_per_word-1)/partitions_per_word;
+    int **partword=_vorbis_block_alloc(vb,partwords*sizeof(*partword));
+
+    for(i=0;i<ch;i++)if(nonzero[i])break;
+    if(i==ch)return(0); /* no nonzero vectors */
+
+    for(s=0;s<look->stages;s++){
+      for(i=0,l=0;i<partvals;l++){
+
+        if(s==0){
+          /* fetch the partition word */
+          int temp=vorbis_book_decode(look->phrasebook,&vb->opb);
+          if(temp==-1 || temp>=info->partvals)goto eopbreak;
+          partword[l]=look->decodemap[temp];
+          if(partword[l]==NULL)goto errout;
+        }
+
+        /* now we decode residual values for the partitions */
+        for(k=0;k<partitions_per_word && i<partvals;k++,i++)
+          if(info->secondstages[partword[l][k]]&(1<<s)){
+            codebook *stagebook=look->partbooks[partword[l][k]][s];
+
+            if(stagebook){
+              if(vorbis_book_decodevv_add_fixed(stagebook,
+                                   b->fixedbooks+(stagebook-ci->fullbooks),
+                                   in,i*samples_per_partition+info->begin,ch,
+                                   &vb->opb,samples_per_partition,
+                                   FIXED_RESIDUE_POINT)==-1)
+                goto eopbreak;
+            }
+          }
+      }
+    }
+  }
+ errout:
+ eopbreak:
+  return(0);
+}
 
 const vorbis_func_residue residue0_exportbundle={
   NULL,
@@ -863,7 +1024,8 @@ const vorbis_func_residue residue0_exportbundle={
   &res0_free_look,
   NULL,
   NULL,
-  &res0_inverse
+  &res0_inverse,
+  &res0_inverse_fixed
 };
 
 const vorbis_func_residue residue1_exportbundle={
@@ -874,7 +1036,8 @@ const vorbis_func_residue residue1_exportbundle={
   &res0_free_look,
   &res1_class,
   &res1_forward,
-  &res1_inverse
+  &res1_inverse,
+  &res1_inverse_fixed
 };
 
 const vorbis_func_residue residue2_exportbundle={
@@ -885,5 +1048,6 @@ const vorbis_func_residue residue2_exportbundle={
   &res0_free_look,
   &res2_class,
   &res2_forward,
-  &res2_inverse
+  &res2_inverse,
+  &res2_inverse_fixed
 };
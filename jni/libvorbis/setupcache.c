@@ -0,0 +1,243 @@
+/********************************************************************
+
+ function: process wide cache of unpacked decode setups, see
+ setupcache.h
+
+ The entries form a list from the most recently used on. An entry
+ holds a reference for being in the cache and one for each vorbis_info
+ sharing it, so an entry evicted while streams still decode with it
+ lives on until the last of them is cleared.
+
+ ********************************************************************/
+
+#include <stdlib.h>
+#include <string.h>
+#include <pthread.h>
+#include <ogg/ogg.h>
+#include "vorbis/codec.h"
+#include "codec_internal.h"
+#include "codebook.h"
+#include "setupcache.h"
+
+#define DEFAULT_CAPACITY 8
+
+struct vorbis_setup_entry {
+  ogg_uint32_t hash;
+  int channels;
+  long blocksizes[2];
+  unsigned char *packet;
+  long bytes;
+
+  codec_setup_info *ci; /* owns everything the copies point to */
+  int refs;
+  struct vorbis_setup_entry *next;
+};
+
+static pthread_mutex_t lock=PTHREAD_MUTEX_INITIALIZER;
+static struct vorbis_setup_entry *lru;
+static int count;
+static int capacity=DEFAULT_CAPACITY;
+static ogg_int64_t hits;
+static ogg_int64_t misses;
+static ogg_int64_t evictions;
+
+/* FNV-1a, the packet is compared in full on a match anyway */
+static ogg_uint32_t hash_packet(ogg_packet *op){
+  ogg_uint32_t h=2166136261U;
+  long i;
+  for(i=0;i<op->bytes;i++){
+    h^=op->packet[i];
+    h*=16777619U;
+  }
+  return h;
+}
+
+static int matches(struct vorbis_setup_entry *e,ogg_uint32_t hash,
+                   vorbis_info *vi,ogg_packet *op){
+  codec_setup_info *ci=vi->codec_setup;
+  return e->hash==hash &&
+    e->channels==vi->channels &&
+    e->blocksizes[0]==ci->blocksizes[0] &&
+    e->blocksizes[1]==ci->blocksizes[1] &&
+    e->bytes==op->bytes &&
+    !memcmp(e->packet,op->packet,op->bytes);
+}
+
+/* makes vi share the setup of e, whose reference it takes over */
+static void share(vorbis_info *vi,struct vorbis_setup_entry *e){
+  codec_setup_info *ci=vi->codec_setup;
+  int halfrate_flag=ci->halfrate_flag;
+  int fixed_flag=ci->fixed_flag;
+
+  memcpy(ci,e->ci,sizeof(*ci));
+  ci->halfrate_flag=halfrate_flag;
+  ci->fixed_flag=fixed_flag;
+  ci->shared=e;
+}
+
+static void destroy(struct vorbis_setup_entry *e){
+  vorbis_info vi;
+
+  /* a vorbis_info of its own frees the setup as it would any other */
+  memset(&vi,0,sizeof(vi));
+  vi.codec_setup=e->ci;
+  vorbis_info_clear(&vi);
+  _ogg_free(e->packet);
+  _ogg_free(e);
+}
+
+/* unlinks the entries past the capacity, the least recently used, and
+   returns those nobody shares any more to be destroyed. Called with
+   the lock held. */
+static struct vorbis_setup_entry *trim(void){
+  struct vorbis_setup_entry **link=&lru;
+  struct vorbis_setup_entry *e,*next,*unused=NULL;
+  int i;
+
+  if(count<=capacity)return NULL;
+  for(i=0;i<capacity;i++)
+    link=&(*link)->next;
+  for(e=*link;e;e=next){
+    next=e->next;
+    evictions++;
+    count--;
+    if(--e->refs==0){
+      e->next=unused;
+      unused=e;
+    }
+  }
+  *link=NULL;
+  return unused;
+}
+
+static void destroy_all(struct vorbis_setup_entry *e){
+  struct vorbis_setup_entry *next;
+  for(;e;e=next){
+    next=e->next;
+    destroy(e);
+  }
+}
+
+/* builds the decode tables of the books up front, as
+   vorbis_synthesis_init would, so nothing in the setup changes once
+   it is shared. Returns 0 on success. */
+static int init_books(codec_setup_info *ci){
+  int i;
+
+  ci->fullbooks=_ogg_calloc(ci->books,sizeof(*ci->fullbooks));
+  for(i=0;i<ci->books;i++){
+    if(vorbis_book_init_decode(ci->fullbooks+i,ci->book_param[i])){
+      /* a failed book clears itself, leave the rest to
+         vorbis_synthesis_init to fail on */
+      while(i--)
+        vorbis_book_clear(ci->fullbooks+i);
+      _ogg_free(ci->fullbooks);
+      ci->fullbooks=NULL;
+      return -1;
+    }
+  }
+  for(i=0;i<ci->books;i++){
+    vorbis_staticbook_destroy(ci->book_param[i]);
+    ci->book_param[i]=NULL;
+  }
+  return 0;
+}
+
+int _vorbis_setup_cache_lookup(vorbis_info *vi,ogg_packet *op){
+  ogg_uint32_t hash;
+  struct vorbis_setup_entry **link,*e;
+
+  if(!vi->codec_setup)return -1;
+  hash=hash_packet(op);
+
+  pthread_mutex_lock(&lock);
+  for(link=&lru;*link;link=&(*link)->next){
+    e=*link;
+    if(matches(e,hash,vi,op)){
+      /* move it to the front */
+      *link=e->next;
+      e->next=lru;
+      lru=e;
+      e->refs++;
+      hits++;
+      pthread_mutex_unlock(&lock);
+
+      share(vi,e);
+      return 0;
+    }
+  }
+  misses++;
+  pthread_mutex_unlock(&lock);
+  return -1;
+}
+
+void _vorbis_setup_cache_insert(vorbis_info *vi,ogg_packet *op){
+  codec_setup_info *ci=vi->codec_setup;
+  struct vorbis_setup_entry *e,*unused;
+
+  pthread_mutex_lock(&lock);
+  if(capacity==0){
+    pthread_mutex_unlock(&lock);
+    return;
+  }
+  pthread_mutex_unlock(&lock);
+
+  if(init_books(ci))return;
+
+  e=_ogg_calloc(1,sizeof(*e));
+  e->packet=_ogg_malloc(op->bytes);
+  memcpy(e->packet,op->packet,op->bytes);
+  e->bytes=op->bytes;
+  e->hash=hash_packet(op);
+  e->channels=vi->channels;
+  e->blocksizes[0]=ci->blocksizes[0];
+  e->blocksizes[1]=ci->blocksizes[1];
+
+  /* the entry takes the setup over, vi keeps a copy */
+  e->ci=_ogg_malloc(sizeof(*e->ci));
+  memcpy(e->ci,ci,sizeof(*ci));
+  e->ci->halfrate_flag=0;
+  e->ci->fixed_flag=0;
+  e->refs=2;
+  share(vi,e);
+
+  pthread_mutex_lock(&lock);
+  e->next=lru;
+  lru=e;
+  count++;
+  unused=trim();
+  pthread_mutex_unlock(&lock);
+
+  destroy_all(unused);
+}
+
+void _vorbis_setup_cache_release(struct vorbis_setup_entry *e){
+  int refs;
+
+  pthread_mutex_lock(&lock);
+  refs=--e->refs;
+  pthread_mutex_unlock(&lock);
+
+  if(refs==0)destroy(e);
+}
+
+void vorbis_setup_cache_set_capacity(int entries){
+  struct vorbis_setup_entry *unused;
+
+  pthread_mutex_lock(&lock);
+  capacity=entries<0?0:entries;
+  unused=trim();
+  pthread_mutex_unlock(&lock);
+
+  destroy_all(unused);
+}
+
+void vorbis_setup_cache_get_stats(vorbis_setup_cache_stats *stats){
+  pthread_mutex_lock(&lock);
+  stats->hits=hits;
+  stats->misses=misses;
+  stats->evictions=evictions;
+  stats->entries=count;
+  stats->capacity=capacity;
+  pthread_mutex_unlock(&lock);
+}
@@ -0,0 +1,34 @@
+/********************************************************************
+
+ function: process wide cache of unpacked decode setups
+
+ Files made with the same encoder settings carry byte for byte the
+ same setup header, and each decoder would otherwise unpack its
+ codebooks, floors, residues and mappings and build the decode tables
+ of the books all over again. The cache keeps what was unpacked from a
+ setup header and every vorbis_info decoding a stream with the same
+ header shares it, reference counted. The shared parts never change
+ once the decode tables are built, each vorbis_info only keeps a copy
+ of codec_setup_info itself, for halfrate_flag.
+
+ ********************************************************************/
+
+#ifndef _V_SETUPCACHE_H_
+#define _V_SETUPCACHE_H_
+
+#include "vorbis/codec.h"
+
+struct vorbis_setup_entry;
+
+/* Looks for a setup unpacked from the same setup header before, and if
+   there is one makes vi share it. Returns 0 on a hit. */
+extern int  _vorbis_setup_cache_lookup(vorbis_info *vi,ogg_packet *op);
+
+/* Offers the setup vi just unpacked from op to the cache, vi shares it
+   from then on if it is taken. */
+extern void _vorbis_setup_cache_insert(vorbis_info *vi,ogg_packet *op);
+
+/* Drops the reference of a vorbis_info sharing a cached setup. */
+extern void _vorbis_setup_cache_release(struct vorbis_setup_entry *e);
+
+#endif
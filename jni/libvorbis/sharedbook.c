@@ -427,6 +427,34 @@ int vorbis_book_init_decode(codebook *c,const static_codebook *s){
   return(-1);
 }
 
+/* the values of a decode book in fixed point; the book may be shared
+   by other decoders through the setup cache and is only read */
+int vorbis_book_init_fixed(fixed_codebook *dest,const codebook *source){
+  long i,n=source->used_entries*source->dim;
+  float max=0.f;
+
+  memset(dest,0,sizeof(*dest));
+  if(source->valuelist==NULL || n==0)return(0);
+
+  for(i=0;i<n;i++)
+    if(fabs(source->valuelist[i])>max)max=fabs(source->valuelist[i]);
+
+  /* as many fractional bits as fit below 2^30, 24 at most */
+  dest->point=24;
+  while(dest->point>-31 && ldexp(max,dest->point)>=1073741824.)
+    dest->point--;
+
+  dest->valuelist=_ogg_malloc(n*sizeof(*dest->valuelist));
+  for(i=0;i<n;i++)
+    dest->valuelist[i]=rint(ldexp(source->valuelist[i],dest->point));
+  return(0);
+}
+
+void vorbis_book_clear_fixed(fixed_codebook *b){
+  if(b->valuelist)_ogg_free(b->valuelist);
+  memset(b,0,sizeof(*b));
+}
+
 long vorbis_book_codeword(codebook *book,int entry){
   if(book->c) /* only use with encode; decode optimizations are
                  allowed to break this */
@@ -1229,14 +1229,16 @@ static void drftb1(int n, float *c, float *ch, float *wa, int *ifac){
   for(i=0;i<n;i++)c[i]=ch[i];
 }
 
+/* the first n floats of trigcache used to be the work area; it's on the
+   stack instead so several blocks can share a lookup at once */
 void drft_forward(drft_lookup *l,float *data){
   if(l->n==1)return;
-  drftf1(l->n,data,l->trigcache,l->trigcache+l->n,l->splitcache);
+  drftf1(l->n,data,alloca(l->n*sizeof(*data)),l->trigcache+l->n,l->splitcache);
 }
 
 void drft_backward(drft_lookup *l,float *data){
   if (l->n==1)return;
-  drftb1(l->n,data,l->trigcache,l->trigcache+l->n,l->splitcache);
+  drftb1(l->n,data,alloca(l->n*sizeof(*data)),l->trigcache+l->n,l->splitcache);
 }
 
 void drft_init(drft_lookup *l,int n){
@@ -174,6 +174,8 @@ int vorbis_synthesis_halfrate(vorbis_info *vi,int flag){
 
   /* right now, our MDCT can't handle < 64 sample windows. */
   if(ci->blocksizes[0]<=64 && flag)return -1;
+  /* nor is there a fixed point half rate synthesis */
+  if(ci->fixed_flag && flag)return -1;
   ci->halfrate_flag=(flag?1:0);
   return 0;
 }
@@ -182,3 +184,17 @@ int vorbis_synthesis_halfrate_p(vorbis_info *vi){
   codec_setup_info     *ci=vi->codec_setup;
   return ci->halfrate_flag;
 }
+
+int vorbis_synthesis_fixed(vorbis_info *vi,int flag){
+  /* set / clear fixed point synthesis, see fixed.h */
+  codec_setup_info     *ci=vi->codec_setup;
+
+  if(ci->halfrate_flag && flag)return -1;
+  ci->fixed_flag=(flag?1:0);
+  return 0;
+}
+
+int vorbis_synthesis_fixed_p(vorbis_info *vi){
+  codec_setup_info     *ci=vi->codec_setup;
+  return ci->fixed_flag;
+}
@@ -0,0 +1,41 @@
+/********************************************************************
+
+ function: names for the second, tuned build of the hot paths
+
+ mdct.c, res0.c and mapping0.c are built a second time into the
+ libvorbis-tuned module, with the wider vector units some cpus of an
+ ABI have (AVX2 on x86, NEON on armeabi-v7a). Everything those files
+ export is renamed here so both builds link side by side, and
+ registry.c swaps the tuned residue and mapping backends in at load
+ time when the cpu can run them. The tuned build leaves out FMA, so
+ it decodes to exactly the same pcm as the generic one.
+
+ ********************************************************************/
+
+#ifndef _V_TUNED_H_
+#define _V_TUNED_H_
+
+#define mdct_init mdct_init_tuned
+#define mdct_clear mdct_clear_tuned
+#define mdct_forward mdct_forward_tuned
+#define mdct_backward mdct_backward_tuned
+
+#define res0_free_info res0_free_info_tuned
+#define res0_free_look res0_free_look_tuned
+#define res0_pack res0_pack_tuned
+#define res0_unpack res0_unpack_tuned
+#define res0_look res0_look_tuned
+#define res0_inverse res0_inverse_tuned
+#define res1_class res1_class_tuned
+#define res1_forward res1_forward_tuned
+#define res1_inverse res1_inverse_tuned
+#define res2_class res2_class_tuned
+#define res2_forward res2_forward_tuned
+#define res2_inverse res2_inverse_tuned
+#define residue0_exportbundle residue0_tuned_exportbundle
+#define residue1_exportbundle residue1_tuned_exportbundle
+#define residue2_exportbundle residue2_tuned_exportbundle
+
+#define mapping0_exportbundle mapping0_tuned_exportbundle
+
+#endif
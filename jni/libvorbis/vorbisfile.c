@@ -29,6 +29,7 @@
 
 #include "os.h"
 #include "misc.h"
+#include "fixed.h"
 
 /* A 'chained bitstream' is a Vorbis bitstream that contains more than
    one logical bitstream arranged end to end (the only form of Ogg
@@ -742,7 +743,9 @@ static int _fetch_and_process_packet(OggVorbis_File *vf,
                  to have a reference point.  Thus the !op_ptr->e_o_s clause
                  above */
 
-              if(vf->seekable && link>0)
+              /* the first link can start past granule 0 as well, e.g. a
+                 stream cut out of a live broadcast */
+              if(vf->seekable)
                 granulepos-=vf->pcmlengths[link*2];
               if(granulepos<0)granulepos=0; /* actually, this
                                                shouldn't be possible
@@ -1052,6 +1055,40 @@ int ov_halfrate_p(OggVorbis_File *vf){
   return vorbis_synthesis_halfrate_p(vf->vi);
 }
 
+/* the same for the fixed point synthesis; the decoded pcm is then
+   read with ov_read or ov_read_fixed */
+
+int ov_fixed(OggVorbis_File *vf,int flag){
+  int i;
+  if(vf->vi==NULL)return OV_EINVAL;
+
+  /* unlike half rate the flag picks the pcm buffers ov_read reads
+     from, so it is set ahead of rebuilding the decode machine */
+  for(i=0;i<vf->links;i++){
+    if(vorbis_synthesis_fixed(vf->vi+i,flag)){
+      while(i--)vorbis_synthesis_fixed(vf->vi+i,0);
+      return OV_EINVAL;
+    }
+  }
+
+  if(vf->ready_state>STREAMSET){
+    vorbis_dsp_clear(&vf->vd);
+    vorbis_block_clear(&vf->vb);
+    vf->ready_state=STREAMSET;
+    if(vf->pcm_offset>=0){
+      ogg_int64_t pos=vf->pcm_offset;
+      vf->pcm_offset=-1; /* make sure the pos is dumped if unseekable */
+      ov_pcm_seek(vf,pos);
+    }
+  }
+  return 0;
+}
+
+int ov_fixed_p(OggVorbis_File *vf){
+  if(vf->vi==NULL)return OV_EINVAL;
+  return vorbis_synthesis_fixed_p(vf->vi);
+}
+
 /* Only partially open the vorbis file; test for Vorbisness, and load
    the headers for the first chain.  Do not seek (although test for
    seekability).  Use ov_test_open to finish opening the file, else
@@ -1866,6 +1903,87 @@ static int host_is_big_endian() {
 
             *section) set to the logical bitstream number */
 
+/* ov_read_filter for the fixed point synthesis, rounding x.24 to the
+   word size without a float in between */
+static long _ov_read_fixed(OggVorbis_File *vf,char *buffer,int length,
+                           int bigendianp,int word,int sgned,int *bitstream){
+  int i,j;
+  int host_endian = host_is_big_endian();
+
+  ogg_int32_t **pcm;
+  long samples;
+
+  while(1){
+    if(vf->ready_state==INITSET){
+      samples=vorbis_synthesis_pcmout_fixed(&vf->vd,&pcm);
+      if(samples)break;
+    }
+
+    /* suck in another packet */
+    {
+      int ret=_fetch_and_process_packet(vf,NULL,1,1);
+      if(ret==OV_EOF)
+        return(0);
+      if(ret<=0)
+        return(ret);
+    }
+
+  }
+
+  if(samples>0){
+
+    long channels=ov_info(vf,-1)->channels;
+    long bytespersample=word * channels;
+    if(samples>length/bytespersample)samples=length/bytespersample;
+
+    if(samples <= 0)
+      return OV_EINVAL;
+
+    {
+      int val;
+      if(word==1){
+        int off=(sgned?0:128);
+        for(j=0;j<samples;j++)
+          for(i=0;i<channels;i++){
+            val=((pcm[i][j]>>(FIXED_PCM_POINT-8))+1)>>1;
+            if(val>127)val=127;
+            else if(val<-128)val=-128;
+            *buffer++=val+off;
+          }
+      }else{
+        int off=(sgned?0:32768);
+        for(i=0;i<channels;i++){
+          ogg_int32_t *src=pcm[i];
+          unsigned char *dest=(unsigned char *)buffer+i*2;
+          for(j=0;j<samples;j++){
+            val=((src[j]>>(FIXED_PCM_POINT-16))+1)>>1;
+            if(val>32767)val=32767;
+            else if(val<-32768)val=-32768;
+            val+=off;
+            if(host_endian==bigendianp)
+              *(short *)dest=val;
+            else if(bigendianp){
+              dest[0]=val>>8;
+              dest[1]=val&0xff;
+            }else{
+              dest[0]=val&0xff;
+              dest[1]=val>>8;
+            }
+            dest+=channels*2;
+          }
+        }
+      }
+    }
+
+    vorbis_synthesis_read(&vf->vd,samples);
+    vf->pcm_offset+=samples;
+    if(bitstream)*bitstream=vf->current_link;
+    return(samples*bytespersample);
+  }else{
+    return(samples);
+  }
+}
+
 long ov_read_filter(OggVorbis_File *vf,char *buffer,int length,
                     int bigendianp,int word,int sgned,int *bitstream,
                     void (*filter)(float **pcm,long channels,long samples,void *filter_param),void *filter_param){
@@ -1877,6 +1995,11 @@ long ov_read_filter(OggVorbis_File *vf,char *buffer,int length,
   long samples;
 
   if(vf->ready_state<OPENED)return(OV_EINVAL);
+  if(vorbis_synthesis_fixed_p(vf->vi)){
+    /* there are no float vectors to filter */
+    if(filter)return(OV_EINVAL);
+    return _ov_read_fixed(vf,buffer,length,bigendianp,word,sgned,bitstream);
+  }
 
   while(1){
     if(vf->ready_state==INITSET){
@@ -2027,6 +2150,7 @@ long ov_read_float(OggVorbis_File *vf,float ***pcm_channels,int length,
                    int *bitstream){
 
   if(vf->ready_state<OPENED)return(OV_EINVAL);
+  if(vorbis_synthesis_fixed_p(vf->vi))return(OV_EINVAL);
 
   while(1){
     if(vf->ready_state==INITSET){
@@ -2054,6 +2178,40 @@ long ov_read_float(OggVorbis_File *vf,float ***pcm_channels,int length,
   }
 }
 
+/* ov_read_float for the fixed point synthesis: pcm_channels is set to
+   a vector per channel of 8.24 ints, 1<<24 being full scale */
+
+long ov_read_fixed(OggVorbis_File *vf,ogg_int32_t ***pcm_channels,int length,
+                   int *bitstream){
+
+  if(vf->ready_state<OPENED)return(OV_EINVAL);
+  if(!vorbis_synthesis_fixed_p(vf->vi))return(OV_EINVAL);
+
+  while(1){
+    if(vf->ready_state==INITSET){
+      ogg_int32_t **pcm;
+      long samples=vorbis_synthesis_pcmout_fixed(&vf->vd,&pcm);
+      if(samples){
+        if(pcm_channels)*pcm_channels=pcm;
+        if(samples>length)samples=length;
+        vorbis_synthesis_read(&vf->vd,samples);
+        vf->pcm_offset+=samples;
+        if(bitstream)*bitstream=vf->current_link;
+        return samples;
+
+      }
+    }
+
+    /* suck in another packet */
+    {
+      int ret=_fetch_and_process_packet(vf,NULL,1,1);
+      if(ret==OV_EOF)return(0);
+      if(ret<=0)return(ret);
+    }
+
+  }
+}
+
 extern float *vorbis_window(vorbis_dsp_state *v,int W);
 
 static void _ov_splice(float **pcm,float **lappcm,
@@ -2175,6 +2333,8 @@ int ov_crosslap(OggVorbis_File *vf1, OggVorbis_File *vf2){
   if(vf1==vf2)return(0); /* degenerate case */
   if(vf1->ready_state<OPENED)return(OV_EINVAL);
   if(vf2->ready_state<OPENED)return(OV_EINVAL);
+  /* the fixed point synthesis keeps no float lapping buffers */
+  if(ov_fixed_p(vf1) || ov_fixed_p(vf2))return(OV_EINVAL);
 
   /* the relevant overlap buffers must be pre-checked and pre-primed
      before looking at settings in the event that priming would cross
@@ -2228,6 +2388,7 @@ static int _ov_64_seek_lap(OggVorbis_File *vf,ogg_int64_t pos,
   int i,ret;
 
   if(vf->ready_state<OPENED)return(OV_EINVAL);
+  if(ov_fixed_p(vf))return(OV_EINVAL);
   ret=_ov_initset(vf);
   if(ret)return(ret);
   vi=ov_info(vf,-1);
@@ -2289,6 +2450,7 @@ static int _ov_d_seek_lap(OggVorbis_File *vf,double pos,
   int i,ret;
 
   if(vf->ready_state<OPENED)return(OV_EINVAL);
+  if(ov_fixed_p(vf))return(OV_EINVAL);
   ret=_ov_initset(vf);
   if(ret)return(ret);
   vi=ov_info(vf,-1);
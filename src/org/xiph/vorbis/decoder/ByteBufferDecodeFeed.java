@@ -0,0 +1,49 @@
+package org.xiph.vorbis.decoder;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * A feed interface like {@link DecodeFeed} which is handed direct buffers over the native decoder's own memory, so no
+ * java arrays are pinned or copied per chunk.
+ * <p/>
+ * The buffers passed to this feed are only valid for the duration of the call and must not be kept.
+ * The result codes returned by {@link VorbisDecoder#startDecoding(ByteBufferDecodeFeed)} are the same as
+ * {@link DecodeFeed}'s
+ */
+public interface ByteBufferDecodeFeed {
+    /**
+     * Triggered from the native {@link VorbisDecoder} that is requesting to read the next bit of vorbis data
+     *
+     * @param buffer        a direct buffer over libogg's sync buffer, positioned at <code>0</code>, to write to
+     * @param amountToWrite the amount of vorbis data to write
+     * @return the amount actually written
+     */
+    public int readVorbisData(ByteBuffer buffer, int amountToWrite);
+
+    /**
+     * Triggered from the native {@link VorbisDecoder} that is requesting to write the next bit of raw PCM data
+     *
+     * @param pcmData      a direct buffer over the native conversion buffer holding interleaved pcm, positioned at
+     *                     <code>0</code> with its limit set to <code>amountToRead</code>
+     * @param amountToRead the amount available to read in the buffer
+     */
+    public void writePCMData(ShortBuffer pcmData, int amountToRead);
+
+    /**
+     * To be called when decoding has completed
+     */
+    public void stop();
+
+    /**
+     * Puts the decode feed in the reading header state
+     */
+    public void startReadingHeader();
+
+    /**
+     * To be called when decoding has started
+     *
+     * @param decodeStreamInfo the stream information of what's about to be played
+     */
+    public void start(DecodeStreamInfo decodeStreamInfo);
+}
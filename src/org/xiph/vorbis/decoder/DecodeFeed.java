@@ -42,6 +42,11 @@ public interface DecodeFeed {
      */
     public static final int PREMATURE_END_OF_FILE = -26;
 
+    /**
+     * The native decoder could not allocate its read or pcm buffers
+     */
+    public static final int ERROR_ALLOCATING_BUFFERS = -27;
+
     /**
      * Triggered from the native {@link VorbisDecoder} that is requesting to read the next bit of vorbis data
      *
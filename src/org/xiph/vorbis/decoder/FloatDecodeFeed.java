@@ -0,0 +1,50 @@
+package org.xiph.vorbis.decoder;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * A feed interface like {@link ByteBufferDecodeFeed} which is handed libvorbis' float pcm as is, from -1 to 1, instead
+ * of 16 bit pcm. Nothing is rounded or clipped, so consumers that work in float don't pay for converting to shorts and
+ * back.
+ * <p/>
+ * The buffers passed to this feed are only valid for the duration of the call and must not be kept.
+ * The result codes returned by {@link VorbisDecoder#startDecoding(FloatDecodeFeed)} are the same as
+ * {@link DecodeFeed}'s
+ */
+public interface FloatDecodeFeed {
+    /**
+     * Triggered from the native {@link VorbisDecoder} that is requesting to read the next bit of vorbis data
+     *
+     * @param buffer        a direct buffer over libogg's sync buffer, positioned at <code>0</code>, to write to
+     * @param amountToWrite the amount of vorbis data to write
+     * @return the amount actually written
+     */
+    public int readVorbisData(ByteBuffer buffer, int amountToWrite);
+
+    /**
+     * Triggered from the native {@link VorbisDecoder} that is requesting to write the next bit of raw PCM data
+     *
+     * @param pcmData      a direct buffer over the native pcm buffer holding interleaved float pcm, positioned at
+     *                     <code>0</code> with its limit set to <code>amountToRead</code>
+     * @param amountToRead the amount available to read in the buffer
+     */
+    public void writePCMData(FloatBuffer pcmData, int amountToRead);
+
+    /**
+     * To be called when decoding has completed
+     */
+    public void stop();
+
+    /**
+     * Puts the decode feed in the reading header state
+     */
+    public void startReadingHeader();
+
+    /**
+     * To be called when decoding has started
+     *
+     * @param decodeStreamInfo the stream information of what's about to be played
+     */
+    public void start(DecodeStreamInfo decodeStreamInfo);
+}
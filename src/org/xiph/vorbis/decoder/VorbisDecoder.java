@@ -1,5 +1,7 @@
 package org.xiph.vorbis.decoder;
 
+import org.xiph.vorbis.util.SetupCacheStats;
+
 /**
  * The native vorbis decoder to be used in conjunction with JNI
  * User: vincent
@@ -7,6 +9,21 @@ package org.xiph.vorbis.decoder;
  * Time: 9:07 AM
  */
 public class VorbisDecoder {
+    /**
+     * The smallest read or pcm buffer size accepted for batch decoding
+     */
+    public static final int MINIMUM_BATCH_BUFFER_SIZE = 4096;
+
+    /**
+     * The libvorbis float synthesis, the default decode engine
+     */
+    public static final int ENGINE_FLOAT = 0;
+
+    /**
+     * Integer only synthesis in the style of Tremor, for cpus with no or a slow fpu. It decodes the same streams to the
+     * same int16 pcm give or take the last bit, without converting from floats
+     */
+    public static final int ENGINE_FIXED_POINT = 1;
 
     /**
      * Load our vorbis-jni library and other dependent libraries
@@ -24,4 +41,187 @@ public class VorbisDecoder {
      * @return the result code
      */
     public static native int startDecoding(DecodeFeed decodeFeed);
+
+    /**
+     * Start decoding the data by way of a jni call, handing the feed direct buffers instead of java arrays
+     *
+     * @param decodeFeed the custom decode feed
+     * @return the result code
+     */
+    public static int startDecoding(ByteBufferDecodeFeed decodeFeed) {
+        return startDecodingDirect(decodeFeed);
+    }
+
+    /**
+     * Start decoding the data by way of a jni call in batches. Vorbis data is read <code>readBufferSize</code> bytes at
+     * a time and pcm data is collected natively and only written to the feed once <code>pcmBufferSize</code> samples
+     * are ready (or the stream ends), trading a little latency for far fewer calls across jni
+     *
+     * @param decodeFeed     the custom decode feed
+     * @param readBufferSize the amount of vorbis data to ask the feed for at once, in bytes
+     * @param pcmBufferSize  the amount of interleaved pcm to collect before writing it to the feed, in samples
+     * @return the result code
+     */
+    public static int startDecoding(DecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize) {
+        return startDecoding(decodeFeed, readBufferSize, pcmBufferSize, ENGINE_FLOAT);
+    }
+
+    /**
+     * Start decoding the data by way of a jni call in batches with the given decode engine. The fixed point engine
+     * synthesizes in ints from the codebooks to the int16 pcm, which on cpus without a fast fpu takes far less cpu
+     * than the float one. The feed sees the same stream info and pcm either way.
+     *
+     * @param decodeFeed     the custom decode feed
+     * @param readBufferSize the amount of vorbis data to ask the feed for at once, in bytes
+     * @param pcmBufferSize  the amount of interleaved pcm to collect before writing it to the feed, in samples
+     * @param engine         {@link #ENGINE_FLOAT} or {@link #ENGINE_FIXED_POINT}
+     * @return the result code
+     * @see #startDecoding(DecodeFeed, int, int)
+     * @see #getPreferredEngine()
+     */
+    public static int startDecoding(DecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize, int engine) {
+        checkBatchBufferSizes(readBufferSize, pcmBufferSize);
+        checkEngine(engine);
+        return startBatchDecoding(decodeFeed, readBufferSize, pcmBufferSize, engine);
+    }
+
+    /**
+     * Start decoding the data by way of a jni call in batches, handing the feed direct buffers instead of java arrays
+     *
+     * @param decodeFeed     the custom decode feed
+     * @param readBufferSize the amount of vorbis data to ask the feed for at once, in bytes
+     * @param pcmBufferSize  the amount of interleaved pcm to collect before writing it to the feed, in samples
+     * @return the result code
+     * @see #startDecoding(DecodeFeed, int, int)
+     */
+    public static int startDecoding(ByteBufferDecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize) {
+        return startDecoding(decodeFeed, readBufferSize, pcmBufferSize, ENGINE_FLOAT);
+    }
+
+    /**
+     * Start decoding the data by way of a jni call in batches with the given decode engine, handing the feed direct
+     * buffers instead of java arrays
+     *
+     * @param decodeFeed     the custom decode feed
+     * @param readBufferSize the amount of vorbis data to ask the feed for at once, in bytes
+     * @param pcmBufferSize  the amount of interleaved pcm to collect before writing it to the feed, in samples
+     * @param engine         {@link #ENGINE_FLOAT} or {@link #ENGINE_FIXED_POINT}
+     * @return the result code
+     * @see #startDecoding(DecodeFeed, int, int, int)
+     */
+    public static int startDecoding(ByteBufferDecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize,
+            int engine) {
+        checkBatchBufferSizes(readBufferSize, pcmBufferSize);
+        checkEngine(engine);
+        return startBatchDecodingDirect(decodeFeed, readBufferSize, pcmBufferSize, engine);
+    }
+
+    /**
+     * Start decoding the data by way of a jni call, handing the feed libvorbis' float pcm without converting it
+     *
+     * @param decodeFeed the custom decode feed
+     * @return the result code
+     */
+    public static int startDecoding(FloatDecodeFeed decodeFeed) {
+        return startDecodingFloat(decodeFeed);
+    }
+
+    /**
+     * Start decoding the data by way of a jni call in batches, handing the feed libvorbis' float pcm without
+     * converting it
+     *
+     * @param decodeFeed     the custom decode feed
+     * @param readBufferSize the amount of vorbis data to ask the feed for at once, in bytes
+     * @param pcmBufferSize  the amount of interleaved pcm to collect before writing it to the feed, in samples
+     * @return the result code
+     * @see #startDecoding(DecodeFeed, int, int)
+     */
+    public static int startDecoding(FloatDecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize) {
+        return startDecoding(decodeFeed, readBufferSize, pcmBufferSize, ENGINE_FLOAT);
+    }
+
+    /**
+     * Start decoding the data by way of a jni call in batches with the given decode engine, handing the feed float
+     * pcm. The fixed point engine's pcm is scaled to floats from -1 to 1 on the way out.
+     *
+     * @param decodeFeed     the custom decode feed
+     * @param readBufferSize the amount of vorbis data to ask the feed for at once, in bytes
+     * @param pcmBufferSize  the amount of interleaved pcm to collect before writing it to the feed, in samples
+     * @param engine         {@link #ENGINE_FLOAT} or {@link #ENGINE_FIXED_POINT}
+     * @return the result code
+     * @see #startDecoding(DecodeFeed, int, int, int)
+     */
+    public static int startDecoding(FloatDecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize, int engine) {
+        checkBatchBufferSizes(readBufferSize, pcmBufferSize);
+        checkEngine(engine);
+        return startBatchDecodingFloat(decodeFeed, readBufferSize, pcmBufferSize, engine);
+    }
+
+    /**
+     * Changes how many unpacked setup headers are kept. Files made with the same encoder settings carry the same setup
+     * header, so a decoder meeting a header decoded before shares its codebooks, floors, residues and mappings instead
+     * of unpacking them and building the codebook lookups again. The cache is part of libvorbis, every decoder of the
+     * process shares it, {@link org.xiph.vorbis.stream.VorbisFileInputStream} and {@link VorbisDecoderSession}
+     * included.
+     *
+     * @param capacity the most setups kept, the least recently used go first. 0 keeps none
+     */
+    public static void setSetupCacheCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        setupCacheCapacity(capacity);
+    }
+
+    /**
+     * Gets how often decoders found their setup header in the cache
+     *
+     * @return the hits and misses of the cache so far, and what it holds now
+     */
+    public static SetupCacheStats getSetupCacheStats() {
+        return new SetupCacheStats(setupCacheStats());
+    }
+
+    /**
+     * Gets the decode engine suggested for this device. This is a heuristic that hasn't been timed on devices: the
+     * fixed point engine on armeabi and on armeabi-v7a cpus without NEON, which tend to have no or a slow fpu, the
+     * float one everywhere else. On cpus with a fast fpu the float engine is as fast or faster, time both on the
+     * devices that matter when it counts.
+     *
+     * @return {@link #ENGINE_FLOAT} or {@link #ENGINE_FIXED_POINT}
+     */
+    public static int getPreferredEngine() {
+        return preferredEngine();
+    }
+
+    static void checkEngine(int engine) {
+        if (engine != ENGINE_FLOAT && engine != ENGINE_FIXED_POINT) {
+            throw new IllegalArgumentException("Unknown decode engine: " + engine);
+        }
+    }
+
+    private static void checkBatchBufferSizes(int readBufferSize, int pcmBufferSize) {
+        if (readBufferSize < MINIMUM_BATCH_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Read buffer size must be at least " + MINIMUM_BATCH_BUFFER_SIZE);
+        }
+        if (pcmBufferSize < MINIMUM_BATCH_BUFFER_SIZE) {
+            throw new IllegalArgumentException("PCM buffer size must be at least " + MINIMUM_BATCH_BUFFER_SIZE);
+        }
+    }
+
+    private static native int startDecodingDirect(ByteBufferDecodeFeed decodeFeed);
+
+    private static native int startBatchDecoding(DecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize, int engine);
+
+    private static native int startBatchDecodingDirect(ByteBufferDecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize, int engine);
+
+    private static native int startDecodingFloat(FloatDecodeFeed decodeFeed);
+
+    private static native int startBatchDecodingFloat(FloatDecodeFeed decodeFeed, int readBufferSize, int pcmBufferSize, int engine);
+
+    private static native int preferredEngine();
+
+    private static native void setupCacheCapacity(int capacity);
+
+    private static native long[] setupCacheStats();
 }
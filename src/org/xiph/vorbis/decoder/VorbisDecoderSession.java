@@ -0,0 +1,274 @@
+package org.xiph.vorbis.decoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import org.xiph.vorbis.util.NativeCleaner;
+
+/**
+ * An incremental, pull based vorbis decoder. Unlike {@link VorbisDecoder#startDecoding(DecodeFeed)} nothing blocks
+ * waiting on input: vorbis data is pushed in with {@link #feed(ByteBuffer)} whenever it is available and pcm is pulled
+ * out with {@link #drainPcm(ShortBuffer)}, so many sessions can be driven from a small pool of threads.
+ * <p/>
+ * <pre>
+ * while ((result = session.drainPcm(pcm)) != VorbisDecoderSession.END_OF_INPUT) {
+ *     if (result == VorbisDecoderSession.NEED_MORE_INPUT) {
+ *         //feed more data, or call endOfInput() once there is none
+ *     } else if (result == VorbisDecoderSession.NEW_STREAM) {
+ *         //getStreamInfo() describes the (next chained) stream
+ *     } else {
+ *         //result interleaved samples were written to pcm
+ *     }
+ * }
+ * </pre>
+ * A session is not meant to be driven by more than one thread at a time, its methods are synchronized to keep the
+ * native state safe if it is.
+ */
+public class VorbisDecoderSession implements Closeable {
+    /**
+     * Returned by {@link #drainPcm(ShortBuffer)} when everything fed so far has been decoded
+     */
+    public static final int NEED_MORE_INPUT = 0;
+
+    /**
+     * Returned by {@link #drainPcm(ShortBuffer)} once {@link #endOfInput()} was called and everything was decoded
+     */
+    public static final int END_OF_INPUT = -1;
+
+    /**
+     * Returned by {@link #drainPcm(ShortBuffer)} when the headers of a new logical stream have been read
+     */
+    public static final int NEW_STREAM = -2;
+
+    /**
+     * Load our vorbis-jni library and other dependent libraries
+     */
+    static {
+        System.loadLibrary("ogg");
+        System.loadLibrary("vorbis");
+        System.loadLibrary("vorbis-jni");
+    }
+
+    /**
+     * Frees the native session
+     */
+    private static final NativeCleaner.Releaser RELEASER = new NativeCleaner.Releaser() {
+        @Override
+        public void release(long handle) {
+            destroy(handle);
+        }
+    };
+
+    /**
+     * The native session, <code>0</code> once closed
+     */
+    private long handle;
+
+    /**
+     * Frees the native session if this one is never closed
+     */
+    private final NativeCleaner.Cleanable cleanable;
+
+    /**
+     * Whether {@link #endOfInput()} was called
+     */
+    private boolean endOfInput;
+
+    /**
+     * Creates a session ready to be fed the start of an ogg/vorbis bitstream
+     */
+    public VorbisDecoderSession() {
+        this(VorbisDecoder.ENGINE_FLOAT);
+    }
+
+    /**
+     * Creates a session ready to be fed the start of an ogg/vorbis bitstream, decoding it with the given engine
+     *
+     * @param engine {@link VorbisDecoder#ENGINE_FLOAT} or {@link VorbisDecoder#ENGINE_FIXED_POINT}
+     * @see VorbisDecoder#startDecoding(DecodeFeed, int, int, int)
+     */
+    public VorbisDecoderSession(int engine) {
+        VorbisDecoder.checkEngine(engine);
+        handle = create(engine);
+        cleanable = NativeCleaner.register(this, handle, RELEASER);
+    }
+
+    /**
+     * Copies the remaining vorbis data of the buffer into the session, advancing its position
+     *
+     * @param in the vorbis data to decode
+     * @return the amount of vorbis data taken
+     */
+    public synchronized int feed(ByteBuffer in) {
+        checkOpen();
+        if (endOfInput) {
+            throw new IllegalStateException("End of input was already signalled");
+        }
+        int length = in.remaining();
+        if (length == 0) {
+            return 0;
+        }
+        if (in.isDirect()) {
+            feedDirect(handle, in, in.position(), length);
+        } else if (in.hasArray()) {
+            feedArray(handle, in.array(), in.arrayOffset() + in.position(), length);
+        } else {
+            byte[] data = new byte[length];
+            in.duplicate().get(data);
+            feedArray(handle, data, 0, length);
+        }
+        in.position(in.position() + length);
+        return length;
+    }
+
+    /**
+     * Tells the session no more vorbis data will be fed, so a stream that ends without its last page flagged can be
+     * finished and a truncated one reported
+     */
+    public synchronized void endOfInput() {
+        checkOpen();
+        if (!endOfInput) {
+            endOfInput = true;
+            endOfInput(handle);
+        }
+    }
+
+    /**
+     * Decodes as much interleaved pcm as fits in the buffer, advancing its position. PCM of two chained streams is
+     * never returned by the same call.
+     *
+     * @param out the buffer to write pcm to, it must be able to hold at least one sample per channel. Direct buffers
+     *            in native order are written to in place.
+     * @return the amount of pcm written, or {@link #NEED_MORE_INPUT}, {@link #END_OF_INPUT} or {@link #NEW_STREAM}
+     * @throws IOException if the bitstream is not vorbis or is corrupt, with one of the {@link DecodeFeed} codes
+     */
+    public synchronized int drainPcm(ShortBuffer out) throws IOException {
+        checkOpen();
+        int length = out.remaining();
+        int written;
+        if (out.isDirect() && out.order() == ByteOrder.nativeOrder()) {
+            written = drainDirect(handle, out, out.position(), length);
+        } else if (out.hasArray()) {
+            written = drainArray(handle, out.array(), out.arrayOffset() + out.position(), length);
+        } else {
+            short[] pcm = new short[length];
+            written = drainArray(handle, pcm, 0, length);
+            if (written > 0) {
+                out.duplicate().put(pcm, 0, written);
+            }
+        }
+        if (written > 0) {
+            out.position(out.position() + written);
+        }
+        return written;
+    }
+
+    /**
+     * Decodes as much interleaved float pcm, from -1 to 1, as fits in the buffer, advancing its position. The floats
+     * come straight from libvorbis, nothing is rounded or clipped. See {@link #drainPcm(ShortBuffer)}.
+     *
+     * @param out the buffer to write pcm to, it must be able to hold at least one sample per channel. Direct buffers
+     *            in native order are written to in place.
+     * @return the amount of pcm written, or {@link #NEED_MORE_INPUT}, {@link #END_OF_INPUT} or {@link #NEW_STREAM}
+     * @throws IOException if the bitstream is not vorbis or is corrupt, with one of the {@link DecodeFeed} codes
+     */
+    public synchronized int drainPcm(FloatBuffer out) throws IOException {
+        checkOpen();
+        int length = out.remaining();
+        int written;
+        if (out.isDirect() && out.order() == ByteOrder.nativeOrder()) {
+            written = drainFloatDirect(handle, out, out.position(), length);
+        } else if (out.hasArray()) {
+            written = drainFloatArray(handle, out.array(), out.arrayOffset() + out.position(), length);
+        } else {
+            float[] pcm = new float[length];
+            written = drainFloatArray(handle, pcm, 0, length);
+            if (written > 0) {
+                out.duplicate().put(pcm, 0, written);
+            }
+        }
+        if (written > 0) {
+            out.position(out.position() + written);
+        }
+        return written;
+    }
+
+    /**
+     * Gets the information of the logical stream currently being decoded
+     *
+     * @return the stream information, or <code>null</code> while no stream's headers have been read
+     */
+    public synchronized DecodeStreamInfo getStreamInfo() {
+        checkOpen();
+        return getStreamInfo(handle);
+    }
+
+    /**
+     * Decodes planar float pcm, from -1 to 1, one array per channel. This is the layout libvorbis decodes to, so each
+     * channel is copied out as is with nothing to interleave. See {@link #drainPcm(ShortBuffer)}.
+     *
+     * @param out    the arrays to write pcm to, at least one per channel of the stream, each with room for length
+     *               samples from offset on
+     * @param offset where to start writing in each array
+     * @param length the most samples per channel to write
+     * @return the number of samples per channel written, or {@link #NEED_MORE_INPUT}, {@link #END_OF_INPUT} or
+     * {@link #NEW_STREAM}
+     * @throws IOException if the bitstream is not vorbis or is corrupt, with one of the {@link DecodeFeed} codes
+     */
+    public synchronized int drainPcm(float[][] out, int offset, int length) throws IOException {
+        checkOpen();
+        for (float[] channel : out) {
+            if (offset < 0 || length < 0 || offset + length > channel.length) {
+                throw new IndexOutOfBoundsException();
+            }
+        }
+        return drainFloatPlanar(handle, out, offset, length);
+    }
+
+    /**
+     * Frees the native decoder, the session can't be used afterwards
+     */
+    @Override
+    public synchronized void close() {
+        if (handle != 0) {
+            handle = 0;
+            try {
+                cleanable.clean();
+            } catch (IOException e) {
+                //destroy doesn't throw
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (handle == 0) {
+            throw new IllegalStateException("Session is closed");
+        }
+    }
+
+    private static native long create(int engine);
+
+    private static native void feedDirect(long handle, ByteBuffer in, int offset, int length);
+
+    private static native void feedArray(long handle, byte[] in, int offset, int length);
+
+    private static native void endOfInput(long handle);
+
+    private static native int drainDirect(long handle, ShortBuffer out, int offset, int length) throws IOException;
+
+    private static native int drainArray(long handle, short[] out, int offset, int length) throws IOException;
+
+    private static native int drainFloatDirect(long handle, FloatBuffer out, int offset, int length) throws IOException;
+
+    private static native int drainFloatArray(long handle, float[] out, int offset, int length) throws IOException;
+
+    private static native int drainFloatPlanar(long handle, float[][] out, int offset, int length) throws IOException;
+
+    private static native DecodeStreamInfo getStreamInfo(long handle);
+
+    private static native void destroy(long handle);
+}
@@ -0,0 +1,46 @@
+package org.xiph.vorbis.encoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A feed interface like {@link EncodeFeed} which is handed direct buffers over the native encoder's own memory, so no
+ * java arrays are pinned or copied per chunk.
+ * <p/>
+ * The buffers passed to this feed are only valid for the duration of the call and must not be kept.
+ * The result codes returned by the {@link VorbisEncoder} are the same as {@link EncodeFeed}'s
+ */
+public interface ByteBufferEncodeFeed {
+    /**
+     * Triggered by the native {@link VorbisEncoder} when it needs to read raw pcm data
+     *
+     * @param pcmDataBuffer a direct, little endian buffer over the native pcm buffer, positioned at <code>0</code>, to
+     *                      write 16 bit interleaved pcm data to
+     * @param amountToWrite the amount of pcm data to write in bytes
+     * @return how much was actually written, <code>0</code> to stop the native {@link VorbisEncoder}
+     */
+    public long readPCMData(ByteBuffer pcmDataBuffer, int amountToWrite);
+
+    /**
+     * Triggered by the native {@link VorbisEncoder} when encoded vorbis data is ready to be written
+     *
+     * @param vorbisData   a direct buffer over the ogg page held by libogg
+     * @param amountToRead the amount of encoded vorbis data that can be read
+     * @return how much was actually written
+     */
+    public int writeVorbisData(ByteBuffer vorbisData, int amountToRead);
+
+    /**
+     * To be called by the native encoder notifying the encode feed is complete
+     */
+    public void stop();
+
+    /**
+     * To be called to stop the encoder
+     */
+    public void stopEncoding();
+
+    /**
+     * To be called when the encoding has started
+     */
+    public void start();
+}
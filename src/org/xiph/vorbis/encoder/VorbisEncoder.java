@@ -1,5 +1,7 @@
 package org.xiph.vorbis.encoder;
 
+import org.xiph.vorbis.util.ContextPoolStats;
+
 /**
  * The native encoder to interface via JNI
  * User: vincent
@@ -7,6 +9,11 @@ package org.xiph.vorbis.encoder;
  * Time: 9:07 AM
  */
 public class VorbisEncoder {
+    /**
+     * The most threads blocks can be analysed on at once
+     */
+    public static final int MAXIMUM_ANALYSIS_THREADS = 16;
+
     /**
      * Load our vorbis-jni library as well as the other dependent libraries
      */
@@ -17,22 +24,164 @@ public class VorbisEncoder {
     }
 
     /**
-     * The native JNI method call to the encoder to start encoding raw pcm data to encoded vorbis data
+     * Starts encoding raw pcm data to encoded vorbis data by way of a jni call
+     *
+     * @param sampleRate       the sample rate which the incoming pcm data will arrive
+     * @param numberOfChannels the number of channels
+     * @param quality          the quality to encode the output vorbis data
+     * @param encodeFeed       the custom encoder feed
+     */
+    public static int startEncodingWithQuality(long sampleRate, long numberOfChannels, float quality, EncodeFeed encodeFeed) {
+        return startEncodingWithQuality(sampleRate, numberOfChannels, quality, encodeFeed, 1);
+    }
+
+    /**
+     * Starts encoding raw pcm data to encoded vorbis data, analysing several blocks of it at once. Analysis is where
+     * nearly all of the encoding time goes, so for offline transcodes of long files on a device or server with cores
+     * to spare this cuts the wall time roughly by the number of threads. Packets come out in order, the only
+     * difference to encoding on one thread is that the psychoacoustics learn of loud peaks a few blocks late.
+     *
+     * @param sampleRate       the sample rate which the incoming pcm data will arrive
+     * @param numberOfChannels the number of channels
+     * @param quality          the quality to encode the output vorbis data
+     * @param encodeFeed       the custom encoder feed
+     * @param analysisThreads  the number of threads to analyse on, counting the calling one, at most
+     *                         {@link #MAXIMUM_ANALYSIS_THREADS}
+     * @return the result code
+     */
+    public static int startEncodingWithQuality(long sampleRate, long numberOfChannels, float quality, EncodeFeed encodeFeed, int analysisThreads) {
+        checkAnalysisThreads(analysisThreads);
+        return startEncodingArrayWithQuality(sampleRate, numberOfChannels, quality, encodeFeed, analysisThreads);
+    }
+
+    /**
+     * Starts encoding raw pcm data to encoded vorbis data by way of a jni call
+     *
+     * @param sampleRate       the sample rate which the incoming pcm data will arrive
+     * @param numberOfChannels the number of channels
+     * @param bitrate          the bitrate of the output vorbis data
+     * @param encodeFeed       the custom encoder feed
+     */
+    public static int startEncodingWithBitrate(long sampleRate, long numberOfChannels, long bitrate, EncodeFeed encodeFeed) {
+        return startEncodingWithBitrate(sampleRate, numberOfChannels, bitrate, encodeFeed, 1);
+    }
+
+    /**
+     * Starts encoding raw pcm data to encoded vorbis data, analysing several blocks of it at once
+     *
+     * @param sampleRate       the sample rate which the incoming pcm data will arrive
+     * @param numberOfChannels the number of channels
+     * @param bitrate          the bitrate of the output vorbis data
+     * @param encodeFeed       the custom encoder feed
+     * @param analysisThreads  the number of threads to analyse on, counting the calling one, at most
+     *                         {@link #MAXIMUM_ANALYSIS_THREADS}
+     * @return the result code
+     * @see #startEncodingWithQuality(long, long, float, EncodeFeed, int)
+     */
+    public static int startEncodingWithBitrate(long sampleRate, long numberOfChannels, long bitrate, EncodeFeed encodeFeed, int analysisThreads) {
+        checkAnalysisThreads(analysisThreads);
+        return startEncodingArrayWithBitrate(sampleRate, numberOfChannels, bitrate, encodeFeed, analysisThreads);
+    }
+
+    /**
+     * Starts encoding raw pcm data to encoded vorbis data, handing the feed direct buffers instead of java arrays
+     *
+     * @param sampleRate       the sample rate which the incoming pcm data will arrive
+     * @param numberOfChannels the number of channels
+     * @param quality          the quality to encode the output vorbis data
+     * @param encodeFeed       the custom encoder feed
+     */
+    public static int startEncodingWithQuality(long sampleRate, long numberOfChannels, float quality, ByteBufferEncodeFeed encodeFeed) {
+        return startEncodingWithQuality(sampleRate, numberOfChannels, quality, encodeFeed, 1);
+    }
+
+    /**
+     * Starts encoding raw pcm data to encoded vorbis data, handing the feed direct buffers instead of java arrays and
+     * analysing several blocks at once
      *
      * @param sampleRate       the sample rate which the incoming pcm data will arrive
      * @param numberOfChannels the number of channels
      * @param quality          the quality to encode the output vorbis data
      * @param encodeFeed       the custom encoder feed
+     * @param analysisThreads  the number of threads to analyse on, counting the calling one, at most
+     *                         {@link #MAXIMUM_ANALYSIS_THREADS}
+     * @return the result code
+     * @see #startEncodingWithQuality(long, long, float, EncodeFeed, int)
      */
-    public static native int startEncodingWithQuality(long sampleRate, long numberOfChannels, float quality, EncodeFeed encodeFeed);
+    public static int startEncodingWithQuality(long sampleRate, long numberOfChannels, float quality, ByteBufferEncodeFeed encodeFeed, int analysisThreads) {
+        checkAnalysisThreads(analysisThreads);
+        return startEncodingDirectWithQuality(sampleRate, numberOfChannels, quality, encodeFeed, analysisThreads);
+    }
+
+    /**
+     * Starts encoding raw pcm data to encoded vorbis data, handing the feed direct buffers instead of java arrays
+     *
+     * @param sampleRate       the sample rate which the incoming pcm data will arrive
+     * @param numberOfChannels the number of channels
+     * @param bitrate          the bitrate of the output vorbis data
+     * @param encodeFeed       the custom encoder feed
+     */
+    public static int startEncodingWithBitrate(long sampleRate, long numberOfChannels, long bitrate, ByteBufferEncodeFeed encodeFeed) {
+        return startEncodingWithBitrate(sampleRate, numberOfChannels, bitrate, encodeFeed, 1);
+    }
 
     /**
-     * The native JNI method call to the encoder to start encoding raw pcm data to encoded vorbis data
+     * Starts encoding raw pcm data to encoded vorbis data, handing the feed direct buffers instead of java arrays and
+     * analysing several blocks at once
      *
      * @param sampleRate       the sample rate which the incoming pcm data will arrive
      * @param numberOfChannels the number of channels
      * @param bitrate          the bitrate of the output vorbis data
      * @param encodeFeed       the custom encoder feed
+     * @param analysisThreads  the number of threads to analyse on, counting the calling one, at most
+     *                         {@link #MAXIMUM_ANALYSIS_THREADS}
+     * @return the result code
+     * @see #startEncodingWithQuality(long, long, float, EncodeFeed, int)
      */
-    public static native int startEncodingWithBitrate(long sampleRate, long numberOfChannels, long bitrate, EncodeFeed encodeFeed);
+    public static int startEncodingWithBitrate(long sampleRate, long numberOfChannels, long bitrate, ByteBufferEncodeFeed encodeFeed, int analysisThreads) {
+        checkAnalysisThreads(analysisThreads);
+        return startEncodingDirectWithBitrate(sampleRate, numberOfChannels, bitrate, encodeFeed, analysisThreads);
+    }
+
+    /**
+     * Changes how many encoder contexts are kept between encodings. Setting up an encoder takes longer than encoding a
+     * short clip, so the context of a finished encoding is kept for the next one with the same sample rate, channels
+     * and quality or bitrate. This and {@link VorbisEncoderSession} share one pool, {@link
+     * org.xiph.vorbis.stream.VorbisFileOutputStream} has its own.
+     *
+     * @param capacity the most idle contexts kept, the least recently used go first. 0 keeps none
+     */
+    public static void setContextPoolCapacity(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+        }
+        contextPoolCapacity(capacity);
+    }
+
+    /**
+     * Gets how often encodings and {@link VorbisEncoderSession}s were handed a kept encoder context
+     *
+     * @return the hits and misses of the pool so far, and what it holds now
+     */
+    public static ContextPoolStats getContextPoolStats() {
+        return new ContextPoolStats(contextPoolStats());
+    }
+
+    private static void checkAnalysisThreads(int analysisThreads) {
+        if (analysisThreads < 1 || analysisThreads > MAXIMUM_ANALYSIS_THREADS) {
+            throw new IllegalArgumentException("Analysis threads must be between 1 and " + MAXIMUM_ANALYSIS_THREADS);
+        }
+    }
+
+    private static native int startEncodingArrayWithQuality(long sampleRate, long numberOfChannels, float quality, EncodeFeed encodeFeed, int analysisThreads);
+
+    private static native int startEncodingArrayWithBitrate(long sampleRate, long numberOfChannels, long bitrate, EncodeFeed encodeFeed, int analysisThreads);
+
+    private static native int startEncodingDirectWithQuality(long sampleRate, long numberOfChannels, float quality, ByteBufferEncodeFeed encodeFeed, int analysisThreads);
+
+    private static native int startEncodingDirectWithBitrate(long sampleRate, long numberOfChannels, long bitrate, ByteBufferEncodeFeed encodeFeed, int analysisThreads);
+
+    private static native void contextPoolCapacity(int capacity);
+
+    private static native long[] contextPoolStats();
 }
@@ -0,0 +1,286 @@
+package org.xiph.vorbis.encoder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+import org.xiph.vorbis.util.NativeCleaner;
+
+/**
+ * An incremental, push based vorbis encoder. Unlike {@link VorbisEncoder#startEncodingWithQuality(long, long, float, EncodeFeed)}
+ * nothing blocks waiting on pcm: pcm is pushed in with {@link #writePcm(ShortBuffer)} whenever it is available and the
+ * encoded ogg pages are pulled out with {@link #drainPages(ByteBuffer)}, so many live encodes can be driven from a small
+ * pool of threads.
+ * <p/>
+ * <pre>
+ * session.writePcm(pcm);
+ * while (session.drainPages(out) > 0) {
+ *     //write out the encoded data
+ * }
+ * ...
+ * session.finish();
+ * while (session.drainPages(out) != VorbisEncoderSession.END_OF_STREAM) {
+ *     //write out the last of the encoded data
+ * }
+ * </pre>
+ * Encoded pages are held natively until they are drained, so drain regularly. A session is not meant to be driven by
+ * more than one thread at a time, its methods are synchronized to keep the native state safe if it is.
+ */
+public class VorbisEncoderSession implements Closeable {
+    /**
+     * Returned by {@link #drainPages(ByteBuffer)} once {@link #finish()} was called and every page was drained
+     */
+    public static final int END_OF_STREAM = -1;
+
+    /**
+     * Native encoding modes
+     */
+    private static final int WITH_BITRATE = 1;
+    private static final int WITH_QUALITY = 2;
+
+    /**
+     * Load our vorbis-jni library and other dependent libraries
+     */
+    static {
+        System.loadLibrary("ogg");
+        System.loadLibrary("vorbis");
+        System.loadLibrary("vorbis-jni");
+    }
+
+    /**
+     * Frees the native session
+     */
+    private static final NativeCleaner.Releaser RELEASER = new NativeCleaner.Releaser() {
+        @Override
+        public void release(long handle) {
+            destroy(handle);
+        }
+    };
+
+    /**
+     * The native session, <code>0</code> once closed
+     */
+    private long handle;
+
+    /**
+     * Frees the native session if this one is never closed
+     */
+    private final NativeCleaner.Cleanable cleanable;
+
+    /**
+     * The number of channels of the interleaved pcm written
+     */
+    private final int channels;
+
+    /**
+     * Whether {@link #finish()} was called
+     */
+    private boolean finished;
+
+    private VorbisEncoderSession(int type, long sampleRate, long channels, float quality, long bitrate) throws IOException {
+        this.handle = create(type, sampleRate, channels, quality, bitrate);
+        this.channels = (int) channels;
+        this.cleanable = NativeCleaner.register(this, handle, RELEASER);
+    }
+
+    /**
+     * Creates a session encoding in a VBR quality mode
+     *
+     * @param sampleRate the sample rate of the pcm
+     * @param channels   the number of channels of the pcm
+     * @param quality    the quality to encode at, from -.1 (lowest quality, smallest file) to 1. (highest quality, largest file)
+     * @return a session whose header pages are ready to be drained
+     * @throws IOException if libvorbis does not support the mode, with the vorbis error code
+     */
+    public static VorbisEncoderSession createWithQuality(long sampleRate, long channels, float quality) throws IOException {
+        return new VorbisEncoderSession(WITH_QUALITY, sampleRate, channels, quality, -1);
+    }
+
+    /**
+     * Creates a session encoding in an average bitrate mode
+     *
+     * @param sampleRate the sample rate of the pcm
+     * @param channels   the number of channels of the pcm
+     * @param bitrate    the average bitrate to encode at
+     * @return a session whose header pages are ready to be drained
+     * @throws IOException if libvorbis does not support the mode, with the vorbis error code
+     */
+    public static VorbisEncoderSession createWithBitrate(long sampleRate, long channels, long bitrate) throws IOException {
+        return new VorbisEncoderSession(WITH_BITRATE, sampleRate, channels, -1, bitrate);
+    }
+
+    /**
+     * Encodes the whole samples per channel of interleaved 16 bit pcm remaining in the buffer, advancing its position
+     *
+     * @param in the pcm to encode
+     * @return the amount of pcm taken, any trailing partial sample per channel is left in the buffer
+     */
+    public synchronized int writePcm(ShortBuffer in) {
+        checkWritable();
+        int length = in.remaining() - in.remaining() % channels;
+        if (length == 0) {
+            return 0;
+        }
+        if (in.isDirect() && in.order() == ByteOrder.nativeOrder()) {
+            writeShortDirect(handle, in, in.position(), length);
+        } else if (in.hasArray()) {
+            writeShortArray(handle, in.array(), in.arrayOffset() + in.position(), length);
+        } else {
+            short[] pcm = new short[length];
+            in.duplicate().get(pcm);
+            writeShortArray(handle, pcm, 0, length);
+        }
+        in.position(in.position() + length);
+        return length;
+    }
+
+    /**
+     * Encodes the whole samples per channel of interleaved float pcm, from -1 to 1, remaining in the buffer, advancing
+     * its position
+     *
+     * @param in the pcm to encode
+     * @return the amount of pcm taken, any trailing partial sample per channel is left in the buffer
+     */
+    public synchronized int writePcm(FloatBuffer in) {
+        checkWritable();
+        int length = in.remaining() - in.remaining() % channels;
+        if (length == 0) {
+            return 0;
+        }
+        if (in.isDirect() && in.order() == ByteOrder.nativeOrder()) {
+            writeFloatDirect(handle, in, in.position(), length);
+        } else if (in.hasArray()) {
+            writeFloatArray(handle, in.array(), in.arrayOffset() + in.position(), length);
+        } else {
+            float[] pcm = new float[length];
+            in.duplicate().get(pcm);
+            writeFloatArray(handle, pcm, 0, length);
+        }
+        in.position(in.position() + length);
+        return length;
+    }
+
+    /**
+     * Encodes planar float pcm, from -1 to 1, one array per channel. This is the layout libvorbis works in, so each
+     * channel is copied straight into the encoder with nothing to de-interleave.
+     *
+     * @param in     the pcm to encode, one array per channel
+     * @param offset where the pcm starts in each array
+     * @param length the number of samples per channel to encode
+     */
+    public synchronized void writePcm(float[][] in, int offset, int length) {
+        checkWritable();
+        checkPlanar(in, channels, offset, length);
+        if (length > 0) {
+            writeFloatPlanar(handle, in, offset, length);
+        }
+    }
+
+    /**
+     * Ends the stream, the last pages can then be drained. No more pcm can be written afterwards.
+     */
+    public synchronized void finish() {
+        checkOpen();
+        if (!finished) {
+            finished = true;
+            finish(handle);
+        }
+    }
+
+    /**
+     * Copies as much of the encoded ogg pages as fits in the buffer, advancing its position. Pages may be split across
+     * calls.
+     *
+     * @param out the buffer to write the encoded data to
+     * @return the amount of encoded data written, <code>0</code> if more pcm is needed for the next page, or
+     * {@link #END_OF_STREAM}
+     */
+    public synchronized int drainPages(ByteBuffer out) {
+        checkOpen();
+        int length = out.remaining();
+        if (length == 0) {
+            return 0;
+        }
+        int written;
+        if (out.isDirect()) {
+            written = drainDirect(handle, out, out.position(), length);
+        } else if (out.hasArray()) {
+            written = drainArray(handle, out.array(), out.arrayOffset() + out.position(), length);
+        } else {
+            byte[] data = new byte[length];
+            written = drainArray(handle, data, 0, length);
+            if (written > 0) {
+                out.duplicate().put(data, 0, written);
+            }
+        }
+        if (written > 0) {
+            out.position(out.position() + written);
+        }
+        return written;
+    }
+
+    /**
+     * Frees the native encoder, the session can't be used afterwards
+     */
+    @Override
+    public synchronized void close() {
+        if (handle != 0) {
+            handle = 0;
+            try {
+                cleanable.clean();
+            } catch (IOException e) {
+                //destroy doesn't throw
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (handle == 0) {
+            throw new IllegalStateException("Session is closed");
+        }
+    }
+
+    private void checkWritable() {
+        checkOpen();
+        if (finished) {
+            throw new IllegalStateException("Session was already finished");
+        }
+    }
+
+    /**
+     * Checks that planar pcm has the given channels and holds the samples asked for in each of them
+     */
+    private static void checkPlanar(float[][] pcm, int channels, int offset, int length) {
+        if (pcm.length != channels) {
+            throw new IllegalArgumentException("Expected " + channels + " channels, got " + pcm.length);
+        }
+        for (float[] channel : pcm) {
+            if (offset < 0 || length < 0 || offset + length > channel.length) {
+                throw new IndexOutOfBoundsException();
+            }
+        }
+    }
+
+    private static native long create(int type, long sampleRate, long channels, float quality, long bitrate) throws IOException;
+
+    private static native void writeShortDirect(long handle, ShortBuffer in, int offset, int length);
+
+    private static native void writeShortArray(long handle, short[] in, int offset, int length);
+
+    private static native void writeFloatDirect(long handle, FloatBuffer in, int offset, int length);
+
+    private static native void writeFloatArray(long handle, float[] in, int offset, int length);
+
+    private static native void writeFloatPlanar(long handle, float[][] in, int offset, int length);
+
+    private static native void finish(long handle);
+
+    private static native int drainDirect(long handle, ByteBuffer out, int offset, int length);
+
+    private static native int drainArray(long handle, byte[] out, int offset, int length);
+
+    private static native void destroy(long handle);
+}
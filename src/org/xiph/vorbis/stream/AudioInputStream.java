@@ -12,6 +12,25 @@ public abstract class AudioInputStream extends InputStream implements Closeable
 	}
 	
 	public abstract int read(short[] pcmBuffer, int offset, int length) throws IOException;
+
+	public int read(float[] pcmBuffer) throws IOException {
+		return this.read(pcmBuffer, 0, pcmBuffer.length);
+	}
+
+	/**
+	 * Reads interleaved pcm as floats from -1 to 1. This reads shorts and scales them, streams that decode to float
+	 * hand their floats over as they are.
+	 * 
+	 * @return the number of values read, or <code>-1</code> at the end of the stream
+	 */
+	public int read(float[] pcmBuffer, int offset, int length) throws IOException {
+		short[] shorts = new short[length];
+		int read = this.read(shorts, 0, length);
+		for (int i = 0; i < read; i++) {
+			pcmBuffer[offset + i] = shorts[i] / 32768f;
+		}
+		return read;
+	}
 	
 
 	@Override
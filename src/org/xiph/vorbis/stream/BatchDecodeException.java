@@ -0,0 +1,40 @@
+package org.xiph.vorbis.stream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by {@link VorbisBatchDecoder#decode(int)} when items failed. Every item is decoded regardless, so each failure
+ * is kept, in the order the items were added. Suppressed exceptions would hold them too, but they need API 19.
+ */
+public class BatchDecodeException extends IOException {
+	private static final long			serialVersionUID	= 1L;
+
+	private final List<IOException>	failures;
+
+	/**
+	 * @param failures
+	 *            how each item failed, at least one
+	 */
+	public BatchDecodeException(List<IOException> failures) {
+		super(message(failures));
+		initCause(failures.get(0));
+		this.failures = Collections.unmodifiableList(new ArrayList<IOException>(failures));
+	}
+
+	private static String message(List<IOException> failures) {
+		String first = failures.get(0).getMessage();
+		return failures.size() == 1 ? first : first + ", and " + (failures.size() - 1) + " more items failed";
+	}
+
+	/**
+	 * Gets how each item failed. The first is also the cause.
+	 *
+	 * @return one exception per failed item, naming its file, with what the item threw as its cause
+	 */
+	public List<IOException> getFailures() {
+		return failures;
+	}
+}
@@ -0,0 +1,354 @@
+package org.xiph.vorbis.stream;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Decodes many ogg vorbis files, or the chained links of one, side by side on a pool of threads, e.g. to measure the
+ * loudness of a whole catalog. Each item's float pcm goes to a sink of its own.
+ *
+ * One long file can also be cut into segments decoded side by side, see
+ * {@link #addSegments(String, int, SegmentSinkFactory)}.
+ *
+ * An item only opens its file once a thread picks it up, and is decoded a batch at a time with its sink called on that
+ * thread. However many items there are, memory stays at one stream and one batch per thread, and a sink that can't
+ * keep up holds up its own thread rather than letting pcm pile up.
+ *
+ * <pre>
+ * VorbisBatchDecoder batch = new VorbisBatchDecoder();
+ * for (String path : catalog) {
+ * 	batch.add(path, new LoudnessSink(path));
+ * }
+ * batch.decode(Runtime.getRuntime().availableProcessors());
+ * </pre>
+ */
+public class VorbisBatchDecoder {
+	/**
+	 * The number of samples per channel decoded and written to a sink at a time
+	 */
+	public static final int	BATCH_SIZE	= 4096;
+
+	/**
+	 * Takes the pcm of one item. It is called from the thread decoding the item, one call at a time.
+	 */
+	public interface Sink {
+		/**
+		 * Called before any pcm is written.
+		 *
+		 * @param info
+		 *            the channels and sample rate of the item, and its length in samples per channel
+		 * @throws IOException
+		 */
+		void start(VorbisInfo info) throws IOException;
+
+		/**
+		 * Takes the next batch of pcm.
+		 *
+		 * @param pcm
+		 *            interleaved float pcm, from -1 to 1, only valid during the call
+		 * @param length
+		 *            the number of values, whole samples per channel
+		 * @throws IOException
+		 */
+		void write(float[] pcm, int length) throws IOException;
+
+		/**
+		 * Called once all of the item has been written, not for an item that failed.
+		 *
+		 * @throws IOException
+		 */
+		void end() throws IOException;
+	}
+
+	/**
+	 * Creates the sinks of the links of a chained file.
+	 */
+	public interface LinkSinkFactory {
+		/**
+		 * @param link
+		 *            the index of the link in the file, from 0
+		 * @param info
+		 *            the channels, sample rate and length of the link
+		 * @return the sink to write the link to
+		 */
+		Sink create(int link, VorbisInfo info);
+	}
+
+	/**
+	 * Creates the sinks of the segments of a file.
+	 */
+	public interface SegmentSinkFactory {
+		/**
+		 * @param segment
+		 *            the index of the segment in the file, from 0
+		 * @param start
+		 *            the sample per channel of the file the segment starts at
+		 * @param info
+		 *            the channels and sample rate of the file, and the length of the segment
+		 * @return the sink to write the segment to
+		 */
+		Sink create(int segment, long start, VorbisInfo info);
+	}
+
+	/**
+	 * A file, or the part of it from start on, and where to write it.
+	 */
+	private static final class Item {
+		final String			path;
+		final long				start;
+		// The samples per channel to decode, -1 for all of them.
+		final long				length;
+		// What to hand the sink, null for the info of the stream.
+		final VorbisInfo		info;
+		// Takes the seek to start straight to its page, may be null.
+		final VorbisSeekIndex	index;
+		final Sink				sink;
+
+		Item(String path, long start, long length, VorbisInfo info, VorbisSeekIndex index, Sink sink) {
+			this.path = path;
+			this.start = start;
+			this.length = length;
+			this.info = info;
+			this.index = index;
+			this.sink = sink;
+		}
+
+		void decode() throws IOException {
+			VorbisFileInputStream in = new VorbisFileInputStream(path);
+			try {
+				VorbisInfo streamInfo = info != null ? info : in.getInfo();
+				if (index != null) {
+					in.setSeekIndex(index);
+				}
+				if (start > 0) {
+					in.seekToSample(start);
+				}
+				sink.start(streamInfo);
+
+				float[] pcm = new float[BATCH_SIZE * streamInfo.channels];
+				long remaining = length < 0 ? Long.MAX_VALUE : length * streamInfo.channels;
+				while (remaining > 0) {
+					int read = in.read(pcm, 0, (int) Math.min(pcm.length, remaining));
+					if (read == -1) {
+						break;
+					}
+					sink.write(pcm, read);
+					remaining -= read;
+				}
+				sink.end();
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private final List<Item>	items	= new ArrayList<Item>();
+
+	/**
+	 * Adds a whole file, written to a single sink. The links of a chained file follow each other, so if they differ in
+	 * channels or sample rate add the file with {@link #addLinks(String, LinkSinkFactory)} instead.
+	 *
+	 * @param path
+	 *            the ogg vorbis file
+	 * @param sink
+	 *            where to write its pcm
+	 */
+	public synchronized void add(String path, Sink sink) {
+		items.add(new Item(path, 0, -1, null, null, sink));
+	}
+
+	/**
+	 * Adds each chained link of a file as an item of its own, so the links are decoded side by side too. The file is
+	 * opened to find them.
+	 *
+	 * @param path
+	 *            the ogg vorbis file
+	 * @param sinks
+	 *            creates the sink of each link, called before this returns
+	 * @return the number of links added
+	 * @throws IOException
+	 */
+	public int addLinks(String path, LinkSinkFactory sinks) throws IOException {
+		VorbisInfo[] links;
+		VorbisFileInputStream in = new VorbisFileInputStream(path);
+		try {
+			links = in.getLinks();
+		} finally {
+			in.close();
+		}
+
+		long start = 0;
+		for (int i = 0; i < links.length; i++) {
+			Item item = new Item(path, start, links[i].length, links[i], null, sinks.create(i, links[i]));
+			synchronized (this) {
+				items.add(item);
+			}
+			start += links[i].length;
+		}
+		return links.length;
+	}
+
+	/**
+	 * Cuts a long file into segments that are decoded side by side, e.g. to draw the waveform of a recording hours long
+	 * at the speed of all cores. The pages of the file are indexed to find where to cut it, see
+	 * {@link #addSegments(String, VorbisSeekIndex, int, SegmentSinkFactory)}.
+	 *
+	 * @param path
+	 *            the ogg vorbis file, a single link
+	 * @param segments
+	 *            the number of segments to cut it into, a few per thread evens out their speeds
+	 * @param sinks
+	 *            creates the sink of each segment, called before this returns
+	 * @return the number of segments added
+	 * @throws IOException
+	 */
+	public int addSegments(String path, int segments, SegmentSinkFactory sinks) throws IOException {
+		return addSegments(path, VorbisSeekIndex.build(path), segments, sinks);
+	}
+
+	/**
+	 * Cuts a long file into segments that are decoded side by side. Each segment starts where one of the pages of the
+	 * file ends, as close to an even split as the pages allow, and decoding it starts with the packet before it to
+	 * prime the overlap of the blocks. Segments follow each other without a gap, so the pcm of one segment after
+	 * another is exactly that of the whole file, and sinks can put theirs together by their start.
+	 *
+	 * Fewer segments than asked for are added if the file has too few pages.
+	 *
+	 * @param path
+	 *            the ogg vorbis file, a single link
+	 * @param index
+	 *            the seek index of the file, used to cut it and to seek to each segment
+	 * @param segments
+	 *            the number of segments to cut it into, a few per thread evens out their speeds
+	 * @param sinks
+	 *            creates the sink of each segment, called before this returns
+	 * @return the number of segments added
+	 * @throws IOException
+	 *             if the index doesn't match the file
+	 * @throws IllegalArgumentException
+	 *             if the file is chained, add its links with {@link #addLinks(String, LinkSinkFactory)} instead
+	 */
+	public int addSegments(String path, VorbisSeekIndex index, int segments, SegmentSinkFactory sinks)
+			throws IOException {
+		if (segments < 1) {
+			throw new IllegalArgumentException("Segments must be positive: " + segments);
+		}
+		VorbisInfo[] links;
+		VorbisFileInputStream in = new VorbisFileInputStream(path);
+		try {
+			in.setSeekIndex(index);
+			links = in.getLinks();
+		} finally {
+			in.close();
+		}
+		if (links.length != 1) {
+			throw new IllegalArgumentException(path + " is chained, " + links.length + " links");
+		}
+		long total = links[0].length;
+
+		// cut at the end of the page before each even split, pages too long to split at are skipped
+		List<Long> starts = new ArrayList<Long>(segments + 1);
+		starts.add(0L);
+		for (int i = 1; i < segments; i++) {
+			int page = index.findPage(total / segments * i);
+			long start = page < 0 ? 0 : index.getSample(page);
+			if (start > starts.get(starts.size() - 1) && start < total) {
+				starts.add(start);
+			}
+		}
+		starts.add(total);
+
+		for (int i = 0; i < starts.size() - 1; i++) {
+			VorbisInfo info = new VorbisInfo();
+			info.channels = links[0].channels;
+			info.sampleRate = links[0].sampleRate;
+			info.length = starts.get(i + 1) - starts.get(i);
+			Item item = new Item(path, starts.get(i), info.length, info, index, sinks.create(i, starts.get(i), info));
+			synchronized (this) {
+				items.add(item);
+			}
+		}
+		return starts.size() - 1;
+	}
+
+	/**
+	 * Decodes every item added so far on a pool of its own, and waits for them.
+	 *
+	 * @param threads
+	 *            the number of items to decode at once
+	 * @throws BatchDecodeException
+	 *             with how each item that failed did, the other items are decoded regardless
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, items that haven't been started by then are dropped
+	 */
+	public void decode(int threads) throws BatchDecodeException, InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			decode(executor);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Decodes every item added so far on an executor, e.g. a shared <code>ForkJoinPool</code>, and waits for them.
+	 *
+	 * @param executor
+	 *            runs one task per item
+	 * @throws BatchDecodeException
+	 *             with how each item that failed did, the other items are decoded regardless
+	 * @throws InterruptedException
+	 *             if interrupted while waiting, items that haven't been started by then are dropped
+	 */
+	public void decode(ExecutorService executor) throws BatchDecodeException, InterruptedException {
+		final List<Item> batch;
+		synchronized (this) {
+			batch = new ArrayList<Item>(items);
+		}
+
+		// each task hands back how its item failed, executors differ in how they wrap what a task throws
+		List<Callable<Exception>> tasks = new ArrayList<Callable<Exception>>(batch.size());
+		for (final Item item : batch) {
+			tasks.add(new Callable<Exception>() {
+				@Override
+				public Exception call() {
+					try {
+						item.decode();
+						return null;
+					} catch (IOException e) {
+						return e;
+					} catch (RuntimeException e) {
+						return e;
+					}
+				}
+			});
+		}
+		List<Future<Exception>> results = executor.invokeAll(tasks);
+
+		List<IOException> failures = new ArrayList<IOException>();
+		for (int i = 0; i < results.size(); i++) {
+			Exception itemFailure;
+			try {
+				itemFailure = results.get(i).get();
+			} catch (ExecutionException e) {
+				// only errors get through the task
+				throw (Error) e.getCause();
+			}
+			if (itemFailure == null) {
+				continue;
+			}
+			IOException wrapped = new IOException("Decoding " + batch.get(i).path + " failed");
+			wrapped.initCause(itemFailure);
+			failures.add(wrapped);
+		}
+		if (!failures.isEmpty()) {
+			throw new BatchDecodeException(failures);
+		}
+	}
+}
@@ -1,6 +1,13 @@
 package org.xiph.vorbis.stream;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+import org.xiph.vorbis.decoder.VorbisDecoder;
+import org.xiph.vorbis.util.NativeCleaner;
 
 public class VorbisFileInputStream extends AudioInputStream {
 
@@ -10,7 +17,37 @@ public class VorbisFileInputStream extends AudioInputStream {
 		return info;
 	}
 
-	private final int	oggStreamIdx;
+	/**
+	 * The native stream, <code>0</code> once closed
+	 */
+	private long	oggStreamHandle;
+
+	/**
+	 * The length of the file or other source being read, <code>-1</code> if it can't be seeked
+	 */
+	private final long	sourceLength;
+
+	/**
+	 * The page index seeks go through, <code>null</code> to let vorbisfile bisect the file
+	 */
+	private VorbisSeekIndex	seekIndex;
+
+	/**
+	 * The decode engine, one of the <code>VorbisDecoder.ENGINE_*</code>
+	 */
+	private int	engine	= VorbisDecoder.ENGINE_FLOAT;
+
+	/**
+	 * Closes the native stream if this one is never closed
+	 */
+	private final NativeCleaner.Cleanable	cleanable;
+
+	private static final NativeCleaner.Releaser	RELEASER	= new NativeCleaner.Releaser() {
+		@Override
+		public void release(long handle) throws IOException {
+			closeStreamIdx(handle);
+		}
+	};
 
 	static {
 		System.loadLibrary("ogg");
@@ -22,13 +59,83 @@ public class VorbisFileInputStream extends AudioInputStream {
 	 * Opens a file for reading and parses any comments out of the file header.
 	 */
 	public VorbisFileInputStream(String fname) throws IOException {
+		this(fname, false);
+	}
+
+	/**
+	 * Opens a file for reading, optionally by mapping it into memory. A mapped file is read straight out of the page
+	 * cache and seeking only moves an offset, which pays off for files that are decoded or seeked in over and over.
+	 * The whole file takes up address space for as long as the stream is open.
+	 * 
+	 * @param fname
+	 *            the ogg vorbis file to read
+	 * @param mapped
+	 *            whether to map the file rather than read it through stdio
+	 * @throws IOException
+	 */
+	public VorbisFileInputStream(String fname, boolean mapped) throws IOException {
+		info = new VorbisInfo();
+		sourceLength = new File(fname).length();
+		oggStreamHandle = this.create(fname, info, mapped);
+		cleanable = NativeCleaner.register(this, oggStreamHandle, RELEASER);
+	}
+
+	/**
+	 * Opens a channel for reading from its start, e.g. a blob in an object store, without copying it to a file first.
+	 * The channel is read in large batches and is not closed with the stream. Needs API level 24.
+	 * 
+	 * @param channel
+	 *            the channel to read the ogg vorbis data from
+	 * @throws IOException
+	 */
+	public VorbisFileInputStream(SeekableByteChannel channel) throws IOException {
+		info = new VorbisInfo();
+		sourceLength = channel.size();
+		oggStreamHandle = createFromSource(info, new VorbisSource.ChannelSource(channel), true);
+		cleanable = NativeCleaner.register(this, oggStreamHandle, RELEASER);
+	}
+
+	/**
+	 * Opens the remaining bytes of a buffer for reading, e.g. an asset already in memory. A direct buffer, such as a
+	 * <code>MappedByteBuffer</code>, is read in place. The buffer's position is left alone and its content must not
+	 * change while the stream is open.
+	 * 
+	 * @param buffer
+	 *            the ogg vorbis data
+	 * @throws IOException
+	 */
+	public VorbisFileInputStream(ByteBuffer buffer) throws IOException {
 		info = new VorbisInfo();
-		oggStreamIdx = this.create(fname, info);
+		sourceLength = buffer.remaining();
+		if (buffer.isDirect()) {
+			oggStreamHandle = createFromBuffer(info, buffer, buffer.position(), buffer.remaining());
+		} else {
+			oggStreamHandle = createFromSource(info, new VorbisSource.BufferSource(buffer), true);
+		}
+		cleanable = NativeCleaner.register(this, oggStreamHandle, RELEASER);
+	}
+
+	/**
+	 * Opens a stream for reading from where it is. Such a stream can only be read through: it can't be seeked and
+	 * {@link #getDurationSamples()} isn't known. The stream is read in large batches and is not closed with this one.
+	 * 
+	 * @param in
+	 *            the stream to read the ogg vorbis data from
+	 * @throws IOException
+	 */
+	public VorbisFileInputStream(InputStream in) throws IOException {
+		info = new VorbisInfo();
+		sourceLength = -1;
+		oggStreamHandle = createFromSource(info, new VorbisSource.StreamSource(in), false);
+		cleanable = NativeCleaner.register(this, oggStreamHandle, RELEASER);
 	}
 
 	@Override
-	public void close() throws IOException {
-		this.closeStreamIdx(oggStreamIdx);
+	public synchronized void close() throws IOException {
+		if (oggStreamHandle != 0) {
+			oggStreamHandle = 0;
+			cleanable.clean();
+		}
 	}
 
 	/**
@@ -41,13 +148,258 @@ public class VorbisFileInputStream extends AudioInputStream {
 	 * @throws IOException
 	 */
 	@Override
-	public int read(short[] pcmBuffer, int offset, int length) throws IOException {
-		return this.readStreamIdx(oggStreamIdx, pcmBuffer, offset, length);
+	public synchronized int read(short[] pcmBuffer, int offset, int length) throws IOException {
+		return this.readStreamIdx(oggStreamHandle, pcmBuffer, offset, length);
+	}
+
+	/**
+	 * Returns interleaved float PCM data, from -1 to 1, from the vorbis stream. The floats come straight from libvorbis,
+	 * nothing is rounded or clipped, and the read stops short at the end of a chained stream.
+	 * 
+	 * @param pcmBuffer
+	 * @param offset
+	 * @param length
+	 *            the number of values to read at most
+	 * @return the number of values read, whole samples per channel, or <code>-1</code> at the end of the stream
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized int read(float[] pcmBuffer, int offset, int length) throws IOException {
+		if (offset < 0 || length < 0 || offset + length > pcmBuffer.length) {
+			throw new IndexOutOfBoundsException();
+		}
+		return readFloatStreamIdx(oggStreamHandle, pcmBuffer, offset, length);
 	}
 
-	private native int create(String fname, VorbisInfo info) throws IOException;
+	/**
+	 * Returns planar float PCM data, from -1 to 1, one array per channel. This is the layout vorbisfile decodes to, so
+	 * nothing is interleaved on the way out, and the read stops short at the end of a chained stream.
+	 * 
+	 * @param pcmBuffer
+	 *            at least one array per channel of the stream
+	 * @param offset
+	 *            where to start writing in each array
+	 * @param length
+	 *            the number of samples per channel to read at most
+	 * @return the number of samples per channel read, or <code>-1</code> at the end of the stream
+	 * @throws IOException
+	 */
+	public synchronized int read(float[][] pcmBuffer, int offset, int length) throws IOException {
+		for (float[] channel : pcmBuffer) {
+			if (offset < 0 || length < 0 || offset + length > channel.length) {
+				throw new IndexOutOfBoundsException();
+			}
+		}
+		return readPlanarStreamIdx(oggStreamHandle, pcmBuffer, offset, length);
+	}
 
-	private native void closeStreamIdx(int sidx) throws IOException;
+	/**
+	 * Skips over interleaved PCM data, rounded down to whole samples per channel, by seeking past it rather than
+	 * decoding it. A stream that can't be seeked decodes it.
+	 * 
+	 * @param n
+	 *            the number of interleaved values to skip
+	 * @return the number of interleaved values skipped, less than asked for at the end of the stream
+	 * @throws IOException
+	 */
+	@Override
+	public synchronized long skip(long n) throws IOException {
+		long samples = n / info.channels;
+		if (samples <= 0) {
+			return 0;
+		}
+		if (sourceLength < 0) {
+			return discard(samples * info.channels);
+		}
+		long position = tellStreamIdx(oggStreamHandle);
+		long target = Math.min(position + samples, getDurationSamples());
+		return (seekStreamIdx(oggStreamHandle, target, true) - position) * info.channels;
+	}
+
+	/**
+	 * Seeks exactly to a sample, the next read starts with it.
+	 * 
+	 * @param sample
+	 *            the sample per channel to seek to, from 0 to {@link #getDurationSamples()}
+	 * @return the sample seeked to
+	 * @throws IOException
+	 */
+	public long seekToSample(long sample) throws IOException {
+		return seekToSample(sample, true);
+	}
+
+	/**
+	 * Seeks to a sample. An exact seek makes the next read start with the sample, a fast one only seeks to the start of
+	 * the page holding it, which saves decoding up to a page of audio.
+	 * 
+	 * @param sample
+	 *            the sample per channel to seek to, from 0 to {@link #getDurationSamples()}
+	 * @param exact
+	 *            whether to seek to the sample itself rather than to the page holding it
+	 * @return the sample seeked to, at or before the one asked for
+	 * @throws IOException
+	 */
+	public synchronized long seekToSample(long sample, boolean exact) throws IOException {
+		checkSeekable();
+		if (sample < 0 || sample > getDurationSamples()) {
+			throw new IllegalArgumentException("Sample " + sample + " outside of the stream");
+		}
+		int page = seekIndex != null ? seekIndex.findPage(sample) : -1;
+		if (page >= 0) {
+			return seekIndexedStreamIdx(oggStreamHandle, seekIndex.getOffset(page), sample, exact);
+		}
+		return seekStreamIdx(oggStreamHandle, sample, exact);
+	}
+
+	/**
+	 * Seeks exactly to a time, the next read starts with the sample at it.
+	 * 
+	 * @param seconds
+	 *            the time from the start of the stream
+	 * @return the sample seeked to
+	 * @throws IOException
+	 */
+	public long seekToTime(double seconds) throws IOException {
+		return seekToTime(seconds, true);
+	}
+
+	/**
+	 * Seeks to a time, exactly or to the start of the page holding it. See {@link #seekToSample(long, boolean)}.
+	 * 
+	 * @param seconds
+	 *            the time from the start of the stream
+	 * @param exact
+	 *            whether to seek to the time itself rather than to the page holding it
+	 * @return the sample seeked to, at or before the time asked for
+	 * @throws IOException
+	 */
+	public synchronized long seekToTime(double seconds, boolean exact) throws IOException {
+		checkSeekable();
+		if (seconds < 0) {
+			throw new IllegalArgumentException("Time " + seconds + " outside of the stream");
+		}
+		if (seekIndex != null) {
+			return seekToSample(Math.min((long) (seconds * info.sampleRate), getDurationSamples()), exact);
+		}
+		return seekTimeStreamIdx(oggStreamHandle, seconds, exact);
+	}
+
+	/**
+	 * Sets the page index seeks go through, so a seek reads from the right page at once instead of bisecting the file.
+	 * 
+	 * @param index
+	 *            an index built from this file, or <code>null</code> to bisect again
+	 * @throws IOException
+	 *             if the index was built from a different version of the file, or the stream can't be seeked
+	 */
+	public synchronized void setSeekIndex(VorbisSeekIndex index) throws IOException {
+		checkSeekable();
+		if (index != null && index.getFileLength() != sourceLength) {
+			throw new IOException("Seek index doesn't match the stream");
+		}
+		seekIndex = index;
+	}
+
+	/**
+	 * Switches the decode engine. The fixed point one decodes in ints from the codebooks to the pcm, for cpus without
+	 * a fast fpu; every read and seek works the same with either. The next read carries on from the same point of the
+	 * stream.
+	 * 
+	 * @param engine
+	 *            {@link VorbisDecoder#ENGINE_FLOAT} or {@link VorbisDecoder#ENGINE_FIXED_POINT}
+	 * @throws IOException
+	 *             if the decoder can't be set up again
+	 * @see VorbisDecoder#getPreferredEngine()
+	 */
+	public synchronized void setEngine(int engine) throws IOException {
+		if (engine != VorbisDecoder.ENGINE_FLOAT && engine != VorbisDecoder.ENGINE_FIXED_POINT) {
+			throw new IllegalArgumentException("Unknown decode engine: " + engine);
+		}
+		engineStreamIdx(oggStreamHandle, engine);
+		this.engine = engine;
+	}
+
+	/**
+	 * Gets the decode engine.
+	 * 
+	 * @see #setEngine(int)
+	 */
+	public synchronized int getEngine() {
+		return engine;
+	}
+
+	/**
+	 * Gets the sample per channel the next read starts with.
+	 * 
+	 * @return the current position in samples per channel
+	 * @throws IOException
+	 */
+	public synchronized long getPositionSamples() throws IOException {
+		return tellStreamIdx(oggStreamHandle);
+	}
+
+	/**
+	 * Gets the length of the stream.
+	 * 
+	 * @return the number of samples per channel in the stream, <code>-1</code> if the stream can't be seeked
+	 */
+	public long getDurationSamples() {
+		return info.length;
+	}
+
+	/**
+	 * Gets the chained links of the stream, the streams that were concatenated into it one after another. Each can
+	 * have its own channels and sample rate. A plain file is a single link.
+	 * 
+	 * @return the channels, sample rate and length in samples per channel of each link, in order
+	 * @throws IOException
+	 *             if the stream can't be seeked
+	 */
+	public synchronized VorbisInfo[] getLinks() throws IOException {
+		checkSeekable();
+		long[] values = linksStreamIdx(oggStreamHandle);
+		VorbisInfo[] links = new VorbisInfo[values.length / 3];
+		for (int i = 0; i < links.length; i++) {
+			links[i] = new VorbisInfo();
+			links[i].length = values[3 * i];
+			links[i].channels = (int) values[3 * i + 1];
+			links[i].sampleRate = (int) values[3 * i + 2];
+		}
+		return links;
+	}
+
+	private void checkSeekable() throws IOException {
+		if (sourceLength < 0) {
+			throw new IOException("Stream is not seekable");
+		}
+	}
+
+	/**
+	 * Decodes and drops up to n interleaved values.
+	 */
+	private long discard(long n) throws IOException {
+		short[] scratch = new short[(int) Math.min(n, 4096)];
+		long skipped = 0;
+		while (skipped < n) {
+			// the native read takes a length in bytes
+			int read = readStreamIdx(oggStreamHandle, scratch, 0, (int) Math.min((n - skipped) * 2, scratch.length));
+			if (read == -1) {
+				break;
+			}
+			if (read > 0) {
+				skipped += read;
+			}
+		}
+		return skipped;
+	}
+
+	private native long create(String fname, VorbisInfo info, boolean mapped) throws IOException;
+
+	private static native long createFromBuffer(VorbisInfo info, ByteBuffer buffer, int offset, int length) throws IOException;
+
+	private static native long createFromSource(VorbisInfo info, VorbisSource source, boolean seekable) throws IOException;
+
+	private static native void closeStreamIdx(long handle) throws IOException;
 
 	/**
 	 * This just returns all the channels interleaved together. I assume this is how android wants it.
@@ -56,15 +408,30 @@ public class VorbisFileInputStream extends AudioInputStream {
 	 * @return
 	 * @throws IOException
 	 */
-	private native int readStreamIdx(int sidx, short[] pcm, int offset, int size) throws IOException;
+	private native int readStreamIdx(long handle, short[] pcm, int offset, int size) throws IOException;
+
+	private static native int readFloatStreamIdx(long handle, float[] pcm, int offset, int length) throws IOException;
+
+	private static native int readPlanarStreamIdx(long handle, float[][] pcm, int offset, int length) throws IOException;
 
 	/**
-	 * Skips over the number of samples specified. This skip doesn't account for channels.
+	 * Seeks to the sample specified. This seek doesn't account for channels.
 	 * 
-	 * @param samples
-	 * @return
+	 * @param sample
+	 * @param exact
+	 * @return the sample seeked to
 	 * @throws IOException
 	 */
-	private native long skipStreamIdx(int sidx, long samples) throws IOException;
+	private static native long seekStreamIdx(long handle, long sample, boolean exact) throws IOException;
+
+	private static native long seekIndexedStreamIdx(long handle, long pageOffset, long sample, boolean exact) throws IOException;
+
+	private static native long seekTimeStreamIdx(long handle, double seconds, boolean exact) throws IOException;
+
+	private static native long tellStreamIdx(long handle) throws IOException;
+
+	private static native void engineStreamIdx(long handle, int engine) throws IOException;
+
+	private static native long[] linksStreamIdx(long handle) throws IOException;
 
 }
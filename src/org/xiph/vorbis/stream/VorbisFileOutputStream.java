@@ -2,17 +2,21 @@ package org.xiph.vorbis.stream;
 
 import java.io.IOException;
 
+import org.xiph.vorbis.util.ContextPoolStats;
+import org.xiph.vorbis.util.NativeCleaner;
+
 /**
  * Converts incoming PCM Audio Data into OGG data into a file. This will be implemented using the open source BSD-licensed stuff from Xiph.org.
  * 
- * NOTE: This implementation has a limitation of MAX_STREAMS concurrent output streams. When i wrote this, it was set to 8. Check in
- * vorbis-fileoutputstream.c to see what it is set to.
- * 
  */
 public class VorbisFileOutputStream extends AudioOutputStream {
-	// The index into native memory where the ogg stream info is stored.
-	private final int			oggStreamIdx;
+	// The handle of the native memory where the ogg stream info is stored, 0 once closed.
+	private long				oggStreamHandle;
+	// Finishes and closes the native stream if this one is never closed.
+	private final NativeCleaner.Cleanable	cleanable;
 	private VorbisInfo			info;
+	// The number of channels being encoded, as the stream was created with.
+	private final int			channels;
 	private static final int	VORBIS_BLOCK_SIZE	= 1024;
 
 	static {
@@ -21,18 +25,33 @@ public class VorbisFileOutputStream extends AudioOutputStream {
 		System.loadLibrary("vorbis-stream");
 	}
 
+	private static final NativeCleaner.Releaser	RELEASER	= new NativeCleaner.Releaser() {
+		@Override
+		public void release(long handle) throws IOException {
+			closeStreamIdx(handle);
+		}
+	};
+
 	public VorbisFileOutputStream(String fname, VorbisInfo s) throws IOException {
 		info = s;
-		oggStreamIdx = this.create(fname, s);
+		channels = s.channels;
+		oggStreamHandle = this.create(fname, s);
+		cleanable = NativeCleaner.register(this, oggStreamHandle, RELEASER);
 	}
 
 	public VorbisFileOutputStream(String fname) throws IOException {
-		oggStreamIdx = this.create(fname, new VorbisInfo());
+		info = new VorbisInfo();
+		channels = info.channels;
+		oggStreamHandle = this.create(fname, info);
+		cleanable = NativeCleaner.register(this, oggStreamHandle, RELEASER);
 	}
 
 	@Override
-	public void close() throws IOException {
-		this.closeStreamIdx(this.oggStreamIdx);
+	public synchronized void close() throws IOException {
+		if (this.oggStreamHandle != 0) {
+			this.oggStreamHandle = 0;
+			this.cleanable.clean();
+		}
 	}
 
 	/**
@@ -45,15 +64,69 @@ public class VorbisFileOutputStream extends AudioOutputStream {
 	 * @throws IOException
 	 */
 	@Override
-	public void write(final short[] buffer, int offset, int length) throws IOException {
-		this.writeStreamIdx(this.oggStreamIdx, buffer, offset, length);
+	public synchronized void write(final short[] buffer, int offset, int length) throws IOException {
+		this.writeStreamIdx(this.oggStreamHandle, buffer, offset, length);
 	}
 
-	private native int writeStreamIdx(int idx, short[] pcmdata, int offset, int size) throws IOException;
+	/**
+	 * Write planar float PCM data, from -1 to 1, to ogg, one array per channel. This is the layout vorbis encodes from,
+	 * so each channel is copied straight in with nothing to de-interleave or convert.
+	 * 
+	 * @param buffer
+	 *            the pcm, one array per channel
+	 * @param offset
+	 *            where the pcm starts in each array
+	 * @param length
+	 *            the number of samples per channel to write
+	 * @throws IOException
+	 */
+	public synchronized void write(final float[][] buffer, int offset, int length) throws IOException {
+		if (buffer.length != channels) {
+			throw new IllegalArgumentException("Expected " + channels + " channels, got " + buffer.length);
+		}
+		for (float[] channel : buffer) {
+			if (offset < 0 || length < 0 || offset + length > channel.length) {
+				throw new IndexOutOfBoundsException();
+			}
+		}
+		writePlanarStreamIdx(this.oggStreamHandle, buffer, offset, length);
+	}
+
+	/**
+	 * Changes how many encoder contexts are kept between streams. Setting up an encoder takes longer than encoding a
+	 * short clip, so the context of a closed stream is kept for the next stream with the same sample rate, channels
+	 * and quality. The streams share one pool, separate from that of {@link org.xiph.vorbis.encoder.VorbisEncoder}.
+	 * 
+	 * @param capacity
+	 *            the most idle contexts kept, the least recently used go first. 0 keeps none
+	 */
+	public static void setContextPoolCapacity(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity must not be negative: " + capacity);
+		}
+		contextPoolCapacity(capacity);
+	}
+
+	/**
+	 * Gets how often streams were handed a kept encoder context.
+	 * 
+	 * @return the hits and misses of the pool so far, and what it holds now
+	 */
+	public static ContextPoolStats getContextPoolStats() {
+		return new ContextPoolStats(contextPoolStats());
+	}
+
+	private native int writeStreamIdx(long handle, short[] pcmdata, int offset, int size) throws IOException;
+
+	private static native void writePlanarStreamIdx(long handle, float[][] pcm, int offset, int length) throws IOException;
+
+	private static native void closeStreamIdx(long handle) throws IOException;
+
+	private native long create(String path, VorbisInfo s) throws IOException;
 
-	private native void closeStreamIdx(int idx) throws IOException;
+	private static native void contextPoolCapacity(int capacity);
 
-	private native int create(String path, VorbisInfo s) throws IOException;
+	private static native long[] contextPoolStats();
 
 	@Override
 	public int getSampleRate() {
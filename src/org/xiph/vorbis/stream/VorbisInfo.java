@@ -26,6 +26,13 @@ public class VorbisInfo {
 	 */
 	public float	quality		= 0.4f;
 
+	/**
+	 * The number of threads the encoder analyses blocks on at once, from 1 to 16 (others are clamped). More than one only pays off for
+	 * offline encoding of long recordings on a device with cores to spare, the psychoacoustics then learn of loud
+	 * peaks a few blocks late. This field means nothing to the decoder.
+	 */
+	public int		analysisThreads	= 1;
+
 	/**
 	 * the total number of samples from the recording. This field means nothing to the encoder.
 	 */
@@ -0,0 +1,260 @@
+package org.xiph.vorbis.stream;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * What a library scanner wants to know about an ogg vorbis file: its format, length, bitrates, vendor and comments.
+ * Nothing is set up for decoding, only the pages up to the first audio page and the last page of the file are read,
+ * where {@link VorbisFileInputStream} also sets up the decoder and may bisect the whole file to find its length.
+ *
+ * <pre>
+ * VorbisProbe probe = VorbisProbe.probe(path);
+ * String title = probe.getComment(&quot;TITLE&quot;);
+ * double seconds = probe.getDurationSeconds();
+ * </pre>
+ *
+ * Of a chained file only the first link is described, and its length isn't known.
+ */
+public class VorbisProbe {
+	private static final Charset	UTF_8	= Charset.forName("UTF-8");
+
+	static {
+		System.loadLibrary("ogg");
+		System.loadLibrary("vorbis");
+		System.loadLibrary("vorbis-stream");
+	}
+
+	// Where the native probes put each value.
+	private static final int	CHANNELS			= 0;
+	private static final int	SAMPLE_RATE			= 1;
+	private static final int	BITRATE_UPPER		= 2;
+	private static final int	BITRATE_NOMINAL		= 3;
+	private static final int	BITRATE_LOWER		= 4;
+	private static final int	LENGTH				= 5;
+	private static final int	SOURCE_LENGTH		= 6;
+	private static final int	VALUES				= 7;
+
+	private final int							channels;
+	private final int							sampleRate;
+	private final long							maximumBitrate;
+	private final long							nominalBitrate;
+	private final long							minimumBitrate;
+	private final long							length;
+	private final long							sourceLength;
+	private final String						vendor;
+	private final Map<String, List<String>>	comments;
+
+	private VorbisProbe(long[] values, byte[][] strings) {
+		channels = (int) values[CHANNELS];
+		sampleRate = (int) values[SAMPLE_RATE];
+		maximumBitrate = bitrate(values[BITRATE_UPPER]);
+		nominalBitrate = bitrate(values[BITRATE_NOMINAL]);
+		minimumBitrate = bitrate(values[BITRATE_LOWER]);
+		length = values[LENGTH];
+		sourceLength = values[SOURCE_LENGTH];
+		vendor = new String(strings[0], UTF_8);
+
+		Map<String, List<String>> comments = new LinkedHashMap<String, List<String>>();
+		for (int i = 1; i < strings.length; i++) {
+			String comment = new String(strings[i], UTF_8);
+			int equals = comment.indexOf('=');
+			if (equals <= 0) {
+				// not a NAME=value comment
+				continue;
+			}
+			String name = comment.substring(0, equals).toUpperCase(Locale.US);
+			List<String> named = comments.get(name);
+			if (named == null) {
+				named = new ArrayList<String>(1);
+				comments.put(name, named);
+			}
+			named.add(comment.substring(equals + 1));
+		}
+		for (Map.Entry<String, List<String>> entry : comments.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		this.comments = Collections.unmodifiableMap(comments);
+	}
+
+	/**
+	 * Probes a file, reading only its headers, first audio page and last page.
+	 *
+	 * @param path
+	 *            the ogg vorbis file
+	 * @return what the file holds
+	 * @throws IOException
+	 *             if the file can't be read or isn't ogg vorbis
+	 */
+	public static VorbisProbe probe(String path) throws IOException {
+		long[] values = new long[VALUES];
+		byte[][] strings = probeFile(path, values);
+		return new VorbisProbe(values, strings);
+	}
+
+	/**
+	 * Probes the remaining bytes of a buffer, e.g. a file already in memory. The buffer's position is left alone.
+	 *
+	 * @param buffer
+	 *            the ogg vorbis data
+	 * @return what the data holds
+	 * @throws IOException
+	 *             if the data isn't ogg vorbis
+	 */
+	public static VorbisProbe probe(ByteBuffer buffer) throws IOException {
+		long[] values = new long[VALUES];
+		byte[][] strings;
+		if (buffer.isDirect()) {
+			strings = probeBuffer(buffer, buffer.position(), buffer.remaining(), values);
+		} else if (buffer.hasArray()) {
+			strings = probeArray(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining(), values);
+		} else {
+			// a read only heap buffer doesn't hand out its array
+			byte[] copy = new byte[buffer.remaining()];
+			buffer.duplicate().get(copy);
+			strings = probeArray(copy, 0, copy.length, values);
+		}
+		return new VorbisProbe(values, strings);
+	}
+
+	private static long bitrate(long value) {
+		// the headers leave a bitrate unset as 0 or -1
+		return value > 0 ? value : -1;
+	}
+
+	/**
+	 * Gets the number of channels.
+	 *
+	 * @return the number of channels
+	 */
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * Gets the number of samples per second.
+	 *
+	 * @return the sample rate
+	 */
+	public int getSampleRate() {
+		return sampleRate;
+	}
+
+	/**
+	 * Gets the length, the granule position of the last page less the one the pcm starts at. A stream cut out of a live
+	 * broadcast keeps the granule positions it had there, so like {@link VorbisFileInputStream#getDurationSamples()}
+	 * this counts from the first audio page rather than from 0.
+	 *
+	 * @return the length in samples per channel, or -1 if the file is chained or ends on a page of another stream
+	 */
+	public long getDurationSamples() {
+		return length;
+	}
+
+	/**
+	 * Gets the length in seconds.
+	 *
+	 * @return the length in seconds, or -1 if it isn't known
+	 * @see #getDurationSamples()
+	 */
+	public double getDurationSeconds() {
+		return length < 0 ? -1 : (double) length / sampleRate;
+	}
+
+	/**
+	 * Gets the bitrate the encoder aimed for.
+	 *
+	 * @return the nominal bitrate in bits per second, or -1 if the header leaves it unset
+	 */
+	public long getNominalBitrate() {
+		return nominalBitrate;
+	}
+
+	/**
+	 * Gets the bitrate the encoder stays under, set for managed bitrate encodings.
+	 *
+	 * @return the maximum bitrate in bits per second, or -1 if the header leaves it unset
+	 */
+	public long getMaximumBitrate() {
+		return maximumBitrate;
+	}
+
+	/**
+	 * Gets the bitrate the encoder stays over, set for managed bitrate encodings.
+	 *
+	 * @return the minimum bitrate in bits per second, or -1 if the header leaves it unset
+	 */
+	public long getMinimumBitrate() {
+		return minimumBitrate;
+	}
+
+	/**
+	 * Gets the bitrate over the whole file, headers and comments included.
+	 *
+	 * @return the average bitrate in bits per second, or -1 if the length isn't known
+	 */
+	public long getAverageBitrate() {
+		return length <= 0 ? -1 : (long) (sourceLength * 8 / getDurationSeconds());
+	}
+
+	/**
+	 * Gets the length of the file or buffer probed.
+	 *
+	 * @return the length in bytes
+	 */
+	public long getSourceLength() {
+		return sourceLength;
+	}
+
+	/**
+	 * Gets the library that encoded the file.
+	 *
+	 * @return the vendor string of the comment header
+	 */
+	public String getVendor() {
+		return vendor;
+	}
+
+	/**
+	 * Gets all comments. Comment names aren't case sensitive, so they are upper cased, and a name can have several
+	 * values, e.g. one ARTIST per artist.
+	 *
+	 * @return the values of each comment name in the order they first appear, can't be modified
+	 */
+	public Map<String, List<String>> getComments() {
+		return comments;
+	}
+
+	/**
+	 * Gets the first value of a comment.
+	 *
+	 * @param name
+	 *            the comment name, e.g. TITLE, in any case
+	 * @return the first value, or null if there is no such comment
+	 */
+	public String getComment(String name) {
+		List<String> values = comments.get(name.toUpperCase(Locale.US));
+		return values == null ? null : values.get(0);
+	}
+
+	@Override
+	public String toString() {
+		return "VorbisProbe{channels=" + channels + ", sampleRate=" + sampleRate + ", length=" + length
+				+ ", nominalBitrate=" + nominalBitrate + ", vendor=" + vendor + ", comments=" + comments + "}";
+	}
+
+	private static native byte[][] probeFile(String path, long[] values) throws IOException;
+
+	private static native byte[][] probeBuffer(ByteBuffer buffer, int offset, int length, long[] values)
+			throws IOException;
+
+	private static native byte[][] probeArray(byte[] array, int offset, int length, long[] values)
+			throws IOException;
+}
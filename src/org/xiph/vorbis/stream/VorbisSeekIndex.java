@@ -0,0 +1,247 @@
+package org.xiph.vorbis.stream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Maps sample positions of an ogg vorbis file to the byte offsets of its pages, so {@link VorbisFileInputStream} can
+ * jump straight to the right page instead of bisecting the file on every seek.
+ *
+ * The index is built once by scanning the page headers of the file, nothing is decoded, and can be saved next to the
+ * file as a compact sidecar and loaded again later.
+ *
+ * <pre>
+ * VorbisSeekIndex index = VorbisSeekIndex.build(path);
+ * index.save(path + &quot;.idx&quot;);
+ * ...
+ * VorbisFileInputStream in = new VorbisFileInputStream(path);
+ * in.setSeekIndex(VorbisSeekIndex.load(path + &quot;.idx&quot;));
+ * </pre>
+ */
+public class VorbisSeekIndex {
+	private static final int	MAGIC	= 0x4f565349;	// "OVSI"
+	private static final int	VERSION	= 1;
+
+	static {
+		System.loadLibrary("ogg");
+		System.loadLibrary("vorbis");
+		System.loadLibrary("vorbis-stream");
+	}
+
+	// The length of the indexed file, to tell whether an index still fits it.
+	private final long			fileLength;
+	// The sample position at the end of each page, over all chained streams.
+	private final long[]		samples;
+	// The byte offset each page starts at.
+	private final long[]		offsets;
+
+	private VorbisSeekIndex(long fileLength, long[] samples, long[] offsets) {
+		this.fileLength = fileLength;
+		this.samples = samples;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Scans the pages of a file and indexes every vorbis page.
+	 *
+	 * @param path
+	 *            the ogg vorbis file to index
+	 * @return the index
+	 * @throws IOException
+	 */
+	public static VorbisSeekIndex build(String path) throws IOException {
+		long fileLength = new File(path).length();
+		long[] pairs = scan(path);
+		long[] samples = new long[pairs.length / 2];
+		long[] offsets = new long[pairs.length / 2];
+		for (int i = 0; i < samples.length; i++) {
+			samples[i] = pairs[2 * i];
+			offsets[i] = pairs[2 * i + 1];
+		}
+		return new VorbisSeekIndex(fileLength, samples, offsets);
+	}
+
+	/**
+	 * Loads an index saved with {@link #save(String)}.
+	 *
+	 * @param path
+	 *            the sidecar file
+	 * @return the index
+	 * @throws IOException
+	 */
+	public static VorbisSeekIndex load(String path) throws IOException {
+		InputStream in = new FileInputStream(path);
+		try {
+			return readFrom(in);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads an index written with {@link #writeTo(OutputStream)}.
+	 *
+	 * @param in
+	 *            the stream to read from, it is not closed
+	 * @return the index
+	 * @throws IOException
+	 *             if the data isn't an index or is corrupt
+	 */
+	public static VorbisSeekIndex readFrom(InputStream in) throws IOException {
+		DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+		if (data.readInt() != MAGIC || data.readUnsignedByte() != VERSION) {
+			throw new IOException("Not a vorbis seek index");
+		}
+		long fileLength = readVarLong(data);
+		long pages = readVarLong(data);
+		// every page takes bytes of the file, so a larger count can only come from a corrupt index
+		if (fileLength < 0 || pages < 0 || pages > fileLength || pages > Integer.MAX_VALUE) {
+			throw new IOException("Corrupt vorbis seek index");
+		}
+		int count = (int) pages;
+		long[] samples = new long[count];
+		long[] offsets = new long[count];
+		long sample = 0, offset = 0;
+		for (int i = 0; i < count; i++) {
+			sample += readVarLong(data);
+			offset += readVarLong(data);
+			samples[i] = sample;
+			offsets[i] = offset;
+		}
+		return new VorbisSeekIndex(fileLength, samples, offsets);
+	}
+
+	/**
+	 * Saves the index to a sidecar file.
+	 *
+	 * @param path
+	 *            the sidecar file
+	 * @throws IOException
+	 */
+	public void save(String path) throws IOException {
+		OutputStream out = new FileOutputStream(path);
+		try {
+			writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Writes the index. Both positions and offsets only grow, so they are written as variable length deltas, which
+	 * takes about four bytes a page.
+	 *
+	 * @param out
+	 *            the stream to write to, it is flushed but not closed
+	 * @throws IOException
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+		data.writeInt(MAGIC);
+		data.writeByte(VERSION);
+		writeVarLong(data, fileLength);
+		writeVarLong(data, samples.length);
+		long sample = 0, offset = 0;
+		for (int i = 0; i < samples.length; i++) {
+			writeVarLong(data, samples[i] - sample);
+			writeVarLong(data, offsets[i] - offset);
+			sample = samples[i];
+			offset = offsets[i];
+		}
+		data.flush();
+	}
+
+	/**
+	 * Gets the number of pages indexed.
+	 *
+	 * @return the number of pages
+	 */
+	public int size() {
+		return samples.length;
+	}
+
+	/**
+	 * Gets the length of the file the index was built from.
+	 *
+	 * @return the length in bytes
+	 */
+	public long getFileLength() {
+		return fileLength;
+	}
+
+	/**
+	 * Gets the sample position at the end of an indexed page.
+	 *
+	 * @param page
+	 *            the page, from 0 to {@link #size()}
+	 * @return the position in samples per channel
+	 */
+	public long getSample(int page) {
+		return samples[page];
+	}
+
+	/**
+	 * Gets the byte offset an indexed page starts at.
+	 *
+	 * @param page
+	 *            the page, from 0 to {@link #size()}
+	 * @return the offset in bytes
+	 */
+	public long getOffset(int page) {
+		return offsets[page];
+	}
+
+	/**
+	 * Finds the last page that ends at or before a sample, decoding can start from there.
+	 *
+	 * @param sample
+	 *            the sample per channel to find
+	 * @return the page, or -1 if the sample is in the first audio page
+	 */
+	public int findPage(long sample) {
+		int low = 0, high = samples.length - 1, found = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (samples[mid] <= sample) {
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			out.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IOException("Corrupt vorbis seek index");
+	}
+
+	/**
+	 * Returns the end sample and start offset of every vorbis page, as pairs.
+	 */
+	private static native long[] scan(String path) throws IOException;
+}
@@ -0,0 +1,147 @@
+package org.xiph.vorbis.stream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+
+/**
+ * Where a {@link VorbisFileInputStream} that doesn't read a file gets its vorbis data from. The native stream calls
+ * back into it in batches through a direct buffer of its own, rather than once for every read vorbisfile makes.
+ */
+abstract class VorbisSource {
+
+	/**
+	 * Reads the next batch of data into the native batch buffer, called from native code.
+	 */
+	final int fill(ByteBuffer buffer) throws IOException {
+		buffer.clear();
+		return read(buffer);
+	}
+
+	/**
+	 * Reads the next batch of data.
+	 *
+	 * @param buffer
+	 *            the cleared batch buffer to read into
+	 * @return the number of bytes read, <code>-1</code> at the end of the data
+	 * @throws IOException
+	 */
+	abstract int read(ByteBuffer buffer) throws IOException;
+
+	/**
+	 * Moves to an offset, only called on seekable sources.
+	 *
+	 * @param position
+	 *            the offset from the start of the data, from 0 to {@link #size()}
+	 * @throws IOException
+	 */
+	abstract void seek(long position) throws IOException;
+
+	/**
+	 * Gets the length of the data, only called on seekable sources.
+	 *
+	 * @return the length in bytes
+	 * @throws IOException
+	 */
+	abstract long size() throws IOException;
+
+	/**
+	 * Reads a channel from its start.
+	 */
+	static final class ChannelSource extends VorbisSource {
+		private final SeekableByteChannel	channel;
+
+		ChannelSource(SeekableByteChannel channel) throws IOException {
+			this.channel = channel;
+			channel.position(0);
+		}
+
+		@Override
+		int read(ByteBuffer buffer) throws IOException {
+			int read;
+			do {
+				read = channel.read(buffer);
+			} while (read == 0 && buffer.hasRemaining());
+			return read;
+		}
+
+		@Override
+		void seek(long position) throws IOException {
+			channel.position(position);
+		}
+
+		@Override
+		long size() throws IOException {
+			return channel.size();
+		}
+	}
+
+	/**
+	 * Reads the remaining bytes of a heap buffer, direct buffers are read natively in place.
+	 */
+	static final class BufferSource extends VorbisSource {
+		private final ByteBuffer	data;
+
+		BufferSource(ByteBuffer data) {
+			this.data = data.slice();
+		}
+
+		@Override
+		int read(ByteBuffer buffer) {
+			if (!data.hasRemaining()) {
+				return -1;
+			}
+			int length = Math.min(data.remaining(), buffer.remaining());
+			ByteBuffer chunk = data.duplicate();
+			chunk.limit(chunk.position() + length);
+			buffer.put(chunk);
+			data.position(data.position() + length);
+			return length;
+		}
+
+		@Override
+		void seek(long position) {
+			data.position((int) position);
+		}
+
+		@Override
+		long size() {
+			return data.limit();
+		}
+	}
+
+	/**
+	 * Reads a stream from where it is, the stream can't be seeked.
+	 */
+	static final class StreamSource extends VorbisSource {
+		private final InputStream	in;
+		private byte[]				chunk;
+
+		StreamSource(InputStream in) {
+			this.in = in;
+		}
+
+		@Override
+		int read(ByteBuffer buffer) throws IOException {
+			if (chunk == null) {
+				chunk = new byte[buffer.remaining()];
+			}
+			int read = in.read(chunk, 0, Math.min(chunk.length, buffer.remaining()));
+			if (read > 0) {
+				buffer.put(chunk, 0, read);
+			}
+			return read;
+		}
+
+		@Override
+		void seek(long position) throws IOException {
+			throw new IOException("Stream is not seekable");
+		}
+
+		@Override
+		long size() throws IOException {
+			throw new IOException("Stream is not seekable");
+		}
+	}
+}
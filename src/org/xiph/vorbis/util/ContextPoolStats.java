@@ -0,0 +1,90 @@
+package org.xiph.vorbis.util;
+
+/**
+ * A snapshot of how well the pool of encoder contexts of a native library is doing. Setting up an encoder takes longer
+ * than encoding a short clip, so a context is kept at the end of its stream and handed to the next stream set up with
+ * the same sample rate, channels and quality or bitrate.
+ */
+public class ContextPoolStats {
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final int idle;
+
+    private final int capacity;
+
+    /**
+     * @param values the hits, misses, evictions, idle contexts and capacity, as the native libraries report them
+     */
+    public ContextPoolStats(long[] values) {
+        this.hits = values[0];
+        this.misses = values[1];
+        this.evictions = values[2];
+        this.idle = (int) values[3];
+        this.capacity = (int) values[4];
+    }
+
+    /**
+     * Gets the number of encoders that were handed a kept context
+     *
+     * @return the number of hits since the library was loaded
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of encoders that had to set up a context of their own
+     *
+     * @return the number of misses since the library was loaded
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of kept contexts freed to make room for more recent ones
+     *
+     * @return the number of evictions since the library was loaded
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of contexts kept for the next encoders
+     *
+     * @return the number of idle contexts
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * Gets the most contexts kept at once
+     *
+     * @return the capacity of the pool
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the share of encoders that were handed a kept context
+     *
+     * @return from 0 to 1, 0 if nothing was encoded yet
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "ContextPoolStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", idle=" + idle
+                + ", capacity=" + capacity + "}";
+    }
+}
@@ -0,0 +1,164 @@
+package org.xiph.vorbis.util;
+
+import java.io.IOException;
+import java.lang.ref.PhantomReference;
+import java.lang.ref.ReferenceQueue;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frees the native state of objects that were never closed. Each object that owns a native handle registers it here
+ * along with a {@link Releaser} and closes the returned {@link Cleanable} from its <code>close()</code>. Once an object
+ * that was never closed becomes unreachable a background thread releases its handle instead, so a forgotten
+ * <code>close()</code> costs a little latency rather than a leak.
+ * <p/>
+ * A release is never run twice and a {@link Releaser} must not refer back to the object it cleans up after, or the
+ * object never becomes unreachable.
+ */
+public final class NativeCleaner {
+
+    /**
+     * Frees the native state behind a handle
+     */
+    public interface Releaser {
+        /**
+         * Frees the native state, called at most once per handle
+         *
+         * @param handle the handle that was registered
+         * @throws IOException if freeing failed, the handle is considered released either way
+         */
+        void release(long handle) throws IOException;
+    }
+
+    /**
+     * The registration of a handle, to be cleaned when its owner is closed
+     */
+    public static final class Cleanable extends PhantomReference<Object> {
+        private final long handle;
+        private final Releaser releaser;
+        private boolean cleaned;
+
+        private Cleanable(Object owner, long handle, Releaser releaser) {
+            super(owner, QUEUE);
+            this.handle = handle;
+            this.releaser = releaser;
+        }
+
+        /**
+         * Releases the handle now, unless it already was
+         *
+         * @throws IOException whatever the {@link Releaser} threw
+         */
+        public void clean() throws IOException {
+            release();
+        }
+
+        private boolean release() throws IOException {
+            synchronized (this) {
+                if (cleaned) {
+                    return false;
+                }
+                cleaned = true;
+            }
+            clear();
+            PENDING.remove(this);
+            releaser.release(handle);
+            return true;
+        }
+    }
+
+    private static final ReferenceQueue<Object> QUEUE = new ReferenceQueue<Object>();
+
+    /**
+     * Keeps registrations reachable until they are cleaned
+     */
+    private static final Set<Cleanable> PENDING = Collections.newSetFromMap(new ConcurrentHashMap<Cleanable, Boolean>());
+
+    private static final AtomicLong REGISTERED = new AtomicLong();
+    private static final AtomicLong RECLAIMED = new AtomicLong();
+    private static final AtomicLong FAILED = new AtomicLong();
+
+    static {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    try {
+                        reclaim((Cleanable) QUEUE.remove());
+                    } catch (InterruptedException e) {
+                        //Keep going, there is no one to hand the interrupt to
+                    }
+                }
+            }
+        }, "VorbisNativeCleaner");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private NativeCleaner() {
+    }
+
+    /**
+     * Registers the native handle of an object so it is released once the object is unreachable
+     *
+     * @param owner    the object owning the handle
+     * @param handle   the native handle
+     * @param releaser frees the native state of the handle, it must not refer to the owner
+     * @return the registration, to be cleaned when the owner is closed
+     */
+    public static Cleanable register(Object owner, long handle, Releaser releaser) {
+        Cleanable cleanable = new Cleanable(owner, handle, releaser);
+        PENDING.add(cleanable);
+        REGISTERED.incrementAndGet();
+        return cleanable;
+    }
+
+    /**
+     * Gets the number of handles registered so far
+     *
+     * @return the number of handles registered since the library was loaded
+     */
+    public static long getRegisteredCount() {
+        return REGISTERED.get();
+    }
+
+    /**
+     * Gets the number of handles currently registered and neither closed nor reclaimed
+     *
+     * @return the number of live handles
+     */
+    public static int getLiveCount() {
+        return PENDING.size();
+    }
+
+    /**
+     * Gets the number of handles whose owner was never closed and that were released by the cleaner
+     *
+     * @return the number of leaked handles that were reclaimed
+     */
+    public static long getReclaimedCount() {
+        return RECLAIMED.get();
+    }
+
+    /**
+     * Gets the number of reclaimed handles whose {@link Releaser} threw
+     *
+     * @return the number of failed reclaims
+     */
+    public static long getFailedCount() {
+        return FAILED.get();
+    }
+
+    private static void reclaim(Cleanable cleanable) {
+        try {
+            if (cleanable.release()) {
+                RECLAIMED.incrementAndGet();
+            }
+        } catch (Throwable e) {
+            RECLAIMED.incrementAndGet();
+            FAILED.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package org.xiph.vorbis.util;
+
+/**
+ * A snapshot of how well the setup header cache of libvorbis is doing. Decoders meeting a setup header unpacked before
+ * share what was unpacked from it instead of unpacking the codebooks, floors, residues and mappings again.
+ */
+public class SetupCacheStats {
+    private final long hits;
+
+    private final long misses;
+
+    private final long evictions;
+
+    private final int entries;
+
+    private final int capacity;
+
+    /**
+     * @param values the hits, misses, evictions, entries and capacity, as libvorbis reports them
+     */
+    public SetupCacheStats(long[] values) {
+        this.hits = values[0];
+        this.misses = values[1];
+        this.evictions = values[2];
+        this.entries = (int) values[3];
+        this.capacity = (int) values[4];
+    }
+
+    /**
+     * Gets the number of setup headers found in the cache
+     *
+     * @return the number of hits since libvorbis was loaded
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the number of setup headers that had to be unpacked
+     *
+     * @return the number of misses since libvorbis was loaded
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Gets the number of setups dropped to make room for more recent ones
+     *
+     * @return the number of evictions since libvorbis was loaded
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Gets the number of setups kept for the next decoders
+     *
+     * @return the number of entries
+     */
+    public int getEntries() {
+        return entries;
+    }
+
+    /**
+     * Gets the most setups kept at once
+     *
+     * @return the capacity of the cache
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Gets the share of setup headers found in the cache
+     *
+     * @return from 0 to 1, 0 if nothing was decoded yet
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "SetupCacheStats{hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + ", entries="
+                + entries + ", capacity=" + capacity + "}";
+    }
+}